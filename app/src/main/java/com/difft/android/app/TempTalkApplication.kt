@@ -14,12 +14,14 @@ import com.difft.android.base.BuildConfig
 import com.difft.android.base.application.ScopeApplication
 import com.difft.android.base.log.LogHelper
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
 import com.difft.android.base.user.UserData
 import com.difft.android.base.user.UserManager
 import com.difft.android.base.utils.AppStartup
 import com.difft.android.base.utils.ApplicationHelper
 import com.difft.android.base.utils.EnvironmentHelper
 import com.difft.android.base.utils.LanguageUtils
+import com.difft.android.base.utils.StartupThread
 import com.difft.android.call.LCallActivity
 import com.difft.android.call.LCallEngine
 import com.difft.android.call.LCallManager
@@ -100,6 +102,9 @@ class TempTalkApplication : ScopeApplication(), CoroutineScope by MainScope().pl
     @Inject
     lateinit var messageArchiveManager: dagger.Lazy<com.difft.android.chat.setting.archive.MessageArchiveManager>
 
+    @Inject
+    lateinit var draftRepository: dagger.Lazy<com.difft.android.messageserialization.db.store.DraftRepository>
+
     // 追踪当前 resumed 的 Activity
     private var currentResumedActivity: WeakReference<FragmentActivity>? = null
 
@@ -112,13 +117,14 @@ class TempTalkApplication : ScopeApplication(), CoroutineScope by MainScope().pl
         AppStartup.onApplicationCreate()
         super.onCreate()
 
+        // Metrics are switched on before any startup task runs, so the startup tasks are recorded too
+        ApplicationHelper.init(this)
+        initMetrics()
+
         AppStartup
-            .addBlocking("init ApplicationHelper") {
-                ApplicationHelper.init(this)
-            }
             .addBlocking("init log", this::initLog)
             .addBlocking("init Logger", this::initializeLogging)
-            .addBlocking("init SecurityCheck") {
+            .addBlocking("init SecurityCheck", dependsOn = listOf("init log", "init Logger"), thread = StartupThread.BACKGROUND) {
                 startTracerPidMonitor()
                 checkDebuggerAndHook()
             }
@@ -126,23 +132,23 @@ class TempTalkApplication : ScopeApplication(), CoroutineScope by MainScope().pl
                 ApplicationDependencies.init(this, ApplicationDependencyProvider(this))
                 AppForegroundObserver.begin()
             }
-            .addBlocking("init UserData", this::initUserData)
-            .addBlocking("init theme", this::initAppTheme)
+            .addBlocking("init UserData", dependsOn = listOf("init log"), thread = StartupThread.BACKGROUND, task = this::initUserData)
+            .addBlocking("init notification", dependsOn = listOf("init ApplicationDependencies"), thread = StartupThread.BACKGROUND, task = this::initNotification)
+            .addBlocking("init theme", dependsOn = listOf("init UserData"), thread = StartupThread.MAIN, task = this::initAppTheme)
             .addBlocking("lifecycle-observer") {
                 AppForegroundObserver.addListener(this)
             }
-            .addBlocking("init notification", this::initNotification)
             .addBlocking("upgradeSecurityProvider", this::upgradeSecurityProvider)
             .addBlocking("prepareScreenLockListener", this::prepareScreenLockListener)
             .addBlocking("thirdPartyActivityGuard") { ThirdPartyActivityGuard.register(this) }
             .addBlocking("installCrashFilter", this::installCrashFilter)
-            .addNonBlocking { ApplicationDependencies.getJobManager().beginJobLoop() }
-            .addNonBlocking { initCallEngine() }
-            .addNonBlocking { cleanupStaleCallNotification() }
-            .addNonBlocking { monitorMainThreadBlocking() }
-            .addNonBlocking { ContactorUtil.init() }
-            .addNonBlocking { initGlobalConfigs() }
-            .addNonBlocking { coordinator.initialize() }
+            .addNonBlocking("beginJobLoop") { ApplicationDependencies.getJobManager().beginJobLoop() }
+            .addNonBlocking("initCallEngine") { initCallEngine() }
+            .addNonBlocking("cleanupStaleCallNotification") { cleanupStaleCallNotification() }
+            .addNonBlocking("monitorMainThreadBlocking") { monitorMainThreadBlocking() }
+            .addNonBlocking("initContactor") { ContactorUtil.init() }
+            .addNonBlocking("initGlobalConfigs") { initGlobalConfigs() }
+            .addNonBlocking("initCoordinator") { coordinator.initialize() }
             .execute()
 
         L.i { "[AppStartup] application onCreate() took " + (System.currentTimeMillis() - AppStartup.getApplicationStartTime()) + " ms" }
@@ -206,6 +212,10 @@ class TempTalkApplication : ScopeApplication(), CoroutineScope by MainScope().pl
         globalConfigsManager.getAndSaveGlobalConfigs(this)
     }
 
+    private fun initMetrics() {
+        Metrics.init(defaultEnabled = BuildConfig.DEBUG || environmentHelper.isThatEnvironment(environmentHelper.ENVIRONMENT_DEVELOPMENT))
+    }
+
     override fun onForeground() {
         recordLastUseTime()
         scheduleGrayConfigUpdateCheck()
@@ -220,6 +230,7 @@ class TempTalkApplication : ScopeApplication(), CoroutineScope by MainScope().pl
         globalConfigsManager.onAppStateChanged(isForeground = false)
         messageArchiveManager.get().onAppStateChanged(isForeground = false)
         coordinator.startPeriodicTest(isForeground = false)
+        appScope.launch(Dispatchers.IO) { draftRepository.get().flush() }
     }
 
     /**
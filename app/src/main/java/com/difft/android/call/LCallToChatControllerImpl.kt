@@ -192,6 +192,7 @@ class LCallToChatControllerImpl @Inject constructor(
 
                 // 优先使用缓存的 serverUrl
                 if (speedTestServerUrls.isNotEmpty()) {
+                    LCallEngine.prewarmServerRace(speedTestServerUrls)
                     val intent = callIntentBuilder.withCallServerUrls(speedTestServerUrls).build()
                     startCallInternal(context, intent, onComplete)
                     return@launch
@@ -205,6 +206,7 @@ class LCallToChatControllerImpl @Inject constructor(
                 }.onSuccess { response ->
                     if (response.status == 0 && !response.data?.serviceUrls.isNullOrEmpty()) {
                         val urls = response.data!!.serviceUrls!!
+                        LCallEngine.prewarmServerRace(urls)
                         val intent = callIntentBuilder.withCallServerUrls(urls).build()
                         startCallInternal(context, intent, onComplete)
                     } else {
@@ -599,36 +601,34 @@ class LCallToChatControllerImpl @Inject constructor(
      * @return String containing the public key, or null if not found
      */
     override fun getTheirPublicKey(uid: String): String? {
-        var userId = uid
-        if (userId.contains(".")) {
-            userId = userId.split(".")[0]
-        }
+        val userId = uid.substringBefore(".")
+        return kotlinx.coroutines.runBlocking { getTheirPublicKeys(listOf(userId)) }[userId]
+    }
 
-        if (!ValidatorUtil.isUid(userId)) {
-            L.e { "[Call] geTheirPublicKey Error: $userId is not a valid uid" }
-            return null
+    override suspend fun getTheirPublicKeys(uids: List<String>): Map<String, String> {
+        val userIds = uids.map { it.substringBefore(".") }.distinct().filter { userId ->
+            ValidatorUtil.isUid(userId).also { valid ->
+                if (!valid) L.e { "[Call] geTheirPublicKey Error: $userId is not a valid uid" }
+            }
         }
+        if (userIds.isEmpty()) return emptyMap()
 
-        val publicKeyInfos: List<PublicKeyInfo>? = kotlinx.coroutines.runBlocking {
-            conversationManager.getPublicKeyInfos(listOf(userId))
-        }
+        val publicKeyInfos: List<PublicKeyInfo>? = conversationManager.getPublicKeyInfos(userIds)
         if (publicKeyInfos.isNullOrEmpty()) {
-            L.e { "[Call] geTheirPublicKey Error: $userId get public key is null" }
-            return null
-        }
-
-        val publicKeyInfo = publicKeyInfos.firstOrNull { it.uid == userId }
-        if (publicKeyInfo == null) {
-            L.e { "[Call] geTheirPublicKey Error: $userId not found in public key list" }
-            return null
+            L.e { "[Call] geTheirPublicKey Error: $userIds get public key is null" }
+            return emptyMap()
         }
 
-        if (publicKeyInfo.identityKey.isBlank()) {
-            L.e { "[Call] geTheirPublicKey Error: $userId identityKey is empty or blank" }
-            return null
+        val result = HashMap<String, String>()
+        userIds.forEach { userId ->
+            val publicKeyInfo = publicKeyInfos.firstOrNull { it.uid == userId }
+            when {
+                publicKeyInfo == null -> L.e { "[Call] geTheirPublicKey Error: $userId not found in public key list" }
+                publicKeyInfo.identityKey.isBlank() -> L.e { "[Call] geTheirPublicKey Error: $userId identityKey is empty or blank" }
+                else -> result[userId] = publicKeyInfo.identityKey
+            }
         }
-
-        return publicKeyInfo.identityKey
+        return result
     }
 
     override fun restoreIncomingCallScreenIfActive() {
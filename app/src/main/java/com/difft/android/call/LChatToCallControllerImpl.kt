@@ -199,6 +199,7 @@ class LChatToCallControllerImpl @Inject constructor(
 
         val cachedUrls = LCallEngine.getAvailableServerUrls()
         if (cachedUrls.isNotEmpty()) {
+            LCallEngine.prewarmServerRace(cachedUrls)
             activity.startActivity(callIntentBuilder.withCallServerUrls(cachedUrls).build())
             return true
         }
@@ -209,6 +210,7 @@ class LChatToCallControllerImpl @Inject constructor(
 
             if (response.status == RESPONSE_STATUS_SUCCESS && !response.data?.serviceUrls.isNullOrEmpty()) {
                 val urls = response.data!!.serviceUrls!!
+                LCallEngine.prewarmServerRace(urls)
                 activity.startActivity(callIntentBuilder.withCallServerUrls(urls).build())
                 true
             } else {
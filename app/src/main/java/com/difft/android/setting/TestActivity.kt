@@ -6,6 +6,8 @@ import android.os.Bundle
 import androidx.compose.ui.platform.ComposeView
 import androidx.lifecycle.lifecycleScope
 import com.difft.android.base.BaseActivity
+import com.difft.android.base.metrics.Metrics
+import com.difft.android.base.metrics.MetricsExporter
 import com.difft.android.base.ui.theme.DifftTheme
 import com.difft.android.base.user.UserManager
 import com.difft.android.test.MessageTestUtil
@@ -65,7 +67,11 @@ class TestActivity : BaseActivity() {
                     },
                     onDialogTest = {
                         DialogTestActivity.startActivity(this@TestActivity)
-                    }
+                    },
+                    metricsEnabled = Metrics.enabled,
+                    onMetricsEnabledChange = { Metrics.setEnabled(it) },
+                    metricsSnapshot = { "${Metrics.snapshot()}\n\n${MetricsExporter.file.path}" },
+                    onResetMetrics = { Metrics.reset() }
                 )
             }
         }
@@ -35,6 +35,7 @@ import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.SolidColor
 import androidx.compose.ui.res.painterResource
+import androidx.compose.ui.text.font.FontFamily
 import androidx.compose.ui.text.input.KeyboardType
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.tooling.preview.Preview
@@ -53,11 +54,17 @@ fun TestScreen(
     onCorruptDatabase: () -> Unit,
     onBackupDatabase: () -> Unit,
     onSendRecoveryEvent: () -> Unit,
-    onDialogTest: () -> Unit
+    onDialogTest: () -> Unit,
+    metricsEnabled: Boolean,
+    onMetricsEnabledChange: (Boolean) -> Unit,
+    metricsSnapshot: () -> String,
+    onResetMetrics: () -> Unit
 ) {
     var memberIds by remember { mutableStateOf("") }
     var groupCount by remember { mutableStateOf("") }
     var singleGroupMessageCount by remember { mutableStateOf("") }
+    var isMetricsEnabled by remember { mutableStateOf(metricsEnabled) }
+    var snapshot by remember { mutableStateOf("") }
 
     Column(
         modifier = Modifier.fillMaxSize().systemBarsPadding()
@@ -171,6 +178,47 @@ fun TestScreen(
                     onClick = onDialogTest
                 )
             }
+
+            // Section 4: Metrics
+            TestSection(title = "Metrics") {
+                TestRowItem(
+                    title = "Record Metrics",
+                    subtitle = if (isMetricsEnabled) "On" else "Off",
+                    onClick = {
+                        isMetricsEnabled = !isMetricsEnabled
+                        onMetricsEnabledChange(isMetricsEnabled)
+                    }
+                )
+
+                HorizontalDivider(color = DifftTheme.colors.backgroundSecondary)
+
+                TestRowItem(
+                    title = "Show Snapshot",
+                    onClick = { snapshot = metricsSnapshot() }
+                )
+
+                HorizontalDivider(color = DifftTheme.colors.backgroundSecondary)
+
+                TestRowItem(
+                    title = "Reset Metrics",
+                    onClick = {
+                        onResetMetrics()
+                        snapshot = metricsSnapshot()
+                    }
+                )
+
+                if (snapshot.isNotEmpty()) {
+                    HorizontalDivider(color = DifftTheme.colors.backgroundSecondary)
+
+                    Text(
+                        text = snapshot,
+                        style = DifftTheme.typography.bodySmall,
+                        fontFamily = FontFamily.Monospace,
+                        color = DifftTheme.colors.textSecondary,
+                        modifier = Modifier.padding(DifftTheme.spacing.insetLarge)
+                    )
+                }
+            }
         }
     }
 }
@@ -352,7 +400,11 @@ private fun TestScreenPreview() {
             onCorruptDatabase = {},
             onBackupDatabase = {},
             onSendRecoveryEvent = {},
-            onDialogTest = {}
+            onDialogTest = {},
+            metricsEnabled = true,
+            onMetricsEnabledChange = {},
+            metricsSnapshot = { "" },
+            onResetMetrics = {}
         )
     }
 }
@@ -0,0 +1,29 @@
+package com.difft.android.base.metrics
+
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Monotonic counter, [LongAdder] keeps increments from different threads off a shared cache line.
+ */
+class Counter internal constructor(val name: String) {
+
+    private val adder = LongAdder()
+
+    val value: Long get() = adder.sum()
+
+    fun inc(delta: Long = 1) {
+        if (!Metrics.enabled) return
+        adder.add(delta)
+    }
+
+    internal fun reset() = adder.reset()
+}
+
+/**
+ * Current value of something that goes up and down, e.g. a queue depth. It is read when a snapshot is taken, so
+ * the measured code path pays nothing.
+ */
+class Gauge internal constructor(val name: String, private val read: () -> Long) {
+
+    val value: Long get() = read()
+}
@@ -0,0 +1,93 @@
+package com.difft.android.base.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of non-negative longs, e.g. latencies in microseconds.
+ *
+ * Buckets are log-linear like HdrHistogram: every power of two is split into [SUB_BUCKETS] equal buckets, so a
+ * recorded value lands in a bucket at most 12.5% wider than itself. Recording is one array increment plus
+ * sum/max updates, no allocation.
+ */
+class Histogram internal constructor(val name: String) {
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 3
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        internal const val BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS
+
+        internal fun bucketOf(value: Long): Int {
+            if (value < SUB_BUCKETS) return value.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val subBucket = (value ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket
+        }
+
+        /**
+         * @return the largest value that falls into [bucket]
+         */
+        internal fun upperBoundOf(bucket: Int): Long {
+            if (bucket < SUB_BUCKETS) return bucket.toLong()
+            val exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1
+            val subBucket = bucket % SUB_BUCKETS
+            val width = 1L shl (exponent - SUB_BUCKET_BITS)
+            return ((SUB_BUCKETS + subBucket).toLong() shl (exponent - SUB_BUCKET_BITS)) + width - 1
+        }
+    }
+
+    class Snapshot(
+        val count: Long,
+        val sum: Long,
+        val max: Long,
+        val p50: Long,
+        val p90: Long,
+        val p99: Long
+    ) {
+        val mean: Long get() = if (count == 0L) 0 else sum / count
+
+        override fun toString(): String = "count=$count mean=$mean p50=$p50 p90=$p90 p99=$p99 max=$max"
+    }
+
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+
+    fun record(value: Long) {
+        if (!Metrics.enabled) return
+        val v = value.coerceAtLeast(0)
+        buckets.incrementAndGet(bucketOf(v))
+        sum.addAndGet(v)
+        var current = max.get()
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get()
+        }
+    }
+
+    /**
+     * Percentiles are bucket upper bounds capped by the max, concurrent records may make the numbers slightly
+     * inconsistent with each other.
+     */
+    fun snapshot(): Snapshot {
+        val counts = LongArray(BUCKET_COUNT) { buckets.get(it) }
+        val total = counts.sum()
+        val maxValue = max.get()
+        fun percentile(q: Double): Long {
+            if (total == 0L) return 0
+            val rank = Math.ceil(total * q).toLong().coerceAtLeast(1)
+            var seen = 0L
+            counts.forEachIndexed { bucket, c ->
+                seen += c
+                if (seen >= rank) return upperBoundOf(bucket).coerceAtMost(maxValue)
+            }
+            return maxValue
+        }
+        return Snapshot(total, sum.get(), maxValue, percentile(0.5), percentile(0.9), percentile(0.99))
+    }
+
+    internal fun reset() {
+        for (i in 0 until BUCKET_COUNT) buckets.set(i, 0)
+        sum.set(0)
+        max.set(0)
+    }
+}
@@ -0,0 +1,90 @@
+package com.difft.android.base.metrics
+
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.utils.SharedPrefsUtil
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * On-device metrics of the hot paths (message processing, decryption, database, websocket, jobs).
+ *
+ * Metrics are created once and kept in a field at the call site, recording checks [enabled] first, so when
+ * metrics are off a call site costs one volatile read. Snapshots are written to a local file by
+ * [MetricsExporter] and shown on the test screen, nothing is uploaded.
+ *
+ * Naming: dot separated, durations end with their unit, `.us` or `.ms`.
+ */
+object Metrics {
+
+    private const val SP_KEY_METRICS_ENABLED = "SP_KEY_METRICS_ENABLED"
+
+    @Volatile
+    var enabled: Boolean = false
+        internal set
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+    private val histograms = ConcurrentHashMap<String, Histogram>()
+    private val gauges = ConcurrentHashMap<String, Gauge>()
+
+    /**
+     * @param defaultEnabled used until the switch on the test screen is touched
+     */
+    fun init(defaultEnabled: Boolean) {
+        apply(SharedPrefsUtil.getBoolean(SP_KEY_METRICS_ENABLED, defaultEnabled))
+    }
+
+    fun setEnabled(enabled: Boolean) {
+        SharedPrefsUtil.putBoolean(SP_KEY_METRICS_ENABLED, enabled)
+        apply(enabled)
+    }
+
+    private fun apply(enabled: Boolean) {
+        L.i { "[Metrics] enabled: $enabled" }
+        this.enabled = enabled
+        if (enabled) MetricsExporter.start() else MetricsExporter.stop()
+    }
+
+    fun counter(name: String): Counter = counters.computeIfAbsent(name) { Counter(it) }
+
+    fun histogram(name: String): Histogram = histograms.computeIfAbsent(name) { Histogram(it) }
+
+    /**
+     * Registers [read] under [name], replacing an earlier registration, e.g. of a connection that was recreated.
+     */
+    fun gauge(name: String, read: () -> Long): Gauge = Gauge(name, read).also { gauges[name] = it }
+
+    /**
+     * @return one line per metric, sorted by name
+     */
+    fun snapshot(): String {
+        val lines = mutableListOf<String>()
+        counters.values.forEach { lines.add("${it.name} ${it.value}") }
+        histograms.values.forEach { lines.add("${it.name} ${it.snapshot()}") }
+        gauges.values.forEach { gauge ->
+            val value = try {
+                gauge.value.toString()
+            } catch (e: Exception) {
+                "error: ${e.message}"
+            }
+            lines.add("${gauge.name} $value")
+        }
+        return lines.sorted().joinToString("\n")
+    }
+
+    fun reset() {
+        counters.values.forEach { it.reset() }
+        histograms.values.forEach { it.reset() }
+    }
+}
+
+/**
+ * Runs [block] and records its duration in microseconds, only [Metrics.enabled] is checked when metrics are off.
+ */
+inline fun <T> Histogram.time(block: () -> T): T {
+    if (!Metrics.enabled) return block()
+    val start = System.nanoTime()
+    try {
+        return block()
+    } finally {
+        record((System.nanoTime() - start) / 1000)
+    }
+}
@@ -0,0 +1,65 @@
+package com.difft.android.base.metrics
+
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.utils.appScope
+import com.difft.android.base.utils.application
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * Appends a [Metrics] snapshot to `files/metrics/metrics.log` every [INTERVAL_MS] while metrics are enabled.
+ * The log is rotated to `metrics.log.1` once it exceeds [MAX_FILE_SIZE], so at most two files are kept.
+ */
+object MetricsExporter {
+
+    private const val INTERVAL_MS = 60_000L
+    private const val MAX_FILE_SIZE = 512 * 1024L
+    private const val FILE_NAME = "metrics.log"
+
+    private var job: Job? = null
+
+    val file: File by lazy { File(File(application.filesDir, "metrics"), FILE_NAME) }
+
+    @Synchronized
+    fun start() {
+        if (job?.isActive == true) return
+        job = appScope.launch(Dispatchers.IO) {
+            while (isActive) {
+                delay(INTERVAL_MS)
+                export()
+            }
+        }
+    }
+
+    @Synchronized
+    fun stop() {
+        job?.cancel()
+        job = null
+    }
+
+    fun export() {
+        try {
+            val time = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(Date())
+            append(file, "=== $time ===\n${Metrics.snapshot()}\n")
+        } catch (e: Exception) {
+            L.w { "[Metrics] export failed: ${e.message}" }
+        }
+    }
+
+    internal fun append(file: File, text: String) {
+        file.parentFile?.mkdirs()
+        if (file.length() > MAX_FILE_SIZE) {
+            val rotated = File(file.path + ".1")
+            rotated.delete()
+            file.renameTo(rotated)
+        }
+        file.appendText(text)
+    }
+}
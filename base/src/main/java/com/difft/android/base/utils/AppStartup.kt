@@ -3,16 +3,26 @@ package com.difft.android.base.utils
 import com.difft.android.base.log.lumberjack.L
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asExecutor
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
+import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Manages our app startup flow with improved performance and error handling.
  * Uses Kotlin object for thread-safe singleton pattern and coroutines for efficient concurrency.
  *
+ * Blocking tasks form a dependency graph, see [StartupGraph]: tasks added with [StartupThread.BACKGROUND] run
+ * on a bounded pool in parallel with the main thread once their dependencies are done. Every task's timing is
+ * recorded and written to [TRACE_FILE_NAME] once all startup tasks of the launch have finished, the critical
+ * path of the blocking phase is logged per launch.
+ *
  * Note: All public methods should be called on the main thread.
  */
 object AppStartup {
@@ -20,19 +30,31 @@ object AppStartup {
     private const val TAG = "AppStartup"
     private const val UI_WAIT_TIME = 500L
     private const val FAILSAFE_RENDER_TIME = 2500L
+    private const val TRACE_FILE_NAME = "startup_trace.txt"
+
+    private val STARTUP_PARALLELISM = (Runtime.getRuntime().availableProcessors() - 1).coerceIn(2, 4)
+
+    private val blocking = mutableListOf<StartupTask>()
+    private val nonBlocking = mutableListOf<StartupTask>()
+    private val postRender = mutableListOf<StartupTask>()
 
-    private val blocking = mutableListOf<Task>()
-    private val nonBlocking = mutableListOf<Task>()
-    private val postRender = mutableListOf<Task>()
+    private val traceEntries = ConcurrentLinkedQueue<StartupTrace.Entry>()
+    private val startupJobs = mutableListOf<Job>()
+    private var traceScheduled = false
 
     private val outstandingCriticalRenderEvents = AtomicInteger(0)
 
     private var applicationStartTime: Long = 0
+    private var applicationStartNanos: Long = System.nanoTime()
     private var renderStartTime: Long = 0
     private var renderEndTime: Long = 0
 
     // Coroutine scope for managing startup tasks
     private val startupScope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+
+    // Bounded pool shared by background blocking, non-blocking and post-render tasks
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val startupDispatcher = Dispatchers.IO.limitedParallelism(STARTUP_PARALLELISM)
     
     // Job for managing post-render timeout
     private var postRenderTimeoutJob: Job? = null
@@ -45,6 +67,7 @@ object AppStartup {
      */
     fun onApplicationCreate() {
         applicationStartTime = System.currentTimeMillis()
+        applicationStartNanos = System.nanoTime()
         L.i { "[$TAG]Application creation started at: $applicationStartTime" }
     }
 
@@ -55,17 +78,33 @@ object AppStartup {
      * @return This AppStartup instance for chaining
      */
     fun addBlocking(name: String, task: () -> Unit): AppStartup {
-        blocking.add(Task(name, task))
+        blocking.add(StartupTask(name, StartupThread.MAIN, emptyList(), task))
+        return this
+    }
+
+    /**
+     * Schedules a blocking task with dependencies. [AppStartup.execute] still returns only after it is done,
+     * but a [StartupThread.BACKGROUND] task runs in parallel with everything it does not depend on.
+     * A background task must not wait for the main thread, which is blocked until the phase is done.
+     * @param name Task name, used by other tasks' [dependsOn]
+     * @param dependsOn Names of blocking tasks that must finish first, they have to be added before this one
+     * @param thread Thread the task has to run on
+     * @param task The task to execute
+     * @return This AppStartup instance for chaining
+     */
+    fun addBlocking(name: String, dependsOn: List<String>, thread: StartupThread, task: () -> Unit): AppStartup {
+        blocking.add(StartupTask(name, thread, dependsOn, task))
         return this
     }
 
     /**
      * Schedules a task that should not block app startup, but should still happen as quickly as possible.
+     * @param name Task name for logging and the startup trace
      * @param task The task to execute
      * @return This AppStartup instance for chaining
      */
-    fun addNonBlocking(task: () -> Unit): AppStartup {
-        nonBlocking.add(Task("", task))
+    fun addNonBlocking(name: String = "non-blocking", task: () -> Unit): AppStartup {
+        nonBlocking.add(StartupTask(name, StartupThread.BACKGROUND, emptyList(), task))
         return this
     }
 
@@ -76,8 +115,8 @@ object AppStartup {
      * @param task The task to execute
      * @return This AppStartup instance for chaining
      */
-    fun addPostRender(task: () -> Unit): AppStartup {
-        postRender.add(Task("", task))
+    fun addPostRender(name: String = "post-render", task: () -> Unit): AppStartup {
+        postRender.add(StartupTask(name, StartupThread.BACKGROUND, emptyList(), task))
         return this
     }
 
@@ -160,45 +199,32 @@ object AppStartup {
     }
 
     private fun executeBlockingTasks(stopwatch: Stopwatch) {
-        blocking.forEach { task ->
-            try {
-                val taskStartTime = System.currentTimeMillis()
-                task.runnable()
-                val taskDuration = System.currentTimeMillis() - taskStartTime
-
-                stopwatch.split(task.name)
-                L.d { "[$TAG]Blocking task '${task.name}' completed in ${taskDuration}ms" }
+        val tasks = blocking.toList()
+        blocking.clear()
 
-                if (taskDuration > 100) {
-                    L.w { "[$TAG]Blocking task '${task.name}' took ${taskDuration}ms - consider moving to non-blocking" }
-                }
+        val result = StartupGraph(tasks).execute(StartupTrace.PHASE_BLOCKING, startupDispatcher.asExecutor(), ::elapsedMs)
+        traceEntries.addAll(result.entries)
+        stopwatch.split("blocking")
 
-            } catch (e: Exception) {
-                L.e(e) { "[$TAG]Error executing blocking task: ${task.name}" }
-                throw e // Re-throw to stop execution of remaining blocking tasks
+        result.entries.forEach { entry ->
+            L.d { "[$TAG]Blocking task '${entry.name}' completed in ${entry.durationMs}ms on ${entry.thread}" }
+            if (entry.thread == StartupThread.MAIN && entry.durationMs > 100) {
+                L.w { "[$TAG]Blocking task '${entry.name}' took ${entry.durationMs}ms - consider moving to non-blocking" }
             }
         }
-        blocking.clear()
+        val trace = StartupTrace(applicationStartTime, result.entries)
+        val criticalPath = trace.criticalPath()
+        L.i { "[$TAG]Blocking critical path ${criticalPath.sumOf { it.durationMs }}ms: ${criticalPath.joinToString(" > ")}, serial ${result.entries.sumOf { it.durationMs }}ms" }
+
+        result.failure?.let { e ->
+            L.e(e) { "[$TAG]Error executing blocking tasks" }
+            throw e // Stop execution of remaining blocking tasks
+        }
     }
 
     private fun executeNonBlockingTasks() {
         nonBlocking.forEach { task ->
-            startupScope.launch(Dispatchers.IO) {
-                try {
-                    val taskStartTime = System.currentTimeMillis()
-                    task.runnable()
-                    val taskDuration = System.currentTimeMillis() - taskStartTime
-
-                    L.d { "[$TAG]Non-blocking task completed in ${taskDuration}ms" }
-
-                    if (taskDuration > 500) {
-                        L.w { "[$TAG]Non-blocking task took ${taskDuration}ms - consider optimization" }
-                    }
-
-                } catch (e: Exception) {
-                    L.e(e) { "[$TAG]Error executing non-blocking task" }
-                }
-            }
+            startupJobs += launchTask(StartupTrace.PHASE_NON_BLOCKING, task, warnAfterMs = 500)
         }
         nonBlocking.clear()
     }
@@ -213,33 +239,59 @@ object AppStartup {
 
     private fun executePostRender() {
         postRender.forEach { task ->
-            startupScope.launch(Dispatchers.IO) {
-                try {
-                    val taskStartTime = System.currentTimeMillis()
-                    task.runnable()
-                    val taskDuration = System.currentTimeMillis() - taskStartTime
+            startupJobs += launchTask(StartupTrace.PHASE_POST_RENDER, task, warnAfterMs = 1000)
+        }
+        postRender.clear()
+        scheduleTraceWrite()
+    }
 
-                    L.d { "[$TAG]Post-render task completed in ${taskDuration}ms" }
+    private fun launchTask(phase: String, task: StartupTask, warnAfterMs: Long): Job {
+        return startupScope.launch(startupDispatcher) {
+            val start = elapsedMs()
+            try {
+                task.runnable()
+            } catch (e: Exception) {
+                L.e(e) { "[$TAG]Error executing $phase task '${task.name}'" }
+            }
+            val taskDuration = elapsedMs() - start
+            traceEntries.add(StartupTrace.Entry(phase, task.name, task.thread, task.dependsOn, start, taskDuration))
 
-                    if (taskDuration > 1000) {
-                        L.w { "[$TAG]Post-render task took ${taskDuration}ms - consider optimization" }
-                    }
+            L.d { "[$TAG]$phase task '${task.name}' completed in ${taskDuration}ms" }
 
-                } catch (e: Exception) {
-                    L.e(e) { "[$TAG]Error executing post-render task" }
-                }
+            if (taskDuration > warnAfterMs) {
+                L.w { "[$TAG]$phase task '${task.name}' took ${taskDuration}ms - consider optimization" }
             }
         }
-        postRender.clear()
     }
 
     /**
-     * Represents a startup task with name and runnable.
+     * Writes the trace of this launch once every non-blocking and post-render task has finished.
      */
-    private data class Task(
-        val name: String,
-        val runnable: () -> Unit
-    )
+    private fun scheduleTraceWrite() {
+        if (traceScheduled) return
+        traceScheduled = true
+
+        val jobs = startupJobs.toList()
+        startupJobs.clear()
+        startupScope.launch(Dispatchers.IO) {
+            jobs.joinAll()
+            val trace = StartupTrace(applicationStartTime, traceEntries.sortedBy { phaseOrder(it.phase) })
+            try {
+                File(ApplicationHelper.instance.filesDir, TRACE_FILE_NAME).writeText(trace.encode())
+            } catch (e: Exception) {
+                L.w(e) { "[$TAG]Failed to write startup trace" }
+            }
+            L.i { "[$TAG]Startup tasks finished at ${trace.entries.maxOfOrNull { it.endMs } ?: 0}ms, ${trace.entries.size} tasks traced" }
+        }
+    }
+
+    private fun phaseOrder(phase: String): Int = when (phase) {
+        StartupTrace.PHASE_BLOCKING -> 0
+        StartupTrace.PHASE_NON_BLOCKING -> 1
+        else -> 2
+    }
+
+    private fun elapsedMs(): Long = (System.nanoTime() - applicationStartNanos) / 1_000_000
 
     fun getApplicationStartTime(): Long {
         return applicationStartTime
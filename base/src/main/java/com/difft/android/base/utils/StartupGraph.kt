@@ -0,0 +1,128 @@
+package com.difft.android.base.utils
+
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * Thread a startup task has to run on.
+ */
+enum class StartupThread {
+    /** The thread calling [AppStartup.execute], tasks keep their registration order. */
+    MAIN,
+
+    /** The bounded startup pool, as soon as all dependencies are done. */
+    BACKGROUND
+}
+
+/**
+ * @param dependsOn names of tasks that have to finish first, they must be registered before this task
+ */
+class StartupTask(
+    val name: String,
+    val thread: StartupThread,
+    val dependsOn: List<String>,
+    val runnable: () -> Unit
+)
+
+/**
+ * Runs one phase of startup tasks as a dependency graph and blocks until all of them are done.
+ *
+ * [StartupThread.MAIN] tasks run on the calling thread one after another in registration order, waiting for
+ * their dependencies when needed. [StartupThread.BACKGROUND] tasks are handed to the executor as soon as their
+ * dependencies are done, so independent work overlaps with the main thread and with each other. Because
+ * dependencies must be registered first, the graph can not have cycles.
+ *
+ * After the first failure no new tasks are started, tasks that are already running are waited for.
+ */
+class StartupGraph(private val tasks: List<StartupTask>) {
+
+    class Result(val entries: List<StartupTrace.Entry>, val failure: Throwable?)
+
+    private val indices: Map<String, Int>
+
+    init {
+        val names = HashMap<String, Int>()
+        tasks.forEachIndexed { index, task ->
+            require(names.put(task.name, index) == null) { "Duplicate startup task '${task.name}'" }
+            task.dependsOn.forEach { dependency ->
+                require(names.containsKey(dependency)) { "Startup task '${task.name}' depends on '$dependency', which has to be added before it" }
+            }
+        }
+        indices = names
+    }
+
+    private class Completion(val index: Int, val startMs: Long, val endMs: Long, val failure: Throwable?)
+
+    /**
+     * @param clock current time in ms since the application was created
+     */
+    fun execute(phase: String, executor: Executor, clock: () -> Long): Result {
+        val done = BooleanArray(tasks.size)
+        val dispatched = BooleanArray(tasks.size)
+        val entries = arrayOfNulls<StartupTrace.Entry>(tasks.size)
+        val completions = LinkedBlockingQueue<Completion>()
+        var running = 0
+        var failure: Throwable? = null
+
+        fun isReady(index: Int) = tasks[index].dependsOn.all { done[indices.getValue(it)] }
+
+        fun complete(completion: Completion) {
+            val task = tasks[completion.index]
+            entries[completion.index] = StartupTrace.Entry(phase, task.name, task.thread, task.dependsOn, completion.startMs, completion.endMs - completion.startMs)
+            done[completion.index] = true
+            if (failure == null) failure = completion.failure
+        }
+
+        fun dispatchReady() {
+            if (failure != null) return
+            tasks.forEachIndexed { index, task ->
+                if (task.thread == StartupThread.BACKGROUND && !dispatched[index] && isReady(index)) {
+                    dispatched[index] = true
+                    running++
+                    executor.execute {
+                        val start = clock()
+                        val error = try {
+                            task.runnable()
+                            null
+                        } catch (e: Throwable) {
+                            e
+                        }
+                        completions.put(Completion(index, start, clock(), error))
+                    }
+                }
+            }
+        }
+
+        fun awaitBackground() {
+            complete(completions.take())
+            running--
+            dispatchReady()
+        }
+
+        dispatchReady()
+        for ((index, task) in tasks.withIndex()) {
+            if (task.thread != StartupThread.MAIN) continue
+            while (failure == null && !isReady(index)) {
+                awaitBackground()
+            }
+            if (failure != null) break
+
+            val start = clock()
+            val error = try {
+                task.runnable()
+                null
+            } catch (e: Exception) {
+                e
+            }
+            complete(Completion(index, start, clock(), error))
+            dispatchReady()
+        }
+
+        while (running > 0) {
+            awaitBackground()
+        }
+        check(failure != null || done.all { it }) { "Startup tasks never became ready: ${tasks.filterIndexed { i, _ -> !done[i] }.map { it.name }}" }
+
+        return Result(entries.filterNotNull(), failure)
+    }
+}
@@ -0,0 +1,151 @@
+package com.difft.android.base.utils
+
+import java.util.PriorityQueue
+
+/**
+ * Per-task timings of one app launch, as recorded by [AppStartup].
+ *
+ * Entries are kept in registration order, a task's dependencies always come before it. The encoded form is
+ * one tab separated line per task, so a trace pulled from a device can be replayed on the JVM with [parse].
+ */
+class StartupTrace(val launchTime: Long, val entries: List<Entry>) {
+
+    /**
+     * @param startMs start of the task, in ms since the application was created
+     */
+    class Entry(
+        val phase: String,
+        val name: String,
+        val thread: StartupThread,
+        val dependsOn: List<String>,
+        val startMs: Long,
+        val durationMs: Long
+    ) {
+        val endMs: Long get() = startMs + durationMs
+
+        override fun toString(): String = "$name(${durationMs}ms)"
+    }
+
+    fun phase(phase: String): List<Entry> = entries.filter { it.phase == phase }
+
+    /**
+     * Longest chain of tasks in [phase] by duration. A task's predecessors are its declared dependencies and,
+     * for [StartupThread.MAIN] tasks, the main thread task registered before it.
+     */
+    fun criticalPath(phase: String = PHASE_BLOCKING): List<Entry> {
+        val tasks = phase(phase)
+        if (tasks.isEmpty()) return emptyList()
+
+        val finish = LongArray(tasks.size)
+        val previous = IntArray(tasks.size) { -1 }
+        forEachPredecessor(tasks) { index, predecessors ->
+            var longest = -1
+            predecessors.forEach { if (longest < 0 || finish[it] > finish[longest]) longest = it }
+            previous[index] = longest
+            finish[index] = tasks[index].durationMs + if (longest >= 0) finish[longest] else 0
+        }
+
+        var index = finish.indices.maxByOrNull { finish[it] } ?: return emptyList()
+        val path = mutableListOf<Entry>()
+        while (index >= 0) {
+            path.add(tasks[index])
+            index = previous[index]
+        }
+        return path.reversed()
+    }
+
+    /**
+     * Replays the recorded durations of [phase] on the main thread plus [workers] background threads, the same
+     * way [StartupGraph] schedules them: main tasks in registration order, background tasks on the earliest free
+     * worker once their dependencies are done.
+     *
+     * @return time from the first task starting to the last one finishing, in ms
+     */
+    fun simulate(workers: Int, phase: String = PHASE_BLOCKING): Long {
+        val tasks = phase(phase)
+        val finish = LongArray(tasks.size)
+        val workerFree = PriorityQueue<Long>().apply { repeat(workers.coerceAtLeast(1)) { add(0L) } }
+        var mainFree = 0L
+
+        forEachPredecessor(tasks, includeMainThreadOrder = false) { index, predecessors ->
+            val ready = predecessors.maxOfOrNull { finish[it] } ?: 0L
+            val task = tasks[index]
+            if (task.thread == StartupThread.MAIN) {
+                val start = maxOf(ready, mainFree)
+                finish[index] = start + task.durationMs
+                mainFree = finish[index]
+            } else {
+                val start = maxOf(ready, workerFree.poll()!!)
+                finish[index] = start + task.durationMs
+                workerFree.add(finish[index])
+            }
+        }
+        return finish.maxOrNull() ?: 0L
+    }
+
+    fun encode(): String = buildString {
+        append(HEADER).append(SEPARATOR).append(launchTime).append('\n')
+        entries.forEach {
+            append(it.phase).append(SEPARATOR)
+                .append(it.name).append(SEPARATOR)
+                .append(it.thread.name).append(SEPARATOR)
+                .append(it.startMs).append(SEPARATOR)
+                .append(it.durationMs).append(SEPARATOR)
+                .append(it.dependsOn.joinToString(DEPENDENCY_SEPARATOR))
+                .append('\n')
+        }
+    }
+
+    /**
+     * Calls [action] for every task in order with the indices of its predecessors.
+     */
+    private inline fun forEachPredecessor(
+        tasks: List<Entry>,
+        includeMainThreadOrder: Boolean = true,
+        action: (index: Int, predecessors: List<Int>) -> Unit
+    ) {
+        val indices = HashMap<String, Int>()
+        var lastMain = -1
+        tasks.forEachIndexed { index, task ->
+            val predecessors = task.dependsOn.mapNotNull { indices[it] }.toMutableList()
+            if (includeMainThreadOrder && task.thread == StartupThread.MAIN && lastMain >= 0) {
+                predecessors.add(lastMain)
+            }
+            action(index, predecessors)
+            indices[task.name] = index
+            if (task.thread == StartupThread.MAIN) lastMain = index
+        }
+    }
+
+    companion object {
+        const val PHASE_BLOCKING = "blocking"
+        const val PHASE_NON_BLOCKING = "non-blocking"
+        const val PHASE_POST_RENDER = "post-render"
+
+        private const val HEADER = "launch"
+        private const val SEPARATOR = '\t'
+        private const val DEPENDENCY_SEPARATOR = ","
+
+        @JvmStatic
+        fun parse(text: String): StartupTrace {
+            val lines = text.lineSequence().filter { it.isNotBlank() }.toList()
+            val header = lines.firstOrNull()?.split(SEPARATOR)
+            require(header != null && header.size == 2 && header[0] == HEADER) { "Not a startup trace: ${lines.firstOrNull()}" }
+
+            val entries = lines.drop(1).map { line ->
+                val fields = line.split(SEPARATOR)
+                require(fields.size == 5 || fields.size == 6) { "Invalid startup trace line: $line" }
+                val dependsOn = fields.getOrNull(5).orEmpty()
+                Entry(
+                    phase = fields[0],
+                    name = fields[1],
+                    thread = StartupThread.valueOf(fields[2]),
+                    dependsOn = if (dependsOn.isEmpty()) emptyList() else dependsOn.split(DEPENDENCY_SEPARATOR),
+                    startMs = fields[3].toLong(),
+                    durationMs = fields[4].toLong()
+                )
+            }
+            return StartupTrace(header[1].toLong(), entries)
+        }
+    }
+}
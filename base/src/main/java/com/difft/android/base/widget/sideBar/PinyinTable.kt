@@ -0,0 +1,161 @@
+package com.difft.android.base.widget.sideBar
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 汉字转拼音的查表实现
+ *
+ * 读音表覆盖整个 CJK 统一汉字基本区（U+4E00..U+9FFF，GB2312 一级、二级字和 GBK、Big5 里的字都在其中），
+ * 由生成的 [TABLE_RESOURCE] 在第一次使用时展开成按码位索引的数组，之后每个字都是一次数组访问。
+ * 表外的汉字（扩展区等）交给 [fallback]，结果按码位缓存；没有读音的字原样保留。
+ *
+ * @param fallback 表外汉字的读音，返回不带声调的小写拼音（ü 写作 v），没有则返回 null
+ */
+class PinyinTable(private val fallback: ((codePoint: Int) -> String?)? = null) {
+
+    /**
+     * @param full 全拼，汉字替换为拼音，其它字符原样保留
+     * @param initials 首字母，每个汉字和每个字母数字串各取一个，小写
+     */
+    data class Spelling(val full: String, val initials: String) {
+
+        /**
+         * 全拼包含 [query]，或首字母以 [query] 开头，不区分大小写
+         */
+        fun matches(query: String): Boolean {
+            if (query.isEmpty()) return true
+            return full.contains(query, ignoreCase = true) || initials.startsWith(query, ignoreCase = true)
+        }
+    }
+
+    private val syllables: Array<String>
+
+    private val readings: ShortArray
+
+    init {
+        val (syllables, readings) = loadTable()
+        this.syllables = syllables
+        this.readings = readings
+    }
+
+    private val fallbackReadings = ConcurrentHashMap<Int, String>()
+
+    /**
+     * @param isName 按姓名处理，开头的多音字姓氏使用姓氏读音，例如 单 -> shan、解 -> xie
+     */
+    fun spell(text: String, isName: Boolean = true): Spelling {
+        val full = StringBuilder(text.length * 3)
+        val initials = StringBuilder(text.length)
+        var inWord = false
+        var index = 0
+
+        if (isName) {
+            val surname = COMPOUND_SURNAMES.keys.firstOrNull { text.startsWith(it) }
+            if (surname != null) {
+                COMPOUND_SURNAMES.getValue(surname).forEach {
+                    full.append(it)
+                    initials.append(it[0])
+                }
+                index = surname.length
+            } else if (text.isNotEmpty()) {
+                val reading = SURNAMES[text.codePointAt(0)]
+                if (reading != null) {
+                    full.append(reading)
+                    initials.append(reading[0])
+                    index = Character.charCount(text.codePointAt(0))
+                }
+            }
+        }
+
+        while (index < text.length) {
+            var codePoint = text.codePointAt(index)
+            index += Character.charCount(codePoint)
+            if (codePoint in FULL_WIDTH_FIRST..FULL_WIDTH_LAST) {
+                codePoint -= FULL_WIDTH_OFFSET
+            }
+
+            val reading = reading(codePoint)
+            if (reading != null) {
+                full.append(reading)
+                initials.append(reading[0])
+                inWord = false
+            } else {
+                full.appendCodePoint(codePoint)
+                val isWordChar = Character.isLetterOrDigit(codePoint)
+                if (isWordChar && !inWord) {
+                    initials.appendCodePoint(Character.toLowerCase(codePoint))
+                }
+                inWord = isWordChar
+            }
+        }
+        return Spelling(full.toString(), initials.toString())
+    }
+
+    /**
+     * @return 汉字 [codePoint] 的拼音，非汉字或没有读音时为 null
+     */
+    fun reading(codePoint: Int): String? {
+        if (codePoint in TABLE_FIRST..TABLE_LAST) {
+            val syllable = readings[codePoint - TABLE_FIRST].toInt()
+            if (syllable > 0) return syllables[syllable - 1]
+        }
+        if (fallback == null || !isHan(codePoint)) return null
+        return fallbackReadings.getOrPut(codePoint) {
+            fallback.invoke(codePoint)?.takeIf { reading -> reading.isNotEmpty() && reading.all { it in 'a'..'z' } } ?: ""
+        }.ifEmpty { null }
+    }
+
+    companion object {
+        /** 读音表，每行一个音节和读这个音的字，见文件头的说明 */
+        private const val TABLE_RESOURCE = "pinyin.txt"
+
+        /** CJK 统一汉字基本区 */
+        private const val TABLE_FIRST = 0x4E00
+        private const val TABLE_LAST = 0x9FFF
+
+        private const val FULL_WIDTH_FIRST = 0xFF01
+        private const val FULL_WIDTH_LAST = 0xFF5E
+        private const val FULL_WIDTH_OFFSET = 0xFEE0
+
+        private val SURNAMES = mapOf(
+            '单'.code to "shan", '解'.code to "xie", '仇'.code to "qiu", '区'.code to "ou",
+            '查'.code to "zha", '朴'.code to "piao", '乐'.code to "yue", '缪'.code to "miao", '重'.code to "chong",
+            '翟'.code to "zhai", '覃'.code to "qin", '秘'.code to "bi", '盖'.code to "ge", '种'.code to "chong",
+            '祭'.code to "zhai", '折'.code to "she", '繁'.code to "po", '员'.code to "yun"
+        )
+
+        private val COMPOUND_SURNAMES = mapOf(
+            "万俟" to listOf("mo", "qi"),
+            "尉迟" to listOf("yu", "chi"),
+            "单于" to listOf("chan", "yu")
+        )
+
+        private fun isHan(codePoint: Int): Boolean =
+            Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN
+
+        /**
+         * 读入 [TABLE_RESOURCE]，给每个码位填上所在行音节的下标 + 1，0 表示表中没有
+         */
+        private fun loadTable(): Pair<Array<String>, ShortArray> {
+            val stream = checkNotNull(PinyinTable::class.java.getResourceAsStream(TABLE_RESOURCE)) { "$TABLE_RESOURCE not found" }
+            val syllables = ArrayList<String>(410)
+            val readings = ShortArray(TABLE_LAST - TABLE_FIRST + 1)
+            stream.bufferedReader(Charsets.UTF_8).useLines { lines ->
+                lines.filter { it.isNotEmpty() && !it.startsWith("#") }.forEach { line ->
+                    val separator = line.indexOf(' ')
+                    syllables.add(line.substring(0, separator))
+                    val syllable = syllables.size.toShort()
+                    var index = separator + 1
+                    while (index < line.length) {
+                        val codePoint = line.codePointAt(index)
+                        index += Character.charCount(codePoint)
+                        if (codePoint in TABLE_FIRST..TABLE_LAST) {
+                            readings[codePoint - TABLE_FIRST] = syllable
+                        }
+                    }
+                }
+            }
+            return syllables.toTypedArray() to readings
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.difft.android.base.metrics
+
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class HistogramTest {
+
+    @BeforeTest
+    fun setUp() {
+        Metrics.enabled = true
+    }
+
+    @AfterTest
+    fun tearDown() {
+        Metrics.enabled = false
+    }
+
+    @Test
+    fun `buckets are contiguous and at most an eighth wider than their values`() {
+        var previousUpper = -1L
+        for (bucket in 0 until Histogram.BUCKET_COUNT) {
+            val upper = Histogram.upperBoundOf(bucket)
+            val lower = previousUpper + 1
+            assertEquals(bucket, Histogram.bucketOf(lower))
+            assertEquals(bucket, Histogram.bucketOf(upper))
+            assertTrue(upper - lower <= lower / 8, "bucket $bucket: $lower..$upper")
+            previousUpper = upper
+        }
+        assertEquals(Long.MAX_VALUE, previousUpper)
+    }
+
+    @Test
+    fun `percentiles are within bucket precision`() {
+        val histogram = Histogram("test")
+        (1L..1000L).forEach { histogram.record(it) }
+
+        val snapshot = histogram.snapshot()
+        assertEquals(1000, snapshot.count)
+        assertEquals(500500, snapshot.sum)
+        assertEquals(1000, snapshot.max)
+        assertTrue(snapshot.p50 in 500..563, "p50=${snapshot.p50}")
+        assertTrue(snapshot.p90 in 900..1000, "p90=${snapshot.p90}")
+        assertTrue(snapshot.p99 in 990..1000, "p99=${snapshot.p99}")
+    }
+
+    @Test
+    fun `nothing is recorded while disabled`() {
+        val histogram = Histogram("test")
+        val counter = Counter("test")
+        Metrics.enabled = false
+
+        histogram.time { histogram.record(5) }
+        counter.inc()
+
+        assertEquals(0, histogram.snapshot().count)
+        assertEquals(0, counter.value)
+    }
+}
@@ -0,0 +1,146 @@
+package com.difft.android.base.utils
+
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class StartupGraphTest {
+
+    private val executor = Executors.newFixedThreadPool(3)
+    private val clockStart = System.nanoTime()
+    private val clock = { (System.nanoTime() - clockStart) / 1_000_000 }
+
+    @AfterTest
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun `main tasks keep their order and background tasks wait for dependencies`() {
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        val mainThread = Thread.currentThread()
+        val threads = Collections.synchronizedMap(mutableMapOf<String, Thread>())
+        fun task(name: String, thread: StartupThread, vararg dependsOn: String) = StartupTask(name, thread, dependsOn.toList()) {
+            threads[name] = Thread.currentThread()
+            order.add(name)
+        }
+
+        val result = StartupGraph(
+            listOf(
+                task("log", StartupThread.MAIN),
+                task("user", StartupThread.BACKGROUND, "log"),
+                task("dependencies", StartupThread.MAIN),
+                task("notification", StartupThread.BACKGROUND, "dependencies"),
+                task("theme", StartupThread.MAIN, "user"),
+                task("lifecycle", StartupThread.MAIN),
+            )
+        ).execute(StartupTrace.PHASE_BLOCKING, executor, clock)
+
+        assertNull(result.failure)
+        assertEquals(listOf("log", "user", "dependencies", "notification", "theme", "lifecycle"), result.entries.map { it.name })
+        assertEquals(listOf("log", "dependencies", "theme", "lifecycle"), order.filter { threads[it] == mainThread })
+        assertTrue(order.indexOf("user") < order.indexOf("theme"))
+        assertTrue(order.indexOf("dependencies") < order.indexOf("notification"))
+        assertTrue(threads["user"] != mainThread && threads["notification"] != mainThread)
+    }
+
+    @Test
+    fun `independent background tasks overlap`() {
+        val latch = CountDownLatch(3)
+        val tasks = List(3) { index ->
+            StartupTask("task$index", StartupThread.BACKGROUND, emptyList()) {
+                latch.countDown()
+                // only returns if all three run at the same time
+                check(latch.await(5, TimeUnit.SECONDS))
+            }
+        }
+
+        val result = StartupGraph(tasks).execute(StartupTrace.PHASE_BLOCKING, executor, clock)
+
+        assertNull(result.failure)
+        assertEquals(3, result.entries.size)
+    }
+
+    @Test
+    fun `failure stops scheduling new tasks`() {
+        val failure = IllegalStateException("boom")
+        val ran = Collections.synchronizedList(mutableListOf<String>())
+
+        val result = StartupGraph(
+            listOf(
+                StartupTask("fails", StartupThread.BACKGROUND, emptyList()) { throw failure },
+                StartupTask("after", StartupThread.MAIN, listOf("fails")) { ran.add("after") },
+                StartupTask("dependent", StartupThread.BACKGROUND, listOf("fails")) { ran.add("dependent") },
+            )
+        ).execute(StartupTrace.PHASE_BLOCKING, executor, clock)
+
+        assertSame(failure, result.failure)
+        assertEquals(emptyList(), ran)
+        assertEquals(listOf("fails"), result.entries.map { it.name })
+    }
+
+    @Test
+    fun `dependencies have to be added first`() {
+        assertFailsWith<IllegalArgumentException> {
+            StartupGraph(
+                listOf(
+                    StartupTask("theme", StartupThread.MAIN, listOf("user")) {},
+                    StartupTask("user", StartupThread.BACKGROUND, emptyList()) {},
+                )
+            )
+        }
+    }
+
+    @Test
+    fun `recorded trace replays critical path and parallel schedule`() {
+        val trace = StartupTrace.parse(
+            """
+            launch|1700000000000
+            blocking|init ApplicationHelper|MAIN|0|2
+            blocking|init log|MAIN|2|40
+            blocking|init Logger|MAIN|42|3
+            blocking|init SecurityCheck|MAIN|45|180
+            blocking|init ApplicationDependencies|MAIN|225|120
+            blocking|init UserData|MAIN|345|260
+            blocking|init theme|MAIN|605|5
+            blocking|init notification|MAIN|610|90
+            non-blocking|initCallEngine|BACKGROUND|700|300
+            """.trimIndent().replace('|', '\t')
+        )
+
+        assertEquals(StartupTrace.parse(trace.encode()).encode(), trace.encode())
+        assertEquals(700, trace.criticalPath().sumOf { it.durationMs })
+
+        // The same durations with security check, user data and notifications moved to the background
+        val parallel = StartupTrace(
+            trace.launchTime,
+            trace.phase(StartupTrace.PHASE_BLOCKING).map {
+                when (it.name) {
+                    "init SecurityCheck" -> it.copy(StartupThread.BACKGROUND, listOf("init log", "init Logger"))
+                    "init UserData" -> it.copy(StartupThread.BACKGROUND, listOf("init ApplicationHelper", "init log"))
+                    "init notification" -> it.copy(StartupThread.BACKGROUND, listOf("init ApplicationDependencies"))
+                    "init theme" -> it.copy(StartupThread.MAIN, listOf("init UserData"))
+                    else -> it
+                }
+            }.sortedBy { listOf("init ApplicationHelper", "init log", "init Logger", "init SecurityCheck", "init ApplicationDependencies", "init UserData", "init notification", "init theme").indexOf(it.name) }
+        )
+
+        val criticalPath = parallel.criticalPath()
+        assertEquals(listOf("init ApplicationHelper", "init log", "init UserData", "init theme"), criticalPath.map { it.name })
+        assertEquals(307, criticalPath.sumOf { it.durationMs })
+        assertEquals(307, parallel.simulate(workers = 4))
+        assertEquals(315, parallel.simulate(workers = 2))
+        assertEquals(575, parallel.simulate(workers = 1))
+    }
+
+    private fun StartupTrace.Entry.copy(thread: StartupThread, dependsOn: List<String>) =
+        StartupTrace.Entry(phase, name, thread, dependsOn, startMs, durationMs)
+}
@@ -0,0 +1,73 @@
+package com.difft.android.base.widget.sideBar
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class PinyinTableTest {
+
+    private val table = PinyinTable()
+
+    @Test
+    fun `gb2312 characters are looked up by code point`() {
+        assertEquals(PinyinTable.Spelling("zhangsan", "zs"), table.spell("张三"))
+        assertEquals("a", table.reading('啊'.code))
+        assertEquals("zuo", table.reading('座'.code))
+        assertEquals("Tomlilei", table.spell("Tom李lei").full)
+        assertEquals("tll", table.spell("Tom李lei").initials)
+    }
+
+    @Test
+    fun `characters outside gb2312 level 1 are in the table`() {
+        assertEquals("chu", table.reading('亍'.code))
+        assertEquals(PinyinTable.Spelling("wangkun", "wk"), table.spell("王堃"))
+        assertEquals("zhangzhe", table.spell("张喆").full)
+        assertEquals("cen", table.reading('岑'.code))
+        // 繁体字
+        assertEquals("liuxiang", table.spell("劉翔").full)
+    }
+
+    @Test
+    fun `characters without reading are kept`() {
+        // 扩展 A 区不在表中，没有 fallback 时原样保留
+        assertNull(table.reading('䶮'.code))
+        assertEquals("liu䶮", table.spell("刘䶮").full)
+        assertEquals(PinyinTable.Spelling("Ab1", "a"), table.spell("Ａb1"))
+    }
+
+    @Test
+    fun `fallback covers characters outside the table and is cached`() {
+        var calls = 0
+        val withFallback = PinyinTable { codePoint ->
+            calls++
+            if (codePoint == '䶮'.code) "yan" else null
+        }
+
+        assertEquals("wangkun", withFallback.spell("王堃").full)
+        assertEquals("liuyan", withFallback.spell("刘䶮").full)
+        assertEquals("liuyan", withFallback.spell("刘䶮").full)
+        assertEquals("a𠀀", withFallback.spell("啊𠀀").full)
+        assertEquals("a𠀀", withFallback.spell("啊𠀀").full)
+        assertEquals(2, calls)
+    }
+
+    @Test
+    fun `surnames use their surname reading only at the start`() {
+        assertEquals("shanxiaoming", table.spell("单小明").full)
+        assertEquals("jiandan", table.spell("简单").full)
+        assertEquals("dan", table.spell("单", isName = false).full)
+        assertEquals("yuchigong", table.spell("尉迟恭").full)
+        assertEquals("ycg", table.spell("尉迟恭").initials)
+    }
+
+    @Test
+    fun `search matches full spelling and initials`() {
+        val spelling = table.spell("张小明")
+        assertTrue(spelling.matches("xiaoming"))
+        assertTrue(spelling.matches("ZXM"))
+        assertTrue(spelling.matches("zx"))
+        assertFalse(spelling.matches("xm"))
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Context
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.EnvironmentHelper
 import com.difft.android.base.utils.SecureSharedPrefsUtil
+import com.difft.android.base.utils.appScope
 import com.difft.android.call.BuildConfig.DEBUG
 import com.difft.android.call.data.CONNECTION_TYPE
 import com.difft.android.call.data.ServerNode
@@ -12,6 +13,7 @@ import com.difft.android.call.data.SpeedResponseStatus
 import com.difft.android.call.data.UrlSpeedResponse
 import com.difft.android.call.receiver.NetworkConnectionListener
 import com.difft.android.base.utils.NetworkUtils
+import com.difft.android.call.util.CallServerRacer
 import com.difft.android.call.util.CallSpeedTest
 import io.livekit.android.LiveKit
 import io.livekit.android.util.LKLog
@@ -36,6 +38,9 @@ object LCallEngine {
 
     private var speedTestJob: Job? = null
 
+    /** 入会前的节点排序，竞速结果和实测入会耗时在多次通话之间共享 */
+    val serverRacer = CallServerRacer()
+
     private var _serverUrlsSpeedInfo = MutableStateFlow<List<ServerUrlSpeedInfo>>(emptyList())
     val serverUrlsSpeedInfo: StateFlow<List<ServerUrlSpeedInfo>> get() = _serverUrlsSpeedInfo
 
@@ -96,6 +101,7 @@ object LCallEngine {
                         val urlList = LCallManager.fetchCallServiceUrlAndCache()
                         L.d { "[Call] getCallServiceUrl:${urlList}" }
                         configuredDomainCount = urlList.size
+                        prewarmServerRace(urlList)
 
                         urlList.forEach { url ->
                             val urlSpeedResponse = CallSpeedTest.measureUrlResponseTime(url)
@@ -225,6 +231,36 @@ object LCallEngine {
         refreshAvailableServerUrls()
     }
 
+    /**
+     * Feeds a latency measured by the call server race back into the node ranking,
+     * on the same scale as the periodic speed test.
+     */
+    fun reportServerLatency(url: String, latencyMs: Long) {
+        updateServerUrlSpeedInfo(url, UrlSpeedResponse(SpeedResponseStatus.SUCCESS, latencyMs), System.currentTimeMillis())
+        refreshAvailableServerUrls()
+    }
+
+    /**
+     * Starts the call server race ahead of the join (on config load and call setup), so that
+     * [rankServerUrls] usually finds a fresh result instead of racing on the join path.
+     */
+    fun prewarmServerRace(urls: List<String>) {
+        serverRacer.refreshInBackground(appScope, urls, ::onServerRaceResult)
+    }
+
+    /**
+     * Orders the server nodes for a join. Waits a short budget for a race that is still running,
+     * and starts one when the cached result is stale.
+     */
+    suspend fun rankServerUrls(urls: List<String>): List<String> {
+        return serverRacer.awaitRank(appScope, urls, ::onServerRaceResult)
+    }
+
+    private fun onServerRaceResult(result: CallServerRacer.RaceResult) {
+        result.winner?.let { reportServerLatency(it, result.latencyMs) }
+        result.failedUrls.forEach { reportConnectionFailure(it) }
+    }
+
     private fun refreshAvailableServerUrls() {
         val filterInfos = _serverUrlsSpeedInfo.value
             .filter { it.errorCount < MAX_ERROR_COUNT && it.status == SpeedResponseStatus.SUCCESS }
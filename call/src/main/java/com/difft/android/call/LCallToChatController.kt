@@ -66,6 +66,12 @@ interface LCallToChatController {
 
     fun getTheirPublicKey(uid: String): String?
 
+    /**
+     * 批量获取公钥，返回 uid -> identityKey，获取失败的 uid 不在结果中
+     * @param uids 用户ID，可以带设备后缀
+     */
+    suspend fun getTheirPublicKeys(uids: List<String>): Map<String, String>
+
     fun restoreIncomingCallScreenIfActive()
 
     fun isAppForegrounded(): Boolean
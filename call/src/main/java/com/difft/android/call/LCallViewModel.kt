@@ -63,6 +63,7 @@ import com.difft.android.call.manager.CallTimeoutManager
 import com.difft.android.call.manager.CallVibrationManager
 import com.difft.android.call.manager.ContactorCacheManager
 import com.difft.android.call.handler.HandsUpManager
+import com.difft.android.call.manager.ParticipantKeyCache
 import com.difft.android.call.manager.ParticipantManager
 import com.difft.android.call.manager.SpeakerStateHolder
 import com.difft.android.call.handler.RtmMessageHandler
@@ -196,6 +197,7 @@ class LCallViewModel (
 
     // ---- Managers ----
     lateinit var rtm: RtmMessageHandler
+    private val participantKeyCache = ParticipantKeyCache(viewModelScope) { uids -> callToChatController.getTheirPublicKeys(uids) }
     private val handsUpManager = HandsUpManager(viewModelScope, application, contactorCacheManager)
     val participantManager = ParticipantManager(viewModelScope)
     val callUiController = CallUiController()
@@ -349,18 +351,19 @@ class LCallViewModel (
             },
             decryptor = { participant, data ->
                 val uid = participant.identity?.value ?: return@RtmMessageHandler null
-                val pub =
-                    callToChatController.getTheirPublicKey(uid) ?: return@RtmMessageHandler null
-                try {
-                    val plain = messageEncryptor.decryptRtmMessage(
-                        data,
-                        pub,
-                        e2eeKey ?: error("E2EE key not found")
-                    )
-                    Json.decodeFromString<RtmMessage>(String(plain, Charsets.UTF_8))
-                } catch (e: Exception) {
-                    L.e { "[Call] LCallViewModel rtm decrypt error = ${e.message}" }
-                    null
+                // 公钥来自通话内缓存，解密失败时缓存会刷新一次公钥再重试
+                participantKeyCache.withKey(uid) { pub ->
+                    try {
+                        val plain = messageEncryptor.decryptRtmMessage(
+                            data,
+                            pub,
+                            e2eeKey ?: error("E2EE key not found")
+                        )
+                        Json.decodeFromString<RtmMessage>(String(plain, Charsets.UTF_8))
+                    } catch (e: Exception) {
+                        L.e { "[Call] LCallViewModel rtm decrypt error = ${e.message}" }
+                        null
+                    }
                 }
             }
         )
@@ -395,10 +398,15 @@ class LCallViewModel (
             roomCtl.collectError(StartCallException(getString(R.string.call_params_startcall_exception_tip)))
             return false
         }
-        for (url in urls) {
+        val orderedUrls = LCallEngine.rankServerUrls(urls)
+        for (url in orderedUrls) {
             try {
                 L.i { "[Call] LCallViewModel connectToRoom url = $$url" }
+                val joinStart = SystemClock.elapsedRealtime()
                 roomCtl.connect(url, appToken, callParams, useQuicSignal) { t -> throw t }
+                val joinCost = SystemClock.elapsedRealtime() - joinStart
+                L.i { "[Call] LCallViewModel connectToRoom connected url = $$url, join cost = ${joinCost}ms" }
+                LCallEngine.serverRacer.recordJoin(url, joinCost)
                 setConnectedServerUrl(url)
                 isRetryUrlConnecting = false
                 return true
@@ -407,8 +415,9 @@ class LCallViewModel (
                     is SocketTimeoutException, is SSLHandshakeException, is UnknownHostException -> {
                         L.e { "[Call] LCallViewModel connectToRoom timeout url = $$url, error = ${e.message}" }
                         LCallEngine.reportConnectionFailure(url)
+                        LCallEngine.serverRacer.recordJoinFailure(url)
                         room.disconnect()
-                        if (url == urls.lastOrNull()) {
+                        if (url == orderedUrls.lastOrNull()) {
                             isRetryUrlConnecting = false
                             roomCtl.collectError(ServerConnectionException(getString(R.string.call_connect_timeout_tip)))
                             return false
@@ -915,6 +924,7 @@ class LCallViewModel (
             userSid = room.localParticipant.sid.value
             userIdentity = room.localParticipant.identity?.value
             roomSid = room.sid?.sid
+            participantKeyCache.prefetch(room.remoteParticipants.keys.map { it.value })
             callDataManager.updateCallingState(rid, isInCalling = true)
             if (getCurrentCallType() == CallType.ONE_ON_ONE.type) {
                 setMicEnabled(true)
@@ -937,6 +947,7 @@ class LCallViewModel (
      * Handles the event when a new participant connects to the call.
      */
     private fun onParticipantConnected(participant: Participant) {
+        participant.identity?.value?.let { participantKeyCache.prefetch(listOf(it)) }
         showCallBarrageMessage(participant, getString(R.string.call_barrage_message_join))
         stopRingToneAndTimeoutCheck()
         if (getCurrentCallType() == CallType.ONE_ON_ONE.type) {
@@ -1218,6 +1229,7 @@ class LCallViewModel (
                 setConnectedServerUrl(null)
                 resetFeedbackData()
                 cancelLocalJobs()
+                participantKeyCache.clear()
             }.onFailure { L.e(it) { "[Call] LCallViewModel cleanupOnce: other cleanup failed" } }
 
             // 6) 安全擦除 E2EE 密钥
@@ -33,7 +33,7 @@ class RtmMessageHandler(
     private val room: Room,
     private val scope: CoroutineScope,
     private val encryptor: (plain: ByteArray, timestamp: Long) -> String?,
-    private val decryptor: (participant: Participant, cipher: ByteArray) -> RtmMessage?,
+    private val decryptor: suspend (participant: Participant, cipher: ByteArray) -> RtmMessage?,
 ) {
     private val json = Json { ignoreUnknownKeys = true }
 
@@ -0,0 +1,134 @@
+package com.difft.android.call.manager
+
+import com.difft.android.base.log.lumberjack.L
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 通话内参与者公钥缓存
+ *
+ * - 入会和有人加入时批量预取，RTM 解密只读缓存，不再每条消息请求一次公钥
+ * - 同一个 uid 同时只有一个请求在进行，并发的 miss 共用结果
+ * - 解密失败时（对方可能更换了身份密钥）重新拉取一次，key 有变化才重试解密
+ * - 拉不到 key 或重新拉取后 key 未变化的 uid 在 [RETRY_INTERVAL_MS] 内不再请求，有人加入时的预取不受限制
+ *
+ * 缓存随 ViewModel 释放，不跨通话复用。
+ */
+class ParticipantKeyCache(
+    private val scope: CoroutineScope,
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val fetcher: suspend (uids: List<String>) -> Map<String, String>,
+) {
+    companion object {
+        const val RETRY_INTERVAL_MS = 30_000L
+    }
+
+    private val keys = ConcurrentHashMap<String, String>()
+    private val inFlight = ConcurrentHashMap<String, Deferred<String?>>()
+
+    // uid -> 下次允许请求的时间
+    private val retryAfter = ConcurrentHashMap<String, Long>()
+
+    val hits = AtomicLong()
+    val misses = AtomicLong()
+    val refetches = AtomicLong()
+
+    /**
+     * 批量预取尚未缓存的参与者公钥，identity 可以带设备后缀
+     */
+    fun prefetch(identities: Collection<String>) {
+        val missing = identities.map { normalize(it) }.distinct().filter { !keys.containsKey(it) }
+        if (missing.isEmpty()) return
+        // 有人加入，之前拉不到的 key 可能已经可用
+        missing.forEach { retryAfter.remove(it) }
+        scope.launch(Dispatchers.IO) {
+            val fetched = fetch(missing)
+            L.i { "[Call] ParticipantKeyCache prefetch ${fetched.size}/${missing.size}" }
+        }
+    }
+
+    suspend fun get(identity: String): String? {
+        val uid = normalize(identity)
+        keys[uid]?.let {
+            hits.incrementAndGet()
+            return it
+        }
+        misses.incrementAndGet()
+        return fetch(listOf(uid))[uid]
+    }
+
+    /**
+     * 用缓存的公钥执行 [block]，返回 null 视为解密失败，此时刷新公钥后最多再试一次
+     */
+    suspend fun <T> withKey(identity: String, block: (String) -> T?): T? {
+        val uid = normalize(identity)
+        val key = get(uid) ?: return null
+        block(key)?.let { return it }
+
+        // 解密失败，可能是对方的 key 已经轮换
+        if (isThrottled(uid)) return null
+        refetches.incrementAndGet()
+        val refreshed = fetch(listOf(uid))[uid] ?: return null
+        if (refreshed == key) {
+            retryAfter[uid] = clock() + RETRY_INTERVAL_MS
+            return null
+        }
+        L.i { "[Call] ParticipantKeyCache key rotated for $uid" }
+        return block(refreshed)
+    }
+
+    fun clear() {
+        L.i { "[Call] ParticipantKeyCache clear, size:${keys.size} hits:${hits.get()} misses:${misses.get()} refetches:${refetches.get()}" }
+        keys.clear()
+        retryAfter.clear()
+    }
+
+    private suspend fun fetch(uids: List<String>): Map<String, String> {
+        val owned = HashMap<String, CompletableDeferred<String?>>()
+        val waiting = HashMap<String, Deferred<String?>>()
+        uids.forEach { uid ->
+            if (isThrottled(uid)) return@forEach
+            val deferred = CompletableDeferred<String?>()
+            val existing = inFlight.putIfAbsent(uid, deferred)
+            if (existing == null) owned[uid] = deferred else waiting[uid] = existing
+        }
+
+        var result = emptyMap<String, String>()
+        if (owned.isNotEmpty()) {
+            result = try {
+                fetcher(owned.keys.toList())
+            } catch (e: CancellationException) {
+                owned.forEach { (uid, deferred) -> complete(uid, deferred, null) }
+                throw e
+            } catch (e: Exception) {
+                L.e { "[Call] ParticipantKeyCache fetch error: ${e.message}" }
+                emptyMap()
+            }
+            result.forEach { (uid, key) -> keys[uid] = key }
+            owned.keys.forEach { uid ->
+                if (result.containsKey(uid)) retryAfter.remove(uid) else retryAfter[uid] = clock() + RETRY_INTERVAL_MS
+            }
+            owned.forEach { (uid, deferred) -> complete(uid, deferred, result[uid]) }
+        }
+
+        val resolved = HashMap<String, String>()
+        owned.keys.forEach { uid -> result[uid]?.let { resolved[uid] = it } }
+        waiting.forEach { (uid, deferred) -> deferred.await()?.let { resolved[uid] = it } }
+        return resolved
+    }
+
+    private fun isThrottled(uid: String): Boolean = (retryAfter[uid] ?: 0L) > clock()
+
+    private fun complete(uid: String, deferred: CompletableDeferred<String?>, key: String?) {
+        inFlight.remove(uid, deferred)
+        deferred.complete(key)
+    }
+
+    private fun normalize(identity: String): String = identity.substringBefore('.')
+}
@@ -1,18 +1,21 @@
 package com.difft.android.call.manager
 
+import android.os.SystemClock
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.call.util.IdUtil
-import com.difft.android.call.util.sortParticipantsByPriority
+import com.difft.android.call.util.ParticipantOrder
+import com.difft.android.call.util.ParticipantRank
 import io.livekit.android.room.participant.LocalParticipant
 import io.livekit.android.room.participant.Participant
 import io.livekit.android.room.participant.RemoteParticipant
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
 
 class ParticipantManager(private val scope: CoroutineScope) {
     private val _participants = MutableStateFlow<List<Participant>>(emptyList())
@@ -28,10 +31,22 @@ class ParticipantManager(private val scope: CoroutineScope) {
     val screenSharingUser = _screenSharingUser.asStateFlow()
 
     /**
-     * Updates the internal participants list with the provided value.
+     * Tile order of [participants], only touched under its own lock. Track and speaker events reposition
+     * single participants and [participants] is republished only when the order or the members changed.
+     */
+    private val order = ParticipantOrder()
+
+    @Volatile
+    private var speakerMoveJob: Job? = null
+
+    /**
+     * Updates the internal participants list with the provided value, keeping the current tile order.
      */
     fun setParticipants(list: List<Participant>) {
-        _participants.value = list
+        synchronized(order) {
+            val changes = order.sync(list.map { it.toRank() }, SystemClock.elapsedRealtime())
+            publish(changes, list.associateBy { it.sid.value })
+        }
     }
 
     /**
@@ -52,15 +67,12 @@ class ParticipantManager(private val scope: CoroutineScope) {
     }
 
     /**
-     * Re-sorts the participants list based on their priority.
+     * Re-sorts the participants whose tracks changed.
      */
     fun resortParticipants() {
-        scope.launch {
+        scope.launch(Dispatchers.Default) {
             try {
-                withContext(Dispatchers.Default) {
-                    val sortedList = sortParticipantsByPriority(participants.value)
-                    setParticipants(sortedList)
-                }
+                setParticipants(participants.value)
             } catch (e: Exception) {
                 L.e { "[Call] ParticipantManager resortParticipants error = ${e.message}" }
             }
@@ -68,45 +80,56 @@ class ParticipantManager(private val scope: CoroutineScope) {
     }
 
     /**
-     * Sorts a list of participants by their speaking activity.
+     * Moves new speakers into the speaker block after [ParticipantOrder.DEFAULT_ENTRY_DELAY_MS], speakers that went
+     * quiet leave it after [ParticipantOrder.DEFAULT_HOLD_MS].
      */
     fun sortParticipantsBySpeaker(speakers: List<Participant>) {
-        val participantsList = participants.value
-        if(participantsList.isEmpty()){
-            return
+        try {
+            synchronized(order) {
+                val changes = order.onSpeakersChanged(speakers.map { it.sid.value }, SystemClock.elapsedRealtime())
+                publish(changes)
+            }
+            scheduleSpeakerMoves()
+        } catch (e: Exception) {
+            L.e { "[Call] ParticipantManager sortParticipantsBySpeaker error = ${e.message}." }
         }
-        // Check each speaker to see if it needs to be sorted
-        for (speaker in speakers) {
-            val speakerIndex = participantsList.indexOf(speaker)
-            if (speakerIndex == 0) continue // The first speaker does not need to be ranked
-            try {
-                if (speakerIndex > 0) {
-                    val previousParticipant = participantsList[speakerIndex - 1]
-                    if (isParticipantInactive(previousParticipant)){
-                        resortParticipants()
-                        return
-                    }
-                    // Check if there are any participants in front of you who have not turned on their microphones.
-                    val previousParticipants = participantsList.subList(0, speakerIndex)
-                    if (previousParticipants.isNotEmpty() && previousParticipants.any { isParticipantInactive(it) }) {
-                        resortParticipants()
-                        return
-                    }
-                }
-            } catch (e: Exception){
-                L.e { "[Call] ParticipantManager sortParticipantsBySpeaker error = ${e.message}." }
-                return
+    }
+
+    private fun scheduleSpeakerMoves() {
+        val next = synchronized(order) { order.nextScheduledChange() } ?: return
+        speakerMoveJob?.cancel()
+        speakerMoveJob = scope.launch(Dispatchers.Default) {
+            delay((next - SystemClock.elapsedRealtime()).coerceAtLeast(0L))
+            synchronized(order) {
+                publish(order.advance(SystemClock.elapsedRealtime()))
             }
+            scheduleSpeakerMoves()
         }
     }
 
     /**
-     * Checks whether the specified participant is currently inactive.
+     * Applies [changes] to the published list, [current] replaces the participant instances when given.
      */
-    private fun isParticipantInactive(participant: Participant): Boolean {
-        return participant !is LocalParticipant && !participant.isScreenShareEnabled && !participant.isCameraEnabled && !participant.isMicrophoneEnabled
+    private fun publish(changes: List<ParticipantOrder.Change>, current: Map<String, Participant>? = null) {
+        val published = participants.value
+        val instancesChanged = current != null && published.any { current[it.sid.value].let { participant -> participant != null && participant !== it } }
+        if (changes.isEmpty() && !instancesChanged) return
+
+        val byId = current ?: published.associateBy { it.sid.value }
+        val list = published.toMutableList()
+        ParticipantOrder.applyChanges(list, changes, { it.sid.value }, { byId.getValue(it) })
+        _participants.value = if (instancesChanged) list.map { byId[it.sid.value] ?: it } else list
     }
 
+    private fun Participant.toRank() = ParticipantRank(
+        id = sid.value,
+        isLocal = this is LocalParticipant,
+        isScreenSharing = isScreenShareEnabled,
+        isCameraEnabled = isCameraEnabled,
+        isMicrophoneEnabled = isMicrophoneEnabled,
+        joinedAt = joinedAt ?: 0L
+    )
+
     fun updateAwaitingJoinInvitees() {
         val joinedUserIds = participants.value.mapNotNull { participant ->
             IdUtil.getUidByIdentity(participant.identity?.value)
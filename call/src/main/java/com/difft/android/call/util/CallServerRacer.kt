@@ -0,0 +1,153 @@
+package com.difft.android.call.util
+
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.call.data.SpeedResponseStatus
+import com.difft.android.call.data.UrlSpeedResponse
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 通话节点竞速（happy-eyeballs 方式）
+ *
+ * 按排名错开启动各节点的探测：上一个节点启动 [Config.staggerDelayMs] 后仍未返回、或已失败时，立即启动下一个。
+ * 第一个成功的节点胜出，其余探测随协程取消；主节点不可达时不必等完整的连接超时。
+ *
+ * 获取到节点配置、发起或接听通话时即开始竞速；入会时结果仍未返回的话，最多再等 [Config.joinBudgetMs]，然后排序：
+ * - 最近一次竞速中探测失败的节点排最后
+ * - 有实测入会耗时的节点按入会耗时排序，排在没有入会记录的节点前
+ * - 其余节点保持原有顺序，竞速胜出者优先
+ */
+class CallServerRacer(
+    private val config: Config = Config(),
+    private val clock: () -> Long = System::currentTimeMillis,
+    private val probe: suspend (String) -> UrlSpeedResponse = CallSpeedTest::probeUrl,
+) {
+    data class Config(
+        val staggerDelayMs: Long = 250L,
+        val maxNodes: Int = 3,
+        val timeoutMs: Long = 3_000L,
+        /** 竞速结果的有效期，过期后 [refreshInBackground] 重新竞速 */
+        val maxAgeMs: Long = 60_000L,
+        /** 入会时等待进行中的竞速的最长时间 */
+        val joinBudgetMs: Long = 1_000L,
+    )
+
+    data class RaceResult(
+        val winner: String?,
+        val latencyMs: Long,
+        val failedUrls: List<String>,
+    )
+
+    @Volatile
+    private var lastResult: RaceResult? = null
+
+    @Volatile
+    private var lastRaceTime = 0L
+
+    private var raceJob: Job? = null
+
+    // url -> 平滑后的实测入会耗时
+    private val joinLatencies = ConcurrentHashMap<String, Long>()
+
+    suspend fun race(urls: List<String>): RaceResult = coroutineScope {
+        val candidates = urls.distinct().take(config.maxNodes.coerceAtLeast(1))
+        val started = List(candidates.size) { CompletableDeferred<Unit>() }
+        val failed = List(candidates.size) { CompletableDeferred<Unit>() }
+        val results = Channel<Pair<String, UrlSpeedResponse>>(Channel.UNLIMITED)
+        val failedUrls = mutableListOf<String>()
+
+        val jobs = candidates.mapIndexed { index, url ->
+            launch {
+                if (index > 0) {
+                    started[index - 1].await()
+                    withTimeoutOrNull(config.staggerDelayMs) { failed[index - 1].await() }
+                }
+                started[index].complete(Unit)
+                val response = probe(url)
+                if (response.status != SpeedResponseStatus.SUCCESS) {
+                    failed[index].complete(Unit)
+                }
+                results.send(url to response)
+            }
+        }
+
+        val winner = withTimeoutOrNull(config.timeoutMs) {
+            repeat(candidates.size) {
+                val (url, response) = results.receive()
+                if (response.status == SpeedResponseStatus.SUCCESS) {
+                    return@withTimeoutOrNull url to response.speed
+                }
+                failedUrls.add(url)
+            }
+            null
+        }
+        jobs.forEach { it.cancel() }
+        results.close()
+
+        L.i { "[Call] CallServerRacer winner:${winner?.first} latency:${winner?.second} failed:$failedUrls candidates:${candidates.size}" }
+        RaceResult(winner?.first, winner?.second ?: -1, failedUrls.toList()).also {
+            lastResult = it
+            lastRaceTime = clock()
+        }
+    }
+
+    /**
+     * 结果过期且没有竞速在进行时，在 [scope] 中重新竞速，不阻塞调用方
+     */
+    @Synchronized
+    fun refreshInBackground(scope: CoroutineScope, urls: List<String>, onResult: (RaceResult) -> Unit = {}) {
+        if (urls.size < 2 || raceJob?.isActive == true) return
+        if (lastResult != null && clock() - lastRaceTime < config.maxAgeMs) return
+        raceJob = scope.launch {
+            onResult(race(urls))
+        }
+    }
+
+    /**
+     * 入会前排序：结果过期时开始竞速，并最多等待 [Config.joinBudgetMs] 让进行中的竞速返回；超时的话按已有结果排序，竞速继续在 [scope] 中进行
+     */
+    suspend fun awaitRank(scope: CoroutineScope, urls: List<String>, onResult: (RaceResult) -> Unit = {}): List<String> {
+        if (urls.size < 2) return urls
+        refreshInBackground(scope, urls, onResult)
+        val job = synchronized(this) { raceJob }
+        if (job?.isActive == true) {
+            withTimeoutOrNull(config.joinBudgetMs) { job.join() }
+        }
+        return rank(urls)
+    }
+
+    /**
+     * 用缓存的竞速结果和实测入会耗时给节点排序，没有缓存时保持原有顺序
+     */
+    fun rank(urls: List<String>): List<String> {
+        val result = lastResult?.takeIf { clock() - lastRaceTime < config.maxAgeMs }
+        val failedUrls = result?.failedUrls.orEmpty()
+        return urls.sortedWith(
+            compareBy<String>(
+                { it in failedUrls },
+                { joinLatencies[it] ?: Long.MAX_VALUE },
+                { it != result?.winner }
+            )
+        )
+    }
+
+    /**
+     * 记录一次成功入会的实测耗时
+     */
+    fun recordJoin(url: String, latencyMs: Long) {
+        joinLatencies.compute(url) { _, previous -> if (previous == null) latencyMs else (previous * 3 + latencyMs) / 4 }
+    }
+
+    /**
+     * 入会失败的节点不再按之前的入会耗时排在前面
+     */
+    fun recordJoinFailure(url: String) {
+        joinLatencies.remove(url)
+    }
+}
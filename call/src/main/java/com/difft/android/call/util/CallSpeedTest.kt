@@ -4,9 +4,15 @@ import com.difft.android.base.log.lumberjack.L
 import com.difft.android.call.data.SpeedResponseStatus
 import com.difft.android.call.data.UrlSpeedResponse
 import com.difft.android.network.config.UserAgentManager
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Call
+import okhttp3.Callback
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
 import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
 
 object CallSpeedTest {
 
@@ -24,12 +30,7 @@ object CallSpeedTest {
     fun measureUrlResponseTime(url: String): UrlSpeedResponse {
         var status: SpeedResponseStatus
 
-        val request = Request.Builder()
-            .url(url)
-            .header("User-Agent", UserAgentManager.getUserAgent())
-            .header("Range", "bytes=0-0")
-            .get()
-            .build()
+        val request = buildRequest(url)
 
         val startTime = System.currentTimeMillis()
         try {
@@ -46,4 +47,43 @@ object CallSpeedTest {
 
         return UrlSpeedResponse(status, endTime - startTime)
     }
+
+    /**
+     * 可取消的测速请求，协程取消时同时取消 HTTP 请求，用于多个节点竞速
+     */
+    suspend fun probeUrl(url: String): UrlSpeedResponse {
+        val startTime = System.currentTimeMillis()
+        val status = suspendCancellableCoroutine { continuation ->
+            val call = client.newCall(buildRequest(url))
+            continuation.invokeOnCancellation { call.cancel() }
+            call.enqueue(object : Callback {
+                override fun onResponse(call: Call, response: Response) {
+                    val result = try {
+                        response.use { it.body?.bytes() }
+                        SpeedResponseStatus.SUCCESS
+                    } catch (e: IOException) {
+                        SpeedResponseStatus.ERROR
+                    }
+                    continuation.resume(result)
+                }
+
+                override fun onFailure(call: Call, e: IOException) {
+                    if (!call.isCanceled()) {
+                        L.e { "[call] CallSpeedTest probeUrl, url:$url error: ${e.message}" }
+                    }
+                    continuation.resume(SpeedResponseStatus.ERROR)
+                }
+            })
+        }
+        return UrlSpeedResponse(status, System.currentTimeMillis() - startTime)
+    }
+
+    private fun buildRequest(url: String): Request {
+        return Request.Builder()
+            .url(url)
+            .header("User-Agent", UserAgentManager.getUserAgent())
+            .header("Range", "bytes=0-0")
+            .get()
+            .build()
+    }
 }
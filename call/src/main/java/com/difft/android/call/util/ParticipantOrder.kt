@@ -0,0 +1,243 @@
+package com.difft.android.call.util
+
+import java.util.Collections
+
+/**
+ * What a participant's tile position depends on, apart from speaking which [ParticipantOrder] tracks itself.
+ *
+ * @param id stable key of the tile, the participant sid
+ */
+data class ParticipantRank(
+    val id: String,
+    val isLocal: Boolean,
+    val isScreenSharing: Boolean,
+    val isCameraEnabled: Boolean,
+    val isMicrophoneEnabled: Boolean,
+    val joinedAt: Long,
+)
+
+/**
+ * Keeps the participants of a call in tile order and updates it one participant at a time.
+ *
+ * Sorting priority (highest to lowest):
+ * 1. Local participant (always first)
+ * 2. Participants with screen sharing enabled
+ * 3. Participants with camera enabled
+ * 4. Speaking participants, the one who started speaking last first
+ * 5. Participants with microphone enabled
+ * 6. Recently active speakers (by the time they stopped speaking)
+ * 7. Participants who joined earlier
+ *
+ * The order is a sorted array. Every event repositions only the participants it changed, each found by binary
+ * search, and reports the result as [Change]s that turn the previous order into the new one. Speakers that go
+ * quiet keep their place for [holdMs], so someone pausing between sentences does not leave and re-enter the
+ * speaker block, and speakers that are already in it do not reshuffle by audio level.
+ *
+ * A speaker enters the speaker block only after speaking for [entryDelayMs], so a cough or a short "yes" does not
+ * move a tile. At most [maxSpeakerMovesPerSecond] speakers enter or leave the block in any second, the others wait
+ * until [nextScheduledChange]. Joins, leaves and track changes are applied right away.
+ *
+ * Not thread safe.
+ */
+class ParticipantOrder(
+    private val holdMs: Long = DEFAULT_HOLD_MS,
+    private val entryDelayMs: Long = DEFAULT_ENTRY_DELAY_MS,
+    private val maxSpeakerMovesPerSecond: Int = DEFAULT_MAX_SPEAKER_MOVES_PER_SECOND,
+) {
+
+    sealed class Change {
+        abstract val id: String
+
+        data class Insert(val index: Int, override val id: String) : Change()
+        data class Remove(val index: Int, override val id: String) : Change()
+        data class Move(val from: Int, val to: Int, override val id: String) : Change()
+    }
+
+    /**
+     * @param speakingSince when the participant started speaking, 0 if it is not in the speaker block
+     * @param lastSpokeAt when the participant last left the speaker block
+     */
+    private class Entry(val rank: ParticipantRank, val speakingSince: Long, val lastSpokeAt: Long) {
+        fun copy(rank: ParticipantRank = this.rank, speakingSince: Long = this.speakingSince, lastSpokeAt: Long = this.lastSpokeAt) =
+            Entry(rank, speakingSince, lastSpokeAt)
+    }
+
+    private val order = ArrayList<Entry>()
+    private val entries = HashMap<String, Entry>()
+
+    /** Participants reported as speaking by the last [onSpeakersChanged]. */
+    private val speaking = HashSet<String>()
+
+    /** Participants that stopped speaking and stay in the speaker block until the given time. */
+    private val heldUntil = HashMap<String, Long>()
+
+    /** Speaking participants outside the speaker block, by when they started speaking. */
+    private val pendingSince = HashMap<String, Long>()
+
+    /** When the speaker moves of the last second were made, oldest first. */
+    private val recentSpeakerMoves = ArrayDeque<Long>()
+
+    val ids: List<String> get() = order.map { it.rank.id }
+
+    val size: Int get() = order.size
+
+    /**
+     * Applies the current participants: new ones are inserted, missing ones removed and the ones whose
+     * [ParticipantRank] changed are moved.
+     */
+    fun sync(participants: List<ParticipantRank>, now: Long): List<Change> {
+        val changes = ArrayList<Change>()
+        if (entries.size > participants.size || participants.any { it.id !in entries }) {
+            val present = participants.mapTo(HashSet(participants.size)) { it.id }
+            entries.keys.filter { it !in present }.forEach { id ->
+                val index = indexOf(entries.getValue(id))
+                order.removeAt(index)
+                entries.remove(id)
+                speaking.remove(id)
+                heldUntil.remove(id)
+                pendingSince.remove(id)
+                changes.add(Change.Remove(index, id))
+            }
+        }
+
+        for (rank in participants) {
+            val entry = entries[rank.id]
+            if (entry == null) {
+                val added = Entry(rank, 0L, 0L)
+                val index = insertionPoint(added)
+                order.add(index, added)
+                entries[rank.id] = added
+                changes.add(Change.Insert(index, rank.id))
+            } else if (entry.rank != rank) {
+                reposition(entry, entry.copy(rank = rank), changes)
+            }
+        }
+        changes.addAll(advance(now))
+        return changes
+    }
+
+    /**
+     * New speakers enter the speaker block once they spoke for [entryDelayMs], speakers that went quiet are held
+     * for [holdMs].
+     */
+    fun onSpeakersChanged(speakerIds: Collection<String>, now: Long): List<Change> {
+        val current = speakerIds.filterTo(HashSet(speakerIds.size)) { it in entries }
+
+        for (id in speaking) {
+            if (id in current) continue
+            pendingSince.remove(id)
+            if (entries.getValue(id).speakingSince != 0L) heldUntil[id] = now + holdMs
+        }
+        for (id in current) {
+            heldUntil.remove(id)
+            if (entries.getValue(id).speakingSince == 0L) pendingSince.putIfAbsent(id, now)
+        }
+        speaking.clear()
+        speaking.addAll(current)
+
+        return advance(now)
+    }
+
+    /**
+     * Moves speakers that spoke for [entryDelayMs] into the speaker block and speakers whose hold ended out of it,
+     * as far as [maxSpeakerMovesPerSecond] allows. Longest waiting speakers enter first.
+     */
+    fun advance(now: Long): List<Change> {
+        if (pendingSince.isEmpty() && heldUntil.isEmpty()) return emptyList()
+        val changes = ArrayList<Change>()
+        val entering = pendingSince.entries.filter { it.value + entryDelayMs <= now }.sortedWith(WAITING_ORDER).map { it.key }
+        for (id in entering) {
+            if (!takeSpeakerMove(now)) return changes
+            pendingSince.remove(id)
+            val entry = entries.getValue(id)
+            reposition(entry, entry.copy(speakingSince = now.coerceAtLeast(1L)), changes)
+        }
+        val leaving = heldUntil.entries.filter { it.value <= now }.sortedWith(WAITING_ORDER).map { it.key to it.value }
+        for ((id, until) in leaving) {
+            if (!takeSpeakerMove(now)) return changes
+            heldUntil.remove(id)
+            val entry = entries.getValue(id)
+            reposition(entry, entry.copy(speakingSince = 0L, lastSpokeAt = until - holdMs), changes)
+        }
+        return changes
+    }
+
+    /**
+     * @return when [advance] has something to move next, null if no speaker is waiting to enter or leave
+     */
+    fun nextScheduledChange(): Long? {
+        val next = (pendingSince.values.map { it + entryDelayMs } + heldUntil.values).minOrNull() ?: return null
+        val budgetFreed = if (recentSpeakerMoves.size >= maxSpeakerMovesPerSecond) recentSpeakerMoves.first() + 1_000L else 0L
+        return maxOf(next, budgetFreed)
+    }
+
+    private fun takeSpeakerMove(now: Long): Boolean {
+        while (recentSpeakerMoves.isNotEmpty() && recentSpeakerMoves.first() + 1_000L <= now) {
+            recentSpeakerMoves.removeFirst()
+        }
+        if (recentSpeakerMoves.size >= maxSpeakerMovesPerSecond) return false
+        recentSpeakerMoves.addLast(now)
+        return true
+    }
+
+    private fun reposition(old: Entry, new: Entry, changes: MutableList<Change>) {
+        val from = indexOf(old)
+        order.removeAt(from)
+        val to = insertionPoint(new)
+        order.add(to, new)
+        entries[new.rank.id] = new
+        if (from != to) changes.add(Change.Move(from, to, new.rank.id))
+    }
+
+    private fun indexOf(entry: Entry): Int {
+        val index = Collections.binarySearch(order, entry, COMPARATOR)
+        check(index >= 0) { "Participant ${entry.rank.id} is not in the order" }
+        return index
+    }
+
+    private fun insertionPoint(entry: Entry): Int {
+        val index = Collections.binarySearch(order, entry, COMPARATOR)
+        return if (index >= 0) index else -index - 1
+    }
+
+    companion object {
+        const val DEFAULT_HOLD_MS = 3_000L
+        const val DEFAULT_ENTRY_DELAY_MS = 500L
+        const val DEFAULT_MAX_SPEAKER_MOVES_PER_SECOND = 2
+
+        /** Speakers waiting to enter or leave the speaker block, earliest first and by id for the same time. */
+        private val WAITING_ORDER = compareBy<Map.Entry<String, Long>>({ it.value }, { it.key })
+
+        /** Total order, the id breaks ties so every entry has exactly one position. */
+        private val COMPARATOR = Comparator<Entry> { a, b ->
+            val x = a.rank
+            val y = b.rank
+            when {
+                x.isLocal != y.isLocal -> if (x.isLocal) -1 else 1
+                x.isScreenSharing != y.isScreenSharing -> if (x.isScreenSharing) -1 else 1
+                x.isCameraEnabled != y.isCameraEnabled -> if (x.isCameraEnabled) -1 else 1
+                (a.speakingSince != 0L) != (b.speakingSince != 0L) -> if (a.speakingSince != 0L) -1 else 1
+                a.speakingSince != b.speakingSince -> b.speakingSince.compareTo(a.speakingSince)
+                x.isMicrophoneEnabled != y.isMicrophoneEnabled -> if (x.isMicrophoneEnabled) -1 else 1
+                a.lastSpokeAt != b.lastSpokeAt -> b.lastSpokeAt.compareTo(a.lastSpokeAt)
+                x.joinedAt != y.joinedAt -> x.joinedAt.compareTo(y.joinedAt)
+                else -> x.id.compareTo(y.id)
+            }
+        }
+
+        /**
+         * Applies [changes] in order to [list], whose items are identified by [id].
+         *
+         * @param added item for an inserted id
+         */
+        inline fun <T> applyChanges(list: MutableList<T>, changes: List<Change>, id: (T) -> String, added: (String) -> T) {
+            for (change in changes) {
+                when (change) {
+                    is Change.Insert -> list.add(change.index, added(change.id))
+                    is Change.Remove -> list.removeAt(change.index).also { check(id(it) == change.id) }
+                    is Change.Move -> list.add(change.to, list.removeAt(change.from).also { check(id(it) == change.id) })
+                }
+            }
+        }
+    }
+}
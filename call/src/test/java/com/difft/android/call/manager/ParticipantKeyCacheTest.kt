@@ -0,0 +1,47 @@
+package com.difft.android.call.manager
+
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ParticipantKeyCacheTest {
+
+    private var now = 0L
+    private val requests = AtomicInteger()
+    private val serverKeys = HashMap<String, String>()
+
+    private fun TestScope.cache() = ParticipantKeyCache(backgroundScope, { now }) { uids ->
+        requests.incrementAndGet()
+        uids.mapNotNull { uid -> serverKeys[uid]?.let { uid to it } }.toMap()
+    }
+
+    @Test
+    fun `missing keys are not requested again until the retry interval passed`() = runTest {
+        val cache = cache()
+
+        repeat(10) { assertNull(cache.withKey("alice.1") { it }) }
+        assertEquals(1, requests.get())
+
+        serverKeys["alice"] = "k1"
+        now += ParticipantKeyCache.RETRY_INTERVAL_MS + 1
+        assertEquals("k1", cache.withKey("alice.1") { it })
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun `an unchanged key after a decrypt failure is not refetched for every message`() = runTest {
+        serverKeys["bob"] = "k1"
+        val cache = cache()
+
+        repeat(10) { assertNull(cache.withKey("bob") { null }) }
+        assertEquals(2, requests.get())
+
+        serverKeys["bob"] = "k2"
+        now += ParticipantKeyCache.RETRY_INTERVAL_MS + 1
+        assertEquals("k2", cache.withKey("bob") { key -> key.takeIf { it == "k2" } })
+        assertEquals(3, requests.get())
+    }
+}
@@ -0,0 +1,144 @@
+package com.difft.android.call.util
+
+import com.difft.android.call.data.SpeedResponseStatus
+import com.difft.android.call.data.UrlSpeedResponse
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.advanceUntilIdle
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class CallServerRacerTest {
+
+    private var now = 0L
+    private val probes = AtomicInteger()
+    private val startTimes = ConcurrentHashMap<String, Long>()
+    private val cancelled = ConcurrentHashMap.newKeySet<String>()
+
+    private fun racer(probe: suspend (String) -> UrlSpeedResponse) = CallServerRacer(
+        CallServerRacer.Config(staggerDelayMs = 250, maxNodes = 3, timeoutMs = 3_000, maxAgeMs = 60_000, joinBudgetMs = 1_000),
+        { now },
+        probe
+    )
+
+    private fun ok(latencyMs: Long) = UrlSpeedResponse(SpeedResponseStatus.SUCCESS, latencyMs)
+
+    private fun failed() = UrlSpeedResponse(SpeedResponseStatus.ERROR, Long.MAX_VALUE)
+
+    @Test
+    fun `slow primary loses to the staggered secondary and is cancelled`() = runTest {
+        val racer = racer { url ->
+            startTimes[url] = currentTime
+            try {
+                delay(if (url == "a") 2_000 else 100)
+                ok(if (url == "a") 2_000 else 100)
+            } catch (e: CancellationException) {
+                cancelled.add(url)
+                throw e
+            }
+        }
+
+        val result = racer.race(listOf("a", "b", "c"))
+
+        assertEquals("b", result.winner)
+        assertEquals(100L, result.latencyMs)
+        assertEquals(0L, startTimes["a"])
+        assertEquals(250L, startTimes["b"])
+        assertFalse("c" in startTimes, "third node should not start before the second one wins")
+        assertTrue("a" in cancelled)
+    }
+
+    @Test
+    fun `failed probe starts the next node without waiting for the stagger delay`() = runTest {
+        val racer = racer { url ->
+            startTimes[url] = currentTime
+            delay(50)
+            if (url == "b") ok(50) else failed()
+        }
+
+        val result = racer.race(listOf("a", "b"))
+
+        assertEquals("b", result.winner)
+        assertEquals(50L, startTimes["b"])
+        assertEquals(listOf("a"), result.failedUrls)
+    }
+
+    @Test
+    fun `ranking does not wait for a probe and uses the race once it finished`() = runTest {
+        val racer = racer { url ->
+            probes.incrementAndGet()
+            delay(100)
+            if (url == "a") failed() else ok(100)
+        }
+        val urls = listOf("a", "b", "c")
+
+        racer.refreshInBackground(backgroundScope, urls)
+        assertEquals(urls, racer.rank(urls))
+        assertEquals(0L, currentTime)
+
+        advanceUntilIdle()
+        assertEquals(listOf("b", "c", "a"), racer.rank(urls))
+
+        racer.refreshInBackground(backgroundScope, urls)
+        advanceUntilIdle()
+        assertEquals(2, probes.get(), "a fresh result is not raced again")
+
+        now += 60_001
+        assertEquals(urls, racer.rank(urls), "a stale result is not used")
+    }
+
+    @Test
+    fun `join waits a short budget for a running race`() = runTest {
+        val racer = racer { url ->
+            probes.incrementAndGet()
+            delay(if (url == "a") 5_000 else 100)
+            if (url == "a") failed() else ok(100)
+        }
+        val urls = listOf("a", "b", "c")
+
+        // 预热的竞速已经开始，入会时等它返回
+        racer.refreshInBackground(backgroundScope, urls)
+        delay(300)
+        assertEquals(listOf("b", "a", "c"), racer.awaitRank(backgroundScope, urls))
+        assertEquals(350L, currentTime, "the join only waits until the staggered secondary wins")
+        assertEquals(2, probes.get(), "the join does not start a second race")
+    }
+
+    @Test
+    fun `join does not wait longer than the budget`() = runTest {
+        val racer = racer { url ->
+            probes.incrementAndGet()
+            delay(5_000)
+            ok(5_000)
+        }
+        val urls = listOf("a", "b")
+
+        assertEquals(urls, racer.awaitRank(backgroundScope, urls))
+        assertEquals(1_000L, currentTime)
+        assertEquals(2, probes.get(), "the race keeps running after the join gave up waiting")
+    }
+
+    @Test
+    fun `measured join latency ranks ahead of the probe winner`() = runTest {
+        val racer = racer { url ->
+            delay(if (url == "a") 50 else 100)
+            ok(if (url == "a") 50 else 100)
+        }
+        val urls = listOf("a", "b", "c")
+        racer.race(urls)
+        assertEquals(listOf("a", "b", "c"), racer.rank(urls))
+
+        racer.recordJoin("c", 800)
+        racer.recordJoin("a", 1_600)
+        assertEquals(listOf("c", "a", "b"), racer.rank(urls))
+
+        racer.recordJoinFailure("c")
+        assertEquals(listOf("a", "b", "c"), racer.rank(urls))
+    }
+}
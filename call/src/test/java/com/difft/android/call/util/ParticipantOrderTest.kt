@@ -0,0 +1,189 @@
+package com.difft.android.call.util
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ParticipantOrderTest {
+
+    private fun rank(id: String, local: Boolean = false, camera: Boolean = false, mic: Boolean = false, joinedAt: Long = id.filter { it.isDigit() }.toLongOrNull() ?: 0L) =
+        ParticipantRank(id, local, isScreenSharing = false, isCameraEnabled = camera, isMicrophoneEnabled = mic, joinedAt = joinedAt)
+
+    @Test
+    fun `speakers enter right away and leave after the hold`() {
+        val order = ParticipantOrder(holdMs = 3_000, entryDelayMs = 0, maxSpeakerMovesPerSecond = 10)
+        order.sync(listOf(rank("me", local = true), rank("p1", camera = true), rank("p2", mic = true), rank("p3", mic = true), rank("p4")), now = 1_000)
+        assertEquals(listOf("me", "p1", "p2", "p3", "p4"), order.ids)
+
+        assertEquals(listOf<ParticipantOrder.Change>(ParticipantOrder.Change.Move(3, 2, "p3")), order.onSpeakersChanged(listOf("p3"), now = 2_000))
+        assertEquals(listOf("me", "p1", "p3", "p2", "p4"), order.ids)
+
+        // A pause shorter than the hold does not move anybody
+        assertEquals(emptyList(), order.onSpeakersChanged(emptyList(), now = 3_000))
+        assertEquals(emptyList(), order.onSpeakersChanged(listOf("p3"), now = 4_000))
+        assertEquals(emptyList(), order.onSpeakersChanged(emptyList(), now = 5_000))
+        assertEquals(8_000L, order.nextScheduledChange())
+
+        // After the hold p3 stays ahead of p2 as the most recent speaker
+        assertEquals(emptyList(), order.advance(now = 8_000))
+        assertEquals(listOf("me", "p1", "p3", "p2", "p4"), order.ids)
+        assertEquals(null, order.nextScheduledChange())
+
+        // p4 speaks, then turns the camera on and stays ahead of the silent camera
+        order.onSpeakersChanged(listOf("p4"), now = 9_000)
+        assertEquals(listOf("me", "p1", "p4", "p3", "p2"), order.ids)
+        order.sync(listOf(rank("me", local = true), rank("p1", camera = true), rank("p2", mic = true), rank("p3", mic = true), rank("p4", camera = true)), now = 9_500)
+        assertEquals(listOf("me", "p4", "p1", "p3", "p2"), order.ids)
+    }
+
+    @Test
+    fun `short utterances do not enter the speaker block`() {
+        val order = ParticipantOrder(holdMs = 3_000, entryDelayMs = 500, maxSpeakerMovesPerSecond = 10)
+        order.sync(listOf(rank("me", local = true), rank("p1", mic = true), rank("p2", mic = true)), now = 1_000)
+
+        assertEquals(emptyList(), order.onSpeakersChanged(listOf("p2"), now = 2_000))
+        assertEquals(2_500L, order.nextScheduledChange())
+        assertEquals(emptyList(), order.onSpeakersChanged(emptyList(), now = 2_300))
+        assertEquals(null, order.nextScheduledChange())
+        assertEquals(listOf("me", "p1", "p2"), order.ids)
+
+        // Speaking on past the delay moves the tile, from the next event or the timer
+        assertEquals(emptyList(), order.onSpeakersChanged(listOf("p2"), now = 3_000))
+        assertEquals(listOf<ParticipantOrder.Change>(ParticipantOrder.Change.Move(2, 1, "p2")), order.advance(now = 3_500))
+        assertEquals(listOf("me", "p2", "p1"), order.ids)
+    }
+
+    @Test
+    fun `speaker moves are capped per second`() {
+        val order = ParticipantOrder(holdMs = 1_000, entryDelayMs = 0, maxSpeakerMovesPerSecond = 2)
+        val ranks = listOf(rank("me", local = true)) + (1..5).map { rank("p$it", mic = true) }
+        order.sync(ranks, now = 1_000)
+
+        assertEquals(listOf("p2", "p3"), order.onSpeakersChanged(listOf("p2", "p3", "p4", "p5"), now = 1_000).map { it.id })
+        assertEquals(2_000L, order.nextScheduledChange())
+        assertEquals(emptyList(), order.advance(now = 1_500))
+        assertEquals(listOf("p4", "p5"), order.advance(now = 2_000).map { it.id })
+        assertEquals(listOf("me", "p4", "p5", "p2", "p3", "p1"), order.ids)
+
+        // Speakers that stop are held, then leave within the same budget
+        order.onSpeakersChanged(emptyList(), now = 2_500)
+        order.advance(now = 3_500)
+        assertEquals(4_500L, order.nextScheduledChange())
+        assertEquals(emptyList(), order.advance(now = 4_000))
+        order.advance(now = 4_500)
+        assertEquals(listOf("me", "p2", "p3", "p4", "p5", "p1"), order.ids)
+        assertEquals(null, order.nextScheduledChange())
+    }
+
+    @Test
+    fun `changes replay the order and membership`() {
+        val random = Random(7)
+        val order = ParticipantOrder(holdMs = 2_000)
+        val mirror = mutableListOf<String>()
+        var ranks = (0 until 50).map { rank("p$it", local = it == 0, camera = random.nextInt(10) == 0, mic = random.nextBoolean()) }
+
+        var now = 1L
+        repeat(2_000) { step ->
+            now += 250
+            val changes = when (step % 10) {
+                0 -> {
+                    ranks = ranks.filter { random.nextInt(20) != 0 || it.isLocal } + rank("n$step", mic = random.nextBoolean(), joinedAt = now)
+                    order.sync(ranks.shuffled(random), now)
+                }
+                5 -> {
+                    ranks = ranks.map { if (random.nextInt(10) == 0) it.copy(isCameraEnabled = !it.isCameraEnabled) else it }
+                    order.sync(ranks, now)
+                }
+                else -> order.onSpeakersChanged(ranks.filter { random.nextInt(15) == 0 }.map { it.id }, now)
+            }
+            ParticipantOrder.applyChanges(mirror, changes, { it }, { it })
+            assertEquals(order.ids, mirror)
+
+            val byId = ranks.associateBy { it.id }
+            val ordered = mirror.map { byId.getValue(it) }
+            assertEquals("p0", mirror.first())
+            assertEquals(ordered.drop(1).sortedByDescending { it.isCameraEnabled }, ordered.drop(1), "cameras first")
+        }
+    }
+
+    /**
+     * 200 participants, 12 with video and a handful of speakers changing every 250ms for ten minutes. Compares
+     * the incremental order with re-sorting everybody by the previous seven-key comparator on every event.
+     */
+    @Test
+    fun `speaker churn in a 200 person call`() {
+        val random = Random(42)
+        val participants = (0 until 200).map { rank("p$it", local = it == 0, camera = it in 1..12, mic = it % 3 == 0, joinedAt = it.toLong()) }
+        val micOn = participants.filter { it.isMicrophoneEnabled && !it.isLocal }.map { it.id }
+        val events = 4 * 60 * 10
+
+        val speakerTimeline = ArrayList<Map<String, Float>>(events)
+        var speakers = mapOf<String, Float>()
+        repeat(events) {
+            val next = speakers.keys.filter { random.nextFloat() < 0.7f }.toMutableSet()
+            if (next.size < 3 && random.nextFloat() < 0.4f) next.add(micOn.random(random))
+            speakers = next.associateWith { random.nextFloat() }
+            speakerTimeline.add(speakers)
+        }
+
+        val legacy = LegacyResort(participants)
+        var legacyPublishes = 0
+        var legacyDisplaced = 0L
+        speakerTimeline.forEachIndexed { index, current ->
+            val before = legacy.order
+            legacy.onSpeakers(current, index * 250L)
+            if (before != legacy.order) {
+                legacyPublishes++
+                legacyDisplaced += before.indices.count { before[it] != legacy.order[it] }
+            }
+        }
+
+        val order = ParticipantOrder()
+        val mirror = mutableListOf<String>()
+        ParticipantOrder.applyChanges(mirror, order.sync(participants, 1), { it }, { it })
+        var publishes = 0
+        var displaced = 0L
+        val moveTimes = ArrayList<Long>()
+        speakerTimeline.forEachIndexed { index, current ->
+            val now = 1 + index * 250L
+            val changes = order.advance(now) + order.onSpeakersChanged(current.keys, now)
+            if (changes.isNotEmpty()) {
+                publishes++
+                changes.forEach {
+                    moveTimes.add(now)
+                    if (it is ParticipantOrder.Change.Move) displaced += kotlin.math.abs(it.to - it.from) + 1
+                }
+                ParticipantOrder.applyChanges(mirror, changes, { it }, { it })
+            }
+        }
+
+        assertEquals(order.ids, mirror)
+        assertTrue(publishes < legacyPublishes, "publishes $publishes vs $legacyPublishes")
+        assertTrue(displaced < legacyDisplaced, "displaced $displaced vs $legacyDisplaced")
+        val busiestSecond = moveTimes.indices.maxOfOrNull { i -> moveTimes.count { it >= moveTimes[i] && it < moveTimes[i] + 1_000 } } ?: 0
+        assertTrue(busiestSecond <= ParticipantOrder.DEFAULT_MAX_SPEAKER_MOVES_PER_SECOND, "$busiestSecond moves within a second")
+    }
+
+    /**
+     * The previous ordering: a full sort on every speaker change, speakers bucketed by audio level.
+     */
+    private class LegacyResort(private val participants: List<ParticipantRank>) {
+        private val lastSpokeAt = HashMap<String, Long>()
+        var order: List<String> = participants.map { it.id }
+            private set
+
+        fun onSpeakers(speakers: Map<String, Float>, now: Long) {
+            speakers.keys.forEach { lastSpokeAt[it] = now }
+            order = participants.sortedWith(
+                compareBy<ParticipantRank> { !it.isLocal }
+                    .thenBy { !it.isScreenSharing }
+                    .thenBy { !it.isCameraEnabled }
+                    .thenBy { speakers[it.id]?.let { level -> (level / 0.1f).toInt() } ?: Int.MAX_VALUE }
+                    .thenBy { !it.isMicrophoneEnabled }
+                    .thenByDescending { lastSpokeAt[it.id] ?: 0L }
+                    .thenBy { it.joinedAt }
+            ).map { it.id }
+        }
+    }
+}
@@ -12,6 +12,8 @@ import android.view.View
 import android.widget.TextView
 import androidx.core.content.ContextCompat
 import androidx.core.net.toUri
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
 import androidx.fragment.app.FragmentActivity
 import com.difft.android.base.R
 import com.difft.android.base.log.lumberjack.L
@@ -27,75 +29,112 @@ import java.util.regex.Pattern
 @SuppressLint("ClickableViewAccessibility")
 object LinkTextUtils {
 
-    fun setMarkdownToTextview(context: Context, text: String, textView: TextView?, mentions: List<Mention>? = null) {
-        val spannableString = SpannableString(text)
+    private val emailPattern = Pattern.compile("[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,}")
+
+    private val domainPattern = Pattern.compile("^[a-zA-Z0-9]([a-zA-Z0-9-]*[a-zA-Z0-9])?(\\.[a-zA-Z0-9]([a-zA-Z0-9-]*[a-zA-Z0-9])?)*$")
+
+    /**
+     * @param cacheId 消息 ID；传入时优先复用 [MessageTextLayoutCache] 中预先计算好的结果
+     */
+    fun setMarkdownToTextview(
+        context: Context,
+        text: String,
+        textView: TextView?,
+        mentions: List<Mention>? = null,
+        cacheId: String? = null
+    ) {
+        if (textView == null) return
+
+        val spanned: CharSequence = if (cacheId != null) {
+            MessageTextLayoutCache.getOrBuild(context, cacheId, text, mentions, textView)
+        } else {
+            buildLinkText(context, text, mentions)
+        }
 
-        // 定义需要匹配的前缀数组
-        val prefixes = (listOf("http", "https") + AppScheme.allSchemes).map { "$it://" }
+        textView.movementMethod = LinkMovementMethod.getInstance()
+        if (spanned is PrecomputedTextCompat) {
+            TextViewCompat.setPrecomputedText(textView, spanned)
+        } else {
+            textView.text = spanned
+        }
+    }
 
-//        // 记录手动识别的URL位置，避免与Linkify冲突
-//        val manualUrlRanges = mutableListOf<Pair<Int, Int>>()
+    /**
+     * 构建带链接、邮箱和 @ 的 Spannable，不依赖 View，可在后台线程调用
+     *
+     * span 中不持有 [context]，点击时使用被点击 View 的 context
+     */
+    fun buildLinkText(context: Context, text: String, mentions: List<Mention>? = null): SpannableString {
+        val spannableString = SpannableString(text)
+        val linkColor = ContextCompat.getColor(context, R.color.t_info)
 
-        // 处理URL链接
-        prefixes.forEach { prefix ->
-            var start = 0
-            while (start < text.length && text.indexOf(prefix, start) >= 0) {
-                val startIndex = text.indexOf(prefix, start)
+        // 处理URL链接：只扫描一次 "://"，再向前匹配 scheme
+        var searchFrom = 0
+        while (searchFrom < text.length) {
+            val separator = text.indexOf("://", searchFrom)
+            if (separator < 0) break
 
-                // 使用更精确的URL边界检测
-                val endIndex = findUrlEndIndex(text, startIndex)
+            var schemeStart = separator
+            while (schemeStart > 0 && isSchemeChar(text[schemeStart - 1])) {
+                schemeStart--
+            }
+            val startIndex = findSchemeStart(text, schemeStart, separator)
+            if (startIndex < 0) {
+                searchFrom = separator + 3
+                continue
+            }
 
-                if (endIndex > startIndex) {
-                    val fullLink = text.substring(startIndex, endIndex)
+            // 使用更精确的URL边界检测
+            val endIndex = findUrlEndIndex(text, startIndex)
 
-                    // 验证提取的链接是否有效
-                    if (isValidUrl(fullLink)) {
-                        val clickableSpan = object : ClickableSpan() {
-                            override fun onClick(view: View) {
-                                handleUrlClick(view.context, fullLink)
-                            }
+            if (endIndex > startIndex) {
+                val fullLink = text.substring(startIndex, endIndex)
 
-                            override fun updateDrawState(ds: TextPaint) {
-                                ds.color = ContextCompat.getColor(context, R.color.t_info)
-                                ds.isUnderlineText = false
-                            }
+                // 验证提取的链接是否有效
+                if (isValidUrl(fullLink)) {
+                    val clickableSpan = object : ClickableSpan() {
+                        override fun onClick(view: View) {
+                            handleUrlClick(view.context, fullLink)
                         }
-                        spannableString.setSpan(clickableSpan, startIndex, endIndex, Spanned.SPAN_INCLUSIVE_INCLUSIVE)
 
-//                        // 记录手动识别的URL范围
-//                        manualUrlRanges.add(Pair(startIndex, endIndex))
+                        override fun updateDrawState(ds: TextPaint) {
+                            ds.color = linkColor
+                            ds.isUnderlineText = false
+                        }
                     }
+                    spannableString.setSpan(clickableSpan, startIndex, endIndex, Spanned.SPAN_INCLUSIVE_INCLUSIVE)
                 }
-
-                start = endIndex
             }
+
+            searchFrom = maxOf(endIndex, separator + 3)
         }
 
         // 处理邮箱链接
-        val emailPattern = Pattern.compile("[a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,}")
-        val emailMatcher = emailPattern.matcher(text)
-        while (emailMatcher.find()) {
-            val startIndex = emailMatcher.start()
-            val endIndex = emailMatcher.end()
-            val email = text.substring(startIndex, endIndex)
-
-            val clickableSpan = object : ClickableSpan() {
-                override fun onClick(view: View) {
-                    val intent = android.content.Intent(android.content.Intent.ACTION_SENDTO)
-                    intent.data = "mailto:$email".toUri()
-                    try {
-                        context.startActivity(intent)
-                    } catch (e: Exception) {
-                        L.e { "Error sending email: ${e.stackTraceToString()}" }
+        if (text.indexOf('@') >= 0) {
+            val emailMatcher = emailPattern.matcher(text)
+            while (emailMatcher.find()) {
+                val startIndex = emailMatcher.start()
+                val endIndex = emailMatcher.end()
+                val email = text.substring(startIndex, endIndex)
+
+                val clickableSpan = object : ClickableSpan() {
+                    override fun onClick(view: View) {
+                        val intent = android.content.Intent(android.content.Intent.ACTION_SENDTO)
+                        intent.data = "mailto:$email".toUri()
+                        try {
+                            view.context.startActivity(intent)
+                        } catch (e: Exception) {
+                            L.e { "Error sending email: ${e.stackTraceToString()}" }
+                        }
                     }
-                }
 
-                override fun updateDrawState(ds: TextPaint) {
-                    ds.color = ContextCompat.getColor(context, R.color.t_info)
-                    ds.isUnderlineText = false
+                    override fun updateDrawState(ds: TextPaint) {
+                        ds.color = linkColor
+                        ds.isUnderlineText = false
+                    }
                 }
+                spannableString.setSpan(clickableSpan, startIndex, endIndex, Spanned.SPAN_INCLUSIVE_INCLUSIVE)
             }
-            spannableString.setSpan(clickableSpan, startIndex, endIndex, Spanned.SPAN_INCLUSIVE_INCLUSIVE)
         }
 
         mentions?.forEach { mention ->
@@ -103,12 +142,12 @@ object LinkTextUtils {
                 override fun onClick(widget: View) {
                     val uid = mention.uid
                     if (!uid.isNullOrEmpty() && uid != MENTIONS_ALL_ID) {
-                        showContactDetailPopup(context, uid)
+                        showContactDetailPopup(widget.context, uid)
                     }
                 }
 
                 override fun updateDrawState(ds: TextPaint) {
-                    ds.color = ContextCompat.getColor(context, R.color.t_info)
+                    ds.color = linkColor
                     ds.isUnderlineText = false
                 }
             }
@@ -119,41 +158,26 @@ object LinkTextUtils {
             }
         }
 
-//        // 使用Linkify识别其他URL（如www.baidu.com）
-//        Linkify.addLinks(spannableString, Linkify.WEB_URLS)
-//
-//        // 处理Linkify添加的URLSpan
-//        val urlSpans = spannableString.getSpans(0, text.length, URLSpan::class.java)
-//        urlSpans.forEach { urlSpan ->
-//            val start = spannableString.getSpanStart(urlSpan)
-//            val end = spannableString.getSpanEnd(urlSpan)
-//
-//            // 检查是否与手动识别的URL重叠
-//            val isOverlapping = manualUrlRanges.any { (manualStart, manualEnd) ->
-//                start < manualEnd && end > manualStart
-//            }
-//
-//            // 如果不重叠，才处理这个URLSpan
-//            if (!isOverlapping) {
-//                spannableString.removeSpan(urlSpan)
-//                spannableString.setSpan(object : URLSpan(urlSpan.url) {
-//                    override fun onClick(widget: View) {
-//                        handleUrlClick(context, url)
-//                    }
-//
-//                    override fun updateDrawState(ds: TextPaint) {
-//                        ds.color = ContextCompat.getColor(context, R.color.t_info)
-//                        ds.isUnderlineText = false
-//                    }
-//                }, start, end, 0)
-//            } else {
-//                // 如果重叠，直接移除Linkify添加的URLSpan
-//                spannableString.removeSpan(urlSpan)
-//            }
-//        }
-
-        textView?.text = spannableString
-        textView?.movementMethod = LinkMovementMethod.getInstance()
+        return spannableString
+    }
+
+    private fun isSchemeChar(char: Char): Boolean {
+        return char in 'a'..'z' || char in 'A'..'Z' || char in '0'..'9' || char == '+' || char == '-' || char == '.'
+    }
+
+    /**
+     * 在 [from, separator) 范围内找到第一个合法的 scheme 起点（http/https 或 [AppScheme.allSchemes]）
+     *
+     * 与原先逐个前缀匹配的行为保持一致：例如 "xhttp://" 中仍能识别出 "http://"
+     */
+    private fun findSchemeStart(text: String, from: Int, separator: Int): Int {
+        for (i in from until separator) {
+            val scheme = text.substring(i, separator)
+            if (scheme == "http" || scheme == "https" || AppScheme.allSchemes.contains(scheme)) {
+                return i
+            }
+        }
+        return -1
     }
 
     /**
@@ -234,7 +258,6 @@ object LinkTextUtils {
                 }
 
                 // 4. 检查域名格式：字母数字连字符，以字母数字结尾
-                val domainPattern = Pattern.compile("^[a-zA-Z0-9]([a-zA-Z0-9-]*[a-zA-Z0-9])?(\\.[a-zA-Z0-9]([a-zA-Z0-9-]*[a-zA-Z0-9])?)*$")
                 if (!domainPattern.matcher(host).matches()) {
                     return false
                 }
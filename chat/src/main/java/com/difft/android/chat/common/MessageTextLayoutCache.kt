@@ -0,0 +1,143 @@
+package com.difft.android.chat.common
+
+import android.content.Context
+import android.content.res.Configuration
+import android.text.Spannable
+import android.util.LruCache
+import android.widget.TextView
+import androidx.core.text.PrecomputedTextCompat
+import androidx.core.widget.TextViewCompat
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.utils.appScope
+import com.difft.android.chat.message.ChatMessage
+import com.difft.android.chat.message.TextChatMessage
+import com.difft.android.chat.message.isConfidential
+import difft.android.messageserialization.model.Mention
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * 消息气泡文本缓存
+ *
+ * 按 消息 ID + 文本/mention 哈希 + 主题（日/夜间）缓存 [LinkTextUtils.buildLinkText] 的结果，
+ * 并在拿到 TextView 的排版参数后缓存对应的 [PrecomputedTextCompat]，滑动复用时不再重复解析链接和测量字形。
+ *
+ * 字形测量与 TextView 宽度无关，换行仍由 TextView 根据实际宽度完成；
+ * 排版参数（字号、字体等）变化后旧的 PrecomputedText 不再使用。
+ */
+object MessageTextLayoutCache {
+
+    private const val MAX_ENTRIES = 300
+
+    /**
+     * 每次列表更新最多预计算的消息条数（从最新消息往前）
+     */
+    private const val PREFETCH_WINDOW = 60
+
+    private data class Key(
+        val messageId: String,
+        val contentHash: Int,
+        val nightMode: Int
+    )
+
+    private class Entry(
+        val spannable: Spannable,
+        @Volatile var precomputed: PrecomputedTextCompat? = null
+    )
+
+    private val cache = LruCache<Key, Entry>(MAX_ENTRIES)
+
+    /**
+     * 最近一次绑定时 TextView 的排版参数，供后台预计算使用
+     */
+    @Volatile
+    private var lastParams: PrecomputedTextCompat.Params? = null
+
+    private var prefetchJob: Job? = null
+
+    /**
+     * 主线程调用：命中缓存时直接返回，否则同步构建并写入缓存
+     */
+    fun getOrBuild(
+        context: Context,
+        messageId: String,
+        text: String,
+        mentions: List<Mention>?,
+        textView: TextView
+    ): CharSequence {
+        val params = TextViewCompat.getTextMetricsParams(textView)
+        lastParams = params
+
+        val key = keyOf(context, messageId, text, mentions)
+        val entry = cache.get(key) ?: Entry(LinkTextUtils.buildLinkText(context, text, mentions)).also {
+            cache.put(key, it)
+        }
+
+        val precomputed = entry.precomputed
+        return if (precomputed != null && precomputed.params == params) {
+            precomputed
+        } else {
+            entry.spannable
+        }
+    }
+
+    /**
+     * 在后台为即将显示的消息预先构建 span 和 PrecomputedText
+     *
+     * 新的列表到达时取消上一轮尚未完成的预计算
+     */
+    fun prefetch(context: Context, messages: List<ChatMessage>) {
+        val nightMode = nightModeOf(context)
+        val candidates = messages.filterIsInstance<TextChatMessage>()
+            .filter { !it.isConfidential() && !it.message.isNullOrEmpty() }
+            .takeLast(PREFETCH_WINDOW)
+        if (candidates.isEmpty()) return
+
+        prefetchJob?.cancel()
+        prefetchJob = appScope.launch {
+            val params = lastParams
+            // 从列表末尾（最新消息）开始，优先处理首屏可见的内容
+            for (message in candidates.asReversed()) {
+                if (!isActive) return@launch
+                val text = message.message.toString()
+                val key = Key(message.id, contentHashOf(text, message.mentions), nightMode)
+                try {
+                    val entry = cache.get(key) ?: Entry(LinkTextUtils.buildLinkText(context, text, message.mentions)).also {
+                        cache.put(key, it)
+                    }
+                    if (params != null && entry.precomputed?.params != params) {
+                        entry.precomputed = PrecomputedTextCompat.create(entry.spannable, params)
+                    }
+                } catch (e: Exception) {
+                    L.w { "[MessageTextLayoutCache] prefetch failed for ${message.id}: ${e.message}" }
+                }
+            }
+        }
+    }
+
+    /**
+     * 页面销毁时调用，避免后台任务继续持有 Activity context
+     */
+    fun cancelPrefetch() {
+        prefetchJob?.cancel()
+        prefetchJob = null
+    }
+
+    fun clear() {
+        cancelPrefetch()
+        cache.evictAll()
+    }
+
+    private fun keyOf(context: Context, messageId: String, text: String, mentions: List<Mention>?): Key {
+        return Key(messageId, contentHashOf(text, mentions), nightModeOf(context))
+    }
+
+    private fun contentHashOf(text: String, mentions: List<Mention>?): Int {
+        return 31 * text.hashCode() + (mentions?.hashCode() ?: 0)
+    }
+
+    private fun nightModeOf(context: Context): Int {
+        return context.resources.configuration.uiMode and Configuration.UI_MODE_NIGHT_MASK
+    }
+}
@@ -1,51 +1,42 @@
 package com.difft.android.chat.contacts.contactsall
 
-import com.difft.android.base.widget.sideBar.CharacterParser
-import com.difft.android.messageserialization.db.store.getDisplayNameForUI
 import com.difft.android.chat.group.GroupMemberModel
+import com.difft.android.messageserialization.db.store.getPinyinSortKey
 import org.difft.app.database.models.ContactorModel
 
 /**
- * Pinyin sort key for efficient sorting.
- * Letters (A-Z) come first, then non-letters (# group).
+ * Item decorated with its sort keys, so every key is read once per sort instead of once per comparison.
+ * Keys come from [com.difft.android.base.widget.sideBar.CharacterParser.getSortKey]: letters (A-Z) first,
+ * then non-letters (# group).
  */
-private data class PinyinSortKey(val isNonLetter: Boolean, val pinyin: String) : Comparable<PinyinSortKey> {
-    override fun compareTo(other: PinyinSortKey): Int {
-        // Non-letters (# group) come after letters
-        if (isNonLetter != other.isNonLetter) {
-            return if (isNonLetter) 1 else -1
-        }
-        return pinyin.compareTo(other.pinyin)
-    }
-}
+private class SortEntry<T>(val role: Int, val pinyin: String, val item: T)
 
-private fun String.toPinyinSortKey(): PinyinSortKey {
-    val pinyin = CharacterParser.getSelling(this).lowercase()
-    val isNonLetter = pinyin.firstOrNull()?.let { it !in 'a'..'z' } ?: true
-    return PinyinSortKey(isNonLetter, pinyin)
+private inline fun <T> List<T>.sortedByKeys(role: (T) -> Int, pinyin: (T) -> String): List<T> {
+    return map { SortEntry(role(it), pinyin(it), it) }
+        .sortedWith(compareBy<SortEntry<T>> { it.role }.thenBy { it.pinyin })
+        .map { it.item }
 }
 
 /**
- * Sort contacts by pinyin with optimal performance.
- * Each contact's pinyin is calculated only once (cached by compareBy).
- * Letters (A-Z) come first, then non-letters (# group).
+ * Sort contacts by pinyin.
+ * The key is stored on the contact and only recomputed when its display name changes.
  */
 @JvmName("sortedContactsByPinyin")
 fun List<ContactorModel>.sortedByPinyin(): List<ContactorModel> {
-    return sortedWith(compareBy { it.getDisplayNameForUI().toPinyinSortKey() })
+    return sortedByKeys({ 0 }, { it.getPinyinSortKey() })
 }
 
 /**
- * Sort group members by pinyin with optimal performance.
+ * Sort group members by pinyin.
  */
 @JvmName("sortedGroupMembersByPinyin")
 fun List<GroupMemberModel>.sortedByPinyin(): List<GroupMemberModel> {
-    return sortedWith(compareBy { (it.name ?: "").toPinyinSortKey() })
+    return sortedByKeys({ 0 }, { it.pinyinSortKey() })
 }
 
 /**
  * Sort group members by role first, then by pinyin.
  */
 fun List<GroupMemberModel>.sortedByRoleThenPinyin(): List<GroupMemberModel> {
-    return sortedWith(compareBy({ it.role }, { (it.name ?: "").toPinyinSortKey() }))
-}
\ No newline at end of file
+    return sortedByKeys({ it.role }, { it.pinyinSortKey() })
+}
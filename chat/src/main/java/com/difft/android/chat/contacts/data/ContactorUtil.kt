@@ -15,6 +15,7 @@ import com.difft.android.base.utils.globalServices
 import com.difft.android.base.widget.sideBar.CharacterParser
 import com.difft.android.chat.R
 import com.difft.android.chat.contacts.contactsremark.ContactRemarkUtil
+import com.difft.android.messageserialization.db.store.updatePinyinSortKey
 import com.difft.android.chat.setting.archive.MessageArchiveManager
 import com.difft.android.network.BaseResponse
 import com.difft.android.network.ChativeHttpClient
@@ -135,6 +136,7 @@ object ContactorUtil {
                 this.sourceDescribe = contactResponse.sourceDescribe
                 this.findyouDescribe = contactResponse.findyouDescribe
                 this.customUid = contactResponse.customUid
+                updatePinyinSortKey()
             }
         } catch (e: Exception) {
             L.e(e) { "[ContactorUtil] convert contactResponse data fail:" }
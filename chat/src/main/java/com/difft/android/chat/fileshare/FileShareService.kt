@@ -36,7 +36,18 @@ interface FileShareService {
     fun download(@Body downloadReq: DownloadReq): Call<BaseResponse<DownloadResp>>
 }
 
-class FileShareRepo @Inject constructor() {
+/**
+ * The calls of [FileShareRepo] that share a file which is already encrypted on disk.
+ */
+interface FileShareUploader {
+    fun isExist(request: FileExistReq): Call<BaseResponse<FileExistResp?>>
+
+    fun uploadInfo(request: UploadInfoReq): Call<BaseResponse<UploadInfoResp>>
+
+    fun uploadToOSS(url: String, file: RequestBody): okhttp3.Call
+}
+
+class FileShareRepo @Inject constructor() : FileShareUploader {
     @Inject
     @ChativeHttpClientModule.FileShare
     lateinit var fileShareClient: ChativeHttpClient
@@ -56,11 +67,11 @@ class FileShareRepo @Inject constructor() {
         fileShareClient.getService(FileShareService::class.java)
     }
 
-    fun isExist(request: FileExistReq): Call<BaseResponse<FileExistResp?>> {
+    override fun isExist(request: FileExistReq): Call<BaseResponse<FileExistResp?>> {
         return fileShareService.isExist(request)
     }
 
-    fun uploadInfo(request: UploadInfoReq): Call<BaseResponse<UploadInfoResp>> {
+    override fun uploadInfo(request: UploadInfoReq): Call<BaseResponse<UploadInfoResp>> {
         return fileShareService.uploadInfo(request)
     }
 
@@ -68,7 +79,7 @@ class FileShareRepo @Inject constructor() {
         return fileShareService.download(request)
     }
 
-    fun uploadToOSS(url: String, file: RequestBody): okhttp3.Call {
+    override fun uploadToOSS(url: String, file: RequestBody): okhttp3.Call {
         val request: Request = Request.Builder()
             .url(url)
             .method("PUT", file)
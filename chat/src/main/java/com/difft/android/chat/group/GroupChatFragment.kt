@@ -260,7 +260,7 @@ class GroupChatFragment : Fragment(), ChatMessageListProvider {
                 is RecordingState.Stopped -> {
                     L.i { "[VoiceRecorder] Recording stopped. File saved at:${state.filePath}" }
                     binding.vVoiceRecordBg.visibility = View.GONE
-                    chatViewModel.sendVoiceMessage(state.filePath)
+                    chatViewModel.sendVoiceMessage(state)
                 }
 
                 is RecordingState.TooShort -> {
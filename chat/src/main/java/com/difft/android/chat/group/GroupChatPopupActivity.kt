@@ -408,7 +408,7 @@ class GroupChatPopupActivity : BaseActivity(), ChatMessageListProvider {
                 is RecordingState.Stopped -> {
                     L.i { "[VoiceRecorder] Recording stopped. File saved at:${state.filePath}" }
                     mBinding.vVoiceRecordBg.visibility = View.GONE
-                    chatViewModel.sendVoiceMessage(state.filePath)
+                    chatViewModel.sendVoiceMessage(state)
                 }
                 is RecordingState.TooShort -> {
                     L.i { "[VoiceRecorder] Recording too short" }
@@ -17,6 +17,7 @@ import kotlinx.coroutines.flow.catch
 import org.difft.app.database.convertToContactorModels
 import com.difft.android.messageserialization.db.store.getDisplayNameForUI
 import com.difft.android.messageserialization.db.store.getDisplayNameWithoutRemarkForUI
+import com.difft.android.messageserialization.db.store.getPinyinSortKey
 import com.difft.android.base.utils.globalServices
 import org.difft.app.database.members
 import com.difft.android.chat.R
@@ -277,7 +278,7 @@ class GroupInfoActivity : BaseActivity() {
                             member.getDisplayNameForUI().getSortLetter(),
                             member.groupMemberContactor?.groupRole ?: GROUP_ROLE_MEMBER,
                             letterName = member.getDisplayNameWithoutRemarkForUI()
-                        )
+                        ).withSortKey(member.getPinyinSortKey())
                     )
                 }
 
@@ -4,6 +4,7 @@ import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
+import com.difft.android.base.widget.sideBar.CharacterParser
 
 abstract class GroupMembersAdapter(private val showType: Int) : ListAdapter<GroupMemberModel, GroupMemberItemViewHolder>(
     object : DiffUtil.ItemCallback<GroupMemberModel>() {
@@ -66,4 +67,28 @@ data class GroupMemberModel(
     var isRemovable: Boolean? = true,
     /** Name without remark for avatar letter display */
     var letterName: String? = null,
-)
+) {
+    // 不参与 equals/copy，name 变化后重新计算
+    private var sortKey: String? = null
+    private var sortKeyName: String? = null
+
+    /**
+     * 拼音排序键，见 [CharacterParser.getSortKey]
+     */
+    fun pinyinSortKey(): String {
+        val current = name.orEmpty()
+        sortKey?.let { if (sortKeyName == current) return it }
+        return CharacterParser.getSortKey(current).also {
+            sortKey = it
+            sortKeyName = current
+        }
+    }
+
+    /**
+     * 使用联系人上已经算好的排序键，[key] 必须对应当前的 [name]
+     */
+    fun withSortKey(key: String): GroupMemberModel = apply {
+        sortKey = key
+        sortKeyName = name.orEmpty()
+    }
+}
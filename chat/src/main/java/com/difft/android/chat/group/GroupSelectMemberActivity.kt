@@ -16,6 +16,7 @@ import com.difft.android.base.log.lumberjack.L
 import org.difft.app.database.convertToContactorModels
 import com.difft.android.messageserialization.db.store.getDisplayNameForUI
 import com.difft.android.messageserialization.db.store.getDisplayNameWithoutRemarkForUI
+import com.difft.android.messageserialization.db.store.getPinyinSortKey
 import com.difft.android.base.utils.globalServices
 import org.difft.app.database.members
 import org.difft.app.database.search
@@ -187,7 +188,7 @@ class GroupSelectMemberActivity : BaseActivity() {
                         checkBoxEnable = true,
                         showCheckBox = canOperate,
                         letterName = it.getDisplayNameWithoutRemarkForUI()
-                    )
+                    ).withSortKey(it.getPinyinSortKey())
                 )
             }
 
@@ -0,0 +1,179 @@
+package com.difft.android.chat.group
+
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.network.BaseResponse
+import com.difft.android.network.group.GetGroupInfoResp
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.difft.app.database.models.GroupModel
+
+/**
+ * Syncs the group list and group members with bounded concurrency.
+ *
+ * - Groups whose list version matches the local row (and already have members) are skipped, unless forced
+ * - Group details are fetched at most [Config.maxConcurrency] at a time
+ * - Results are written per chunk of [Config.chunkSize] groups, existing rows stay readable while syncing
+ * - Groups whose detail fetch failed keep their old local version, so the next sync fetches them again
+ * - Only groups missing from the server list are removed locally
+ */
+class GroupSyncEngine(
+    private val backend: Backend,
+    private val config: Config = Config()
+) {
+
+    data class Config(
+        val maxConcurrency: Int = 8,
+        val chunkSize: Int = 50
+    )
+
+    data class LocalGroupState(
+        val version: Int?,
+        val hasMembers: Boolean
+    )
+
+    data class FetchedGroup(
+        val gid: String,
+        val response: BaseResponse<GetGroupInfoResp>
+    )
+
+    /**
+     * Storage and network access used by the engine, implemented by [GroupUtil] on top of WCDB and GroupRepo
+     */
+    interface Backend {
+        suspend fun fetchGroupList(): List<GroupModel>
+
+        suspend fun fetchGroupInfo(gid: String): BaseResponse<GetGroupInfoResp>
+
+        fun loadLocalStates(): Map<String, LocalGroupState>
+
+        /**
+         * Writes one chunk: [listRows] are rows from the group list whose details were not fetched
+         * (members not requested or fetch failed), [details] are fetched group details
+         */
+        fun applyChunk(listRows: List<GroupModel>, details: List<FetchedGroup>)
+
+        fun removeGroups(gids: Collection<String>)
+    }
+
+    data class Stats(
+        val total: Int = 0,
+        val skipped: Int = 0,
+        val fetched: Int = 0,
+        val failed: Int = 0,
+        val removed: Int = 0,
+        val pending: Int = 0,
+        val durationMs: Long = 0,
+        val lastError: String? = null
+    )
+
+    private val _progress = MutableStateFlow(Stats())
+
+    /**
+     * Progress of the running (or last finished) sync
+     */
+    val progress: StateFlow<Stats> = _progress.asStateFlow()
+
+    private val semaphore = Semaphore(config.maxConcurrency.coerceAtLeast(1))
+
+    /**
+     * @param force fetch every group of the list, including unchanged ones
+     */
+    suspend fun sync(syncMembers: Boolean, force: Boolean = false): Stats {
+        val startTime = System.currentTimeMillis()
+        val remoteGroups = backend.fetchGroupList()
+        val localStates = backend.loadLocalStates()
+
+        val remoteIds = remoteGroups.mapTo(HashSet()) { it.gid }
+        val removedIds = localStates.keys.filter { it !in remoteIds }
+        if (removedIds.isNotEmpty()) {
+            backend.removeGroups(removedIds)
+        }
+
+        val changedGroups = remoteGroups.filter { remote ->
+            val local = localStates[remote.gid]
+            force || local == null || local.version != remote.version || (syncMembers && !local.hasMembers)
+        }
+        val skipped = remoteGroups.size - changedGroups.size
+
+        var stats = Stats(
+            total = remoteGroups.size,
+            skipped = skipped,
+            removed = removedIds.size,
+            pending = changedGroups.size
+        )
+        _progress.value = stats
+        L.i { "[GroupSyncEngine] sync start, total:${remoteGroups.size} changed:${changedGroups.size} removed:${removedIds.size} syncMembers:$syncMembers force:$force" }
+
+        changedGroups.chunked(config.chunkSize.coerceAtLeast(1)).forEach { chunk ->
+            if (!syncMembers) {
+                backend.applyChunk(chunk, emptyList())
+                stats = stats.copy(pending = stats.pending - chunk.size)
+                _progress.value = stats
+                return@forEach
+            }
+
+            val results = fetchChunk(chunk)
+            val fetched = results.mapNotNull { it.second }
+            // 拉取失败的群保留本地旧版本号（新群为空），版本不一致下次同步会重新拉取
+            val failedRows = results.filter { it.second == null }.map { it.first.apply { version = localStates[gid]?.version } }
+            val lastError = results.lastOrNull { it.third != null }?.third
+
+            backend.applyChunk(failedRows, fetched)
+
+            stats = stats.copy(
+                fetched = stats.fetched + fetched.size,
+                failed = stats.failed + failedRows.size,
+                pending = stats.pending - chunk.size,
+                lastError = lastError ?: stats.lastError
+            )
+            _progress.value = stats
+        }
+
+        stats = stats.copy(durationMs = System.currentTimeMillis() - startTime)
+        _progress.value = stats
+        L.i { "[GroupSyncEngine] sync finished: $stats" }
+        return stats
+    }
+
+    /**
+     * Fetches details of the given groups (e.g. groups referenced by incoming messages) with the same concurrency limit
+     *
+     * @return gids that were fetched successfully
+     */
+    suspend fun fetchGroups(gids: Collection<String>): Set<String> {
+        val confirmed = HashSet<String>()
+        gids.distinct().chunked(config.chunkSize.coerceAtLeast(1)).forEach { chunk ->
+            val results = fetchChunk(chunk.map { GroupModel().apply { gid = it } })
+            val fetched = results.mapNotNull { it.second }
+            if (fetched.isNotEmpty()) {
+                backend.applyChunk(emptyList(), fetched)
+            }
+            fetched.mapTo(confirmed) { it.gid }
+        }
+        return confirmed
+    }
+
+    private suspend fun fetchChunk(chunk: List<GroupModel>): List<Triple<GroupModel, FetchedGroup?, String?>> = coroutineScope {
+        chunk.map { group ->
+            async {
+                semaphore.withPermit {
+                    try {
+                        Triple(group, FetchedGroup(group.gid, backend.fetchGroupInfo(group.gid)), null)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        L.w { "[GroupSyncEngine] [Group: ${group.gid}] fetch fail: ${e.message}" }
+                        Triple(group, null, e.message ?: e.javaClass.simpleName)
+                    }
+                }
+            }
+        }.awaitAll()
+    }
+}
@@ -5,6 +5,7 @@ import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.ResUtils
 import com.difft.android.base.utils.appScope
 import com.difft.android.messageserialization.db.store.getDisplayNameForUI
+import com.difft.android.messageserialization.db.store.updatePinyinSortKey
 import com.difft.android.chat.R
 import com.difft.android.chat.common.SendType
 import com.difft.android.chat.contacts.data.ContactorUtil
@@ -541,6 +542,7 @@ class GroupUpdater @Inject constructor(
                 L.d { "[GroupUpdater] Update group members, new members are [${distinctMembers.mapNotNull { it.displayName }.joinToString(",")}]" }
                 // Save the updated group back to the database
                 wcdb.groupMemberContactor.deleteObjects(DBGroupMemberContactorModel.gid.eq(groupID))
+                distinctMembers.forEach { it.updatePinyinSortKey() }
                 wcdb.groupMemberContactor.insertObjects(distinctMembers)
                 groupUtil.emitSingleGroupUpdate(group)
             }
@@ -1,22 +1,25 @@
 package com.difft.android.chat.group
 
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
 import com.difft.android.base.user.UserManager
 import com.difft.android.base.utils.RoomChangeTracker
 import com.difft.android.base.utils.RoomChangeType
+import com.difft.android.messageserialization.db.store.updatePinyinSortKey
 import org.difft.app.database.members
+import org.difft.app.database.runTransaction
 import difft.android.messageserialization.MessageStore
+import com.difft.android.network.BaseResponse
+import com.difft.android.network.group.GetGroupInfoResp
 import com.difft.android.network.group.GroupAvatarData
 import com.difft.android.network.group.GroupAvatarResponse
 import com.difft.android.network.group.GroupRepo
 import com.google.gson.Gson
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
-import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asSharedFlow
 
 import kotlinx.coroutines.withContext
@@ -62,26 +65,68 @@ class GroupUtil @Inject constructor(
 
     val getGroupsStatusUpdate: SharedFlow<Pair<Boolean, List<String>>> = _getGroupsStatusUpdate.asSharedFlow()
 
-    suspend fun syncAllGroupAndAllGroupMembers(forceFetch: Boolean, syncMembers: Boolean) = coroutineScope {
+    private val groupTransactionTime = Metrics.histogram("db.transaction.group.us")
+
+    private val syncEngine = GroupSyncEngine(object : GroupSyncEngine.Backend {
+        override suspend fun fetchGroupList(): List<GroupModel> = groupRepo.getGroups()
+
+        override suspend fun fetchGroupInfo(gid: String) = groupRepo.getGroupInfo(gid)
+
+        override fun loadLocalStates(): Map<String, GroupSyncEngine.LocalGroupState> {
+            val gidsWithMembers = wcdb.groupMemberContactor.getOneColumnString(
+                DBGroupMemberContactorModel.gid, DBGroupMemberContactorModel.gid.notNull()
+            ).toHashSet()
+            return wcdb.group.getAllObjects().associate {
+                it.gid to GroupSyncEngine.LocalGroupState(it.version, it.gid in gidsWithMembers)
+            }
+        }
+
+        override fun applyChunk(listRows: List<GroupModel>, details: List<GroupSyncEngine.FetchedGroup>) {
+            val invalidGroups = mutableListOf<GroupModel>()
+            wcdb.db.runTransaction(groupTransactionTime) {
+                listRows.forEach { saveGroupListRow(it) }
+                details.forEach { fetched ->
+                    val group = saveGroupInfo(fetched.gid, fetched.response)
+                    if (fetched.response.status != 0) invalidGroups.add(group)
+                }
+                true
+            }
+            // Room and message cleanup of invalid groups runs outside of the chunk transaction
+            invalidGroups.forEach {
+                messageStore.removeRoomAndMessages(it.gid)
+                emitSingleGroupUpdate(it)
+            }
+        }
+
+        override fun removeGroups(gids: Collection<String>) {
+            val array = gids.toTypedArray()
+            wcdb.db.runTransaction(groupTransactionTime) {
+                wcdb.groupMemberContactor.deleteObjects(DBGroupMemberContactorModel.gid.`in`(*array))
+                wcdb.group.deleteObjects(DBGroupModel.gid.`in`(*array))
+                true
+            }
+        }
+    })
+
+    /**
+     * Progress of group sync, e.g. for showing a syncing state in the groups list
+     */
+    val groupSyncProgress: StateFlow<GroupSyncEngine.Stats> = syncEngine.progress
+
+    suspend fun syncAllGroupAndAllGroupMembers(forceFetch: Boolean, syncMembers: Boolean) {
         try {
             if (forceFetch || userManager.getUserData()?.syncedGroupAndMembers == false) {
-                val groups = groupRepo.getGroups()
-                wcdb.group.deleteObjects()
-                wcdb.group.insertObjects(groups)
-
-                if (syncMembers) {
-                    groups.map {
-                        async {
-                            fetchAndSaveSingleGroupInfo(it.gid)
-                        }
-                    }.awaitAll()
+                val stats = withContext(Dispatchers.IO) {
+                    syncEngine.sync(syncMembers, force = forceFetch)
                 }
 
-                userManager.update {
-                    this.syncedGroupAndMembers = true
+                if (stats.failed == 0) {
+                    userManager.update {
+                        this.syncedGroupAndMembers = true
+                    }
                 }
-                emitGetGroupsStatusUpdate(true, groups.map { it.gid })
-                L.i { "[GroupUtil] syncAllGroupAndAllGroupMembers success" + groups.size }
+                emitGetGroupsStatusUpdate(true, wcdb.group.getAllObjects().map { it.gid })
+                L.i { "[GroupUtil] syncAllGroupAndAllGroupMembers success, total:${stats.total} fetched:${stats.fetched} skipped:${stats.skipped} failed:${stats.failed} cost:${stats.durationMs}ms" }
             }
         } catch (e: CancellationException) {
             throw e
@@ -93,6 +138,26 @@ class GroupUtil @Inject constructor(
 
     private val groupsInProgress = ConcurrentHashMap.newKeySet<String>()
 
+    /**
+     * Fetches several groups with the sync engine's concurrency limit, groups already being fetched are skipped
+     *
+     * @return gids fetched successfully
+     */
+    suspend fun fetchAndSaveGroups(gids: Collection<String>): Set<String> {
+        val claimed = gids.filterTo(LinkedHashSet()) { groupsInProgress.add(it) }
+        if (claimed.size < gids.toSet().size) {
+            L.i { "[GroupUtil] fetch already in progress, skipping: ${gids.filter { it !in claimed }}" }
+        }
+        if (claimed.isEmpty()) return emptySet()
+        return try {
+            withContext(Dispatchers.IO) {
+                syncEngine.fetchGroups(claimed)
+            }
+        } finally {
+            groupsInProgress.removeAll(claimed)
+        }
+    }
+
     suspend fun fetchAndSaveSingleGroupInfo(groupID: String, sendUpdateEvent: Boolean = false): GroupModel? {
         if (!groupsInProgress.add(groupID)) {
             L.i { "[GroupUtil] [Group: $groupID] fetch already in progress, skipping" }
@@ -103,60 +168,14 @@ class GroupUtil @Inject constructor(
             withContext(Dispatchers.IO) {
                 val response = groupRepo
                     .getGroupInfo(groupID)
-                val groupInfo = response.data
-                val group = wcdb.group.getFirstObject(
-                    DBGroupModel.gid.eq(groupID)
-                ) ?: GroupModel().apply { gid = groupID }
-                group.status = response.status
+                val group = saveGroupInfo(groupID, response)
 
                 if (response.status == 0) {
-                    group.name = groupInfo?.name
-                    group.messageExpiry = groupInfo?.messageExpiry
-                    group.avatar = groupInfo?.avatar
-                    group.invitationRule = groupInfo?.invitationRule
-                    group.version = groupInfo?.version
-                    group.remindCycle = groupInfo?.remindCycle
-                    group.anyoneRemove = groupInfo?.anyoneRemove
-                    group.rejoin = groupInfo?.rejoin
-                    group.publishRule = groupInfo?.publishRule
-                    group.linkInviteSwitch = groupInfo?.linkInviteSwitch
-                    group.privateChat = groupInfo?.privateChat ?: false
-                    group.criticalAlert = groupInfo?.criticalAlert ?: false
-
-                    val includeRemarkMap = wcdb.groupMemberContactor.getAllObjects(
-                        DBGroupMemberContactorModel.gid.eq(groupID)
-                            .and(DBGroupMemberContactorModel.remark.notNull())
-                            .and(DBGroupMemberContactorModel.remark.notEq(""))
-                    ).associateBy({ it.id }, { it.remark })
-                    wcdb.groupMemberContactor.deleteObjects(DBGroupMemberContactorModel.gid.eq(groupID))
-                    val members = groupInfo?.members?.map { member ->
-                        GroupMemberContactorModel().apply {
-                            this.gid = groupID
-                            this.id = member.uid
-                            this.groupRole = member.role
-                            this.displayName = member.displayName
-                            this.notification = member.notification
-                            this.rapidRole = member.rapidRole
-                            this.remark = includeRemarkMap[member.uid]
-                            this.useGlobal = member.useGlobal
-                        }
-                    }
-                    if (!members.isNullOrEmpty()) {
-                        wcdb.groupMemberContactor.insertObjects(members)
-                    }
-                    wcdb.group.deleteObjects(DBGroupModel.gid.eq(groupID))
-                    wcdb.group.insertObject(group)
-                    L.i { "[GroupUtil] [Group: $groupID] fetch success, members: ${members?.size ?: 0}" }
                     if (sendUpdateEvent) {
                         emitSingleGroupUpdate(group)
                     }
                 } else {
-                    // Group is invalid: clear members, remove room/messages, delete group record
-                    L.i { "[GroupUtil] [Group: $groupID] is invalid" }
                     messageStore.removeRoomAndMessages(groupID)
-                    wcdb.groupMemberContactor.deleteObjects(DBGroupMemberContactorModel.gid.eq(groupID))
-                    L.i { "[GroupUtil] [Group: $groupID] group members cleared" }
-                    wcdb.group.deleteObjects(DBGroupModel.gid.eq(groupID))
                     // Always emit update so observers (e.g. GroupsFragment) remove the invalid group
                     emitSingleGroupUpdate(group)
                 }
@@ -174,6 +193,89 @@ class GroupUtil @Inject constructor(
         }
     }
 
+    /**
+     * Writes a fetched group detail and its members. For an invalid group (status != 0) the members
+     * and group rows are removed; removing the room and messages is left to the caller.
+     */
+    private fun saveGroupInfo(groupID: String, response: BaseResponse<GetGroupInfoResp>): GroupModel {
+        val groupInfo = response.data
+        val group = wcdb.group.getFirstObject(
+            DBGroupModel.gid.eq(groupID)
+        ) ?: GroupModel().apply { gid = groupID }
+        group.status = response.status
+
+        if (response.status == 0) {
+            group.name = groupInfo?.name
+            group.messageExpiry = groupInfo?.messageExpiry
+            group.avatar = groupInfo?.avatar
+            group.invitationRule = groupInfo?.invitationRule
+            group.version = groupInfo?.version
+            group.remindCycle = groupInfo?.remindCycle
+            group.anyoneRemove = groupInfo?.anyoneRemove
+            group.rejoin = groupInfo?.rejoin
+            group.publishRule = groupInfo?.publishRule
+            group.linkInviteSwitch = groupInfo?.linkInviteSwitch
+            group.privateChat = groupInfo?.privateChat ?: false
+            group.criticalAlert = groupInfo?.criticalAlert ?: false
+
+            val includeRemarkMap = wcdb.groupMemberContactor.getAllObjects(
+                DBGroupMemberContactorModel.gid.eq(groupID)
+                    .and(DBGroupMemberContactorModel.remark.notNull())
+                    .and(DBGroupMemberContactorModel.remark.notEq(""))
+            ).associateBy({ it.id }, { it.remark })
+            wcdb.groupMemberContactor.deleteObjects(DBGroupMemberContactorModel.gid.eq(groupID))
+            val members = groupInfo?.members?.map { member ->
+                GroupMemberContactorModel().apply {
+                    this.gid = groupID
+                    this.id = member.uid
+                    this.groupRole = member.role
+                    this.displayName = member.displayName
+                    this.notification = member.notification
+                    this.rapidRole = member.rapidRole
+                    this.remark = includeRemarkMap[member.uid]
+                    this.useGlobal = member.useGlobal
+                }
+            }
+            if (!members.isNullOrEmpty()) {
+                members.forEach { it.updatePinyinSortKey() }
+                wcdb.groupMemberContactor.insertObjects(members)
+            }
+            wcdb.group.deleteObjects(DBGroupModel.gid.eq(groupID))
+            wcdb.group.insertObject(group)
+            L.i { "[GroupUtil] [Group: $groupID] fetch success, members: ${members?.size ?: 0}" }
+        } else {
+            // Group is invalid: clear members, delete group record
+            L.i { "[GroupUtil] [Group: $groupID] is invalid" }
+            wcdb.groupMemberContactor.deleteObjects(DBGroupMemberContactorModel.gid.eq(groupID))
+            L.i { "[GroupUtil] [Group: $groupID] group members cleared" }
+            wcdb.group.deleteObjects(DBGroupModel.gid.eq(groupID))
+        }
+        return group
+    }
+
+    /**
+     * Upserts a row from the group list, keeping fields the list does not carry (e.g. privateChat)
+     */
+    private fun saveGroupListRow(row: GroupModel) {
+        val existing = wcdb.group.getFirstObject(DBGroupModel.gid.eq(row.gid))
+        if (existing == null) {
+            wcdb.group.insertObject(row)
+            return
+        }
+        existing.name = row.name
+        existing.messageExpiry = row.messageExpiry
+        existing.avatar = row.avatar
+        existing.status = row.status
+        existing.invitationRule = row.invitationRule
+        existing.linkInviteSwitch = row.linkInviteSwitch
+        existing.version = row.version
+        existing.remindCycle = row.remindCycle
+        existing.anyoneRemove = row.anyoneRemove
+        existing.rejoin = row.rejoin
+        existing.publishRule = row.publishRule
+        wcdb.group.updateObject(existing, DBGroupModel.allFields(), DBGroupModel.gid.eq(row.gid))
+    }
+
     suspend fun getSingleGroupInfo(gid: String, forceUpdate: Boolean = false): GroupModel? {
         return if (forceUpdate) {
             fetchAndSaveSingleGroupInfo(gid)
@@ -204,6 +204,7 @@ fun createForward(forward: Forward): SignalServiceProtos.DataMessage.Forward {
                         height = attachment.height
                         digest = ByteString.copyFrom(attachment.digest)
                         attachment.fileName?.let(::fileName::set)
+                        attachment.blurHash?.let(::blurHash::set)
                         uploadTimestamp = System.currentTimeMillis()
                         flags = attachment.flags
                     }
@@ -37,7 +37,6 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.launchIn
@@ -45,6 +44,7 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.onStart
+import kotlinx.coroutines.flow.update
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import kotlin.coroutines.cancellation.CancellationException
@@ -126,14 +126,9 @@ class RecentChatViewModel @Inject constructor(
     @Inject
     fun initLoadAndKeepObserving() {
         L.i { "[ChatList] initLoadAndKeepObserving" }
-        // ✅ 分开处理：room变化时查询room，draft变化时查询draft
-        combine(
-            latestRoomModelsFlow,
-            draftRepository.allDraftsFlow.onStart { emit(emptyMap()) }
-        ) { roomModels, allDrafts ->
-            Pair(roomModels, allDrafts)
-        }.sampleAfterFirst(500).onEach { (roomModels, allDrafts) ->
-            L.i { "[ChatList] Processing conversations: ${roomModels.size}, drafts: ${allDrafts.size}" }
+        // ✅ 分开处理：room变化时查询room，draft变化时只更新对应会话的草稿预览
+        latestRoomModelsFlow.onEach { roomModels ->
+            L.i { "[ChatList] Processing conversations: ${roomModels.size}" }
 
             val finalRoomList = buildList {
                 // 添加常规房间数据
@@ -157,7 +152,7 @@ class RecentChatViewModel @Inject constructor(
                         it.criticalAlertType,
                         it.messageExpiry,
                         callData = callDataManager.getCallDataByConversationId(it.roomId),
-                        draftPreview = allDrafts[it.roomId]?.content,
+                        draftPreview = draftRepository.getDraft(it.roomId)?.content,
                         groupMembersNumber = it.groupMembersNumber,
                     )
                 })
@@ -171,6 +166,18 @@ class RecentChatViewModel @Inject constructor(
             allRecentRoomsStateFlow.value = finalRoomList
             L.i { "[ChatList] allRecentRoomsStateFlow updated: ${allRecentRoomsStateFlow.value.size}" }
         }.flowOn(Dispatchers.IO).launchIn(viewModelScope)
+
+        draftRepository.draftChanges.onEach { roomId ->
+            allRecentRoomsStateFlow.update { rooms ->
+                val index = rooms.indexOfFirst { it.roomId == roomId }
+                val draftPreview = draftRepository.getDraft(roomId)?.content
+                if (index < 0 || rooms[index].draftPreview == draftPreview) {
+                    rooms
+                } else {
+                    rooms.toMutableList().apply { this[index] = rooms[index].copy(draftPreview = draftPreview) }
+                }
+            }
+        }.flowOn(Dispatchers.IO).launchIn(viewModelScope)
     }
 
     fun createNote() {
@@ -0,0 +1,72 @@
+package com.difft.android.chat.setting.archive
+
+import java.util.PriorityQueue
+
+/**
+ * Rooms ordered by the time their next message expires.
+ *
+ * A min-heap with lazy deletion: rescheduling a room pushes a new entry and the outdated one is skipped once
+ * it reaches the top, so every update is O(log n) no matter how many rooms are tracked.
+ */
+internal class ExpiryDeadlineQueue {
+
+    private class Entry(val deadline: Long, val roomId: String)
+
+    private val heap = PriorityQueue<Entry>(compareBy { it.deadline })
+    private val deadlines = HashMap<String, Long>()
+
+    val size: Int
+        @Synchronized get() = deadlines.size
+
+    /**
+     * @param deadline time in ms after which the room has messages to archive, 0 to stop tracking the room
+     */
+    @Synchronized
+    fun schedule(roomId: String, deadline: Long) {
+        if (deadline <= 0L) {
+            deadlines.remove(roomId)
+            return
+        }
+        if (deadlines.put(roomId, deadline) == deadline) return
+        heap.add(Entry(deadline, roomId))
+        // Outdated entries are only dropped from the top, rebuild once they dominate the heap
+        if (heap.size > deadlines.size * 2 + 64) {
+            heap.clear()
+            deadlines.forEach { (id, time) -> heap.add(Entry(time, id)) }
+        }
+    }
+
+    @Synchronized
+    fun deadlineOf(roomId: String): Long? = deadlines[roomId]
+
+    @Synchronized
+    fun nextDeadline(): Long? {
+        dropOutdated()
+        return heap.peek()?.deadline
+    }
+
+    /**
+     * Removes and returns the rooms whose deadline has passed, earliest first.
+     */
+    @Synchronized
+    fun pollDue(now: Long): List<String> {
+        val due = mutableListOf<String>()
+        while (true) {
+            dropOutdated()
+            val entry = heap.peek() ?: break
+            if (entry.deadline >= now) break
+            heap.poll()
+            deadlines.remove(entry.roomId)
+            due.add(entry.roomId)
+        }
+        return due
+    }
+
+    private fun dropOutdated() {
+        while (true) {
+            val entry = heap.peek() ?: return
+            if (deadlines[entry.roomId] == entry.deadline) return
+            heap.poll()
+        }
+    }
+}
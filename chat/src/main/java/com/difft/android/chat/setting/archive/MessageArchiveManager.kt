@@ -3,6 +3,7 @@ package com.difft.android.chat.setting.archive
 
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.ResUtils
+import com.difft.android.base.utils.RoomChangeTracker
 import com.difft.android.base.utils.SecureSharedPrefsUtil
 import com.difft.android.base.utils.appScope
 import com.difft.android.base.utils.globalServices
@@ -24,6 +25,7 @@ import com.google.gson.JsonObject
 import com.tencent.wcdb.winq.Expression
 import com.tencent.wcdb.winq.Order
 import difft.android.messageserialization.For
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
@@ -35,9 +37,11 @@ import org.difft.app.database.models.DBResetIdentityKeyModel
 import org.difft.app.database.models.DBRoomModel
 import org.difft.app.database.models.MessageModel
 import org.difft.app.database.models.ResetIdentityKeyModel
+import org.difft.app.database.models.RoomModel
 import org.difft.app.database.wcdb
-import util.AppForegroundObserver
 import util.TimeUtils
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.coroutines.cancellation.CancellationException
@@ -55,38 +59,53 @@ class MessageArchiveManager @Inject constructor(
     private val conversationSettingsManager: dagger.Lazy<com.difft.android.chat.setting.ConversationSettingsManager>
 ) {
     companion object {
-        private const val FOREGROUND_INTERVAL_MS = 5 * 60 * 1000L  // 5 minutes
-        private const val BACKGROUND_INTERVAL_MS = 60 * 60 * 1000L // 1 hour
+        private const val RETRY_DELAY_MS = 60 * 1000L // 1 minute
     }
 
-    @Volatile
-    private var currentInterval = FOREGROUND_INTERVAL_MS
+    /**
+     * Next expiry of every room with pending messages. Persisted in [RoomModel.messageExpiryDeadline], which is
+     * cleared whenever a room's expiry rules or read position are written. Rooms with a persisted deadline are
+     * scheduled from it once the task starts, the others are computed, then deadlines are kept up to date from
+     * [RoomChangeTracker] as messages are received and read.
+     */
+    private val deadlines = ExpiryDeadlineQueue()
+
+    /**
+     * When each room was last archived in this process. Messages that expired before that are archive system
+     * messages, which are never deleted, so they are left out of the next deadline.
+     */
+    private val archivedAt = ConcurrentHashMap<String, Long>()
 
-    @Volatile
-    private var lastCheckTime: Long = 0L
+    /** messageExpiry and messageClearAnchor each room's deadline was computed with. */
+    private val roomRules = ConcurrentHashMap<String, Pair<Long, Long>>()
 
-    // Channel to signal state changes and interrupt the delay
-    private val stateChangeSignal = Channel<Unit>(Channel.CONFLATED)
+    /** readPosition each room's deadline was computed with, legacy messages without readTime expire once read. */
+    private val readPositions = ConcurrentHashMap<String, Long>()
+
+    private val started = AtomicBoolean(false)
+
+    // Wakes the timer when a deadline was added or the app state changed
+    private val wakeSignal = Channel<Unit>(Channel.CONFLATED)
 
     fun startCheckTask() {
-        currentInterval = if (AppForegroundObserver.isForegrounded()) {
-            FOREGROUND_INTERVAL_MS
-        } else {
-            BACKGROUND_INTERVAL_MS
-        }
+        if (!started.compareAndSet(false, true)) return
 
         appScope.launch(Dispatchers.IO) {
+            // roomChanges has no replay, subscribe before computing so no change falls in between
+            launch(start = CoroutineStart.UNDISPATCHED) {
+                RoomChangeTracker.roomChanges.collect { changes ->
+                    onRoomsChanged(changes.mapTo(LinkedHashSet()) { it.roomId })
+                }
+            }
             checkIdentityKeyReset()
+            loadDeadlines()
 
+            // One timer for all rooms, it sleeps until the earliest deadline
             while (true) {
-                doArchiveIfNeeded()
-                // Wait for either: interval timeout OR state change signal
-                val signaled = withTimeoutOrNull(currentInterval) {
-                    stateChangeSignal.receive()
-                    true
-                }
-                if (signaled == true) {
-                    L.i { "[MessageArchiveManager] State changed, interval now ${currentInterval / 1000}s" }
+                archiveDueRooms()
+                val timeout = deadlines.nextDeadline()?.let { (it - System.currentTimeMillis() + 1).coerceAtLeast(0L) } ?: Long.MAX_VALUE
+                withTimeoutOrNull(timeout) {
+                    wakeSignal.receive()
                 }
             }
         }
@@ -94,28 +113,160 @@ class MessageArchiveManager @Inject constructor(
 
     /**
      * Call when app foreground/background state changes.
-     * Updates the interval and triggers immediate check if needed.
+     * Archives whatever expired while the process was not running the timer.
      */
     fun onAppStateChanged(isForeground: Boolean) {
-        currentInterval = if (isForeground) FOREGROUND_INTERVAL_MS else BACKGROUND_INTERVAL_MS
-        stateChangeSignal.trySend(Unit)
+        wakeSignal.trySend(Unit)
     }
 
-    private suspend fun doArchiveIfNeeded() {
-        val timeSinceLastCheck = System.currentTimeMillis() - lastCheckTime
+    private fun RoomModel.rules() = (messageExpiry ?: 0L) to (messageClearAnchor ?: 0L)
 
-        // First call (lastCheckTime = 0) or exceeded interval
-        if (lastCheckTime == 0L || timeSinceLastCheck >= currentInterval) {
-            L.i { "[MessageArchiveManager] Archive check triggered (${timeSinceLastCheck / 1000}s since last)" }
-            archiveMessages()
-            lastCheckTime = System.currentTimeMillis()
-        } else {
-            L.d { "[MessageArchiveManager] Skip archive check, ${(currentInterval - timeSinceLastCheck) / 1000}s remaining" }
+    /**
+     * Schedules every room from its persisted deadline, only rooms whose deadline was never computed or was
+     * cleared by a change of their rules or read position are computed.
+     */
+    private fun loadDeadlines() {
+        try {
+            val rooms = wcdb.room.getAllObjects(
+                DBRoomModel.roomId.notEq(globalServices.myId)
+                    .and(DBRoomModel.messageExpiry.gt(0).or(DBRoomModel.messageClearAnchor.gt(0)))
+            )
+            var computed = 0
+            rooms.forEach { room ->
+                roomRules[room.roomId] = room.rules()
+                readPositions[room.roomId] = room.readPosition
+                val persisted = room.messageExpiryDeadline
+                if (persisted != null) {
+                    deadlines.schedule(room.roomId, persisted)
+                    return@forEach
+                }
+                computed++
+                try {
+                    updateDeadline(room)
+                } catch (e: Exception) {
+                    L.e { "[MessageArchiveManager] compute deadline error for room:${room.roomId} error:${e.stackTraceToString()}" }
+                }
+            }
+            L.i { "[MessageArchiveManager] loaded deadlines for ${rooms.size} rooms, computed:$computed scheduled:${deadlines.size}" }
+        } catch (e: Exception) {
+            L.e { "[MessageArchiveManager] loadDeadlines error:${e.stackTraceToString()}" }
+        }
+        wakeSignal.trySend(Unit)
+    }
+
+    /**
+     * New and newly read messages only expire after the room's current deadline, so a room that already has one
+     * is recomputed only when its expiry rules or its read position changed. A new read position can bring
+     * legacy messages without readTime forward, see [buildMessageClearCondition].
+     */
+    private fun onRoomsChanged(roomIds: Set<String>) {
+        roomIds.forEach { roomId ->
+            if (roomId == globalServices.myId) return@forEach
+            try {
+                val room = wcdb.room.getFirstObject(DBRoomModel.roomId.eq(roomId)) ?: return@forEach
+                val rules = room.rules()
+                val rulesChanged = roomRules.put(roomId, rules) != rules
+                val previousReadPosition = readPositions.put(roomId, room.readPosition)
+                val readPositionChanged = previousReadPosition != room.readPosition
+                if (rulesChanged || (readPositionChanged && hasNewlyReadLegacyMessages(room, previousReadPosition ?: 0L))) {
+                    // Messages that already expired may only now be archivable, look at them again
+                    archivedAt.remove(roomId)
+                } else if (!readPositionChanged && room.messageExpiryDeadline != null && deadlines.deadlineOf(roomId) != null) {
+                    return@forEach
+                }
+                updateDeadline(room)
+            } catch (e: Exception) {
+                L.e { "[MessageArchiveManager] update deadline error for room:$roomId error:${e.stackTraceToString()}" }
+            }
+        }
+        wakeSignal.trySend(Unit)
+    }
+
+    private fun hasNewlyReadLegacyMessages(room: RoomModel, previousReadPosition: Long): Boolean {
+        if ((room.messageExpiry ?: 0L) <= 0 || room.readPosition <= previousReadPosition) return false
+        return wcdb.message.getFirstObject(
+            DBMessageModel.roomId.eq(room.roomId)
+                .and(DBMessageModel.readTime.eq(0))
+                .and(DBMessageModel.systemShowTimestamp.gt(previousReadPosition))
+                .and(DBMessageModel.systemShowTimestamp.le(room.readPosition))
+        ) != null
+    }
+
+    private fun updateDeadline(room: RoomModel) {
+        val deadline = computeDeadline(room, archivedAt[room.roomId] ?: 0L)
+        deadlines.schedule(room.roomId, deadline)
+        if (room.messageExpiryDeadline != deadline) {
+            wcdb.room.updateValue(deadline, DBRoomModel.messageExpiryDeadline, DBRoomModel.roomId.eq(room.roomId))
+            room.messageExpiryDeadline = deadline
+        }
+    }
+
+    /**
+     * @param since messages that expired before this time are already archived, 0 to check them too
+     * @return time after which the room has messages to archive, 0 if there are none
+     */
+    private fun computeDeadline(room: RoomModel, since: Long): Long {
+        val messageExpiryMillis = (room.messageExpiry ?: 0L) * 1000L
+        val messageClearAnchor = room.messageClearAnchor ?: 0L
+        val baseCondition = DBMessageModel.roomId.eq(room.roomId)
+
+        if (since == 0L) {
+            val now = System.currentTimeMillis()
+            val expired = buildMessageClearCondition(
+                baseCondition = baseCondition,
+                messageClearAnchor = messageClearAnchor,
+                messageExpiryMillis = messageExpiryMillis,
+                currentTimeMillis = now,
+                readPosition = room.readPosition
+            ) ?: return 0L
+            if (wcdb.message.getFirstObject(expired) != null) return now - 1
         }
+        if (messageExpiryMillis <= 0) return 0L
+
+        val firstReadTime = wcdb.message.getValue(
+            DBMessageModel.readTime.min(),
+            baseCondition.and(DBMessageModel.readTime.gt(0))
+                .and(DBMessageModel.readTime.add(messageExpiryMillis).ge(since))
+        )?.long?.takeIf { it > 0 }
+
+        // Legacy messages without readTime expire from their show time, see buildMessageClearCondition
+        val firstLegacyTime = if (room.readPosition > 0) {
+            wcdb.message.getValue(
+                DBMessageModel.systemShowTimestamp.min(),
+                baseCondition.and(DBMessageModel.readTime.eq(0))
+                    .and(DBMessageModel.systemShowTimestamp.le(room.readPosition))
+                    .and(DBMessageModel.systemShowTimestamp.add(messageExpiryMillis).ge(since))
+            )?.long?.takeIf { it > 0 }
+        } else null
+
+        return listOfNotNull(firstReadTime, firstLegacyTime).minOrNull()?.plus(messageExpiryMillis) ?: 0L
+    }
+
+    private suspend fun archiveDueRooms() {
+        val dueRooms = deadlines.pollDue(System.currentTimeMillis())
+        if (dueRooms.isEmpty()) return
+        L.i { "[MessageArchiveManager] start archiving messages for ${dueRooms.size} due rooms, ${deadlines.size} scheduled" }
+
+        dueRooms.forEach { roomId ->
+            val currentTimeMillis = System.currentTimeMillis()
+            try {
+                val room = wcdb.room.getFirstObject(DBRoomModel.roomId.eq(roomId)) ?: return@forEach
+                archiveMessages(room, currentTimeMillis)
+                archivedAt[roomId] = currentTimeMillis
+                updateDeadline(room)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                L.e { "[MessageArchiveManager] error archiving messages for room:$roomId error:${e.stackTraceToString()}" }
+                deadlines.schedule(roomId, currentTimeMillis + RETRY_DELAY_MS)
+            }
+        }
+
+        L.i { "[MessageArchiveManager] finished archiving messages" }
     }
 
     /**
-     * Archive expired messages for all rooms. A message is archived if either:
+     * Archive expired messages of [room]. A message is archived if either:
      * 1. readTime <= messageClearAnchor
      * 2. readTime + messageExpiry < currentTime
      *
@@ -123,104 +274,89 @@ class MessageArchiveManager @Inject constructor(
      * to prevent accidentally emptying conversations. They are only replaced (delete + recreate)
      * when new normal messages are archived.
      */
-    private suspend fun archiveMessages() {
+    private suspend fun archiveMessages(room: RoomModel, currentTimeMillis: Long) {
         val pageSize = 100L
-        val currentTimeMillis = System.currentTimeMillis()
-
-        val roomsNeedCheckClear = wcdb.room.getAllObjects(
-            DBRoomModel.roomId.notEq(globalServices.myId)
-        )
-        L.i { "[MessageArchiveManager] start archiving messages for ${roomsNeedCheckClear.size} rooms" }
-
-        roomsNeedCheckClear.forEach { room ->
-            try {
-                var totalProcessedCount = 0
-
-                val messageExpiryMillis = (room.messageExpiry ?: 0L) * 1000L
-                val messageClearAnchor = room.messageClearAnchor ?: 0L
-                val readPosition = room.readPosition
-
-                val baseCondition = DBMessageModel.roomId.eq(room.roomId)
-
-                val finalCondition = buildMessageClearCondition(
-                    baseCondition = baseCondition,
-                    messageClearAnchor = messageClearAnchor,
-                    messageExpiryMillis = messageExpiryMillis,
-                    currentTimeMillis = currentTimeMillis,
-                    readPosition = readPosition
-                ) ?: return@forEach // No expiry rules configured, skip this room
-
-                while (true) {
-                    val messagesToClear = wcdb.message.getAllObjects(
-                        finalCondition,
-                        null,
-                        pageSize
-                    )
-
-                    if (messagesToClear.isNotEmpty()) {
-                        messagesToClear.forEach { message ->
-                            // Skip archive system messages to avoid emptying the conversation
-                            if (!isArchiveExpiredSystemMessage(message)) {
-                                totalProcessedCount++
-                                message.delete()
-                            }
-                        }
-                    }
+        var totalProcessedCount = 0
+
+        val messageExpiryMillis = (room.messageExpiry ?: 0L) * 1000L
+        val messageClearAnchor = room.messageClearAnchor ?: 0L
+        val readPosition = room.readPosition
+
+        val baseCondition = DBMessageModel.roomId.eq(room.roomId)
+
+        val finalCondition = buildMessageClearCondition(
+            baseCondition = baseCondition,
+            messageClearAnchor = messageClearAnchor,
+            messageExpiryMillis = messageExpiryMillis,
+            currentTimeMillis = currentTimeMillis,
+            readPosition = readPosition
+        ) ?: return // No expiry rules configured, skip this room
+
+        while (true) {
+            val messagesToClear = wcdb.message.getAllObjects(
+                finalCondition,
+                null,
+                pageSize
+            )
 
-                    if (messagesToClear.size < pageSize) {
-                        break
+            if (messagesToClear.isNotEmpty()) {
+                messagesToClear.forEach { message ->
+                    // Skip archive system messages to avoid emptying the conversation
+                    if (!isArchiveExpiredSystemMessage(message)) {
+                        totalProcessedCount++
+                        message.delete()
                     }
-
-                    delay(100)
                 }
+            }
 
-                // Replace the archive system message when normal messages were archived
-                if (totalProcessedCount > 0) {
-                    L.i { "[MessageArchiveManager] processed $totalProcessedCount normal messages for room ${room.roomId}" }
+            if (messagesToClear.size < pageSize) {
+                break
+            }
 
-                    // Delete old archive system messages to avoid duplicates
-                    wcdb.message.getAllObjects(
-                        DBMessageModel.roomId.eq(room.roomId).and(DBMessageModel.type.eq(MessageModel.TYPE_NOTIFY))
-                    ).forEach { message ->
-                        if (isArchiveExpiredSystemMessage(message)) {
-                            message.delete()
-                        }
-                    }
+            delay(100)
+        }
 
-                    // Anchor the new archive message to the earliest remaining message
-                    val earliestMessage = wcdb.message.getFirstObject(
-                        DBMessageModel.roomId.eq(room.roomId),
-                        DBMessageModel.systemShowTimestamp.order(Order.Asc)
-                    )
-
-                    // Place it 1ms before the earliest message so it appears first
-                    val systemShowTimestamp = earliestMessage?.systemShowTimestamp?.minus(1)
-                        ?: System.currentTimeMillis()
-
-                    // Use the earliest message's readTime for consistent expiry calculation.
-                    // Fallback to current time if readTime = 0 (unread) to ensure it can be archived later.
-                    val readTime = earliestMessage?.readTime?.takeIf { it > 0 } ?: System.currentTimeMillis()
-
-                    // Inherit expiresInSeconds from earliest message, or fall back to room-level messageExpiry
-                    val expiresInSeconds = earliestMessage?.expiresInSeconds ?: (room.messageExpiry ?: 0L).toInt()
-
-                    L.i { "[MessageArchiveManager] creating archive message for room ${room.roomId}, timestamp: $systemShowTimestamp, readTime: $readTime, expiresInSeconds: $expiresInSeconds" }
-                    localMessageCreator.get().createEarlierMessagesExpiredMessage(
-                        room.roomId,
-                        room.roomType,
-                        systemShowTimestamp,
-                        readTime,
-                        expiresInSeconds
-                    ).let { message ->
-                        wcdb.message.insertObject(message)
-                    }
+        // Replace the archive system message when normal messages were archived
+        if (totalProcessedCount > 0) {
+            L.i { "[MessageArchiveManager] processed $totalProcessedCount normal messages for room ${room.roomId}" }
+
+            // Delete old archive system messages to avoid duplicates
+            wcdb.message.getAllObjects(
+                DBMessageModel.roomId.eq(room.roomId).and(DBMessageModel.type.eq(MessageModel.TYPE_NOTIFY))
+            ).forEach { message ->
+                if (isArchiveExpiredSystemMessage(message)) {
+                    message.delete()
                 }
-            } catch (e: Exception) {
-                L.e { "[MessageArchiveManager] error archiving messages for room:${room.roomId} error:${e.stackTraceToString()}" }
             }
-        }
 
-        L.i { "[MessageArchiveManager] finished archiving messages" }
+            // Anchor the new archive message to the earliest remaining message
+            val earliestMessage = wcdb.message.getFirstObject(
+                DBMessageModel.roomId.eq(room.roomId),
+                DBMessageModel.systemShowTimestamp.order(Order.Asc)
+            )
+
+            // Place it 1ms before the earliest message so it appears first
+            val systemShowTimestamp = earliestMessage?.systemShowTimestamp?.minus(1)
+                ?: System.currentTimeMillis()
+
+            // Use the earliest message's readTime for consistent expiry calculation.
+            // Fallback to current time if readTime = 0 (unread) to ensure it can be archived later.
+            val readTime = earliestMessage?.readTime?.takeIf { it > 0 } ?: System.currentTimeMillis()
+
+            // Inherit expiresInSeconds from earliest message, or fall back to room-level messageExpiry
+            val expiresInSeconds = earliestMessage?.expiresInSeconds ?: (room.messageExpiry ?: 0L).toInt()
+
+            L.i { "[MessageArchiveManager] creating archive message for room ${room.roomId}, timestamp: $systemShowTimestamp, readTime: $readTime, expiresInSeconds: $expiresInSeconds" }
+            localMessageCreator.get().createEarlierMessagesExpiredMessage(
+                room.roomId,
+                room.roomType,
+                systemShowTimestamp,
+                readTime,
+                expiresInSeconds
+            ).let { message ->
+                wcdb.message.insertObject(message)
+            }
+        }
     }
 
     /**
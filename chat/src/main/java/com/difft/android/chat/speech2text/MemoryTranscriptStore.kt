@@ -0,0 +1,28 @@
+package com.difft.android.chat.speech2text
+
+/**
+ * [TranscriptStore] kept in memory, at most [maxEntries] transcripts, least recently used first out.
+ *
+ * Transcripts are not written to disk here: the transcript of a message is persisted in its `speech_to_Text` row,
+ * which is deleted together with the message.
+ */
+class MemoryTranscriptStore(private val maxEntries: Int = MAX_ENTRIES) : TranscriptStore {
+    companion object {
+        private const val MAX_ENTRIES = 100
+    }
+
+    // fileHash -> transcript, guarded by itself
+    private val entries = object : LinkedHashMap<String, String>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, String>?): Boolean {
+            return size > maxEntries
+        }
+    }
+
+    override fun get(fileHash: String): String? {
+        return synchronized(entries) { entries[fileHash] }
+    }
+
+    override fun put(fileHash: String, transcript: String) {
+        synchronized(entries) { entries[fileHash] = transcript }
+    }
+}
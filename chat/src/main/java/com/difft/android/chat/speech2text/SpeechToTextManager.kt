@@ -3,27 +3,16 @@ package com.difft.android.chat.speech2text
 import android.content.Context
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.SecureSharedPrefsUtil
-import com.difft.android.chat.fileshare.AttachmentUploadType
-import com.difft.android.chat.fileshare.FileExistReq
+import com.difft.android.base.utils.appScope
 import com.difft.android.chat.fileshare.FileShareRepo
-import com.difft.android.chat.fileshare.UploadInfoReq
 import difft.android.messageserialization.model.Attachment
 import com.difft.android.network.ChativeHttpClient
 import com.difft.android.network.UrlManager
 import com.difft.android.network.di.ChativeHttpClientModule
-import com.difft.android.network.requests.ProgressRequestBody
-import com.difft.android.network.requests.SpeechToTextRequestBody
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlin.coroutines.cancellation.CancellationException
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import okhttp3.RequestBody
-import util.FileUtils
-import com.difft.android.base.utils.Base64
-import java.io.File
-import java.security.MessageDigest
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -46,6 +35,16 @@ class SpeechToTextManager @Inject constructor(
     @ChativeHttpClientModule.Default
     lateinit var chatHttpClient: ChativeHttpClient
 
+    private val pipeline by lazy {
+        SpeechToTextPipeline(
+            fileShare = fileShareRepo,
+            httpService = chatHttpClient.httpService,
+            store = MemoryTranscriptStore(),
+            scope = appScope,
+            token = { SecureSharedPrefsUtil.getToken() },
+        )
+    }
+
     fun speechToText(
         scope: CoroutineScope,
         context: Context,
@@ -62,93 +61,16 @@ class SpeechToTextManager @Inject constructor(
      */
     private fun convert(scope: CoroutineScope, attachment: Attachment, onSuccess: (String) -> Unit, onFailure: (Exception) -> Unit) {
         scope.launch {
-            try {
-                val result = withContext(Dispatchers.IO) {
-                    val keyDigest = MessageDigest.getInstance("SHA-256").digest(attachment.key)
-                    val fileHash = android.util.Base64.encodeToString(keyDigest, android.util.Base64.NO_WRAP)
-                    val fileExistResponse = fileShareRepo.isExist(FileExistReq(SecureSharedPrefsUtil.getToken(), fileHash, listOf(SPEECH_TO_TEXT))).execute()
-
-                    if (!fileExistResponse.isSuccessful) {
-                        throw Exception("File permission application failed")
-                    }
-
-                    val fileExistResp = fileExistResponse.body()?.data
-                    L.i { "[SpeechToTextManager]  fileExistResp:${fileExistResp}" }
-
-                    if (fileExistResp?.exists == true) {
-                        // Already exists, directly request speech-to-text service
-                        val requestBody = SpeechToTextRequestBody(
-                            authorizeId = fileExistResp.authorizeId.toString(),
-                            key = Base64.encodeBytes(attachment.key, Base64.NO_OPTIONS)
-                        )
-                        chatHttpClient.httpService.voiceToText(SecureSharedPrefsUtil.getToken(), requestBody)
-                    } else {
-                        // Does not exist, upload audio file first then request speech-to-text service
-                        val urlString = fileExistResp?.url
-                        val filePath = attachment.path
-                        val encryptedFile = File("$filePath.encrypt")
-                        if (urlString.isNullOrEmpty() || filePath.isNullOrEmpty() || !encryptedFile.exists()) {
-                            throw Exception("file is not exist")
-                        }
-
-                        // Upload encrypted audio file
-                        val body: RequestBody = ProgressRequestBody(encryptedFile, null, null)
-                        val uploadToOSSCallResponse = fileShareRepo.uploadToOSS(urlString, body).execute()
-                        if (!uploadToOSSCallResponse.isSuccessful) {
-                            throw Exception("uploadToOSSCall execute failed:${uploadToOSSCallResponse.message}")
-                        }
-
-                        // Upload file info to server
-                        val keyDigest2 = MessageDigest.getInstance("SHA-256").digest(attachment.key)
-                        val fileHash2 = android.util.Base64.encodeToString(keyDigest2, android.util.Base64.NO_WRAP)
-                        val uploadInfoCallResponse = fileShareRepo.uploadInfo(
-                            UploadInfoReq(
-                                token = SecureSharedPrefsUtil.getToken(),
-                                numbers = listOf(SPEECH_TO_TEXT),
-                                attachmentId = fileExistResp.attachmentId,
-                                fileHash = fileHash2,
-                                cipherHash = FileUtils.bytesToHex(attachment.digest),
-                                cipherHashType = "MD5",
-                                hashAlg = "SHA-256",
-                                keyAlg = "SHA-512",
-                                encAlg = "AES-CBC-256",
-                                fileSize = attachment.size,
-                                attachmentType = AttachmentUploadType.VOICE
-                            )
-                        ).execute()
-
-                        if (!uploadInfoCallResponse.isSuccessful) {
-                            L.w { "[SpeechToTextManager] upload attachment fail${uploadInfoCallResponse.message()}" }
-                            throw Exception("upload attachment fail:${uploadInfoCallResponse.message()}")
-                        }
-
-                        // Upload succeeded, request speech-to-text service
-                        val authorityId = uploadInfoCallResponse.body()?.data?.authorizeId ?: 0
-                        val requestBody = SpeechToTextRequestBody(
-                            authorizeId = authorityId.toString(),
-                            key = Base64.encodeBytes(attachment.key, Base64.NO_OPTIONS)
-                        )
-                        chatHttpClient.httpService.voiceToText(SecureSharedPrefsUtil.getToken(), requestBody)
-                    }
-                }
-
-                if (result.status == 0 && result.data != null) {
-                    L.d { "[SpeechToTextManager] speechToText response onSuccess:${result}" }
-                    val concatenatedText = result.data?.segments?.map { segment ->
-                        segment.text ?: ""
-                    }?.joinToString(" ")
-                    L.d { "[SpeechToTextManager] speechToText concatenatedText:${concatenatedText}" }
-                    onSuccess(concatenatedText.toString())
-                } else {
-                    L.e { "[SpeechToTextManager] speechToText response error:${result}" }
-                    onFailure(Exception(result.toString()))
-                }
+            val transcript = try {
+                pipeline.transcribe(attachment)
             } catch (e: CancellationException) {
                 throw e
             } catch (e: Exception) {
                 L.e { "[SpeechToTextManager] speechToText response onFailure:${e}" }
                 onFailure(e)
+                return@launch
             }
+            onSuccess(transcript)
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,152 @@
+package com.difft.android.chat.speech2text
+
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.utils.Base64
+import com.difft.android.chat.fileshare.AttachmentUploadType
+import com.difft.android.chat.fileshare.FileExistReq
+import com.difft.android.chat.fileshare.FileShareUploader
+import com.difft.android.chat.fileshare.UploadInfoReq
+import com.difft.android.network.HttpService
+import com.difft.android.network.requests.SpeechToTextRequestBody
+import difft.android.messageserialization.model.Attachment
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import okhttp3.RequestBody.Companion.asRequestBody
+import util.FileUtils
+import java.io.File
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Turns voice attachments into text:
+ * - transcripts are looked up in [store] by the file hash, forwarded copies of a voice message share it
+ * - requests for a voice file that is already being converted wait for that conversion
+ * - the encrypted voice file is only uploaded when the file server does not have it yet
+ *
+ * Conversions run in [scope], a caller that goes away does not cancel a conversion others may wait for.
+ */
+class SpeechToTextPipeline(
+    private val fileShare: FileShareUploader,
+    private val httpService: HttpService,
+    private val store: TranscriptStore,
+    private val scope: CoroutineScope,
+    private val token: () -> String,
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+) {
+    companion object {
+        fun fileHash(key: ByteArray): String {
+            val keyDigest = MessageDigest.getInstance("SHA-256").digest(key)
+            return Base64.encodeBytes(keyDigest, Base64.NO_OPTIONS)
+        }
+    }
+
+    private val inFlight = ConcurrentHashMap<String, Deferred<String>>()
+
+    /**
+     * @return the transcript, empty if nothing was recognized
+     */
+    suspend fun transcribe(attachment: Attachment): String {
+        val key = attachment.key ?: throw IllegalArgumentException("attachment key is null")
+        val fileHash = fileHash(key)
+        inFlight[fileHash]?.let { return it.await() }
+
+        val deferred = scope.async(dispatcher, start = CoroutineStart.LAZY) {
+            try {
+                transcribeUncached(attachment, key, fileHash)
+            } finally {
+                inFlight.remove(fileHash, coroutineContext[Job])
+            }
+        }
+        val running = inFlight.putIfAbsent(fileHash, deferred)
+        if (running != null) {
+            L.i { "[SpeechToTextManager] voice file is converting, wait for it: ${attachment.id}" }
+            deferred.cancel()
+            return running.await()
+        }
+        deferred.start()
+        return deferred.await()
+    }
+
+    private suspend fun transcribeUncached(attachment: Attachment, key: ByteArray, fileHash: String): String {
+        store.get(fileHash)?.let {
+            L.i { "[SpeechToTextManager] transcript cache hit: ${attachment.id}" }
+            return it
+        }
+
+        val requestBody = SpeechToTextRequestBody(
+            authorizeId = authorize(attachment, fileHash).toString(),
+            key = Base64.encodeBytes(key, Base64.NO_OPTIONS)
+        )
+        val result = httpService.voiceToText(token(), requestBody)
+        if (result.status != 0 || result.data == null) {
+            L.e { "[SpeechToTextManager] speechToText response error:${result}" }
+            throw Exception(result.toString())
+        }
+
+        val transcript = result.data?.segments?.joinToString(" ") { segment -> segment.text ?: "" }.orEmpty()
+        L.d { "[SpeechToTextManager] speechToText concatenatedText:${transcript}" }
+        if (transcript.isNotBlank()) {
+            store.put(fileHash, transcript)
+        }
+        return transcript
+    }
+
+    /**
+     * @return authorizeId of the voice file for the speech-to-text service, the file is uploaded first if the file
+     * server does not have it
+     */
+    private fun authorize(attachment: Attachment, fileHash: String): Long {
+        val fileExistResponse = fileShare.isExist(FileExistReq(token(), fileHash, listOf(SpeechToTextManager.SPEECH_TO_TEXT))).execute()
+        if (!fileExistResponse.isSuccessful) {
+            throw Exception("File permission application failed")
+        }
+
+        val fileExistResp = fileExistResponse.body()?.data
+        L.i { "[SpeechToTextManager]  fileExistResp:${fileExistResp}" }
+        if (fileExistResp?.exists == true) {
+            return fileExistResp.authorizeId
+        }
+
+        val urlString = fileExistResp?.url
+        val filePath = attachment.path
+        val encryptedFile = File("$filePath.encrypt")
+        if (urlString.isNullOrEmpty() || filePath.isNullOrEmpty() || !encryptedFile.exists()) {
+            throw Exception("file is not exist")
+        }
+
+        // 直接从加密文件流式上传
+        fileShare.uploadToOSS(urlString, encryptedFile.asRequestBody()).execute().use { response ->
+            if (!response.isSuccessful) {
+                throw Exception("uploadToOSSCall execute failed:${response.message}")
+            }
+        }
+
+        // Upload file info to server
+        val uploadInfoCallResponse = fileShare.uploadInfo(
+            UploadInfoReq(
+                token = token(),
+                numbers = listOf(SpeechToTextManager.SPEECH_TO_TEXT),
+                attachmentId = fileExistResp.attachmentId,
+                fileHash = fileHash,
+                cipherHash = FileUtils.bytesToHex(attachment.digest),
+                cipherHashType = "MD5",
+                hashAlg = "SHA-256",
+                keyAlg = "SHA-512",
+                encAlg = "AES-CBC-256",
+                fileSize = attachment.size,
+                attachmentType = AttachmentUploadType.VOICE
+            )
+        ).execute()
+
+        if (!uploadInfoCallResponse.isSuccessful) {
+            L.w { "[SpeechToTextManager] upload attachment fail${uploadInfoCallResponse.message()}" }
+            throw Exception("upload attachment fail:${uploadInfoCallResponse.message()}")
+        }
+        return uploadInfoCallResponse.body()?.data?.authorizeId ?: 0
+    }
+}
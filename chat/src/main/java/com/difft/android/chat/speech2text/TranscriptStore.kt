@@ -0,0 +1,11 @@
+package com.difft.android.chat.speech2text
+
+/**
+ * Transcripts that were already made, keyed by the file hash of the voice attachment. Forwarded copies of a voice
+ * message keep the attachment key and share the entry.
+ */
+interface TranscriptStore {
+    fun get(fileHash: String): String?
+
+    fun put(fileHash: String, transcript: String)
+}
@@ -0,0 +1,34 @@
+package com.difft.android.chat.translate
+
+/**
+ * [TranslationStore] kept in memory, at most [maxEntries] translations, least recently used first out.
+ *
+ * Translated texts are not written to disk here: the translation of a message is persisted in its `translate`
+ * row, which is deleted together with the message.
+ */
+class MemoryTranslationStore(private val maxEntries: Int = MAX_ENTRIES) : TranslationStore {
+    companion object {
+        private const val MAX_ENTRIES = 200
+    }
+
+    // "contentHash:targetLang" -> entry, guarded by itself
+    private val entries = object : LinkedHashMap<String, TranslationStore.Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, TranslationStore.Entry>?): Boolean {
+            return size > maxEntries
+        }
+    }
+
+    override fun get(contentHash: String, targetLang: String): TranslationStore.Entry? {
+        return synchronized(entries) { entries["$contentHash:$targetLang"] }
+    }
+
+    override fun sourceLang(contentHash: String): String? {
+        return synchronized(entries) {
+            entries.entries.firstOrNull { it.key.startsWith("$contentHash:") }?.value?.sourceLang
+        }
+    }
+
+    override fun put(contentHash: String, targetLang: String, entry: TranslationStore.Entry) {
+        synchronized(entries) { entries["$contentHash:$targetLang"] = entry }
+    }
+}
@@ -0,0 +1,67 @@
+package com.difft.android.chat.translate
+
+import com.difft.android.base.log.lumberjack.L
+import com.google.android.gms.tasks.Task
+import com.google.mlkit.nl.translate.Translation
+import com.google.mlkit.nl.translate.Translator
+import com.google.mlkit.nl.translate.TranslatorOptions
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+class MlKitTextTranslator : TextTranslator {
+    // 缓存 Translator，避免重复创建
+    private val translatorCache = ConcurrentHashMap<String, Translator>()
+
+    // 已确认下载过模型的语言对，不再重复检查
+    private val downloadedModels = ConcurrentHashMap.newKeySet<String>()
+
+    /**
+     * **获取 Translator（按需创建）**
+     */
+    private fun getTranslator(key: String, sourceLang: String, targetLang: String): Translator {
+        return translatorCache.getOrPut(key) {
+            Translation.getClient(
+                TranslatorOptions.Builder()
+                    .setSourceLanguage(sourceLang)
+                    .setTargetLanguage(targetLang)
+                    .build()
+            )
+        }
+    }
+
+    override suspend fun translate(text: String, sourceLang: String, targetLang: String): String {
+        val key = "$sourceLang-$targetLang"
+        val translator = getTranslator(key, sourceLang, targetLang)
+
+        if (key !in downloadedModels) {
+            try {
+                translator.downloadModelIfNeeded().await()
+            } catch (e: Exception) {
+                L.e { "[TranslateManager] 模型下载失败: $sourceLang -> $targetLang ${e.stackTraceToString()}" }
+                throw e
+            }
+            L.i { "[TranslateManager] 模型下载成功: $sourceLang -> $targetLang" }
+            downloadedModels.add(key)
+        }
+
+        return translator.translate(text).await()
+    }
+
+    /**
+     * **释放所有 Translator 资源**
+     */
+    override fun close() {
+        for (translator in translatorCache.values) {
+            translator.close()
+        }
+        translatorCache.clear()
+        downloadedModels.clear()
+    }
+
+    private suspend fun <T> Task<T>.await(): T = suspendCancellableCoroutine { continuation ->
+        addOnSuccessListener { continuation.resume(it) }
+        addOnFailureListener { continuation.resumeWithException(it) }
+    }
+}
@@ -0,0 +1,16 @@
+package com.difft.android.chat.translate
+
+/**
+ * Runs the actual translation model. [MlKitTextTranslator] in the app, tests use a fake.
+ */
+interface TextTranslator {
+    /**
+     * @param sourceLang language of [text], as detected by [TranslateManager]
+     */
+    suspend fun translate(text: String, sourceLang: String, targetLang: String): String
+
+    /**
+     * Releases the models held by this translator.
+     */
+    fun close() {}
+}
@@ -2,25 +2,20 @@ package com.difft.android.chat.translate
 
 import android.content.Context
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.utils.appScope
 import com.google.common.base.Optional
 import com.google.mlkit.nl.translate.TranslateLanguage
-import com.google.mlkit.nl.translate.Translation
-import com.google.mlkit.nl.translate.Translator
-import com.google.mlkit.nl.translate.TranslatorOptions
 import com.optimaize.langdetect.LanguageDetector
 import com.optimaize.langdetect.LanguageDetectorBuilder
 import com.optimaize.langdetect.i18n.LdLocale
 import com.optimaize.langdetect.ngram.NgramExtractors
-import com.optimaize.langdetect.profiles.LanguageProfile
 import com.optimaize.langdetect.profiles.LanguageProfileReader
 import com.optimaize.langdetect.text.CommonTextObjectFactories
 import com.optimaize.langdetect.text.TextObjectFactory
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -28,30 +23,29 @@ import javax.inject.Singleton
 class TranslateManager @Inject constructor(
     @param:ApplicationContext private val context: Context,
 ) {
-    // 缓存 Translator，避免重复创建
-    private val translatorCache = ConcurrentHashMap<String, Translator>()
-
-    /**
-     * **获取 Translator（按需创建）**
-     */
-    private fun getTranslator(sourceLang: String, targetLang: String): Translator {
-        val key = "$sourceLang-$targetLang"
-        return translatorCache.getOrPut(key) {
-            Translation.getClient(
-                TranslatorOptions.Builder()
-                    .setSourceLanguage(sourceLang)
-                    .setTargetLanguage(targetLang)
-                    .build()
-            )
+    private val translator: TextTranslator = MlKitTextTranslator()
+
+    private val engine = TranslationEngine(
+        translator = translator,
+        store = MemoryTranslationStore(),
+        detectLanguage = ::detectSourceLanguage,
+        scope = appScope,
+    )
+
+    private val languageDetector: LanguageDetector? by lazy {
+        try {
+            LanguageDetectorBuilder.create(NgramExtractors.standard())
+                .withProfiles(LanguageProfileReader().readAllBuiltIn())
+                .build()
+        } catch (e: Exception) {
+            L.e { "[TranslateManager] LanguageDetector 初始化失败: ${e.stackTraceToString()}" }
+            null
         }
     }
-
-    private var languageDetector: LanguageDetector? = null
-    private var languageProfiles: List<LanguageProfile>? = null
     private val textObjectFactory: TextObjectFactory = CommonTextObjectFactories.forDetectingOnLargeText()
 
     /**
-     * **使用Lingua 进行本地语言识别**
+     * Translates [text] into [targetLang], callbacks are invoked on the main thread.
      */
     fun translateText(
         scope: CoroutineScope,
@@ -60,41 +54,40 @@ class TranslateManager @Inject constructor(
         onSuccess: (String) -> Unit,
         onFailure: (Exception) -> Unit
     ) {
-        scope.launch(Dispatchers.IO) {
-            if (languageDetector == null) {
-                try {
-                    languageProfiles = LanguageProfileReader().readAllBuiltIn()
-
-                    languageDetector = LanguageDetectorBuilder.create(NgramExtractors.standard())
-                        .withProfiles(languageProfiles)
-                        .build()
-                } catch (e: Exception) {
-                    L.e { "[TranslateManager] LanguageDetector 初始化失败: ${e.stackTraceToString()}" }
-                }
+        scope.launch {
+            val translatedText = try {
+                engine.translate(text, targetLang)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                onFailure(e)
+                return@launch
             }
+            onSuccess(translatedText)
+        }
+    }
 
-            val detectedLang = try {
-                val textObject = textObjectFactory.forText(text)
-                val lang: Optional<LdLocale>? = languageDetector?.detect(textObject)
-                if (lang?.isPresent == true) {
-                    val language = lang.get().language
-                    if (language != "no") {
-                        L.d { "[TranslateManager] languageDetector 识别到的语言: $language" }
-                        language
-                    } else {
-                        detectLanguage(text)
-                    }
+    /**
+     * **使用Lingua 进行本地语言识别**
+     */
+    private fun detectSourceLanguage(text: String): String {
+        return try {
+            val textObject = textObjectFactory.forText(text)
+            val lang: Optional<LdLocale>? = languageDetector?.detect(textObject)
+            if (lang?.isPresent == true) {
+                val language = lang.get().language
+                if (language != "no") {
+                    L.d { "[TranslateManager] languageDetector 识别到的语言: $language" }
+                    language
                 } else {
                     detectLanguage(text)
                 }
-            } catch (e: Exception) {
-                L.e { "[TranslateManager] Unable to identify the original language: ${e.stackTraceToString()}" }
+            } else {
                 detectLanguage(text)
             }
-
-            withContext(Dispatchers.Main) {
-                translate(detectedLang, targetLang, text, onSuccess, onFailure)
-            }
+        } catch (e: Exception) {
+            L.e { "[TranslateManager] Unable to identify the original language: ${e.stackTraceToString()}" }
+            detectLanguage(text)
         }
     }
 
@@ -130,38 +123,10 @@ class TranslateManager @Inject constructor(
         return language
     }
 
-    /**
-     * **翻译**
-     */
-    private fun translate(
-        sourceLang: String,
-        targetLang: String,
-        text: String,
-        onSuccess: (String) -> Unit,
-        onFailure: (Exception) -> Unit
-    ) {
-        val translator = getTranslator(sourceLang, targetLang)
-
-        translator.downloadModelIfNeeded()
-            .addOnSuccessListener {
-                L.i { "[TranslateManager] 模型下载成功: $sourceLang -> $targetLang" }
-                translator.translate(text)
-                    .addOnSuccessListener { translatedText -> onSuccess(translatedText) }
-                    .addOnFailureListener { e -> onFailure(e) }
-            }
-            .addOnFailureListener { e ->
-                L.e { "[TranslateManager] 模型下载失败: $sourceLang -> $targetLang ${e.stackTraceToString()}" }
-                onFailure(e)
-            }
-    }
-
     /**
      * **释放所有 Translator 资源**
      */
     fun close() {
-        for (translator in translatorCache.values) {
-            translator.close()
-        }
-        translatorCache.clear()
+        translator.close()
     }
 }
\ No newline at end of file
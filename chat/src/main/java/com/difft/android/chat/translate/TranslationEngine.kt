@@ -0,0 +1,91 @@
+package com.difft.android.chat.translate
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Translates message texts, reusing whatever was computed before:
+ * - results are looked up in [store] by the hash of the text and the target language
+ * - the detected language of a text is remembered, translating it into another language skips the detection
+ * - requests for a text that is already being translated wait for that translation
+ * - at most [maxConcurrency] texts run through [translator] at the same time
+ *
+ * Translations run in [scope], a caller that goes away does not cancel a translation others may wait for.
+ */
+class TranslationEngine(
+    private val translator: TextTranslator,
+    private val store: TranslationStore,
+    private val detectLanguage: (String) -> String,
+    private val scope: CoroutineScope,
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+    maxConcurrency: Int = MAX_CONCURRENCY,
+) {
+    companion object {
+        private const val MAX_CONCURRENCY = 2
+        private const val MAX_REMEMBERED_LANGUAGES = 256
+
+        fun contentHash(text: String): String {
+            val digest = MessageDigest.getInstance("SHA-256").digest(text.toByteArray(Charsets.UTF_8))
+            return digest.joinToString("") { "%02x".format(it) }
+        }
+    }
+
+    private val semaphore = Semaphore(maxConcurrency.coerceAtLeast(1))
+
+    private val inFlight = ConcurrentHashMap<String, Deferred<String>>()
+
+    // contentHash -> detected language, guarded by itself
+    private val sourceLangs = object : LinkedHashMap<String, String>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, String>?): Boolean {
+            return size > MAX_REMEMBERED_LANGUAGES
+        }
+    }
+
+    suspend fun translate(text: String, targetLang: String): String {
+        val contentHash = contentHash(text)
+        val key = "$contentHash:$targetLang"
+        inFlight[key]?.let { return it.await() }
+
+        val deferred = scope.async(dispatcher, start = CoroutineStart.LAZY) {
+            try {
+                translateUncached(text, contentHash, targetLang)
+            } finally {
+                inFlight.remove(key, coroutineContext[Job])
+            }
+        }
+        val running = inFlight.putIfAbsent(key, deferred)
+        if (running != null) {
+            deferred.cancel()
+            return running.await()
+        }
+        deferred.start()
+        return deferred.await()
+    }
+
+    private suspend fun translateUncached(text: String, contentHash: String, targetLang: String): String {
+        store.get(contentHash, targetLang)?.let { return it.translatedText }
+
+        val sourceLang = sourceLangOf(text, contentHash)
+        val translatedText = semaphore.withPermit {
+            translator.translate(text, sourceLang, targetLang)
+        }
+        store.put(contentHash, targetLang, TranslationStore.Entry(sourceLang, translatedText))
+        return translatedText
+    }
+
+    private fun sourceLangOf(text: String, contentHash: String): String {
+        synchronized(sourceLangs) { sourceLangs[contentHash] }?.let { return it }
+        val sourceLang = store.sourceLang(contentHash) ?: detectLanguage(text)
+        synchronized(sourceLangs) { sourceLangs[contentHash] = sourceLang }
+        return sourceLang
+    }
+}
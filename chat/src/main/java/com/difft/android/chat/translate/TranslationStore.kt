@@ -0,0 +1,18 @@
+package com.difft.android.chat.translate
+
+/**
+ * Translations that were already made, keyed by the SHA-256 of the original text.
+ */
+interface TranslationStore {
+
+    class Entry(val sourceLang: String, val translatedText: String)
+
+    fun get(contentHash: String, targetLang: String): Entry?
+
+    /**
+     * Language detected for the text when it was translated before, into any language.
+     */
+    fun sourceLang(contentHash: String): String?
+
+    fun put(contentHash: String, targetLang: String, entry: Entry)
+}
@@ -252,7 +252,7 @@ class ChatFragment : Fragment(), ChatMessageListProvider {
                 is RecordingState.Stopped -> {
                     L.i { "[VoiceRecorder] Recording stopped. File saved at:${state.filePath}" }
                     binding.vVoiceRecordBg.visibility = View.GONE
-                    chatViewModel.sendVoiceMessage(state.filePath)
+                    chatViewModel.sendVoiceMessage(state)
                 }
 
                 is RecordingState.TooShort -> {
@@ -129,6 +129,7 @@ import org.difft.app.database.models.DBContactorModel
 import org.difft.app.database.models.DBMessageModel
 import org.difft.app.database.sharedContacts
 import org.difft.app.database.wcdb
+import org.thoughtcrime.securesms.blurhash.BlurHashPlaceholder
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.jobs.create
 import org.thoughtcrime.securesms.mediasend.MediaSendActivityResult
@@ -244,7 +245,9 @@ class ChatMessageInputFragment : Fragment() {
         val filePath: String,
         val fileName: String,
         val mimeType: String,
-        val isAudioMessage: Boolean = false
+        val isAudioMessage: Boolean = false,
+        val totalTime: Long? = 0,
+        val waveform: ByteArray? = null
     )
 
     override fun onCreateView(
@@ -506,9 +509,10 @@ class ChatMessageInputFragment : Fragment() {
             .launchIn(viewLifecycleOwner.lifecycleScope)
 
         chatViewModel.voiceMessageSend
-            .onEach { path ->
-                val mimeType = MediaUtil.getMimeType(requireContext(), path.toUri()) ?: ""
-                prepareSendAttachmentPush(path.toUri(), mimeType, isAudioMessage = true)
+            .onEach { recording ->
+                val uri = recording.filePath.toUri()
+                val mimeType = MediaUtil.getMimeType(requireContext(), uri) ?: ""
+                prepareSendAttachmentPush(uri, mimeType, isAudioMessage = true, totalTime = recording.totalTime, waveform = recording.waveform)
             }
             .catch { L.w { "[ChatMessageInputFragment] observe voiceMessageSend error: ${it.stackTraceToString()}" } }
             .launchIn(viewLifecycleOwner.lifecycleScope)
@@ -1852,7 +1856,10 @@ class ChatMessageInputFragment : Fragment() {
                         mediaWidthAndHeight.first,
                         mediaWidthAndHeight.second,
                         info.filePath,
-                        AttachmentStatus.LOADING.code
+                        AttachmentStatus.LOADING.code,
+                        totalTime = info.totalTime,
+                        waveform = info.waveform,
+                        blurHash = BlurHashPlaceholder.encode(info.filePath, info.mimeType)
                     )
                 }
             }
@@ -1965,7 +1972,9 @@ class ChatMessageInputFragment : Fragment() {
         attachmentUri: Uri?,
         mimeType: String,
         originalFileName: String? = null,
-        isAudioMessage: Boolean = false
+        isAudioMessage: Boolean = false,
+        totalTime: Long? = 0,
+        waveform: ByteArray? = null
     ) {
         attachmentUri ?: return
 
@@ -1987,7 +1996,9 @@ class ChatMessageInputFragment : Fragment() {
                         filePath = filePath,
                         fileName = fileName,
                         mimeType = mimeType,
-                        isAudioMessage = isAudioMessage
+                        isAudioMessage = isAudioMessage,
+                        totalTime = totalTime,
+                        waveform = waveform
                     )
                 )
             } catch (e: CancellationException) {
@@ -57,6 +57,7 @@ import com.difft.android.call.state.OnGoingCallStateManager
 import com.difft.android.chat.R
 import com.difft.android.chat.ScrollAction
 import com.difft.android.chat.common.LinkTextUtils
+import com.difft.android.chat.common.MessageTextLayoutCache
 import com.difft.android.chat.common.SendType
 import com.difft.android.chat.compose.ConfidentialTipDialogContent
 import com.difft.android.chat.contacts.data.ContactorUtil
@@ -777,6 +778,9 @@ class ChatMessageListFragment : Fragment() {
         val previousListSize = chatMessageAdapter.currentList.size
         val isAtBottomBeforeUpdateList = isAtBottom(binding.recyclerViewMessage.layoutManager as LinearLayoutManager)
 
+        // 后台预先构建文本 span，绑定时直接复用
+        MessageTextLayoutCache.prefetch(requireContext(), list)
+
         chatMessageAdapter.submitList(list) {
             // 1. 如果有 scrollAction，执行强制滚动
             when (scrollAction) {
@@ -979,6 +983,7 @@ class ChatMessageListFragment : Fragment() {
         isKeyboardListenerRegistered = false
         keyboardListenerRegisterJob?.cancel()
         keyboardListenerRegisterJob = null
+        MessageTextLayoutCache.cancelPrefetch()
         // Dismiss message action coordinator
         messageActionCoordinator?.dismiss()
         messageActionCoordinator = null
@@ -32,6 +32,7 @@ import com.difft.android.chat.message.TextChatMessage
 import com.difft.android.chat.message.generateMessageTwo
 import com.difft.android.chat.speech2text.SpeechToTextManager
 import com.difft.android.chat.translate.TranslateManager
+import com.difft.android.chat.widget.RecordingState
 import com.difft.android.messageserialization.db.store.DBMessageStore
 import com.difft.android.messageserialization.db.store.DBRoomStore
 import com.difft.android.network.BaseResponse
@@ -308,10 +309,10 @@ class ChatMessageViewModel @AssistedInject constructor(
         listClick.tryEmit(Unit)
     }
 
-    val voiceMessageSend: MutableSharedFlow<String> = MutableSharedFlow(extraBufferCapacity = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
+    val voiceMessageSend: MutableSharedFlow<RecordingState.Stopped> = MutableSharedFlow(extraBufferCapacity = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
 
-    fun sendVoiceMessage(path: String) {
-        voiceMessageSend.tryEmit(path)
+    fun sendVoiceMessage(recording: RecordingState.Stopped) {
+        voiceMessageSend.tryEmit(recording)
     }
 
     val chatActionsShow: MutableSharedFlow<Unit> = MutableSharedFlow(extraBufferCapacity = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
@@ -429,7 +429,7 @@ class ChatPopupActivity : BaseActivity(), ChatMessageListProvider {
                 is RecordingState.Stopped -> {
                     L.i { "[VoiceRecorder] Recording stopped. File saved at:${state.filePath}" }
                     mBinding.vVoiceRecordBg.visibility = View.GONE
-                    chatViewModel.sendVoiceMessage(state.filePath)
+                    chatViewModel.sendVoiceMessage(state)
                 }
 
                 is RecordingState.TooShort -> {
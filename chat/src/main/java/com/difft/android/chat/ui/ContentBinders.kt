@@ -78,7 +78,8 @@ object TextContentBinder : ContentBinder {
                 textView.context,
                 rawText,
                 textView,
-                textMessage.mentions
+                textMessage.mentions,
+                cacheId = messageId
             )
 
             // 先设置为 DEFAULT_MAX_LINES + 1 行，避免刷新时闪动
@@ -242,7 +243,8 @@ object ImageContentBinder : ContentBinder {
                     textView.context,
                     rawText,
                     textView,
-                    textMessage.mentions
+                    textMessage.mentions,
+                    cacheId = messageId
                 )
 
                 // 先设置为 DEFAULT_MAX_LINES + 1 行，避免刷新时闪动
@@ -427,7 +429,8 @@ object AttachContentBinder : ContentBinder {
                     textView.context,
                     rawText,
                     textView,
-                    textMessage.mentions
+                    textMessage.mentions,
+                    cacheId = messageId
                 )
 
                 // 先设置为 DEFAULT_MAX_LINES + 1 行，避免刷新时闪动
@@ -81,6 +81,7 @@ import org.difft.app.database.models.DBRoomModel
 import org.difft.app.database.models.GroupModel
 import org.difft.app.database.models.RoomModel
 import util.FileUtils
+import org.thoughtcrime.securesms.blurhash.BlurHashPlaceholder
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.util.MediaUtil
 import java.io.File
@@ -786,7 +787,8 @@ class SelectChatsUtils @Inject constructor(
                 mediaWidthAndHeight.first,
                 mediaWidthAndHeight.second,
                 filePath,
-                AttachmentStatus.LOADING.code
+                AttachmentStatus.LOADING.code,
+                blurHash = BlurHashPlaceholder.encode(filePath, mimeType)
             )
 
             val time = messageArchiveManager.getMessageArchiveTime(forWhat)
@@ -8,7 +8,11 @@ import com.difft.android.base.utils.appScope
 import com.difft.android.base.utils.globalServices
 import org.difft.app.database.wcdb
 import com.difft.android.chat.message.TextChatMessage
+import com.google.gson.JsonParseException
 import com.tencent.wcdb.base.Value
+import difft.android.messageserialization.model.Waveform
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.MutableSharedFlow
@@ -17,142 +21,186 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import org.difft.app.database.models.DBAttachmentModel
 import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.abs
 
+/**
+ * Computes the [Waveform] of voice messages that did not get one when they were recorded: incoming messages
+ * right after the download, and older messages the first time they are shown. Older messages that still have the
+ * JSON amplitudes of the previous format are converted from them, only messages without any are decoded.
+ */
 object AudioAmplitudesHelper {
+    private const val TIMEOUT_US = 10_000L
+
+    /**
+     * @param messageId id of the message the attachment belongs to
+     * @param totalTime duration in ms
+     */
+    class WaveformReady(val messageId: String, val totalTime: Long, val waveform: ByteArray)
+
     private val processingMessages = ConcurrentHashMap<String, Job>()
-    private val _amplitudeExtractionComplete = MutableSharedFlow<TextChatMessage>()
-    val amplitudeExtractionComplete: SharedFlow<TextChatMessage> = _amplitudeExtractionComplete
+    private val _waveformReady = MutableSharedFlow<WaveformReady>(extraBufferCapacity = 16)
+    val waveformReady: SharedFlow<WaveformReady> = _waveformReady
 
-    fun extractAmplitudesFromAacFile(filePath: String, message: TextChatMessage) {
-        val attachmentId = message.attachment?.id ?: return
-        if (processingMessages.containsKey(attachmentId)) {
-            L.d { "[AudioAmplitudesHelper] Message $attachmentId is already being processed" }
-            return
-        }
+    fun extractWaveform(filePath: String, message: TextChatMessage) {
+        val attachment = message.attachment ?: return
+        extractWaveform(message.id, attachment.id, filePath, attachment.key)
+    }
 
-        val job = appScope.launch(Dispatchers.IO) {
+    /**
+     * Stores the waveform and duration of the voice message at [filePath] off the main thread, converted from the
+     * legacy amplitudes of its row if it has them, decoded from the file otherwise.
+     *
+     * @param key key of the encrypted copy, if the file is kept encrypted
+     */
+    fun extractWaveform(messageId: String, attachmentId: String, filePath: String, key: ByteArray?) {
+        val job = appScope.launch(Dispatchers.IO, start = CoroutineStart.LAZY) {
             try {
-                AudioMessageManager.decryptIfNeeded(filePath, message)
+                val legacy = legacyWaveform(attachmentId)
+                if (legacy != null) {
+                    val (duration, waveform) = legacy
+                    store(messageId, attachmentId, duration, waveform)
+                    L.i { "[AudioAmplitudesHelper] converted legacy amplitudes: $messageId levels:${Waveform.size(waveform)} $attachmentId" }
+                    return@launch
+                }
+
+                AudioMessageManager.decryptIfNeeded(filePath, key)
 
                 if (!File(filePath).exists()) {
                     L.e { "[AudioAmplitudesHelper] File does not exist: $filePath" }
                     return@launch
                 }
 
-                val extractor = MediaExtractor()
-                extractor.setDataSource(filePath)
-
-                // 获取音频轨道
-                val trackIndex = getAudioTrackIndex(extractor)
-                extractor.selectTrack(trackIndex)
-                val format = extractor.getTrackFormat(trackIndex)
-                val type = format.getString(MediaFormat.KEY_MIME) ?: return@launch
-
-                // 获取音频时长（单位：微秒）
-                val duration = format.getLong(MediaFormat.KEY_DURATION)
-                // 限制只处理前30秒的音频（30秒 = 30,000,000微秒）
-                val maxProcessDuration = 30_000_000L
-                val processDuration = minOf(duration, maxProcessDuration)
-
-                // 使用 MediaCodec 解码音频
-                val codec = MediaCodec.createDecoderByType(type)
-                codec.configure(format, null, null, 0)
-                codec.start()
-
-                val bufferInfo = MediaCodec.BufferInfo()
-                val rawAmplitudes = mutableListOf<Float>()
-                val targetSampleCount = 100 // 采样数量
-
-                // 从解码器获取解码后的 PCM 数据
-                while (isActive) {
-                    val inputIndex = codec.dequeueInputBuffer(10000)
-                    if (inputIndex >= 0) {
-                        val inputBuffer = codec.getInputBuffer(inputIndex) ?: return@launch
-                        val sampleSize = extractor.readSampleData(inputBuffer, 0)
-                        if (sampleSize < 0) {
-                            break  // 音频解码完成
-                        }
+                val decoded = try {
+                    decode(filePath)
+                } finally {
+                    AudioMessageManager.deleteDecryptedFile(filePath)
+                }
+                val (duration, waveform) = decoded ?: return@launch
+                store(messageId, attachmentId, duration, waveform)
 
-                        // 检查是否超过30秒
-                        val sampleTime = extractor.sampleTime
-                        if (sampleTime > processDuration) {
-                            break
-                        }
+                L.i { "[AudioAmplitudesHelper] extractWaveform success: $messageId levels:${Waveform.size(waveform)} duration:$duration $attachmentId" }
+            } catch (e: Exception) {
+                L.e(e) { "[AudioAmplitudesHelper] extractWaveform error:" }
+            } finally {
+                processingMessages.remove(attachmentId, coroutineContext[Job])
+            }
+        }
 
-                        codec.queueInputBuffer(inputIndex, 0, sampleSize, sampleTime, 0)
-                        extractor.advance()
-                    }
+        if (processingMessages.putIfAbsent(attachmentId, job) != null) {
+            L.d { "[AudioAmplitudesHelper] Message $attachmentId is already being processed" }
+            job.cancel()
+            return
+        }
+        job.start()
+    }
 
-                    val outputIndex = codec.dequeueOutputBuffer(bufferInfo, 10000)
-                    if (outputIndex >= 0) {
-                        val outputBuffer = codec.getOutputBuffer(outputIndex)
-                        val audioData = ByteArray(bufferInfo.size)
-                        outputBuffer?.get(audioData)
+    private suspend fun store(messageId: String, attachmentId: String, duration: Long, waveform: ByteArray) {
+        // 清空旧格式的振幅 JSON
+        wcdb.attachment.updateRow(
+            arrayOf(Value(duration), Value(waveform), Value()),
+            arrayOf(DBAttachmentModel.totalTime, DBAttachmentModel.waveform, DBAttachmentModel.amplitudes),
+            DBAttachmentModel.id.eq(attachmentId)
+        )
+        _waveformReady.emit(WaveformReady(messageId, duration, waveform))
+    }
 
-                        val pcmData = ShortArray(audioData.size / 2)
-                        for (i in pcmData.indices) {
-                            pcmData[i] = ((audioData[i * 2 + 1].toInt() shl 8) or (audioData[i * 2].toInt() and 0xFF)).toShort()
-                        }
+    /**
+     * Duration and waveform of a row that still has the JSON amplitudes of the previous format, null if it has
+     * none, no duration, or they can't be read. The legacy amplitudes only cover the first 30s of the message.
+     */
+    private fun legacyWaveform(attachmentId: String): Pair<Long, ByteArray>? {
+        val row = wcdb.attachment.getFirstObject(DBAttachmentModel.id.eq(attachmentId)) ?: return null
+        val json = row.amplitudes?.takeIf { it.isNotBlank() } ?: return null
+        val duration = row.totalTime?.takeIf { it > 0 } ?: return null
+        val amplitudes = try {
+            globalServices.gson.fromJson(json, FloatArray::class.java)
+        } catch (e: JsonParseException) {
+            L.w { "[AudioAmplitudesHelper] unreadable legacy amplitudes of $attachmentId: ${e.message}" }
+            null
+        } ?: return null
+        val builder = Waveform.Builder(amplitudes.size)
+        amplitudes.forEach { builder.add(it) }
+        return builder.build()?.let { duration to it }
+    }
 
-                        val amplitude = calculateAmplitude(pcmData)
-                        rawAmplitudes.add(amplitude)
+    fun release() {
+        processingMessages.forEach { (_, job) ->
+            job.cancel()
+        }
+        processingMessages.clear()
+    }
 
-                        codec.releaseOutputBuffer(outputIndex, false)
-                    }
-                }
+    /**
+     * @return duration in ms and waveform of the whole file, null if nothing could be decoded
+     */
+    private fun CoroutineScope.decode(filePath: String): Pair<Long, ByteArray>? {
+        val extractor = MediaExtractor()
+        var codec: MediaCodec? = null
+        try {
+            extractor.setDataSource(filePath)
+
+            // 获取音频轨道
+            val trackIndex = getAudioTrackIndex(extractor)
+            extractor.selectTrack(trackIndex)
+            val format = extractor.getTrackFormat(trackIndex)
+            val type = format.getString(MediaFormat.KEY_MIME) ?: return null
+            // 获取音频时长（单位：微秒）
+            val duration = format.getLong(MediaFormat.KEY_DURATION)
+
+            // 使用 MediaCodec 解码音频
+            codec = MediaCodec.createDecoderByType(type).apply {
+                configure(format, null, null, 0)
+                start()
+            }
 
-                codec.stop()
-                codec.release()
-                extractor.release()
+            val bufferInfo = MediaCodec.BufferInfo()
+            val builder = Waveform.Builder()
+            var inputDone = false
 
-                // 对原始振幅数据进行采样，确保均匀分布
-                val sampledAmplitudes = if (rawAmplitudes.size > targetSampleCount) {
-                    val step = rawAmplitudes.size.toFloat() / targetSampleCount
-                    (0 until targetSampleCount).map { i ->
-                        val index = (i * step).toInt().coerceAtMost(rawAmplitudes.size - 1)
-                        rawAmplitudes[index]
+            while (isActive) {
+                if (!inputDone) {
+                    val inputIndex = codec.dequeueInputBuffer(TIMEOUT_US)
+                    if (inputIndex >= 0) {
+                        val inputBuffer = codec.getInputBuffer(inputIndex) ?: return null
+                        val sampleSize = extractor.readSampleData(inputBuffer, 0)
+                        if (sampleSize < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                            inputDone = true
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, sampleSize, extractor.sampleTime, 0)
+                            extractor.advance()
+                        }
                     }
-                } else {
-                    rawAmplitudes
                 }
 
-                // 将振幅值转换为整数，但保持Float类型
-                val integerAmplitudes = sampledAmplitudes.map { amplitude ->
-                    amplitude.toInt().toFloat()
+                // 从解码器获取解码后的 PCM 数据，每个 buffer 取一个平均振幅
+                val outputIndex = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT_US)
+                if (outputIndex >= 0) {
+                    val outputBuffer = codec.getOutputBuffer(outputIndex)
+                    if (outputBuffer != null && bufferInfo.size > 0) {
+                        outputBuffer.position(bufferInfo.offset)
+                        outputBuffer.limit(bufferInfo.offset + bufferInfo.size)
+                        builder.add(calculateAmplitude(outputBuffer))
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false)
+                    if (bufferInfo.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) break
                 }
+            }
 
-                wcdb.attachment.updateRow(
-                    arrayOf(Value(duration / 1000), Value(globalServices.gson.toJson(integerAmplitudes))),
-                    arrayOf(DBAttachmentModel.totalTime, DBAttachmentModel.amplitudes),
-                    DBAttachmentModel.id.eq(attachmentId)
-                )
-
-                AudioMessageManager.deleteDecryptedFile(filePath)
-
-                message.attachment?.amplitudes = integerAmplitudes
-                message.attachment?.totalTime = duration / 1000
-
-                // Emit completion event
-                _amplitudeExtractionComplete.emit(message)
-
-                L.i { "[AudioAmplitudesHelper] extractAmplitudesFromAacFile success: ${message.id} ${integerAmplitudes}  ${duration / 1000} ${attachmentId}" }
+            val waveform = builder.build() ?: return null
+            return duration / 1000 to waveform
+        } finally {
+            try {
+                codec?.stop()
             } catch (e: Exception) {
-                L.e(e) { "[AudioAmplitudesHelper] extractAmplitudesFromAacFile error:" }
-            } finally {
-                processingMessages.remove(attachmentId)
+                L.w { "[AudioAmplitudesHelper] stop codec error: ${e.message}" }
             }
+            codec?.release()
+            extractor.release()
         }
-
-        processingMessages[attachmentId] = job
-    }
-
-    fun release() {
-        processingMessages.forEach { (_, job) ->
-            job.cancel()
-        }
-        processingMessages.clear()
     }
 
     private fun getAudioTrackIndex(extractor: MediaExtractor): Int {
@@ -167,11 +215,17 @@ object AudioAmplitudesHelper {
         throw IllegalArgumentException("No audio track found.")
     }
 
-    private fun calculateAmplitude(pcmData: ShortArray): Float {
-        var sum = 0f
-        for (sample in pcmData) {
-            sum += abs(sample.toFloat())
+    /**
+     * Mean absolute value of the 16-bit PCM samples between the position and the limit of [pcm].
+     */
+    private fun calculateAmplitude(pcm: ByteBuffer): Float {
+        val samples = pcm.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer()
+        val count = samples.remaining()
+        if (count == 0) return 0f
+        var sum = 0L
+        for (i in 0 until count) {
+            sum += abs(samples.get(i).toInt())
         }
-        return sum / pcmData.size
+        return sum.toFloat() / count
     }
-}
\ No newline at end of file
+}
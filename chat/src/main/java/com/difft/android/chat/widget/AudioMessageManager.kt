@@ -369,10 +369,14 @@ object AudioMessageManager {
     }
 
     fun decryptIfNeeded(attachmentPath: String, message: TextChatMessage) {
+        decryptIfNeeded(attachmentPath, message.attachment?.key)
+    }
+
+    fun decryptIfNeeded(attachmentPath: String, key: ByteArray?) {
         val encryptedFile = File("$attachmentPath.encrypt")
         // 如果加密文件存在，且原文件不存在，才需要解密
         if (encryptedFile.exists() && !File(attachmentPath).exists()) {
-            FileDecryptionUtil.decryptFile(encryptedFile, File(attachmentPath), message.attachment?.key)
+            FileDecryptionUtil.decryptFile(encryptedFile, File(attachmentPath), key)
         }
     }
 }
\ No newline at end of file
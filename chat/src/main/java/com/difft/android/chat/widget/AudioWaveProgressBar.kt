@@ -6,8 +6,8 @@ import android.graphics.Paint
 import android.util.AttributeSet
 import android.view.View
 import androidx.core.content.ContextCompat
-import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.dp
+import difft.android.messageserialization.model.Waveform
 
 class AudioWaveProgressBar @JvmOverloads constructor(
     context: Context,
@@ -38,7 +38,8 @@ class AudioWaveProgressBar @JvmOverloads constructor(
     private val maxHeight = 40.dp // 最大竖线高度
     private val cursorRadius = 2.dp // 游标的半径
 
-    private var amplitudes: List<Float> = emptyList()
+    private var waveform: ByteArray? = null
+    private var amplitudes = FloatArray(0) // 按 barCount 重采样后的振幅 (0.0 - 1.0)
     private var progress: Float = 0f // 当前进度 (0.0 - 1.0)
 
     private var isDragging = false
@@ -65,19 +66,35 @@ class AudioWaveProgressBar @JvmOverloads constructor(
         invalidate()
     }
 
-    fun setAmplitudes(amplitudes: List<Float>) {
-        post {
-            if (barCount == 0) {
-                barCount = calculateBarCount() // 确保 barCount 不为 0
-            }
-            if (amplitudes.isNotEmpty()) {
-                this.amplitudes = reduceAmplitudes(amplitudes, barCount)
-            }
-//            L.d { "[AudioWaveProgressBar] amplitudes:${this.amplitudes} barCount:${barCount}" }
-            invalidate()
+    /**
+     * @param waveform see [Waveform], null to draw no bars until it is available
+     */
+    fun setWaveform(waveform: ByteArray?) {
+        this.waveform = waveform
+        if (width > 0) {
+            resample()
+        } else {
+            post { resample() }
         }
     }
 
+    override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
+        super.onSizeChanged(w, h, oldw, oldh)
+        if (w != oldw) resample()
+    }
+
+    private fun resample() {
+        if (width <= 0) return
+        barCount = calculateBarCount()
+        if (amplitudes.size != barCount) {
+            amplitudes = FloatArray(barCount)
+        }
+        if (!Waveform.resample(waveform, amplitudes)) {
+            amplitudes.fill(0f)
+        }
+        invalidate()
+    }
+
     fun setProgress(progress: Float) {
         this.progress = progress.coerceIn(0f, 1f)
 //        L.i { "=====111==progressBarIndex=======" + progress + "====" + this.progress }
@@ -102,7 +119,7 @@ class AudioWaveProgressBar @JvmOverloads constructor(
 
         // 遍历每个振幅条
         for (i in 0 until barCount) {
-            val amplitude = amplitudes.getOrNull(i) ?: 0f
+            val amplitude = amplitudes.getOrElse(i) { 0f }
             val barHeight = amplitude * maxHeight
             val left = startOffset + i * (barWidth + spacing)
             val top = height / 2 - barHeight / 2
@@ -146,34 +163,4 @@ class AudioWaveProgressBar @JvmOverloads constructor(
         super.performClick()
         return true
     }
-
-    private fun getDefaultAmplitudes(barCount: Int): List<Float> {
-        val random = java.util.Random()
-        return List(barCount) { random.nextFloat() } // 默认生成barCount个随机振幅
-    }
-
-    private fun reduceAmplitudes(amplitudes: List<Float>, targetSize: Int): List<Float> {
-        try {
-            // 如果目标大小大于等于输入大小，直接返回输入数据
-            if (targetSize >= amplitudes.size) {
-                return amplitudes
-            }
-
-            // 按照 barCount 分段计算每段的平均值
-            val chunkSize = amplitudes.size.toFloat() / targetSize
-            val reducedAmplitudes = (0 until targetSize).map { index ->
-                val start = (index * chunkSize).toInt()
-                val end = if (index == targetSize - 1) amplitudes.size else ((index + 1) * chunkSize).toInt()
-                val averageAmplitude = amplitudes.subList(start, end).average().toFloat()
-                averageAmplitude
-            }
-
-            // 在渲染时进行归一化，确保显示效果的一致性
-            val maxAmplitude = reducedAmplitudes.maxOrNull() ?: 1f
-            return reducedAmplitudes.map { it / maxAmplitude }
-        } catch (e: Exception) {
-            L.e { "[AudioWaveProgressBar] reduceAmplitudes error:${e.stackTraceToString()}" }
-            return getDefaultAmplitudes(targetSize)
-        }
-    }
 }
@@ -3,6 +3,8 @@ package com.difft.android.chat.widget
 import android.annotation.SuppressLint
 import android.content.Context
 import android.content.res.Resources
+import android.graphics.Bitmap
+import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.Drawable
 import android.util.AttributeSet
 import android.view.View
@@ -36,6 +38,7 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import org.thoughtcrime.securesms.blurhash.BlurHashPlaceholder
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies
 import org.thoughtcrime.securesms.jobs.DownloadAttachmentJob
 import org.thoughtcrime.securesms.util.MediaUtil
@@ -56,6 +59,11 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
     private var currentShouldSaveToPhotos: Boolean = false
     private var currentContainerWidth: Int = 0
 
+    init {
+        // 让 BlurHash 占位图和纯色背景一样是圆角
+        binding.imageView.clipToOutline = true
+    }
+
     @SuppressLint("SetTextI18n")
     fun setupImageView(message: TextChatMessage, shouldSaveToPhotos: Boolean = false, containerWidth: Int = 0) {
         currentShouldSaveToPhotos = shouldSaveToPhotos
@@ -77,6 +85,9 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
 
         val progress = message.getAttachmentProgress()
         val isFileValid = FileUtil.isFileValid(attachmentPath)
+        if (!isFileValid) {
+            showPlaceholder(attachment)
+        }
         val isCurrentDeviceSend = message.isMine && message.id.last().digitToIntOrNull() == DEFAULT_DEVICE_ID
 
         // Distinguish upload/download state based on whether sent from current device
@@ -101,7 +112,7 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
     ) {
         // Load image
         if (isFileValid) {
-            loadImage(attachmentPath, attachment.size, attachment.contentType)
+            loadImage(attachmentPath, attachment)
         }
 
         // Show progress while uploading
@@ -158,7 +169,7 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
 
         // Load downloaded image
         if (isFileValid) {
-            loadImage(attachmentPath, attachment.size, attachment.contentType)
+            loadImage(attachmentPath, attachment)
         }
 
         // Priority 4: Downloading or auto download
@@ -238,6 +249,21 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
         binding.expiredStatusView.visibility = View.VISIBLE
     }
 
+    /**
+     * Show the BlurHash of the attachment, or the plain background if it has none, until the file is available
+     */
+    private fun showPlaceholder(attachment: difft.android.messageserialization.model.Attachment) {
+        loadImageJob?.cancel()
+        loadImageJob = null
+        Glide.with(context).clear(binding.imageView)
+        binding.imageView.setImageBitmap(placeholderOf(attachment))
+    }
+
+    private fun placeholderOf(attachment: difft.android.messageserialization.model.Attachment): Bitmap? {
+        val layoutParams = binding.imageView.layoutParams
+        return BlurHashPlaceholder.get(attachment.blurHash, layoutParams.width, layoutParams.height)
+    }
+
     /**
      * Setup image dimensions
      */
@@ -341,7 +367,10 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
         super.onDetachedFromWindow()
     }
 
-    private fun loadImage(attachmentPath: String, expectedSize: Int, contentType: String) {
+    private fun loadImage(attachmentPath: String, attachment: difft.android.messageserialization.model.Attachment) {
+        val expectedSize = attachment.size
+        val contentType = attachment.contentType
+        val placeholder = placeholderOf(attachment)?.let { BitmapDrawable(resources, it) }
         loadImageJob?.cancel()
         loadImageJob = getLifecycleOwner()?.lifecycleScope?.launch {
             val file = File(attachmentPath)
@@ -353,6 +382,7 @@ class ImageAndVideoMessageView @JvmOverloads constructor(
                 .load(attachmentPath)
                 .signature(ObjectKey(fileLastModified))
                 .transform(CenterCrop(), RoundedCorners(6.dp))
+                .placeholder(placeholder)
                 .listener(object : RequestListener<Drawable> {
                     override fun onLoadFailed(e: GlideException?, model: Any?, target: Target<Drawable>, isFirstResource: Boolean): Boolean {
                         L.e { "[MediaMsg] Load FAILED - path: $attachmentPath, contentType: $contentType, expectedSize: $expectedSize, actualFileSize: $actualFileSize, lastModified: $fileLastModified, error: ${e?.rootCauses?.joinToString { it.message ?: "unknown" }}" }
@@ -19,6 +19,7 @@ import com.difft.android.chat.message.TextChatMessage
 import com.difft.android.chat.message.getAttachmentProgress
 import com.difft.android.chat.message.shouldDecrypt
 import difft.android.messageserialization.model.AttachmentStatus
+import difft.android.messageserialization.model.Waveform
 import difft.android.messageserialization.model.isAudioFile
 import com.hi.dhl.binding.viewbind
 import kotlinx.coroutines.Dispatchers
@@ -192,16 +193,19 @@ class VoiceMessageView @JvmOverloads constructor(
             }.also { audioProgressJob = it }
         }
 
-        // 4. Amplitude extraction complete subscription
+        // 4. Waveform extraction complete subscription
         if (amplitudeJob == null) {
             lifecycleScope.launch {
-                AudioAmplitudesHelper.amplitudeExtractionComplete
-                    .filter { it.id == currentAttachmentId }
-                    .collect { updatedMessage ->
+                AudioAmplitudesHelper.waveformReady
+                    .filter { it.messageId == currentAttachmentId }
+                    .collect { result ->
                         withContext(Dispatchers.Main) {
-                            message = updatedMessage
-                            binding.audioWaveProgressBar.setAmplitudes(updatedMessage.attachment?.amplitudes ?: emptyList())
-                            binding.playTime.text = formatTime(updatedMessage.attachment?.totalTime ?: 0)
+                            message?.attachment?.let {
+                                it.waveform = result.waveform
+                                it.totalTime = result.totalTime
+                            }
+                            binding.audioWaveProgressBar.setWaveform(result.waveform)
+                            binding.playTime.text = formatTime(result.totalTime)
                         }
                     }
             }.also { amplitudeJob = it }
@@ -251,16 +255,15 @@ class VoiceMessageView @JvmOverloads constructor(
 
         val attachment = message?.attachment ?: return
 
-        if ((attachment.totalTime == 0L || attachment.amplitudes.isNullOrEmpty())) {
-            L.d { "[VoiceMessageView] start extract Amplitudes" }
-            binding.audioWaveProgressBar.setAmplitudes(emptyList())
+        if ((attachment.totalTime == 0L || !Waveform.isValid(attachment.waveform))) {
+            L.d { "[VoiceMessageView] start extract waveform" }
+            binding.audioWaveProgressBar.setWaveform(null)
             binding.playTime.text = formatTime(0)
             message?.let {
-                AudioAmplitudesHelper.extractAmplitudesFromAacFile(attachmentPath, it)
+                AudioAmplitudesHelper.extractWaveform(attachmentPath, it)
             }
         } else {
-//            L.d { "[VoiceMessageView] no need extract Amplitudes:" + " ${attachment.amplitudes?.size}  ${attachment.totalTime}" }
-            binding.audioWaveProgressBar.setAmplitudes(attachment.amplitudes ?: emptyList())
+            binding.audioWaveProgressBar.setWaveform(attachment.waveform)
             binding.playTime.text = formatTime(attachment.totalTime ?: 0)
         }
     }
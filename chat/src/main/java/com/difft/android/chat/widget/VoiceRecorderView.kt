@@ -6,6 +6,7 @@ import android.content.Context
 import android.content.pm.PackageManager
 import android.media.AudioFocusRequest
 import android.media.AudioManager
+import android.media.MediaMetadataRetriever
 import android.media.MediaRecorder
 import android.os.Build
 import android.util.AttributeSet
@@ -21,6 +22,7 @@ import androidx.core.net.toUri
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.FileUtil
 import com.difft.android.chat.R
+import difft.android.messageserialization.model.Waveform
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -57,6 +59,9 @@ class VoiceRecorderView @JvmOverloads constructor(
 
     private var recordingStartTime: Long = 0 // 记录开始录制的时间
 
+    // 录制时采集的振幅，结束时生成波形，发送后无需再解码
+    private var waveformBuilder = Waveform.Builder()
+
     var recordingCallback: ((RecordingState) -> Unit)? = null
 
     private var outputFilePath: String? = null
@@ -174,6 +179,7 @@ class VoiceRecorderView @JvmOverloads constructor(
     // 开始录音
     private fun startMediaRecorder() {
         recordingStartTime = System.currentTimeMillis()
+        waveformBuilder = Waveform.Builder()
         try {
             outputFilePath = FileUtil.getFilePath(FileUtil.DRAFT_ATTACHMENTS_DIRECTORY) + System.currentTimeMillis() + ".m4a"
 
@@ -270,6 +276,7 @@ class VoiceRecorderView @JvmOverloads constructor(
             while (isActive) {
                 try {
                     val amplitude = mediaRecorder?.maxAmplitude?.toFloat() ?: 0f
+                    waveformBuilder.add(amplitude)
 
                     withContext(Dispatchers.Main) {
                         waveformView.updateAmplitude(amplitude)
@@ -335,7 +342,8 @@ class VoiceRecorderView @JvmOverloads constructor(
         // 计算录制时长
         val recordingDuration = System.currentTimeMillis() - recordingStartTime
 
-        amplitudeUpdateJob?.cancel()
+        val samplingJob = amplitudeUpdateJob
+        samplingJob?.cancel()
         countdownJob?.cancel()
 
         // 在后台线程停止 MediaRecorder，避免阻塞主线程
@@ -346,6 +354,9 @@ class VoiceRecorderView @JvmOverloads constructor(
             } catch (e: Exception) {
                 L.i { "[VoiceRecorder] Error during stop: ${e.message}" }
             }
+            samplingJob?.join()
+            val waveform = waveformBuilder.build()
+            val totalTime = outputFilePath?.takeIf { !isCancelled }?.let { readDuration(it) } ?: recordingDuration
 
             // 在主线程更新 UI 和回调，确保无论是否发生异常都会执行
             withContext(Dispatchers.Main) {
@@ -377,7 +388,7 @@ class VoiceRecorderView @JvmOverloads constructor(
                                 deleteRecordingFile()
                                 recordingCallback?.invoke(RecordingState.TooLarge)
                             } else {
-                                recordingCallback?.invoke(RecordingState.Stopped(filePath = path))
+                                recordingCallback?.invoke(RecordingState.Stopped(filePath = path, totalTime = totalTime, waveform = waveform))
                             }
                         }
                     }
@@ -402,6 +413,22 @@ class VoiceRecorderView @JvmOverloads constructor(
         mediaRecorder = null
     }
 
+    /**
+     * @return duration of the recorded file in ms, null if it can not be read
+     */
+    private fun readDuration(path: String): Long? {
+        val retriever = MediaMetadataRetriever()
+        return try {
+            retriever.setDataSource(path)
+            retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)?.toLongOrNull()
+        } catch (e: Exception) {
+            L.i { "[VoiceRecorder] read duration failed: ${e.message}" }
+            null
+        } finally {
+            retriever.release()
+        }
+    }
+
     private fun releaseAudioFocus() {
         audioFocusRequest?.let {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -433,7 +460,11 @@ class VoiceRecorderView @JvmOverloads constructor(
 
 sealed class RecordingState {
     data object Started : RecordingState()
-    data class Stopped(val filePath: String) : RecordingState()
+    /**
+     * @param totalTime duration in ms
+     * @param waveform see [Waveform], null if no amplitude was sampled
+     */
+    class Stopped(val filePath: String, val totalTime: Long, val waveform: ByteArray?) : RecordingState()
     data object TooShort : RecordingState()
     data object Cancelled : RecordingState()
     data object RecordPermissionRequired : RecordingState()
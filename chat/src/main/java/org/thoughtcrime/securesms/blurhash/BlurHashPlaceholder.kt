@@ -0,0 +1,84 @@
+package org.thoughtcrime.securesms.blurhash
+
+import android.graphics.Bitmap
+import android.media.MediaMetadataRetriever
+import android.util.LruCache
+import com.difft.android.base.log.lumberjack.L
+import java.io.FileInputStream
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * Blurred placeholders of image and video attachments, shown until the real media is downloaded and decoded.
+ *
+ * The hash is computed by the sender and travels in the attachment pointer, decoded bitmaps are only a few
+ * pixels wide and are cached by hash and size.
+ */
+object BlurHashPlaceholder {
+    private const val MAX_DIMEN = 20
+    private const val VIDEO_FRAME_DIMEN = 128
+    private const val CACHE_SIZE_BYTES = 512 * 1024
+
+    private val cache = object : LruCache<String, Bitmap>(CACHE_SIZE_BYTES) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.byteCount
+    }
+
+    /**
+     * Computes the hash of the media at [path]. Reads the file, call it off the main thread.
+     *
+     * @return null if [contentType] is not an image or a video, or the file can not be decoded
+     */
+    fun encode(path: String, contentType: String): String? {
+        return try {
+            when {
+                contentType.startsWith("image/") -> FileInputStream(path).use { BlurHashEncoder.encode(it) }
+                contentType.startsWith("video/") -> encodeVideo(path)
+                else -> null
+            }
+        } catch (e: Exception) {
+            L.w { "[BlurHashPlaceholder] encode failed: ${e.message}" }
+            null
+        }
+    }
+
+    private fun encodeVideo(path: String): String? {
+        val retriever = MediaMetadataRetriever()
+        try {
+            retriever.setDataSource(path)
+            val frame = retriever.getFrameAtTime(0) ?: return null
+            val scale = VIDEO_FRAME_DIMEN.toFloat() / max(frame.width, frame.height)
+            val scaled = if (scale < 1f) {
+                Bitmap.createScaledBitmap(frame, (frame.width * scale).roundToInt().coerceAtLeast(1), (frame.height * scale).roundToInt().coerceAtLeast(1), true)
+            } else {
+                frame
+            }
+            if (scaled !== frame) frame.recycle()
+            return BlurHashEncoder.encode(scaled).also { scaled.recycle() }
+        } finally {
+            retriever.release()
+        }
+    }
+
+    /**
+     * Decodes [blurHash] for a view of [width] x [height], only the aspect ratio of the size is kept.
+     *
+     * @return null if the hash is not valid
+     */
+    fun get(blurHash: String?, width: Int, height: Int): Bitmap? {
+        if (blurHash.isNullOrEmpty() || BlurHash.parseOrNull(blurHash) == null) return null
+
+        val (bitmapWidth, bitmapHeight) = if (width <= 0 || height <= 0) {
+            MAX_DIMEN to MAX_DIMEN
+        } else if (width > height) {
+            MAX_DIMEN to (MAX_DIMEN * height / width).coerceAtLeast(1)
+        } else {
+            (MAX_DIMEN * width / height).coerceAtLeast(1) to MAX_DIMEN
+        }
+
+        val key = "$blurHash:$bitmapWidth:$bitmapHeight"
+        cache.get(key)?.let { return it }
+        val bitmap = BlurHashDecoder.decode(blurHash, bitmapWidth, bitmapHeight) ?: return null
+        cache.put(key, bitmap)
+        return bitmap
+    }
+}
@@ -9,6 +9,8 @@ import androidx.annotation.WorkerThread;
 import com.annimon.stream.Collectors;
 import com.annimon.stream.Stream;
 import com.difft.android.base.log.lumberjack.L;
+import com.difft.android.base.metrics.Histogram;
+import com.difft.android.base.metrics.Metrics;
 
 import org.thoughtcrime.securesms.jobmanager.persistence.ConstraintSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
@@ -46,6 +48,7 @@ class JobController {
     private final Debouncer debouncer;
     private final Callback callback;
     private final Map<String, Job> runningJobs;
+    private final Histogram queueWaitTime = Metrics.INSTANCE.histogram("job.queue_wait.ms");
 
     JobController(@NonNull Application application,
                   @NonNull JobStorage jobStorage,
@@ -295,6 +298,7 @@ class JobController {
 
             jobStorage.updateJobRunningState(job.getId(), true);
             runningJobs.put(job.getId(), job);
+            queueWaitTime.record(System.currentTimeMillis() - Math.max(job.getParameters().getCreateTime(), job.getNextRunAttemptTime()));
             jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
 
             return job;
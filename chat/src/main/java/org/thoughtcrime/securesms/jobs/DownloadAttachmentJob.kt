@@ -7,7 +7,9 @@ import com.difft.android.base.utils.SecureSharedPrefsUtil
 import org.difft.app.database.wcdb
 import com.difft.android.chat.fileshare.DownloadReq
 import com.difft.android.chat.fileshare.FileShareRepo
+import com.difft.android.chat.widget.AudioAmplitudesHelper
 import difft.android.messageserialization.model.AttachmentStatus
+import difft.android.messageserialization.model.Waveform
 import dagger.hilt.InstallIn
 import dagger.hilt.android.EntryPointAccessors
 import dagger.hilt.components.SingletonComponent
@@ -266,6 +268,12 @@ class DownloadAttachmentJob private constructor(
             }
 
             updateAttachmentStatus(AttachmentStatus.SUCCESS.code)
+
+            // 语音消息下载后即在后台计算波形，避免首次展示时再解码
+            wcdb.attachment.getFirstObject(DBAttachmentModel.id.eq(attachmentId))
+                ?.takeIf { it.flags == 1 && it.contentType?.contains("audio") == true && !Waveform.isValid(it.waveform) }
+                ?.let { AudioAmplitudesHelper.extractWaveform(messageId, attachmentId, filePath, fileKey) }
+
             FileUtil.emitProgressUpdate(messageId, 100)
         } catch (e: Exception) {
             L.w { "[DownloadAttachmentJob] download attachment fail: ${e.stackTraceToString()}" }
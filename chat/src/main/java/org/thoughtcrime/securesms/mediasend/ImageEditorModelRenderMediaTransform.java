@@ -3,7 +3,6 @@ package org.thoughtcrime.securesms.mediasend;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Point;
-import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -13,14 +12,12 @@ import com.difft.android.base.log.lumberjack.L;
 import com.difft.android.base.utils.FileUtil;
 import com.luck.picture.lib.entity.LocalMedia;
 
-import util.StreamUtil;
 import org.signal.imageeditor.core.model.EditorModel;
 import org.thoughtcrime.securesms.fonts.FontTypefaceProvider;
+import org.thoughtcrime.securesms.mms.PushMediaConstraints;
 import org.thoughtcrime.securesms.mms.SentMediaQuality;
-import org.thoughtcrime.securesms.providers.MyBlobProvider;
 import org.thoughtcrime.securesms.util.MediaUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
@@ -32,6 +29,8 @@ public final class ImageEditorModelRenderMediaTransform implements MediaTransfor
 
     private static final String TAG = "ImageEditorModelRenderMediaTransform";
 
+    private static final int HIGH_QUALITY_MAX_JPEG_QUALITY = 90;
+
     @Nullable
     private final EditorModel modelToRender;
     @Nullable
@@ -48,33 +47,10 @@ public final class ImageEditorModelRenderMediaTransform implements MediaTransfor
     @WorkerThread
     @Override
     public @NonNull LocalMedia transform(@NonNull Context context, @NonNull LocalMedia media) {
-        Bitmap bitmap = null;
-        ByteArrayOutputStream outputStream = null;
-        try {
-            if (modelToRender != null) { //先生成编辑后的图片
-                outputStream = new ByteArrayOutputStream();
-                bitmap = modelToRender.render(context, size, new FontTypefaceProvider());
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
-
-                Uri uri = MyBlobProvider.getInstance()
-                        .forData(outputStream.toByteArray())
-                        .withMimeType(MediaUtil.IMAGE_JPEG)
-                        .withFileName(UUID.randomUUID() + ".jpg")
-                        .createForDraftAttachmentAsync(context).get();
-
-                media.setRealPath(uri.getPath());
-                media.setMimeType(MediaUtil.IMAGE_JPEG);
-                media.setWidth(bitmap.getWidth());
-                media.setHeight(bitmap.getHeight());
-                media.setSize(outputStream.size());
+        if (modelToRender != null) { //先生成编辑后的图片，按发送质量直接输出目标尺寸和大小，不再二次压缩
+            if (renderForQuality(context, modelToRender, media)) {
+                return media;
             }
-        } catch (Exception e) {
-            L.w(e, () -> "Failed to render image. Using base image.");
-        } finally {
-            if (null != bitmap) {
-                bitmap.recycle();
-            }
-            StreamUtil.close(outputStream);
         }
 
         try {
@@ -96,4 +72,52 @@ public final class ImageEditorModelRenderMediaTransform implements MediaTransfor
 
         return media;
     }
+
+    /**
+     * Renders at the largest dimension the quality allows and encodes it to the quality's byte budget,
+     * the output is streamed into the draft attachments directory.
+     */
+    private boolean renderForQuality(@NonNull Context context, @NonNull EditorModel model, @NonNull LocalMedia media) {
+        PushMediaConstraints constraints = new PushMediaConstraints(sentMediaQuality);
+        int                  maxQuality  = sentMediaQuality == SentMediaQuality.HIGH ? HIGH_QUALITY_MAX_JPEG_QUALITY
+                                                                                     : constraints.getImageCompressionQualitySetting(context);
+        long                 maxBytes    = constraints.getImageMaxSize(context);
+        Point                renderSize  = size != null ? size : model.getOutputSizeMaxWidth(constraints.getImageMaxWidth(context));
+
+        Bitmap bitmap = null;
+        File   output = new File(FileUtil.INSTANCE.getFilePath(FileUtil.DRAFT_ATTACHMENTS_DIRECTORY), UUID.randomUUID() + ".jpg");
+        try {
+            long start = System.currentTimeMillis();
+            bitmap = model.render(context, renderSize, new FontTypefaceProvider());
+
+            final Bitmap rendered = bitmap;
+            SizeTargetedImageEncoder.Result result = new SizeTargetedImageEncoder().encode(
+                    (quality, outputStream) -> {
+                        if (!rendered.compress(Bitmap.CompressFormat.JPEG, quality, outputStream)) {
+                            throw new IOException("Failed to encode at quality " + quality);
+                        }
+                    },
+                    maxQuality,
+                    maxBytes,
+                    output
+            );
+            L.i(() -> TAG + " rendered " + rendered.getWidth() + "x" + rendered.getHeight() + " " + sentMediaQuality + " budget:" + maxBytes + " " + result + " cost:" + (System.currentTimeMillis() - start) + "ms");
+
+            media.setRealPath(output.getPath());
+            media.setMimeType(MediaUtil.IMAGE_JPEG);
+            media.setWidth(bitmap.getWidth());
+            media.setHeight(bitmap.getHeight());
+            media.setSize(result.size);
+            return true;
+        } catch (Exception e) {
+            L.w(e, () -> "Failed to render image. Using base image.");
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+            return false;
+        } finally {
+            if (null != bitmap) {
+                bitmap.recycle();
+            }
+        }
+    }
 }
@@ -0,0 +1,130 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes an image at the highest quality whose output fits a byte budget.
+ * <p>
+ * Each attempt is streamed straight to a file, the encoded image is never held in memory. The quality is
+ * binary searched between {@link #minQuality} and the requested maximum, the best attempt that fits is kept.
+ * If even the minimum quality does not fit, the minimum quality output is kept.
+ */
+public final class SizeTargetedImageEncoder {
+
+    private static final int DEFAULT_MIN_QUALITY  = 50;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final int BUFFER_SIZE          = 64 * 1024;
+
+    public interface Encoder {
+        void encode(@IntRange(from = 0, to = 100) int quality, @NonNull OutputStream outputStream) throws IOException;
+    }
+
+    public static final class Result {
+        public final int     quality;
+        public final long    size;
+        public final int     attempts;
+        public final boolean fitsBudget;
+
+        Result(int quality, long size, int attempts, boolean fitsBudget) {
+            this.quality    = quality;
+            this.size       = size;
+            this.attempts   = attempts;
+            this.fitsBudget = fitsBudget;
+        }
+
+        @Override
+        public @NonNull String toString() {
+            return "quality=" + quality + " size=" + size + " attempts=" + attempts + " fitsBudget=" + fitsBudget;
+        }
+    }
+
+    private final int minQuality;
+    private final int maxAttempts;
+
+    public SizeTargetedImageEncoder() {
+        this(DEFAULT_MIN_QUALITY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public SizeTargetedImageEncoder(int minQuality, int maxAttempts) {
+        this.minQuality  = minQuality;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * @param maxQuality quality tried first, most images that are already rendered at the target resolution fit
+     * @param maxBytes   byte budget of the output
+     * @param output     file the chosen encoding ends up in, attempts are written next to it
+     */
+    public @NonNull Result encode(@NonNull Encoder encoder, int maxQuality, long maxBytes, @NonNull File output) throws IOException {
+        File candidate = new File(output.getPath() + ".tmp");
+        try {
+            int low  = Math.min(minQuality, maxQuality);
+            int high = maxQuality;
+
+            int  bestQuality = -1;
+            long bestSize    = -1;
+            int  attempts    = 0;
+            int  lastQuality = -1;
+            long lastSize    = -1;
+
+            int quality = high;
+            while (attempts < maxAttempts && low <= high) {
+                long size = encodeToFile(encoder, quality, candidate);
+                attempts++;
+                lastQuality = quality;
+                lastSize    = size;
+
+                if (size <= maxBytes) {
+                    replace(candidate, output);
+                    bestQuality = quality;
+                    bestSize    = size;
+                    if (quality == high) break;
+                    low = quality + 1;
+                } else {
+                    high = quality - 1;
+                    if (quality == low) break;
+                }
+                quality = (low + high + 1) / 2;
+            }
+
+            if (bestQuality >= 0) {
+                return new Result(bestQuality, bestSize, attempts, true);
+            }
+
+            // Nothing fits, the lowest quality is the best we can do
+            int fallbackQuality = Math.min(minQuality, maxQuality);
+            if (lastQuality != fallbackQuality) {
+                lastSize = encodeToFile(encoder, fallbackQuality, candidate);
+                attempts++;
+            }
+            replace(candidate, output);
+            return new Result(fallbackQuality, lastSize, attempts, false);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            candidate.delete();
+        }
+    }
+
+    private static long encodeToFile(@NonNull Encoder encoder, int quality, @NonNull File file) throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            encoder.encode(quality, outputStream);
+        }
+        return file.length();
+    }
+
+    private static void replace(@NonNull File from, @NonNull File to) throws IOException {
+        if (to.exists() && !to.delete()) {
+            throw new IOException("Failed to delete " + to);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("Failed to rename " + from + " to " + to);
+        }
+    }
+}
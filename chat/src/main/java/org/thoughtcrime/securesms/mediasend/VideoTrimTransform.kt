@@ -15,7 +15,9 @@ import org.thoughtcrime.securesms.video.StreamingTranscoder
 import org.thoughtcrime.securesms.video.TranscoderOptions
 import org.thoughtcrime.securesms.video.VideoRemuxer
 import org.thoughtcrime.securesms.video.VideoUtil
+import org.thoughtcrime.securesms.video.postprocessing.Mp4FaststartPostProcessor
 import java.io.File
+import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.io.IOException
 import java.util.UUID
@@ -118,8 +120,10 @@ class VideoTrimTransform(private val data: VideoTrimData, private val sentMediaQ
                 transcoder.transcode({ percent ->
                     L.d { "video transcode percent: $percent" }
                 }, outputStream, { false })
+                outputStream.close()
+                outputStream = null
                 L.i { "video transcode success" }
-                media.realPath = outputFile.absolutePath
+                media.realPath = moveMoovToFront(outputFile).absolutePath
             } else {
                 L.i { "Transcode was not required" }
             }
@@ -150,7 +154,7 @@ class VideoTrimTransform(private val data: VideoTrimData, private val sentMediaQ
 
         if (success) {
             L.i { "Fast remux completed successfully" }
-            media.realPath = outputPath
+            media.realPath = moveMoovToFront(outputFile).absolutePath
         } else {
             L.w { "Fast remux failed, keeping original file" }
             // If remux fails, we keep the original file
@@ -160,4 +164,22 @@ class VideoTrimTransform(private val data: VideoTrimData, private val sentMediaQ
 
         return media
     }
+
+    /**
+     * The transcoder and MediaMuxer both write the moov box after the media data, so the receiver cannot start
+     * playing before the whole file is downloaded. Rewrite the file with moov in front; keep the original on failure.
+     */
+    private fun moveMoovToFront(file: File): File {
+        val faststartFile = File(file.parentFile, "${UUID.randomUUID()}.mp4")
+        return try {
+            val processor = Mp4FaststartPostProcessor({ FileInputStream(file) }, { FileInputStream(file).channel })
+            FileOutputStream(faststartFile).use { processor.processAndWriteTo(it, file.length()) }
+            file.delete()
+            faststartFile
+        } catch (e: Exception) {
+            L.w { "faststart failed, keeping moov at the end: ${e.stackTraceToString()}" }
+            faststartFile.delete()
+            file
+        }
+    }
 }
@@ -123,13 +123,11 @@ class AsyncMessageJobsManager @Inject constructor(
         val groupsToFetch = groupsNotInCache.filter { it !in existingGroupsInDb }
         if (groupsToFetch.isNotEmpty()) {
             L.i { "[AsyncMessageJobsManager] Fetching ${groupsToFetch.size} groups from network: $groupsToFetch" }
-            for (groupId in groupsToFetch) {
-                try {
-                    groupUtil.getSingleGroupInfo(groupId, forceUpdate = true)
-                    confirmedGroupIds.add(groupId)
-                } catch (e: Exception) {
-                    L.w { "[AsyncMessageJobsManager] getSingleGroupInfo error for $groupId: ${e.stackTraceToString()}" }
-                }
+            try {
+                val fetched = groupUtil.fetchAndSaveGroups(groupsToFetch)
+                confirmedGroupIds.addAll(fetched)
+            } catch (e: Exception) {
+                L.w { "[AsyncMessageJobsManager] fetchAndSaveGroups error: ${e.stackTraceToString()}" }
             }
         }
     }
@@ -2,6 +2,8 @@ package org.thoughtcrime.securesms.messages
 
 import android.content.Context
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
+import com.difft.android.base.metrics.time
 import com.difft.android.base.utils.ChunkingMethod
 import com.difft.android.base.utils.appScope
 import com.difft.android.base.utils.chunked
@@ -33,6 +35,12 @@ class IncomingEnvelopMessageProcessor @Inject constructor(
     private val failedMessageProcessor: FailedMessageProcessor,
     private val messageNotificationUtil: MessageNotificationUtil
 ) {
+    private val batchSize = Metrics.histogram("message.incoming.batch_size")
+    private val batchTime = Metrics.histogram("message.incoming.batch.us")
+    private val processTime = Metrics.histogram("message.incoming.process.us")
+    private val saveTime = Metrics.histogram("db.message.save.us")
+    private val failedMessages = Metrics.counter("message.incoming.failed")
+
     @OptIn(ExperimentalCoroutinesApi::class)
     private val _incomingMessagesFlow =
         MutableSharedFlow<Pair<Envelope, Long>>(extraBufferCapacity = 30).apply {
@@ -40,6 +48,8 @@ class IncomingEnvelopMessageProcessor @Inject constructor(
                 .chunked(ChunkingMethod.ByTime(500, 30))
                 .onEach { batch ->
                     L.i { "[Message] Processing batch of ${batch.size} messages" }
+                    val batchStart = System.nanoTime()
+                    batchSize.record(batch.size.toLong())
                     // Send ACK for messages first
                     batch.forEach { (envelop, requestId) -> sendAck(requestId, envelop.timestamp) }
 
@@ -51,9 +61,9 @@ class IncomingEnvelopMessageProcessor @Inject constructor(
                     // Process messages sequentially
                     sortedBatch.forEach { (envelope, _) ->
                         try {
-                            val result = envelopToMessageProcessor.process(envelope, "message")
+                            val result = processTime.time { envelopToMessageProcessor.process(envelope, "message") }
                             if (result != null) {
-                                dbMessageStore.putWhenNonExist(result.message)
+                                saveTime.time { dbMessageStore.putWhenNonExist(result.message) }
                                 if (result.shouldShowNotification) {
                                     appScope.launch {
                                         messageNotificationUtil.showNotificationSuspend(
@@ -68,6 +78,7 @@ class IncomingEnvelopMessageProcessor @Inject constructor(
                             // Exception reporting handled in EnvelopToMessageProcessor and DBMessageStore
                             L.e { "[Message] process message ${envelope.timestamp} failed -> ${e.stackTraceToString()}" }
                             failedEnvelopes.add(envelope)
+                            failedMessages.inc()
                         }
                     }
 
@@ -90,6 +101,7 @@ class IncomingEnvelopMessageProcessor @Inject constructor(
                     asyncMessageJobsManager.runAsyncJobs()
                     pendingMessageProcessor.triggerProcess()
                     failedMessageProcessor.triggerProcess()
+                    batchTime.record((System.nanoTime() - batchStart) / 1000)
                 }
                 .launchIn(appScope)
         }
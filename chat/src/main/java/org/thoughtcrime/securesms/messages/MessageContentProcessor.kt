@@ -663,7 +663,8 @@ class MessageContentProcessor @Inject constructor(
         attachmentPointer.width,
         attachmentPointer.height,
         attachmentPath,
-        AttachmentStatus.LOADING.code
+        AttachmentStatus.LOADING.code,
+        blurHash = attachmentPointer.blurHash.takeIf { attachmentPointer.hasBlurHash() && it.isNotEmpty() }
     )
 
     private fun updateDisappearingTime(forWhat: For, messageExpiry: Int, messageClearAnchor: Long) {
@@ -1,6 +1,8 @@
 package org.thoughtcrime.securesms.messages
 
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
+import com.difft.android.base.metrics.time
 import com.difft.android.websocket.api.messages.SignalServiceDataClass
 import com.difft.android.websocket.api.messages.TTNotifyMessage
 import com.difft.android.websocket.api.util.INewMessageContentEncryptor.Companion.MESSAGE_CURRENT_VERSION
@@ -21,7 +23,11 @@ import javax.inject.Singleton
 class NewMessageDecryptionUtil @Inject constructor(
     private val encryptionDataManager: EncryptionDataManager
 ) {
-    fun decrypt(envelope: Envelope): SignalServiceDataClass {
+    private val decryptTime = Metrics.histogram("message.decrypt.us")
+
+    fun decrypt(envelope: Envelope): SignalServiceDataClass = decryptTime.time { decryptEnvelope(envelope) }
+
+    private fun decryptEnvelope(envelope: Envelope): SignalServiceDataClass {
         val content = if (envelope.getType().number == Envelope.Type.ENCRYPTEDTEXT_VALUE) { //is encrypted envelop
             L.i { "[Message] decrypt encrypted message===${envelope.timestamp}" }
             val version = envelope.content.first().toUInt().shr(4).toInt()
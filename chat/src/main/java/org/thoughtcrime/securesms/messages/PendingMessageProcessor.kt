@@ -3,13 +3,14 @@ package org.thoughtcrime.securesms.messages
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.appScope
 import com.difft.android.base.utils.sampleAfterFirst
+import com.difft.android.messageserialization.db.store.PendingMessageIndex
 import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
 import org.difft.app.database.WCDB
-import org.difft.app.database.models.DBMessageModel
 import org.difft.app.database.models.DBPendingMessageModelNew
+import org.difft.app.database.models.PendingMessageModelNew
 import org.whispersystems.signalservice.internal.push.SignalServiceProtos.Envelope
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
@@ -18,14 +19,19 @@ import javax.inject.Singleton
 @Singleton
 class PendingMessageProcessor @Inject constructor(
     private val envelopToMessageProcessor: EnvelopToMessageProcessor,
+    private val pendingMessageIndex: PendingMessageIndex,
     private val wcdb: WCDB,
 ) {
     companion object {
         private const val CLEANUP_DAYS_THRESHOLD = 10L
+        private const val MAX_ATTEMPTS = 5
+        private val CLEANUP_INTERVAL = TimeUnit.HOURS.toMillis(1)
+        private val RECHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1)
     }
 
     private val processEvents = MutableSharedFlow<Unit>(replay = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
-    private var hasCleanedUp = false
+    private var lastCleanupTime = 0L
+    private var lastRecheckTime = 0L
 
     /**
      * This function will auto call when this class's instance is created by Hilt.
@@ -33,62 +39,102 @@ class PendingMessageProcessor @Inject constructor(
     @Inject
     fun initWhenInject() {
         processEvents.sampleAfterFirst(3000).onEach {
-            // 一次性获取所有待处理消息
-            val pendingMessages = wcdb.pendingMessageNew.allObjects
+            pendingMessageIndex.ensureLoaded()
+            cleanupExpiredIfNeeded()
+            recheckAwaitingIfNeeded()
 
-            L.i { "[PendingMessageProcessor] pendingMessages:${pendingMessages.size}" }
-
-            if (pendingMessages.isEmpty()) {
+            // 只取原始消息已到达的时间戳，其余 pending 消息不读取也不解析
+            val readyTimestamps = pendingMessageIndex.drainReady()
+            if (readyTimestamps.isEmpty()) {
                 return@onEach
             }
 
-            // 获取所有原始消息时间戳
-            val originalMessageTimestamps = pendingMessages.map { it.originalMessageTimeStamp }.distinct()
-
-            // 批量查询已存在的原始消息
-            val existingMessages = wcdb.message.getAllObjects(
-                DBMessageModel.timeStamp.`in`(originalMessageTimestamps)
-            ).map { it.timeStamp }.toSet()
+            val pendingMessages = wcdb.pendingMessageNew.getAllObjects(
+                DBPendingMessageModelNew.originalMessageTimeStamp.`in`(readyTimestamps)
+            )
+            L.i { "[PendingMessageProcessor] ready:${readyTimestamps.size} pendingMessages:${pendingMessages.size} awaiting:${pendingMessageIndex.awaitingCount}" }
 
-            // 只处理已存在原始消息的待处理消息
-            val messagesToProcess = pendingMessages.filter { it.originalMessageTimeStamp in existingMessages }
-            val processedTimestamps = mutableListOf<Long>()
+            val processedIds = mutableListOf<String>()
+            val failedMessages = mutableListOf<PendingMessageModelNew>()
 
             // 处理所有待处理消息，单条异常不影响其他消息处理
-            messagesToProcess.forEach { pendingMessage ->
+            pendingMessages.forEach { pendingMessage ->
                 try {
                     envelopToMessageProcessor.process(Envelope.parseFrom(pendingMessage.messageEnvelopBytes), "pending-timestamp")
-                    processedTimestamps.add(pendingMessage.originalMessageTimeStamp)
+                    processedIds.add(pendingMessage.messageId)
                 } catch (e: Exception) {
-                    L.e { "[PendingMessageProcessor] Failed to process pending message ${pendingMessage.originalMessageTimeStamp}: ${e.stackTraceToString()}" }
-                    // Continue processing other messages
+                    L.e { "[PendingMessageProcessor] Failed to process pending message ${pendingMessage.originalMessageTimeStamp}, attempts:${pendingMessage.attempts + 1}: ${e.stackTraceToString()}" }
+                    failedMessages.add(pendingMessage)
                 }
             }
 
             // 批量删除已处理的消息
-            if (processedTimestamps.isNotEmpty()) {
-                wcdb.pendingMessageNew.deleteObjects(
-                    DBPendingMessageModelNew.originalMessageTimeStamp.`in`(processedTimestamps)
+            if (processedIds.isNotEmpty()) {
+                wcdb.pendingMessageNew.deleteObjects(DBPendingMessageModelNew.messageId.`in`(processedIds))
+            }
+
+            // 失败的消息累计重试次数，超过上限后丢弃
+            val (exhausted, retryable) = failedMessages.partition { it.attempts + 1 >= MAX_ATTEMPTS }
+            if (exhausted.isNotEmpty()) {
+                L.w { "[PendingMessageProcessor] Dropping ${exhausted.size} pending messages after $MAX_ATTEMPTS attempts" }
+                wcdb.pendingMessageNew.deleteObjects(DBPendingMessageModelNew.messageId.`in`(exhausted.map { it.messageId }))
+            }
+            retryable.forEach { pendingMessage ->
+                pendingMessage.attempts += 1
+                wcdb.pendingMessageNew.updateObject(
+                    pendingMessage,
+                    DBPendingMessageModelNew.attempts,
+                    DBPendingMessageModelNew.messageId.eq(pendingMessage.messageId)
                 )
             }
+            // 已取出的时间戳不再留在索引中，只有待重试的重新标记为 ready
+            pendingMessageIndex.markReady(retryable.map { it.originalMessageTimeStamp }.distinct())
+        }.launchIn(appScope)
+    }
 
-            // 删除超过指定天数的待处理消息（脏数据清理）- 每个启动周期只执行一次
-            if (!hasCleanedUp) {
-                val cleanupThreshold = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(CLEANUP_DAYS_THRESHOLD)
-                val oldMessages = pendingMessages.filter { it.originalMessageTimeStamp < cleanupThreshold }
+    /**
+     * 删除超过指定天数的待处理消息（脏数据清理），直接按条件删除，不读取消息内容
+     */
+    private fun cleanupExpiredIfNeeded() {
+        val now = System.currentTimeMillis()
+        if (now - lastCleanupTime < CLEANUP_INTERVAL) return
+        lastCleanupTime = now
 
-                if (oldMessages.isNotEmpty()) {
-                    L.i { "[PendingMessageProcessor] Deleting ${oldMessages.size} old pending messages" }
-                    wcdb.pendingMessageNew.deleteObjects(
-                        DBPendingMessageModelNew.originalMessageTimeStamp.`in`(oldMessages.map { it.originalMessageTimeStamp })
-                    )
-                }
-                hasCleanedUp = true
+        val cleanupThreshold = now - TimeUnit.DAYS.toMillis(CLEANUP_DAYS_THRESHOLD)
+        val expiredCondition = DBPendingMessageModelNew.createdAt.gt(0).and(DBPendingMessageModelNew.createdAt.lt(cleanupThreshold))
+            .or(DBPendingMessageModelNew.createdAt.eq(0).and(DBPendingMessageModelNew.originalMessageTimeStamp.lt(cleanupThreshold)))
+        try {
+            val expiredTimestamps = wcdb.pendingMessageNew.getOneColumnLong(DBPendingMessageModelNew.originalMessageTimeStamp, expiredCondition)
+            if (expiredTimestamps.isNotEmpty()) {
+                L.i { "[PendingMessageProcessor] Deleting ${expiredTimestamps.size} old pending messages" }
+                wcdb.pendingMessageNew.deleteObjects(expiredCondition)
+                // 同一时间戳可能还有未过期的 pending 消息，只移除已无 pending 消息的时间戳
+                val remaining = wcdb.pendingMessageNew.getOneColumnLong(
+                    DBPendingMessageModelNew.originalMessageTimeStamp,
+                    DBPendingMessageModelNew.originalMessageTimeStamp.`in`(expiredTimestamps.distinct())
+                ).toSet()
+                pendingMessageIndex.remove(expiredTimestamps.filter { it !in remaining })
             }
-        }.launchIn(appScope)
+        } catch (e: Exception) {
+            L.e { "[PendingMessageProcessor] cleanup error: ${e.stackTraceToString()}" }
+        }
+    }
+
+    /**
+     * 原始消息不经过 DBMessageStore 入库时不会唤醒 pending 消息，定期按表中数据重新检查
+     */
+    private fun recheckAwaitingIfNeeded() {
+        val now = System.currentTimeMillis()
+        if (now - lastRecheckTime < RECHECK_INTERVAL) return
+        lastRecheckTime = now
+        try {
+            pendingMessageIndex.recheckAwaiting()
+        } catch (e: Exception) {
+            L.e { "[PendingMessageProcessor] recheck error: ${e.stackTraceToString()}" }
+        }
     }
 
     fun triggerProcess() {
         processEvents.tryEmit(Unit)
     }
-}
\ No newline at end of file
+}
@@ -161,6 +161,7 @@ class DataMessageCreator @Inject constructor(
                 height = attachment.height
                 digest = ByteString.copyFrom(attachment.digest)
                 attachment.fileName?.let(::fileName::set)
+                attachment.blurHash?.let(::blurHash::set)
                 uploadTimestamp = System.currentTimeMillis()
                 flags = attachment.flags
             }
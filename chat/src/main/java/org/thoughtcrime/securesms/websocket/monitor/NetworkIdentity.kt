@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.websocket.monitor
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.LinkProperties
+import android.net.NetworkCapabilities
+import android.telephony.TelephonyManager
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.utils.SharedPrefsUtil
+import com.difft.android.websocket.api.websocket.AdaptiveKeepAliveScheduler
+
+/**
+ * 当前网络的标识，用于区分不同 NAT 环境下学习到的心跳间隔
+ *
+ * SSID 需要定位权限，这里用不需要额外权限的信息代替：
+ * - Wi-Fi / 以太网：默认网关 + DNS 服务器 + 搜索域
+ * - 蜂窝网络：运营商 MCC/MNC
+ */
+object NetworkIdentity {
+
+    fun current(context: Context): String {
+        return try {
+            val connectivityManager = context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+            val network = connectivityManager.activeNetwork ?: return AdaptiveKeepAliveScheduler.UNKNOWN_NETWORK
+            val capabilities = connectivityManager.getNetworkCapabilities(network) ?: return AdaptiveKeepAliveScheduler.UNKNOWN_NETWORK
+            val linkProperties = connectivityManager.getLinkProperties(network)
+            when {
+                capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) -> "wifi:" + linkKey(linkProperties)
+                capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET) -> "eth:" + linkKey(linkProperties)
+                capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR) -> {
+                    val telephonyManager = context.getSystemService(Context.TELEPHONY_SERVICE) as? TelephonyManager
+                    "cell:" + (telephonyManager?.networkOperator?.takeIf { it.isNotBlank() } ?: "unknown")
+                }
+
+                else -> "other"
+            }
+        } catch (e: Exception) {
+            L.w { "[ws]NetworkIdentity get current network error: ${e.message}" }
+            AdaptiveKeepAliveScheduler.UNKNOWN_NETWORK
+        }
+    }
+
+    private fun linkKey(linkProperties: LinkProperties?): String {
+        if (linkProperties == null) return "unknown"
+        val gateway = linkProperties.routes.firstOrNull { it.isDefaultRoute }?.gateway?.hostAddress.orEmpty()
+        val dns = linkProperties.dnsServers.joinToString(",") { it.hostAddress.orEmpty() }
+        val raw = "$gateway|$dns|${linkProperties.domains.orEmpty()}"
+        return Integer.toHexString(raw.hashCode())
+    }
+}
+
+/**
+ * 按网络持久化学习到的心跳间隔
+ *
+ * 所有网络存在同一个 key 里，只保留最近使用的 [maxNetworks] 个网络，避免每连过一个网络就多一个 key
+ */
+class SharedPrefsKeepAliveStore(private val maxNetworks: Int = MAX_NETWORKS) : AdaptiveKeepAliveScheduler.Store {
+    companion object {
+        private const val MAX_NETWORKS = 16
+        private const val KEY = "sp_ws_keepalive"
+        private const val LEGACY_KEY_PREFIX = "sp_ws_keepalive_"
+    }
+
+    // networkId -> state, least recently used first, guarded by itself
+    private val states: LinkedHashMap<String, AdaptiveKeepAliveScheduler.NetworkState> by lazy {
+        object : LinkedHashMap<String, AdaptiveKeepAliveScheduler.NetworkState>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, AdaptiveKeepAliveScheduler.NetworkState>?): Boolean {
+                return size > maxNetworks
+            }
+        }.also { decode(SharedPrefsUtil.getString(KEY), it) }
+    }
+
+    override fun load(networkId: String): AdaptiveKeepAliveScheduler.NetworkState? {
+        synchronized(states) {
+            states[networkId]?.let { return it }
+        }
+        // 旧版本每个网络一个 key，用到时迁移过来
+        val legacy = parseState(SharedPrefsUtil.getString(LEGACY_KEY_PREFIX + networkId)) ?: return null
+        save(networkId, legacy)
+        SharedPrefsUtil.remove(LEGACY_KEY_PREFIX + networkId)
+        return legacy
+    }
+
+    override fun save(networkId: String, state: AdaptiveKeepAliveScheduler.NetworkState) {
+        val value = synchronized(states) {
+            states[networkId] = state
+            states.entries.joinToString(";") { (id, s) -> "$id,${s.safeIntervalMs},${s.failingIntervalMs}" }
+        }
+        SharedPrefsUtil.putString(KEY, value)
+    }
+
+    private fun decode(value: String?, into: MutableMap<String, AdaptiveKeepAliveScheduler.NetworkState>) {
+        value?.split(';')?.forEach { entry ->
+            val networkId = entry.substringBefore(',')
+            val state = parseState(entry.substringAfter(',', "")) ?: return@forEach
+            into[networkId] = state
+        }
+    }
+
+    /**
+     * "safeIntervalMs,failingIntervalMs"
+     */
+    private fun parseState(value: String?): AdaptiveKeepAliveScheduler.NetworkState? {
+        val parts = value?.split(',') ?: return null
+        val safe = parts.getOrNull(0)?.toLongOrNull() ?: return null
+        val failing = parts.getOrNull(1)?.toLongOrNull() ?: Long.MAX_VALUE
+        return AdaptiveKeepAliveScheduler.NetworkState(safe, failing)
+    }
+}
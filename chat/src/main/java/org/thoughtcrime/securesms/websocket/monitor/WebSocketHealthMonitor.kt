@@ -1,12 +1,14 @@
 package org.thoughtcrime.securesms.websocket.monitor
 
 import android.content.Context
+import android.os.SystemClock
 import android.text.TextUtils
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.SecureSharedPrefsUtil
 import com.difft.android.base.utils.appScope
 import com.difft.android.network.UrlManager
 import com.difft.android.network.speedtest.DomainSpeedTestCoordinator
+import com.difft.android.websocket.api.websocket.AdaptiveKeepAliveScheduler
 import com.difft.android.websocket.api.websocket.HealthMonitor
 import com.difft.android.websocket.api.websocket.WebSocketConnectionState
 import com.difft.android.websocket.internal.websocket.WebSocketConnection
@@ -46,11 +48,19 @@ class WebSocketHealthMonitor
     private val coordinator: DomainSpeedTestCoordinator,
 ) : HealthMonitor, CoroutineScope by appScope {
 
-    @Volatile
-    private var lastHeartbeatResponseTime: Long = System.currentTimeMillis()
+    /**
+     * 自适应心跳：按网络学习 NAT 能保持的最长空闲间隔
+     * elapsedRealtime 包含深度睡眠时间，与 NAT 超时的计时方式一致
+     */
+    private val keepAliveScheduler = AdaptiveKeepAliveScheduler(
+        clock = { SystemClock.elapsedRealtime() },
+        store = SharedPrefsKeepAliveStore(),
+    )
 
-    @Volatile
-    private var lastHeartbeatSendTime: Long = System.currentTimeMillis()
+    /**
+     * 已发送的心跳次数，每次都可能唤醒蜂窝射频
+     */
+    val radioWakeups: Long get() = keepAliveScheduler.radioWakeups.get()
 
     /**
      * 用于广播外部事件通知（网络变化、前台切换、Alarm 触发等）
@@ -71,6 +81,8 @@ class WebSocketHealthMonitor
 
     private var networkMonitor: NetworkMonitor? = null
 
+    private var prewarmJob: Job? = null
+
     // 添加前台观察者监听器引用，用于清理
     private var foregroundListener: AppForegroundObserver.Listener? = null
 
@@ -92,7 +104,7 @@ class WebSocketHealthMonitor
     }
 
     override fun onKeepAliveResponse() {
-        lastHeartbeatResponseTime = System.currentTimeMillis()
+        keepAliveScheduler.onInbound()
     }
 
     override fun monitor(webSocketConnection: WebSocketConnection) {
@@ -118,10 +130,15 @@ class WebSocketHealthMonitor
         networkMonitor = NetworkMonitor(context) {
             if (isMonitoring) {
                 L.i { "[ws]monitor: Network changed, notifying all receivers" }
+                // 网络切换后跳过 backoff，并提前与预期最快的 host 建立 TCP/TLS 连接
+                attempts = 0
+                keepAliveScheduler.onNetworkChanged(NetworkIdentity.current(context))
+                prewarmHosts(webSocketConnection)
                 notificationFlow.tryEmit(Unit)  // 使用 tryEmit 避免阻塞
             }
         }.also { it.register() }
 
+        keepAliveScheduler.onNetworkChanged(NetworkIdentity.current(context))
         checkConnectedStateHealthy(webSocketConnection)
         checkUnconnectedStateAndReconnect(webSocketConnection)
         handleConnectingTimeout(webSocketConnection)
@@ -139,6 +156,8 @@ class WebSocketHealthMonitor
         // 取消所有监控任务
         monitoringJobs.forEach { it.cancel() }
         monitoringJobs.clear()
+        prewarmJob?.cancel()
+        prewarmJob = null
 
         // 移除前台观察者监听器
         foregroundListener?.let {
@@ -216,9 +235,11 @@ class WebSocketHealthMonitor
     private fun checkConnectedStateHealthy(webSocketConnection: WebSocketConnection) {
         val job = launch {
             while (isMonitoring) {
+                val connected = webSocketConnection.webSocketConnectionState.value == WebSocketConnectionState.CONNECTED
+                val waitTime = if (connected) keepAliveScheduler.nextWakeDelayMs() else KEEP_ALIVE_SEND_CADENCE
                 // 等待超时或外部事件打断，解决 Doze 模式下 delay 被冻结的问题
                 val triggeredByExternalEvent = try {
-                    withTimeout(KEEP_ALIVE_SEND_CADENCE) {
+                    withTimeout(waitTime) {
                         notificationFlow.first()
                     }
                     true // 被外部事件唤醒
@@ -232,16 +253,20 @@ class WebSocketHealthMonitor
                     L.i { "${webSocketConnection.name} [ws]monitor: health check triggered by external event (Alarm/Network/Foreground)" }
                 }
 
-                L.i { "${webSocketConnection.name} [ws]monitor: start check websocket healthy" }
                 if (webSocketConnection.webSocketConnectionState.value == WebSocketConnectionState.CONNECTED) {
-                    //why use lastHeartbeatSendTime instead of System.currentTimeMillis()? in case of App may be frozen in background
-                    if (lastHeartbeatSendTime - lastHeartbeatResponseTime > MAX_TIME_SINCE_SUCCESSFUL_KEEP_ALIVE) {
-                        L.w { "${webSocketConnection.name} [ws]monitor: Missed keep lives, disconnect current websocket connection" }
-                        webSocketConnection.disconnectWhenConnected()
-                    } else {
-                        L.i { "${webSocketConnection.name} [ws]monitor: send keep alive" }
-                        webSocketConnection.sendKeepAlive()
-                        lastHeartbeatSendTime = System.currentTimeMillis()
+                    when (keepAliveScheduler.onWake(triggeredByExternalEvent)) {
+                        AdaptiveKeepAliveScheduler.Action.SEND -> {
+                            L.i { "${webSocketConnection.name} [ws]monitor: send keep alive, $keepAliveScheduler" }
+                            webSocketConnection.sendKeepAlive()
+                            keepAliveScheduler.onKeepAliveSent()
+                        }
+
+                        AdaptiveKeepAliveScheduler.Action.DISCONNECT -> {
+                            L.w { "${webSocketConnection.name} [ws]monitor: Missed keep lives, disconnect current websocket connection, $keepAliveScheduler" }
+                            webSocketConnection.disconnectWhenConnected()
+                        }
+
+                        AdaptiveKeepAliveScheduler.Action.NONE -> Unit
                     }
                 }
             }
@@ -268,12 +293,33 @@ class WebSocketHealthMonitor
                 L.i { "${webSocketConnection.name} [ws]monitor: finished trigger doConnect, webSocketConnectionState: $it" }
             } else if (it is WebSocketConnectionState.CONNECTED) {
                 coordinator.onWsConnected()
+                keepAliveScheduler.onConnected()
                 attempts = 0 // reset attempts when connected
             }
         }.launchIn(this)
         monitoringJobs.add(job)
     }
 
+    private fun prewarmHosts(connection: WebSocketConnection) {
+        prewarmJob?.cancel()
+        prewarmJob = launch(Dispatchers.IO) {
+            if (NetworkConstraint.isNetworkAvailable(context)) {
+                raceHosts(connection, "network changed")
+            }
+        }
+    }
+
+    /**
+     * 对排名前几的 host 错开发起连接竞速，最快的 host 排到第一位，下一次 connect 会使用它并复用已建立的连接
+     */
+    private suspend fun raceHosts(connection: WebSocketConnection, reason: String) {
+        val hosts = urlManager.getAllHostsRanked()
+        if (hosts.isEmpty()) return
+        L.i { "${connection.name} [ws]monitor: race hosts ($reason): $hosts" }
+        val result = connection.raceHosts(hosts) { urlManager.getChatProbeUrl(it) }
+        result.winner?.let { urlManager.recordChatHostLatency(it, result.latencyMs) }
+    }
+
     private fun switchHost(connection: WebSocketConnection) {
         L.i { "${connection.name} [ws]monitor: switch host (record current as failed)" }
         urlManager.switchToNextChatWebsocketHost()
@@ -283,6 +329,7 @@ class WebSocketHealthMonitor
         webSocketConnection: WebSocketConnection
     ) {
         prepareForConnecting(webSocketConnection)
+        // host 排名由网络变化时的竞速更新，重连不等待竞速
         L.i { "${webSocketConnection.name} [ws]monitor: all set, start do connect" }
         withContext(Dispatchers.IO) {
             doConnectInternal(webSocketConnection)
@@ -345,6 +392,5 @@ class WebSocketHealthMonitor
 
         private val KEEP_ALIVE_SEND_CADENCE =
             TimeUnit.SECONDS.toMillis(WebSocketConnection.KEEP_ALIVE_TIMEOUT_SECONDS.toLong())
-        private val MAX_TIME_SINCE_SUCCESSFUL_KEEP_ALIVE = KEEP_ALIVE_SEND_CADENCE * 3
     }
 }
\ No newline at end of file
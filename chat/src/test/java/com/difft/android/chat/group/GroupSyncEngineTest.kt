@@ -0,0 +1,223 @@
+package com.difft.android.chat.group
+
+import com.difft.android.network.BaseResponse
+import com.difft.android.network.group.GetGroupInfoResp
+import com.difft.android.network.group.GroupService
+import kotlinx.coroutines.test.runTest
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.difft.app.database.models.GroupModel
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import retrofit2.Retrofit
+import retrofit2.converter.gson.GsonConverterFactory
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class GroupSyncEngineTest {
+
+    private lateinit var server: MockWebServer
+    private lateinit var service: GroupService
+
+    /** gid -> version served by the mock server */
+    private val remoteVersions = ConcurrentHashMap<String, Int>()
+    private val failingGroups = ConcurrentHashMap.newKeySet<String>()
+
+    private val inFlight = AtomicInteger()
+    private val maxInFlight = AtomicInteger()
+    private val detailRequests = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val path = request.path.orEmpty()
+                if (path == "/v1/groups") {
+                    return MockResponse().setBody(groupListJson())
+                }
+                val gid = path.removePrefix("/v1/groups/")
+                detailRequests.incrementAndGet()
+                val current = inFlight.incrementAndGet()
+                maxInFlight.accumulateAndGet(current) { a, b -> maxOf(a, b) }
+                try {
+                    Thread.sleep(20)
+                    if (gid in failingGroups) {
+                        return MockResponse().setResponseCode(500)
+                    }
+                    return MockResponse().setBody(groupInfoJson(gid))
+                } finally {
+                    inFlight.decrementAndGet()
+                }
+            }
+        }
+        server.start()
+        service = Retrofit.Builder()
+            .baseUrl(server.url("/"))
+            .addConverterFactory(GsonConverterFactory.create())
+            .build()
+            .create(GroupService::class.java)
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun `detail requests never exceed the concurrency limit`() = runTest {
+        repeat(40) { remoteVersions["g$it"] = 1 }
+        val backend = FakeBackend()
+        val engine = GroupSyncEngine(backend, GroupSyncEngine.Config(maxConcurrency = 4, chunkSize = 10))
+
+        val stats = engine.sync(syncMembers = true)
+
+        assertEquals(40, stats.fetched)
+        assertEquals(0, stats.failed)
+        assertTrue(maxInFlight.get() <= 4, "max in flight was ${maxInFlight.get()}")
+        assertEquals(40, backend.members.size)
+        assertEquals(4, backend.appliedChunks.get())
+    }
+
+    @Test
+    fun `unchanged groups are skipped and removed groups are deleted`() = runTest {
+        remoteVersions["a"] = 2
+        remoteVersions["b"] = 5
+        val backend = FakeBackend().apply {
+            groups["a"] = 2
+            members["a"] = listOf("u1")
+            groups["b"] = 4
+            members["b"] = listOf("u1")
+            groups["gone"] = 1
+            members["gone"] = listOf("u1")
+        }
+        val engine = GroupSyncEngine(backend)
+
+        val stats = engine.sync(syncMembers = true)
+
+        assertEquals(1, stats.skipped)
+        assertEquals(1, stats.fetched)
+        assertEquals(1, stats.removed)
+        assertEquals(1, detailRequests.get())
+        assertEquals(5, backend.groups["b"])
+        assertFalse("gone" in backend.groups)
+    }
+
+    @Test
+    fun `failed groups keep their list row and are reported`() = runTest {
+        remoteVersions["ok"] = 1
+        remoteVersions["broken"] = 1
+        failingGroups.add("broken")
+        val backend = FakeBackend()
+        val engine = GroupSyncEngine(backend)
+
+        val stats = engine.sync(syncMembers = true)
+
+        assertEquals(1, stats.fetched)
+        assertEquals(1, stats.failed)
+        assertTrue("broken" in backend.groups)
+        assertEquals(null, backend.groups["broken"])
+        assertFalse("broken" in backend.members)
+        assertEquals(stats, engine.progress.value)
+    }
+
+    @Test
+    fun `an existing group whose fetch failed is fetched again by the next sync`() = runTest {
+        remoteVersions["g"] = 3
+        failingGroups.add("g")
+        val backend = FakeBackend().apply {
+            groups["g"] = 2
+            members["g"] = listOf("old")
+        }
+        val engine = GroupSyncEngine(backend)
+
+        assertEquals(1, engine.sync(syncMembers = true).failed)
+        assertEquals(2, backend.groups["g"])
+
+        failingGroups.clear()
+        val stats = engine.sync(syncMembers = true)
+
+        assertEquals(1, stats.fetched)
+        assertEquals(2, detailRequests.get())
+        assertEquals(3, backend.groups["g"])
+        assertEquals(listOf("u1"), backend.members["g"])
+    }
+
+    @Test
+    fun `forced sync fetches unchanged groups`() = runTest {
+        remoteVersions["a"] = 1
+        val backend = FakeBackend().apply {
+            groups["a"] = 1
+            members["a"] = listOf("old")
+        }
+        val engine = GroupSyncEngine(backend)
+
+        assertEquals(1, engine.sync(syncMembers = true).skipped)
+        val stats = engine.sync(syncMembers = true, force = true)
+
+        assertEquals(0, stats.skipped)
+        assertEquals(1, stats.fetched)
+        assertEquals(listOf("u1"), backend.members["a"])
+    }
+
+    private fun groupListJson(): String {
+        val groups = remoteVersions.entries.joinToString(",") { (gid, version) ->
+            """{"gid":"$gid","name":"$gid","avatar":"","version":$version,"status":0,"remindCycle":"none"}"""
+        }
+        return """{"ver":1,"status":0,"data":{"groups":[$groups]}}"""
+    }
+
+    private fun groupInfoJson(gid: String): String {
+        val version = remoteVersions[gid] ?: 0
+        return """{"ver":1,"status":0,"data":{"name":"$gid","avatar":"","version":$version,"remindCycle":"none",""" +
+                """"members":[{"uid":"u1","role":2,"displayName":"user"}]}}"""
+    }
+
+    private inner class FakeBackend : GroupSyncEngine.Backend {
+        /** gid -> version, null for a new group whose fetch failed */
+        val groups: MutableMap<String, Int?> = Collections.synchronizedMap(HashMap())
+        val members = ConcurrentHashMap<String, List<String>>()
+        val appliedChunks = AtomicInteger()
+
+        override suspend fun fetchGroupList(): List<GroupModel> {
+            return service.getGroups().data?.groups.orEmpty().map {
+                GroupModel().apply {
+                    gid = it.gid
+                    version = it.version
+                }
+            }
+        }
+
+        override suspend fun fetchGroupInfo(gid: String): BaseResponse<GetGroupInfoResp> = service.getGroupInfo(gid)
+
+        override fun loadLocalStates(): Map<String, GroupSyncEngine.LocalGroupState> {
+            return groups.mapValues { (gid, version) ->
+                GroupSyncEngine.LocalGroupState(version, !members[gid].isNullOrEmpty())
+            }
+        }
+
+        override fun applyChunk(listRows: List<GroupModel>, details: List<GroupSyncEngine.FetchedGroup>) {
+            appliedChunks.incrementAndGet()
+            listRows.forEach { groups[it.gid] = it.version }
+            details.forEach { fetched ->
+                val data = fetched.response.data ?: return@forEach
+                groups[fetched.gid] = data.version
+                members[fetched.gid] = data.members.map { it.uid }
+            }
+        }
+
+        override fun removeGroups(gids: Collection<String>) {
+            gids.forEach {
+                groups.remove(it)
+                members.remove(it)
+            }
+        }
+    }
+}
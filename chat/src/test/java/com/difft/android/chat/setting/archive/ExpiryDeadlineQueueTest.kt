@@ -0,0 +1,47 @@
+package com.difft.android.chat.setting.archive
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ExpiryDeadlineQueueTest {
+
+    @Test
+    fun `due rooms come out earliest first`() {
+        val queue = ExpiryDeadlineQueue()
+        queue.schedule("a", 300)
+        queue.schedule("b", 100)
+        queue.schedule("c", 200)
+
+        assertEquals(100L, queue.nextDeadline())
+        assertEquals(emptyList(), queue.pollDue(100))
+        assertEquals(listOf("b", "c"), queue.pollDue(250))
+        assertEquals(300L, queue.nextDeadline())
+        assertEquals(1, queue.size)
+    }
+
+    @Test
+    fun `rescheduling replaces the previous deadline`() {
+        val queue = ExpiryDeadlineQueue()
+        queue.schedule("a", 100)
+        queue.schedule("b", 200)
+        queue.schedule("a", 500)
+        queue.schedule("b", 0)
+
+        assertEquals(500L, queue.nextDeadline())
+        assertNull(queue.deadlineOf("b"))
+        assertEquals(emptyList(), queue.pollDue(400))
+        assertEquals(listOf("a"), queue.pollDue(501))
+        assertNull(queue.nextDeadline())
+    }
+
+    @Test
+    fun `outdated entries do not pile up`() {
+        val queue = ExpiryDeadlineQueue()
+        repeat(100_000) { queue.schedule("room${it % 10}", 1_000L + it) }
+
+        assertEquals(10, queue.size)
+        assertEquals(100_990L, queue.nextDeadline())
+        assertEquals((0 until 10).map { "room$it" }, queue.pollDue(Long.MAX_VALUE))
+    }
+}
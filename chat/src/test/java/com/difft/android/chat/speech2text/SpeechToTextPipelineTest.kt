@@ -0,0 +1,156 @@
+package com.difft.android.chat.speech2text
+
+import com.difft.android.chat.fileshare.FileExistReq
+import com.difft.android.chat.fileshare.FileShareService
+import com.difft.android.chat.fileshare.FileShareUploader
+import com.difft.android.chat.fileshare.UploadInfoReq
+import com.difft.android.network.HttpService
+import difft.android.messageserialization.model.Attachment
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.test.runTest
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import retrofit2.Retrofit
+import retrofit2.converter.gson.GsonConverterFactory
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+
+class SpeechToTextPipelineTest {
+
+    private lateinit var server: MockWebServer
+    private lateinit var dir: File
+
+    private val uploadedFiles = ConcurrentHashMap.newKeySet<String>()
+    private val uploads = AtomicInteger()
+    private val uploadedBytes = AtomicInteger()
+    private val transcriptions = AtomicInteger()
+
+    private val store = MemoryTranscriptStore()
+
+    @Before
+    fun setUp() {
+        dir = kotlin.io.path.createTempDirectory("speech2text").toFile()
+        server = MockWebServer()
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val path = request.path.orEmpty()
+                val body = request.body.readUtf8()
+                return when {
+                    path.endsWith("/v1/file/isExists") -> {
+                        val fileHash = Regex("\"fileHash\":\"([^\"]+)\"").find(body)!!.groupValues[1]
+                        val exists = fileHash in uploadedFiles
+                        response("""{"attachmentId":"$fileHash","authorizeId":7,"cipherHash":"","cipherHashType":"","exists":$exists,"url":"${server.url("/oss")}"}""")
+                    }
+
+                    path.endsWith("/oss") -> {
+                        uploads.incrementAndGet()
+                        uploadedBytes.addAndGet(body.length)
+                        MockResponse()
+                    }
+
+                    path.endsWith("/v1/file/uploadInfo") -> {
+                        val fileHash = Regex("\"fileHash\":\"([^\"]+)\"").find(body)!!.groupValues[1]
+                        uploadedFiles.add(fileHash)
+                        response("""{"attachmentId":"$fileHash","authorizeId":7,"cipherHash":"","cipherHashType":"","exists":true,"url":""}""")
+                    }
+
+                    path.endsWith("/speech2text/whisperX/transcribe") -> {
+                        transcriptions.incrementAndGet()
+                        response("""{"segments":[{"text":"hello","start":0,"end":1},{"text":"world","start":1,"end":2}]}""")
+                            .setBodyDelay(100, TimeUnit.MILLISECONDS)
+                    }
+
+                    else -> MockResponse().setResponseCode(404)
+                }
+            }
+        }
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+        dir.deleteRecursively()
+    }
+
+    private fun response(data: String) = MockResponse().setBody("""{"ver":1,"status":0,"reason":"OK","data":$data}""")
+
+    private fun pipeline(scope: CoroutineScope): SpeechToTextPipeline {
+        val retrofit = Retrofit.Builder()
+            .baseUrl(server.url("/"))
+            .addConverterFactory(GsonConverterFactory.create())
+            .build()
+        val fileShareService = retrofit.create(FileShareService::class.java)
+        val ossClient = OkHttpClient()
+        val fileShare = object : FileShareUploader {
+            override fun isExist(request: FileExistReq) = fileShareService.isExist(request)
+
+            override fun uploadInfo(request: UploadInfoReq) = fileShareService.uploadInfo(request)
+
+            override fun uploadToOSS(url: String, file: RequestBody) =
+                ossClient.newCall(Request.Builder().url(url).put(file).build())
+        }
+        return SpeechToTextPipeline(
+            fileShare = fileShare,
+            httpService = retrofit.create(HttpService::class.java),
+            store = store,
+            scope = scope,
+            token = { "token" },
+            dispatcher = Dispatchers.IO,
+        )
+    }
+
+    private fun voice(id: String, key: ByteArray): Attachment {
+        val path = File(dir, id).path
+        File("$path.encrypt").writeText("encrypted voice $id")
+        return Attachment(id, 0, "audio/aac", key, 19, null, byteArrayOf(1, 2, 3), id, 1, 0, 0, path, 0)
+    }
+
+    @Test
+    fun `concurrent conversions of forwarded copies upload and transcribe once`() = runTest {
+        val pipeline = pipeline(backgroundScope)
+        val key = byteArrayOf(9, 8, 7)
+        val copies = (1..4).map { voice("copy$it", key) }
+
+        val results = copies.map { async(Dispatchers.IO) { pipeline.transcribe(it) } }.awaitAll()
+
+        assertEquals(List(4) { "hello world" }, results)
+        assertEquals(1, uploads.get())
+        assertEquals("encrypted voice copy1".length, uploadedBytes.get())
+        assertEquals(1, transcriptions.get())
+    }
+
+    @Test
+    fun `stored transcripts skip the server`() = runTest {
+        val key = byteArrayOf(1, 1, 2)
+        pipeline(backgroundScope).transcribe(voice("first", key))
+
+        assertEquals("hello world", pipeline(backgroundScope).transcribe(voice("forwarded", key)))
+        assertEquals(1, transcriptions.get())
+        assertEquals(4, server.requestCount)
+    }
+
+    @Test
+    fun `files the server already has are not uploaded again`() = runTest {
+        val key = byteArrayOf(5, 5, 5)
+        uploadedFiles.add(SpeechToTextPipeline.fileHash(key))
+
+        assertEquals("hello world", pipeline(backgroundScope).transcribe(voice("known", key)))
+        assertEquals(0, uploads.get())
+        assertEquals(1, transcriptions.get())
+    }
+}
@@ -0,0 +1,80 @@
+package com.difft.android.chat.translate
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.runTest
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TranslationEngineTest {
+
+    private class FakeTranslator : TextTranslator {
+        val calls = AtomicInteger()
+        val inFlight = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+
+        override suspend fun translate(text: String, sourceLang: String, targetLang: String): String {
+            calls.incrementAndGet()
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet()) { a, b -> maxOf(a, b) }
+            try {
+                delay(100)
+                return "$text|$sourceLang>$targetLang"
+            } finally {
+                inFlight.decrementAndGet()
+            }
+        }
+    }
+
+    private val translator = FakeTranslator()
+    private val store = MemoryTranslationStore()
+    private val detections = AtomicInteger()
+
+    private fun TestScope.engine(scope: CoroutineScope = backgroundScope) = TranslationEngine(
+        translator = translator,
+        store = store,
+        detectLanguage = { detections.incrementAndGet(); "en" },
+        scope = scope,
+        dispatcher = StandardTestDispatcher(testScheduler),
+    )
+
+    @Test
+    fun `identical requests share one translation`() = runTest {
+        val engine = engine()
+
+        val results = (1..5).map { async { engine.translate("hello", "zh") } }.awaitAll()
+
+        assertEquals(List(5) { "hello|en>zh" }, results)
+        assertEquals(1, translator.calls.get())
+        assertEquals(1, detections.get())
+    }
+
+    @Test
+    fun `stored translations survive a new engine and reuse the detected language`() = runTest {
+        engine().translate("hello", "zh")
+
+        val engine = engine()
+        assertEquals("hello|en>zh", engine.translate("hello", "zh"))
+        assertEquals(1, translator.calls.get())
+
+        assertEquals("hello|en>es", engine.translate("hello", "es"))
+        assertEquals(2, translator.calls.get())
+        assertEquals(1, detections.get())
+    }
+
+    @Test
+    fun `model inference is bounded`() = runTest {
+        val engine = engine()
+
+        val results = (1..10).map { i -> async { engine.translate("text $i", "zh") } }.awaitAll()
+
+        assertEquals(10, results.toSet().size)
+        assertEquals(10, translator.calls.get())
+        assertTrue(translator.maxInFlight.get() <= 2)
+    }
+}
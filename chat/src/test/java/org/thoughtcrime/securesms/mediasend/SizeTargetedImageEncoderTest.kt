@@ -0,0 +1,142 @@
+package org.thoughtcrime.securesms.mediasend
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.thoughtcrime.securesms.mms.PushMediaConstraints
+import java.awt.image.BufferedImage
+import java.io.OutputStream
+import java.util.Random
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+import javax.imageio.stream.MemoryCacheImageOutputStream
+
+/**
+ * Runs on the desktop JVM, [ImageIO]'s JPEG writer stands in for Bitmap.compress.
+ *
+ * Checks the chosen quality, attempts and output size of a synthetic photo for each
+ * [PushMediaConstraints.MediaConfig] tier, and for a photo too large for its budget.
+ */
+class SizeTargetedImageEncoderTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun `picks the highest quality that fits the budget`() {
+        val sizes = mutableListOf<Int>()
+        val encoder = SizeTargetedImageEncoder.Encoder { quality, out ->
+            sizes.add(quality)
+            out.write(ByteArray(quality * 1_000))
+        }
+        val output = folder.newFile("out.jpg")
+
+        val result = SizeTargetedImageEncoder(50, 8).encode(encoder, 90, 72_500, output)
+
+        assertEquals(72, result.quality)
+        assertEquals(72_000L, result.size)
+        assertEquals(72_000L, output.length())
+        assertTrue(result.fitsBudget)
+        assertFalse(folder.root.listFiles()!!.any { it.name.endsWith(".tmp") })
+    }
+
+    @Test
+    fun `single attempt when the first quality fits`() {
+        val encoder = SizeTargetedImageEncoder.Encoder { quality, out -> out.write(ByteArray(quality)) }
+
+        val result = SizeTargetedImageEncoder().encode(encoder, 75, 1_000, folder.newFile("out.jpg"))
+
+        assertEquals(75, result.quality)
+        assertEquals(1, result.attempts)
+    }
+
+    @Test
+    fun `keeps the lowest quality when nothing fits`() {
+        val encoder = SizeTargetedImageEncoder.Encoder { quality, out -> out.write(ByteArray(quality * 10)) }
+        val output = folder.newFile("out.jpg")
+
+        val result = SizeTargetedImageEncoder(50, 3).encode(encoder, 90, 100, output)
+
+        assertFalse(result.fitsBudget)
+        assertEquals(50, result.quality)
+        assertEquals(500L, output.length())
+    }
+
+    @Test
+    fun `photo sized output per quality tier`() {
+        val tiers = listOf(
+            PushMediaConstraints.MediaConfig.LEVEL_1,
+            PushMediaConstraints.MediaConfig.LEVEL_2,
+            PushMediaConstraints.MediaConfig.LEVEL_3,
+        )
+        tiers.forEach { tier ->
+            val width = tier.imageSizeTargets[0]
+            val image = syntheticPhoto(width, width * 3 / 4)
+            val output = folder.newFile("${tier.name}.jpg")
+
+            val result = SizeTargetedImageEncoder().encode(jpegEncoder(image), tier.imageQualitySetting, tier.maxImageFileSize.toLong(), output)
+
+            // A camera-like photo at the tier's resolution fits at the tier's quality on the first attempt
+            assertTrue("${tier.name}: $result", result.fitsBudget)
+            assertEquals("${tier.name}: $result", tier.imageQualitySetting.toLong(), result.quality.toLong())
+            assertEquals("${tier.name}: $result", 1L, result.attempts.toLong())
+            assertEquals(result.size, output.length())
+            assertTrue(output.length() <= tier.maxImageFileSize)
+        }
+    }
+
+    @Test
+    fun `photo over the budget is retried at a lower quality`() {
+        // The largest LEVEL_3 resolution at its quality is about 1.6MB, over the LEVEL_2 budget
+        val large = PushMediaConstraints.MediaConfig.LEVEL_3
+        val budget = PushMediaConstraints.MediaConfig.LEVEL_2.maxImageFileSize.toLong()
+        val width = large.imageSizeTargets[0]
+        val image = syntheticPhoto(width, width * 3 / 4)
+        val output = folder.newFile("over_budget.jpg")
+
+        val result = SizeTargetedImageEncoder().encode(jpegEncoder(image), large.imageQualitySetting, budget, output)
+
+        assertTrue("$result", result.fitsBudget)
+        assertTrue("$result", result.quality < large.imageQualitySetting)
+        assertTrue("$result", result.attempts > 1)
+        assertTrue("$result", result.size <= budget)
+        assertEquals(result.size, output.length())
+    }
+
+    private fun jpegEncoder(image: BufferedImage) = SizeTargetedImageEncoder.Encoder { quality, out -> writeJpeg(image, quality, out) }
+
+    private fun writeJpeg(image: BufferedImage, quality: Int, out: OutputStream) {
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        val params = writer.defaultWriteParam.apply {
+            compressionMode = ImageWriteParam.MODE_EXPLICIT
+            compressionQuality = quality / 100f
+        }
+        MemoryCacheImageOutputStream(out).use { stream ->
+            writer.output = stream
+            writer.write(null, IIOImage(image, null, null), params)
+        }
+        writer.dispose()
+    }
+
+    /**
+     * Smooth gradients with sensor-like noise, compresses roughly like a camera photo
+     */
+    private fun syntheticPhoto(width: Int, height: Int): BufferedImage {
+        val random = Random(42)
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val noise = random.nextInt(24) - 12
+                val r = (x * 255 / width + noise).coerceIn(0, 255)
+                val g = (y * 255 / height + noise).coerceIn(0, 255)
+                val b = ((x + y) * 127 / (width + height) + 64 + noise).coerceIn(0, 255)
+                image.setRGB(x, y, (r shl 16) or (g shl 8) or b)
+            }
+        }
+        return image
+    }
+}
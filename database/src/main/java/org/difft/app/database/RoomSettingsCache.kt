@@ -0,0 +1,109 @@
+package org.difft.app.database
+
+import com.difft.android.base.log.lumberjack.L
+import org.difft.app.database.models.DBRoomModel
+import org.difft.app.database.models.RoomModel
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Per-room settings that message processing, notifications and sending read for almost every message.
+ *
+ * Rows are loaded on first access and then kept up to date by the code that writes these columns:
+ * - [com.difft.android.messageserialization.db.store.DBRoomStore] writes through with [update]
+ * - [updateRoomUnreadState] writes through the read position
+ * - deleting rooms, or writing these columns anywhere else, has to call [invalidate] or [invalidateAll]
+ *
+ * Rooms that do not exist are not cached.
+ */
+object RoomSettingsCache {
+
+    data class RoomSettings(
+        val muteStatus: Int,
+        val pinnedTime: Long?,
+        val messageExpiry: Long?,
+        val messageClearAnchor: Long?,
+        val confidentialMode: Int,
+        val saveToPhotos: Int?,
+        val readPosition: Long,
+        val publicKeyInfoJson: String?,
+    ) {
+        constructor(room: RoomModel) : this(
+            muteStatus = room.muteStatus,
+            pinnedTime = room.pinnedTime,
+            messageExpiry = room.messageExpiry,
+            messageClearAnchor = room.messageClearAnchor,
+            confidentialMode = room.confidentialMode,
+            saveToPhotos = room.saveToPhotos,
+            readPosition = room.readPosition,
+            publicKeyInfoJson = room.publicKeyInfoJson,
+        )
+    }
+
+    private const val STATS_LOG_INTERVAL = 5000L
+
+    private val cache = ConcurrentHashMap<String, RoomSettings>()
+
+    private val lock = Any()
+
+    // Bumped by every write, a load that overlaps one may have read the old row and is not cached
+    private var generation = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    val hitCount: Long get() = hits.get()
+    val missCount: Long get() = misses.get()
+
+    fun get(roomId: String): RoomSettings? {
+        cache[roomId]?.let {
+            if (hits.incrementAndGet() % STATS_LOG_INTERVAL == 0L) logStats()
+            return it
+        }
+        misses.incrementAndGet()
+
+        val loadGeneration = synchronized(lock) { generation }
+        val room = wcdb.room.getFirstObject(DBRoomModel.roomId.eq(roomId)) ?: return null
+        val settings = RoomSettings(room)
+        synchronized(lock) {
+            if (generation == loadGeneration) cache.putIfAbsent(roomId, settings)
+        }
+        return settings
+    }
+
+    /**
+     * Applies a write that was just made to the room row. Rooms that are not cached are loaded on next access.
+     */
+    fun update(roomId: String, transform: (RoomSettings) -> RoomSettings) {
+        synchronized(lock) {
+            generation++
+            cache.computeIfPresent(roomId) { _, settings -> transform(settings) }
+        }
+    }
+
+    fun invalidate(roomId: String) {
+        synchronized(lock) {
+            generation++
+            cache.remove(roomId)
+        }
+    }
+
+    fun invalidateAll() {
+        synchronized(lock) {
+            generation++
+            cache.clear()
+        }
+        L.i { "[RoomSettingsCache] invalidated all, ${stats()}" }
+    }
+
+    fun stats(): String {
+        val hits = hits.get()
+        val total = hits + misses.get()
+        val hitRate = if (total == 0L) 0.0 else hits * 100.0 / total
+        return "rooms:${cache.size} hits:$hits misses:${total - hits} hitRate:${"%.1f".format(hitRate)}%"
+    }
+
+    private fun logStats() {
+        L.d { "[RoomSettingsCache] ${stats()}" }
+    }
+}
@@ -2,6 +2,8 @@ package org.difft.app.database
 
 import com.difft.android.base.R
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Histogram
+import com.difft.android.base.metrics.time
 import com.difft.android.base.utils.FileUtil
 import com.difft.android.base.utils.ResUtils
 import com.difft.android.base.utils.RoomChangeTracker
@@ -13,7 +15,9 @@ import com.difft.android.messageserialization.db.store.getDisplayNameForUI
 import com.google.gson.Gson
 import com.google.gson.JsonObject
 import com.tencent.wcdb.base.Value
+import com.tencent.wcdb.core.Database
 import com.tencent.wcdb.core.Table
+import com.tencent.wcdb.core.Transaction
 import com.tencent.wcdb.winq.Column
 import com.tencent.wcdb.winq.Order
 import com.tencent.wcdb.winq.OrderingTerm
@@ -91,6 +95,13 @@ val wcdb: WCDB by lazy {
     EntryPointAccessors.fromApplication<DiDatabaseEntryPoint>(application).wcdb
 }
 
+/**
+ * [Database.runTransaction] with its duration, including waiting for the write lock, recorded in [histogram]
+ */
+fun Database.runTransaction(histogram: Histogram, transaction: Transaction) {
+    histogram.time { runTransaction(transaction) }
+}
+
 @JvmName("searchContactor")
 fun Table<ContactorModel>.search(keyword: String): List<ContactorModel> {
     val like = "%${keyword.uppercase()}%"
@@ -239,7 +250,8 @@ fun MessageModel.convertToTextMessage(): TextMessage {
                 path = am.path,
                 status = am.status,
                 totalTime = am.totalTime,
-                amplitudes = convertAmplitudes(am.amplitudes),
+                waveform = am.waveform,
+                blurHash = am.blurHash,
             )
         }
     } else {
@@ -309,7 +321,8 @@ fun AttachmentModel.toAttachment(): Attachment {
         path = path,
         status = status,
         totalTime = totalTime,
-        amplitudes = convertAmplitudes(amplitudes),
+        waveform = waveform,
+        blurHash = blurHash,
     )
 }
 
@@ -329,6 +342,9 @@ fun Attachment.toAttachmentModel(messageId: String): AttachmentModel {
         it.height = height
         it.path = path
         it.status = status
+        it.totalTime = totalTime
+        it.waveform = waveform
+        it.blurHash = blurHash
     }
 }
 
@@ -348,6 +364,9 @@ fun Attachment.toAttachmentModel(forwardDatabaseId: Long): AttachmentModel {
         it.height = height
         it.path = path
         it.status = status
+        it.totalTime = totalTime
+        it.waveform = waveform
+        it.blurHash = blurHash
     }
 }
 
@@ -369,7 +388,8 @@ fun MessageModel.attachment(): Attachment? {
                 path = it.path,
                 status = it.status,
                 totalTime = it.totalTime,
-                amplitudes = convertAmplitudes(it.amplitudes),
+                waveform = it.waveform,
+                blurHash = it.blurHash,
             )
         }
 }
@@ -475,7 +495,8 @@ fun ForwardModel.attachments(): List<Attachment> {
             path = it.path,
             status = it.status,
             totalTime = it.totalTime,
-            amplitudes = convertAmplitudes(it.amplitudes),
+            waveform = it.waveform,
+            blurHash = it.blurHash,
         )
     }
 }
@@ -954,11 +975,21 @@ fun RoomModel.updateRoomUnreadState(readPosition: Long = this.readPosition) {
         this.criticalAlertType
     }
 
-    wcdb.room.updateRow(
-        arrayOf(Value(readPosition), Value(unreadMessageNum), Value(mentionType), Value(newCriticalAlertType)),
-        arrayOf(DBRoomModel.readPosition, DBRoomModel.unreadMessageNum, DBRoomModel.mentionType, DBRoomModel.criticalAlertType),
-        DBRoomModel.roomId.eq(roomId)
-    )
+    if (readPosition > this.readPosition) {
+        // 已读位置变化可能让消息提前到期，清掉保存的到期时间，由 MessageArchiveManager 重新计算
+        wcdb.room.updateRow(
+            arrayOf(Value(readPosition), Value(unreadMessageNum), Value(mentionType), Value(newCriticalAlertType), Value()),
+            arrayOf(DBRoomModel.readPosition, DBRoomModel.unreadMessageNum, DBRoomModel.mentionType, DBRoomModel.criticalAlertType, DBRoomModel.messageExpiryDeadline),
+            DBRoomModel.roomId.eq(roomId)
+        )
+    } else {
+        wcdb.room.updateRow(
+            arrayOf(Value(readPosition), Value(unreadMessageNum), Value(mentionType), Value(newCriticalAlertType)),
+            arrayOf(DBRoomModel.readPosition, DBRoomModel.unreadMessageNum, DBRoomModel.mentionType, DBRoomModel.criticalAlertType),
+            DBRoomModel.roomId.eq(roomId)
+        )
+    }
+    RoomSettingsCache.update(roomId) { it.copy(readPosition = readPosition) }
 }
 
 fun RoomModel.resetRoomUnreadState() {
@@ -1038,10 +1069,10 @@ fun GroupMemberContactorModel.convertToContactorModel(): ContactorModel {
 fun List<GroupMemberContactorModel>.convertToContactorModels(): List<ContactorModel> {
     checkThread()
     val contactorIds = this.map { it.id }
-    val contactorsFromDb = wcdb.contactor.getAllObjects(DBContactorModel.id.`in`(contactorIds))
+    val contactorsFromDb = wcdb.contactor.getAllObjects(DBContactorModel.id.`in`(contactorIds)).associateBy { it.id }
 
     return this.map { member ->
-        val contactor = contactorsFromDb.find { it.id == member.id } ?: ContactorModel()
+        val contactor = contactorsFromDb[member.id] ?: ContactorModel()
         contactor.updateFrom(member)
         contactor
     }
@@ -1052,13 +1083,6 @@ private fun ContactorModel.updateFrom(member: GroupMemberContactorModel) {
     this.groupMemberContactor = member
 }
 
-private fun convertAmplitudes(amplitudesString: String?) = runCatching {
-    if (amplitudesString.isNullOrEmpty()) return@runCatching null
-    globalServices.gson.fromJson(amplitudesString, Array<Float>::class.java)?.toList()
-}.onFailure {
-    L.e { "parse amplitudes error:" + it.stackTraceToString() }
-}.getOrNull()
-
 fun WCDB.getReadInfoList(roomId: String): List<ReadInfoModel> {
     return wcdb.readInfo.getAllObjects(DBReadInfoModel.roomId.eq(roomId)).toList()
 }
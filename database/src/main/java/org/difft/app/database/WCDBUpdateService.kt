@@ -143,6 +143,7 @@ object WCDBUpdateService :
 
             // Delete room records
             val deletedRooms = wcdb.room.deleteObjects(finalCondition)
+            RoomSettingsCache.invalidateAll()
             L.i { "[WCDBUpdateService] cleanEmptyRooms: deleted $deletedRooms rooms" }
 
         } catch (e: Exception) {
@@ -52,7 +52,11 @@ public class AttachmentModel {
     @WCDBField
     public Long totalTime; //总时长（毫秒单位），比如语音消息
     @WCDBField
-    public String amplitudes; //语音消息解码后的振幅数据
+    public String amplitudes; //语音消息解码后的振幅数据（旧格式 JSON，已由 waveform 取代，计算出 waveform 后清空）
+    @WCDBField
+    public byte[] waveform; //语音消息的波形，格式见 Waveform
+    @WCDBField
+    public String blurHash; //图片/视频的 BlurHash，下载完成前显示模糊占位图
 
     @Override
     public boolean equals(Object o) {
@@ -46,6 +46,21 @@ public class GroupMemberContactorModel {
     @WCDBField
     public Integer groupRole;
 
+    /**
+     * 拼音排序键和计算它时使用的群内显示名，不参与 equals
+     */
+    @WCDBField
+    public String sortKey;
+
+    @WCDBField
+    public String sortKeyName;
+
+    /**
+     * 计算 {@link #sortKey} 时的 CharacterParser.SORT_KEY_VERSION，算法变化后重新计算
+     */
+    @WCDBField
+    public int sortKeyVersion;
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
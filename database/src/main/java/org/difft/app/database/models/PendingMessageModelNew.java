@@ -1,6 +1,8 @@
 package org.difft.app.database.models;
 
+import com.tencent.wcdb.WCDBDefault;
 import com.tencent.wcdb.WCDBField;
+import com.tencent.wcdb.WCDBIndex;
 import com.tencent.wcdb.WCDBTableCoding;
 
 import java.util.Arrays;
@@ -13,20 +15,35 @@ public class PendingMessageModelNew {
     public String messageId;
 
     @WCDBField
+    @WCDBIndex
     public long originalMessageTimeStamp;
 
     @WCDBField(isNotNull = true)
     public byte[] messageEnvelopBytes = new byte[0];
 
+    /**
+     * 入队时间，用于过期清理；旧数据为 0，按 originalMessageTimeStamp 判断
+     */
+    @WCDBField
+    @WCDBDefault(intValue = 0)
+    public long createdAt;
+
+    /**
+     * 原始消息已到达后重试处理失败的次数
+     */
+    @WCDBField
+    @WCDBDefault(intValue = 0)
+    public int attempts;
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         PendingMessageModelNew that = (PendingMessageModelNew) o;
-        return Objects.equals(messageId, that.messageId) && Objects.equals(originalMessageTimeStamp, that.originalMessageTimeStamp) && Objects.deepEquals(messageEnvelopBytes, that.messageEnvelopBytes);
+        return originalMessageTimeStamp == that.originalMessageTimeStamp && createdAt == that.createdAt && attempts == that.attempts && Objects.equals(messageId, that.messageId) && Objects.deepEquals(messageEnvelopBytes, that.messageEnvelopBytes);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(messageId, originalMessageTimeStamp, Arrays.hashCode(messageEnvelopBytes));
+        return Objects.hash(messageId, originalMessageTimeStamp, Arrays.hashCode(messageEnvelopBytes), createdAt, attempts);
     }
 }
\ No newline at end of file
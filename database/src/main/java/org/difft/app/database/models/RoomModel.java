@@ -117,6 +117,15 @@ public class RoomModel {
     @WCDBField
     public Long emptyRoomSince;
 
+    /**
+     * Timestamp (ms) after which the conversation has messages to archive
+     * null: Not computed yet
+     * 0: Nothing pending
+     * Maintained by MessageArchiveManager, not part of equals
+     */
+    @WCDBField
+    public Long messageExpiryDeadline;
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof RoomModel roomModel)) return false;
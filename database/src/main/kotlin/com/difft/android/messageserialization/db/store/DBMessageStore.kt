@@ -1,6 +1,7 @@
 package com.difft.android.messageserialization.db.store
 
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
 import com.difft.android.base.utils.RoomChangeTracker
 import com.difft.android.base.utils.RoomChangeType
 import com.difft.android.base.utils.appScope
@@ -14,6 +15,7 @@ import difft.android.messageserialization.model.SpeechToTextData
 import difft.android.messageserialization.model.TranslateData
 import difft.android.messageserialization.model.mapToMessageId
 import kotlinx.coroutines.launch
+import org.difft.app.database.RoomSettingsCache
 import org.difft.app.database.delete
 import org.difft.app.database.models.DBMessageModel
 import org.difft.app.database.models.MessageModel
@@ -26,6 +28,7 @@ import org.difft.app.database.models.ReactionModel
 import org.difft.app.database.models.SpeechToTextModel
 import org.difft.app.database.models.TranslateModel
 import org.difft.app.database.putMessageIfNotExists
+import org.difft.app.database.runTransaction
 import org.difft.app.database.wcdb
 import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
@@ -36,6 +39,7 @@ class DBMessageStore
 @Inject
 constructor(
     private val dbRoomStore: DBRoomStore,
+    private val pendingMessageIndex: PendingMessageIndex,
 ) : MessageStore {
 
     override fun putWhenNonExist(vararg messages: Message) {
@@ -58,6 +62,8 @@ constructor(
             messages.groupBy { it.forWhat.id }.forEach { (roomId, _) ->
                 RoomChangeTracker.trackRoom(roomId, RoomChangeType.MESSAGE)
             }
+            // 唤醒等待这些原始消息的 pending 消息
+            pendingMessageIndex.onOriginalsStored(messages.map { it.timeStamp })
             val tookTime = System.currentTimeMillis() - startTime
             L.i { "[Message] putWhenNonExist batch took ${tookTime}ms for ${messages.size} messages" }
             if (tookTime > 5000) {
@@ -72,6 +78,7 @@ constructor(
 
     companion object {
         private val processingMessageIds = ConcurrentHashMap.newKeySet<String>()
+        private val reactionTransactionTime = Metrics.histogram("db.transaction.reaction.us")
     }
 
     override fun deleteMessage(messageIds: List<String>) {
@@ -92,6 +99,7 @@ constructor(
         appScope.launch {
             try {
                 wcdb.room.deleteObjects(DBRoomModel.roomId.eq(roomId))
+                RoomSettingsCache.invalidate(roomId)
                 wcdb.message.getAllObjects(DBMessageModel.roomId.eq(roomId)).forEach {
                     it.delete()
                 }
@@ -111,7 +119,7 @@ constructor(
     ) {
         try {
             val realMessageId = reaction.realSource?.mapToMessageId()?.idValue ?: return
-            wcdb.db.runTransaction {
+            wcdb.db.runTransaction(reactionTransactionTime) {
                 val currentEmojiReaction = wcdb.reaction.getAllObjects(
                     DBReactionModel.messageId.eq(realMessageId)
                         .and(DBReactionModel.emoji.eq(reaction.emoji))
@@ -248,6 +256,7 @@ constructor(
 
     override fun deleteDatabase() {
         wcdb.deleteDatabaseFile()
+        pendingMessageIndex.reset()
     }
 
     // ----------------------------------------------------
@@ -273,6 +282,7 @@ constructor(
                 DBMessageModel.readTime,
                 expression
             )
+            RoomChangeTracker.trackRoom(conversationId, RoomChangeType.REFRESH)
         }
     }
 
@@ -281,9 +291,11 @@ constructor(
             this.messageId = messageId
             this.originalMessageTimeStamp = originalMessageTimeStamp
             this.messageEnvelopBytes = messageEnvelopBytes
+            this.createdAt = System.currentTimeMillis()
         }.run {
             try {
                 wcdb.pendingMessageNew.insertOrReplaceObject(this)
+                pendingMessageIndex.onPendingSaved(originalMessageTimeStamp)
             } catch (e: WCDBException) {
                 L.e { "[Message] savePendingMessage error: ${e.stackTraceToString()}" }
             }
@@ -6,6 +6,7 @@ import com.difft.android.base.utils.IMessageNotificationUtil
 import com.difft.android.base.utils.ResUtils
 import com.difft.android.base.utils.RoomChangeTracker
 import com.difft.android.base.utils.RoomChangeType
+import org.difft.app.database.RoomSettingsCache
 import org.difft.app.database.convertToContactorModel
 import com.difft.android.base.utils.globalServices
 import org.difft.app.database.mentions
@@ -85,25 +86,24 @@ class DBRoomStore @Inject constructor(
         return room
     }
 
-    private fun findRoom(forWhat: For): RoomModel? = findRoom(forWhat.id)
-
-    private fun findRoom(id: String): RoomModel? =
-        wcdb.room.getFirstObject(DBRoomModel.roomId.eq(id))
+    private fun findSettings(forWhat: For): RoomSettingsCache.RoomSettings? = RoomSettingsCache.get(forWhat.id)
 
     override suspend fun updateMessageExpiry(forWhat: For, messageExpiry: Long, messageClearAnchor: Long) {
         L.i { "[DBRoomStore] updateMessageExpiry " + forWhat.id + " messageExpiry: $messageExpiry, messageClearAnchor: $messageClearAnchor" }
+        // The archive deadline was computed with the old rules, null makes MessageArchiveManager compute it again
         wcdb.room.updateRow(
-            arrayOf(Value(messageExpiry), Value(messageClearAnchor)),
-            arrayOf(DBRoomModel.messageExpiry, DBRoomModel.messageClearAnchor),
+            arrayOf(Value(messageExpiry), Value(messageClearAnchor), Value()),
+            arrayOf(DBRoomModel.messageExpiry, DBRoomModel.messageClearAnchor, DBRoomModel.messageExpiryDeadline),
             DBRoomModel.roomId.eq(forWhat.id)
         )
+        RoomSettingsCache.update(forWhat.id) { it.copy(messageExpiry = messageExpiry, messageClearAnchor = messageClearAnchor) }
 
         // ✅ 通知UI刷新
         RoomChangeTracker.trackRoom(forWhat.id, RoomChangeType.REFRESH)
     }
 
     override suspend fun getMessageExpiry(forWhat: For): Optional<Long> {
-        return findRoom(forWhat)?.let { Optional.ofNullable(it.messageExpiry) } ?: Optional.empty()
+        return findSettings(forWhat)?.let { Optional.ofNullable(it.messageExpiry) } ?: Optional.empty()
     }
 
     override suspend fun updateMuteStatus(forWhat: For, muteStatus: Int?) {
@@ -112,6 +112,7 @@ class DBRoomStore @Inject constructor(
             DBRoomModel.muteStatus,
             DBRoomModel.roomId.eq(forWhat.id)
         )
+        RoomSettingsCache.update(forWhat.id) { it.copy(muteStatus = muteStatus ?: 0) }
 
         // ✅ 通知UI刷新
         RoomChangeTracker.trackRoom(forWhat.id, RoomChangeType.REFRESH)
@@ -119,7 +120,7 @@ class DBRoomStore @Inject constructor(
 
 
     override suspend fun getMuteStatus(forWhat: For): Optional<Int> {
-        return findRoom(forWhat)?.let { Optional.ofNullable(it.muteStatus) } ?: Optional.empty()
+        return findSettings(forWhat)?.let { Optional.ofNullable(it.muteStatus) } ?: Optional.empty()
     }
 
     override suspend fun updatePinnedTime(forWhat: For, pinnedTime: Long?) {
@@ -129,26 +130,28 @@ class DBRoomStore @Inject constructor(
             DBRoomModel.pinnedTime,
             DBRoomModel.roomId.eq(forWhat.id)
         )
+        RoomSettingsCache.update(forWhat.id) { it.copy(pinnedTime = pinnedTime) }
 
         // ✅ 通知UI刷新
         RoomChangeTracker.trackRoom(forWhat.id, RoomChangeType.REFRESH)
     }
 
     override suspend fun getPinnedTime(forWhat: For): Optional<Long> {
-        return findRoom(forWhat)?.let { Optional.ofNullable(it.pinnedTime) } ?: Optional.empty()
+        return findSettings(forWhat)?.let { Optional.ofNullable(it.pinnedTime) } ?: Optional.empty()
     }
 
     override suspend fun getPublicKeyInfo(forWhat: For): String? {
-        return findRoom(forWhat)?.publicKeyInfoJson
+        return findSettings(forWhat)?.publicKeyInfoJson
     }
 
     fun getConfidentialMode(roomId: String): Int {
-        return wcdb.room.getFirstObject(DBRoomModel.roomId.eq(roomId))?.confidentialMode ?: 0
+        return RoomSettingsCache.get(roomId)?.confidentialMode ?: 0
     }
 
     fun updateConfidentialMode(roomId: String, confidentialMode: Int) {
         L.i { "[DBRoomStore] updateConfidentialMode id:$roomId confidentialMode: $confidentialMode" }
         wcdb.room.updateValue(confidentialMode, DBRoomModel.confidentialMode, DBRoomModel.roomId.eq(roomId))
+        RoomSettingsCache.update(roomId) { it.copy(confidentialMode = confidentialMode) }
 
         // ✅ 通知UI刷新
         RoomChangeTracker.trackRoom(roomId, RoomChangeType.REFRESH)
@@ -207,6 +210,11 @@ class DBRoomStore @Inject constructor(
         }
 
         if (values.isEmpty()) return
+        if (messageExpiry != null || messageClearAnchor != null) {
+            // The archive deadline was computed with the old rules, null makes MessageArchiveManager compute it again
+            values.add(Value())
+            fields.add(DBRoomModel.messageExpiryDeadline)
+        }
 
         L.i { "[DBRoomStore] updateConversationSettings id:$roomId fields:$fieldNames" }
         wcdb.room.updateRow(
@@ -214,6 +222,14 @@ class DBRoomStore @Inject constructor(
             fields.toTypedArray(),
             DBRoomModel.roomId.eq(roomId)
         )
+        RoomSettingsCache.update(roomId) {
+            it.copy(
+                muteStatus = muteStatus ?: it.muteStatus,
+                confidentialMode = confidentialMode ?: it.confidentialMode,
+                messageExpiry = messageExpiry ?: it.messageExpiry,
+                messageClearAnchor = messageClearAnchor ?: it.messageClearAnchor
+            )
+        }
 
         // Notify UI refresh
         RoomChangeTracker.trackRoom(roomId, RoomChangeType.REFRESH)
@@ -233,6 +249,7 @@ class DBRoomStore @Inject constructor(
             DBRoomModel.saveToPhotos,
             DBRoomModel.roomId.eq(roomId)
         )
+        RoomSettingsCache.update(roomId) { it.copy(saveToPhotos = saveToPhotos) }
 
         // Notify UI refresh
         RoomChangeTracker.trackRoom(roomId, RoomChangeType.REFRESH)
@@ -244,7 +261,7 @@ class DBRoomStore @Inject constructor(
      * @return Save to photos setting (null: follow global, 0: disabled, 1: enabled)
      */
     fun getSaveToPhotos(roomId: String): Int? {
-        return wcdb.room.getFirstObject(DBRoomModel.roomId.eq(roomId))?.saveToPhotos
+        return RoomSettingsCache.get(roomId)?.saveToPhotos
     }
 
     /**
@@ -266,7 +283,7 @@ class DBRoomStore @Inject constructor(
      * @param messageTimestamp Critical Alert 消息的 systemShowTimestamp
      */
     fun setCriticalAlertIfUnread(roomId: String, messageTimestamp: Long) {
-        val room = wcdb.room.getFirstObject(DBRoomModel.roomId.eq(roomId)) ?: return
+        val room = RoomSettingsCache.get(roomId) ?: return
         if (messageTimestamp > room.readPosition) {
             L.i { "[DBRoomStore] setCriticalAlertIfUnread id:$roomId, messageTimestamp:$messageTimestamp > readPosition:${room.readPosition}" }
             updateCriticalAlertType(roomId, difft.android.messageserialization.model.CRITICAL_ALERT_TYPE_ALERT)
@@ -290,10 +307,11 @@ class DBRoomStore @Inject constructor(
             DBRoomModel.publicKeyInfoJson,
             DBRoomModel.roomId.eq(forWhat.id)
         )
+        RoomSettingsCache.update(forWhat.id) { it.copy(publicKeyInfoJson = publicKeyInfo) }
     }
 
     override suspend fun getMessageReadPosition(forWhat: For): Long {
-        return findRoom(forWhat)?.readPosition ?: 0
+        return findSettings(forWhat)?.readPosition ?: 0
     }
 
     private val updatingReadPositions = ConcurrentHashMap<String, Long>()
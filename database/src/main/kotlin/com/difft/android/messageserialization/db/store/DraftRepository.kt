@@ -1,66 +1,104 @@
 package com.difft.android.messageserialization.db.store
 
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
 import com.difft.android.base.utils.RoomChangeTracker
 import com.difft.android.base.utils.RoomChangeType
-import com.difft.android.base.utils.sampleAfterFirst
+import com.difft.android.base.utils.appScope
+import org.difft.app.database.runTransaction
 import org.difft.app.database.wcdb
 import difft.android.messageserialization.model.Draft
 import com.google.gson.Gson
 import com.tencent.wcdb.base.Value
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.channels.BufferOverflow
-import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableSharedFlow
-import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.launch
 import org.difft.app.database.models.DBDraftModel
 import org.difft.app.database.models.DBRoomModel
 import org.difft.app.database.models.DraftModel
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * Drafts of all rooms.
+ *
+ * The in-memory map is the source of truth: it is loaded from `wcdb.draft` once and every change is applied to it
+ * right away. Writes to the database are coalesced per room and persisted in one transaction every
+ * [WRITE_DELAY_MS], so typing in a chat does not hit the database on every save. The room's lastActiveTime is only
+ * bumped when it gets its first draft or the draft is cleared, editing a draft does not reorder the room list.
+ */
 @Singleton
 class DraftRepository @Inject constructor(
     private val gson: Gson
 ) {
-    // ✅ 独立的draft更新通知，避免每次room变化都查询draft
-    private val _draftUpdates = MutableSharedFlow<Unit>(
-        replay = 1,  // replay=1 确保新订阅者能立即收到
-        extraBufferCapacity = 10,
+    companion object {
+        private const val WRITE_DELAY_MS = 1000L
+    }
+
+    private val draftTransactionTime = Metrics.histogram("db.transaction.draft.us")
+
+    private val drafts = ConcurrentHashMap<String, Draft>()
+
+    @Volatile
+    private var loaded = false
+
+    // Latest unsaved change of each room, null means the draft was cleared
+    private val pendingWrites = HashMap<String, Draft?>()
+
+    // Rooms among pendingWrites whose lastActiveTime is bumped, guarded by pendingWrites
+    private val pendingActiveRooms = HashSet<String>()
+
+    private val writeSignal = Channel<Unit>(Channel.CONFLATED)
+
+    private val _draftChanges = MutableSharedFlow<String>(
+        replay = 0,
+        extraBufferCapacity = 64,
         onBufferOverflow = BufferOverflow.DROP_OLDEST
-    ).apply { tryEmit(Unit) }  // 初始emit
-
-    val allDraftsFlow: Flow<Map<String, Draft>> = _draftUpdates
-        .map {
-            withContext(Dispatchers.IO) {
-                wcdb.draft.allObjects.mapNotNull { entity ->
-                    try {
-                        entity.roomId to gson.fromJson(entity.draftJson, Draft::class.java)
-                    } catch (e: Exception) {
-                        L.e { "[DraftRepository] Error parsing draft: ${e.message}" }
-                        null
-                    }
-                }.toMap().also {
-                    L.d { "[DraftRepository] Queried ${it.size} drafts" }
+    )
+
+    /**
+     * Id of every room whose draft changed, read the new one with [getDraft].
+     */
+    val draftChanges: SharedFlow<String> = _draftChanges.asSharedFlow()
+
+    init {
+        appScope.launch(Dispatchers.IO) {
+            for (signal in writeSignal) {
+                delay(WRITE_DELAY_MS)
+                flush()
+            }
+        }
+    }
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        synchronized(drafts) {
+            if (loaded) return
+            wcdb.draft.allObjects.forEach { entity ->
+                try {
+                    val draft = gson.fromJson(entity.draftJson, Draft::class.java) ?: return@forEach
+                    drafts.putIfAbsent(entity.roomId, draft)
+                } catch (e: Exception) {
+                    L.e { "[DraftRepository] Error parsing draft: ${e.message}" }
                 }
             }
+            L.d { "[DraftRepository] Loaded ${drafts.size} drafts" }
+            loaded = true
         }
-        .sampleAfterFirst(500)
+    }
 
     /**
-     * Get the draft for a room (synchronously).
+     * Get the draft for a room (synchronously). Loads all drafts from the database on first use.
      */
     fun getDraft(roomId: String): Draft? {
-        val entity = wcdb.draft.getFirstObject(DBDraftModel.roomId.eq(roomId)) ?: return null
-
-        val json = entity.draftJson ?: return null
-        return try {
-            gson.fromJson(json, Draft::class.java)
-        } catch (e: Exception) {
-            L.w { "[DraftRepository] error: ${e.stackTraceToString()}" }
-            null
-        }
+        ensureLoaded()
+        return drafts[roomId]
     }
 
     /**
@@ -71,42 +109,86 @@ class DraftRepository @Inject constructor(
             clearDraft(roomId)
             return
         }
-        val draftJson = gson.toJson(draft)
-        val newDraft = DraftModel().apply {
-            this.roomId = roomId
-            this.draftJson = draftJson
-        }
-        val currentDraft = wcdb.draft.getFirstObject(DBRoomModel.roomId.eq(roomId))?.draftJson
-        if (currentDraft == draftJson) {// 如果草稿内容没有变化，则不更新
+        ensureLoaded()
+        val previous = drafts.put(roomId, draft)
+        if (previous == draft) {// 如果草稿内容没有变化，则不更新
             L.i { "[DraftRepository] The same draft content, no need to update" }
             return
         }
         L.i { "[DraftRepository] Update draft for room:${roomId}" }
-        wcdb.draft.insertOrReplaceObject(newDraft)
-        //同时更新会话的lastActiveTime，以便能排在前面
-        wcdb.room.updateValue(
-            Value(System.currentTimeMillis()),
-            DBRoomModel.lastActiveTime,
-            DBRoomModel.roomId.eq(roomId)
-        )
-
-        // ✅ 触发draft查询（独立）
-        _draftUpdates.tryEmit(Unit)
-        // ✅ 触发room刷新（因为更新了 lastActiveTime）
-        RoomChangeTracker.trackRoom(roomId, RoomChangeType.REFRESH)
-        L.d { "[DraftRepository] Draft updated, emitted notifications" }
+        enqueueWrite(roomId, draft, bumpActiveTime = previous == null)
     }
 
     /**
      * Clear the draft for a particular room.
      */
     fun clearDraft(roomId: String) {
-        wcdb.draft.deleteObjects(DBDraftModel.roomId.eq(roomId))
+        ensureLoaded()
+        if (drafts.remove(roomId) == null) return
+        L.d { "[DraftRepository] Draft cleared for $roomId" }
+        enqueueWrite(roomId, null, bumpActiveTime = true)
+    }
+
+    private fun enqueueWrite(roomId: String, draft: Draft?, bumpActiveTime: Boolean) {
+        synchronized(pendingWrites) {
+            pendingWrites[roomId] = draft
+            if (bumpActiveTime) pendingActiveRooms.add(roomId)
+        }
+        _draftChanges.tryEmit(roomId)
+        writeSignal.trySend(Unit)
+    }
+
+    /**
+     * Persists the pending changes in one transaction. Runs on the calling thread, also called when the app goes
+     * to the background so a process killed there does not lose the last second of typing. Synchronized so an older
+     * batch is never committed after a newer one.
+     */
+    @Synchronized
+    fun flush() {
+        val (writes, activeRooms) = synchronized(pendingWrites) {
+            (HashMap(pendingWrites) to HashSet(pendingActiveRooms)).also {
+                pendingWrites.clear()
+                pendingActiveRooms.clear()
+            }
+        }
+        if (writes.isEmpty()) return
+
+        try {
+            val now = System.currentTimeMillis()
+            wcdb.db.runTransaction(draftTransactionTime) {
+                writes.forEach { (roomId, draft) ->
+                    if (draft == null) {
+                        wcdb.draft.deleteObjects(DBDraftModel.roomId.eq(roomId))
+                    } else {
+                        wcdb.draft.insertOrReplaceObject(DraftModel().apply {
+                            this.roomId = roomId
+                            this.draftJson = gson.toJson(draft)
+                        })
+                    }
+                }
+                //首次保存草稿或清空草稿时更新会话的lastActiveTime，以便能排在前面；编辑草稿不再改变排序
+                if (activeRooms.isNotEmpty()) {
+                    wcdb.room.updateValue(
+                        Value(now),
+                        DBRoomModel.lastActiveTime,
+                        DBRoomModel.roomId.`in`(*activeRooms.toTypedArray())
+                    )
+                }
+                true
+            }
+        } catch (e: Exception) {
+            L.e { "[DraftRepository] flush error: ${e.stackTraceToString()}" }
+            // Retry unless the room changed again in the meantime
+            synchronized(pendingWrites) {
+                writes.forEach { (roomId, draft) -> if (roomId !in pendingWrites) pendingWrites[roomId] = draft }
+                pendingActiveRooms.addAll(activeRooms)
+            }
+            writeSignal.trySend(Unit)
+            return
+        }
+        L.d { "[DraftRepository] Persisted ${writes.size} draft changes" }
 
-        // ✅ 触发draft查询（独立）
-        _draftUpdates.tryEmit(Unit)
-        // ✅ 触发room刷新
-        RoomChangeTracker.trackRoom(roomId, RoomChangeType.REFRESH)
-        L.d { "[DraftRepository] Draft cleared for $roomId, emitted notifications" }
+        // 只有更新了 lastActiveTime 的会话需要刷新排序，草稿预览通过 draftChanges 更新
+        activeRooms.forEach { RoomChangeTracker.trackRoom(it, RoomChangeType.REFRESH) }
     }
-}
\ No newline at end of file
+}
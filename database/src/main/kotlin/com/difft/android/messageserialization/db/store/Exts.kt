@@ -2,7 +2,9 @@ package com.difft.android.messageserialization.db.store
 
 import com.difft.android.base.log.lumberjack.L
 import com.difft.android.base.utils.Base58
+import com.difft.android.base.widget.sideBar.CharacterParser
 import org.difft.app.database.models.ContactorModel
+import org.difft.app.database.models.GroupMemberContactorModel
 import java.util.Optional
 
 fun <T> Optional<T>.getOrNull(): T? {
@@ -45,6 +47,41 @@ fun getFirstNonEmptyValue(vararg values: String?): String {
     return values.firstOrNull { !it.isNullOrEmpty() } ?: ""
 }
 
+/**
+ * 按 [getDisplayNameForUI] 排序的拼音键，见 [CharacterParser.getSortKey]
+ * 显示名和算法版本都没变时直接使用已保存的键，显示名来自群成员信息时复用群成员上的键
+ */
+fun ContactorModel.getPinyinSortKey(): String {
+    val displayName = getDisplayNameForUI()
+    sortKey?.let { if (sortKeyName == displayName && sortKeyVersion == CharacterParser.SORT_KEY_VERSION) return it }
+
+    val member = groupMemberContactor
+    val key = member?.sortKey?.takeIf { member.sortKeyName == displayName && member.sortKeyVersion == CharacterParser.SORT_KEY_VERSION }
+        ?: CharacterParser.getSortKey(displayName)
+    sortKey = key
+    sortKeyName = displayName
+    sortKeyVersion = CharacterParser.SORT_KEY_VERSION
+    return key
+}
+
+/**
+ * 保存前计算排序键，之后读出的列表排序时不用再转换拼音
+ */
+fun ContactorModel.updatePinyinSortKey() {
+    getPinyinSortKey()
+}
+
+/**
+ * 群成员排序键，对应没有联系人信息时的显示名 remark > displayName
+ */
+fun GroupMemberContactorModel.updatePinyinSortKey() {
+    val name = getFirstNonEmptyValue(remark, displayName)
+    if (name.isEmpty() || (sortKey != null && sortKeyName == name && sortKeyVersion == CharacterParser.SORT_KEY_VERSION)) return
+    sortKey = CharacterParser.getSortKey(name)
+    sortKeyName = name
+    sortKeyVersion = CharacterParser.SORT_KEY_VERSION
+}
+
 /**
  * 格式化联系人ID为显示格式：TT-Base58(id) 或 Base58(id)
  * 例如：id是+78262753445，展示为：TT-base58Encoded 或 base58Encoded
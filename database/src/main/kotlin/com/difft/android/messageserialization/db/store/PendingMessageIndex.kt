@@ -0,0 +1,121 @@
+package com.difft.android.messageserialization.db.store
+
+import com.difft.android.base.log.lumberjack.L
+import org.difft.app.database.models.DBMessageModel
+import org.difft.app.database.models.DBPendingMessageModelNew
+import org.difft.app.database.wcdb
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * In-memory index of pending messages keyed by the timestamp of the original message they wait for.
+ *
+ * - [awaiting]: original messages that have not arrived yet, nothing to do for their pending rows
+ * - [ready]: original messages that exist now, their pending rows should be processed
+ *
+ * Only timestamps are kept here, envelopes stay in the pending_message_new table until they are ready.
+ */
+@Singleton
+class PendingMessageIndex @Inject constructor() {
+
+    private val awaiting: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+    private val ready: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+    @Volatile
+    private var loaded = false
+
+    /**
+     * Builds the index from the table once, reading only the timestamp column
+     */
+    @Synchronized
+    fun ensureLoaded() {
+        if (loaded) return
+        try {
+            val timestamps = wcdb.pendingMessageNew.getOneColumnLong(DBPendingMessageModelNew.originalMessageTimeStamp).toSet()
+            val existing = existingOriginals(timestamps)
+            timestamps.forEach { if (it in existing) ready.add(it) else awaiting.add(it) }
+            loaded = true
+            L.i { "[PendingMessageIndex] loaded, awaiting:${awaiting.size} ready:${ready.size}" }
+        } catch (e: Exception) {
+            L.e { "[PendingMessageIndex] load error: ${e.stackTraceToString()}" }
+        }
+    }
+
+    /**
+     * A pending row was saved; the original may have been stored in the meantime, so it is checked here.
+     *
+     * The timestamp is added to [awaiting] before the check: an original stored before the check is found by it,
+     * one stored after the check finds the timestamp in [awaiting] in [onOriginalsStored].
+     */
+    fun onPendingSaved(originalMessageTimeStamp: Long) {
+        awaiting.add(originalMessageTimeStamp)
+        if (existingOriginals(listOf(originalMessageTimeStamp)).isNotEmpty()) {
+            awaiting.remove(originalMessageTimeStamp)
+            ready.add(originalMessageTimeStamp)
+        }
+    }
+
+    /**
+     * Original messages were stored, wakes the pending rows waiting for them
+     */
+    fun onOriginalsStored(timestamps: Collection<Long>) {
+        timestamps.forEach {
+            if (awaiting.remove(it)) {
+                ready.add(it)
+            }
+        }
+    }
+
+    /**
+     * Moves awaiting timestamps whose original exists to [ready], catches originals that were not stored through
+     * [onOriginalsStored]
+     */
+    fun recheckAwaiting() {
+        val existing = existingOriginals(awaiting.toList())
+        if (existing.isEmpty()) return
+        L.i { "[PendingMessageIndex] ${existing.size} awaiting originals found on recheck" }
+        onOriginalsStored(existing)
+    }
+
+    /**
+     * Takes all ready timestamps, callers put back the ones that should be retried with [markReady]
+     */
+    fun drainReady(): List<Long> {
+        val drained = ready.toList()
+        ready.removeAll(drained.toSet())
+        return drained
+    }
+
+    fun markReady(timestamps: Collection<Long>) {
+        ready.addAll(timestamps)
+    }
+
+    fun remove(timestamps: Collection<Long>) {
+        awaiting.removeAll(timestamps.toSet())
+        ready.removeAll(timestamps.toSet())
+    }
+
+    /**
+     * Forgets everything, the next [ensureLoaded] rebuilds the index from the table
+     */
+    @Synchronized
+    fun reset() {
+        awaiting.clear()
+        ready.clear()
+        loaded = false
+    }
+
+    val awaitingCount: Int get() = awaiting.size
+
+    private fun existingOriginals(timestamps: Collection<Long>): Set<Long> {
+        if (timestamps.isEmpty()) return emptySet()
+        return timestamps.chunked(QUERY_CHUNK_SIZE).flatMapTo(HashSet()) { chunk ->
+            wcdb.message.getOneColumnLong(DBMessageModel.timeStamp, DBMessageModel.timeStamp.`in`(chunk))
+        }
+    }
+
+    companion object {
+        private const val QUERY_CHUNK_SIZE = 500
+    }
+}
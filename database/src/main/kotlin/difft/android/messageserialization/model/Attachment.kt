@@ -27,7 +27,8 @@ data class Attachment(
     var isPlaying: Boolean = false,
     var fileHash: String? = null,
     var totalTime: Long? = 0,
-    var amplitudes: List<Float>? = null
+    var waveform: ByteArray? = null, // 语音消息的波形，格式见 Waveform
+    var blurHash: String? = null // 图片/视频下载完成前显示的模糊占位图
 ) : Serializable {
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -61,7 +62,11 @@ data class Attachment(
         if (fileName != other.fileName) return false
         if (path != other.path) return false
         if (fileHash != other.fileHash) return false
-        if (amplitudes != other.amplitudes) return false
+        if (waveform != null) {
+            if (other.waveform == null) return false
+            if (!waveform.contentEquals(other.waveform)) return false
+        } else if (other.waveform != null) return false
+        if (blurHash != other.blurHash) return false
 
         return true
     }
@@ -84,7 +89,8 @@ data class Attachment(
         result = 31 * result + (fileName?.hashCode() ?: 0)
         result = 31 * result + (path?.hashCode() ?: 0)
         result = 31 * result + (fileHash?.hashCode() ?: 0)
-        result = 31 * result + (amplitudes?.hashCode() ?: 0)
+        result = 31 * result + (waveform?.contentHashCode() ?: 0)
+        result = 31 * result + (blurHash?.hashCode() ?: 0)
         return result
     }
 }
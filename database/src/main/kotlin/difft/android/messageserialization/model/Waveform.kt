@@ -0,0 +1,92 @@
+package difft.android.messageserialization.model
+
+/**
+ * Waveform of a voice message, stored in [Attachment.waveform].
+ *
+ * Format: one version byte followed by up to [RESOLUTION] unsigned 8-bit levels, 255 being the loudest point of
+ * the message. Computed once when the message is recorded or downloaded, the bubble only resamples it to the
+ * number of bars it has room for.
+ */
+object Waveform {
+    const val VERSION: Byte = 1
+    const val RESOLUTION = 100
+
+    fun isValid(waveform: ByteArray?): Boolean = waveform != null && waveform.size > 1 && waveform[0] == VERSION
+
+    /**
+     * Number of levels in [waveform], 0 if it is not valid.
+     */
+    fun size(waveform: ByteArray?): Int = if (isValid(waveform)) waveform!!.size - 1 else 0
+
+    /**
+     * Resamples [waveform] into [out]: neighbouring levels are averaged when there are more levels than bars and
+     * repeated when there are fewer. The result is scaled so the highest bar is 1.
+     *
+     * @return false if [waveform] is not valid, [out] is left untouched then
+     */
+    fun resample(waveform: ByteArray?, out: FloatArray): Boolean {
+        val levels = size(waveform)
+        if (levels == 0 || out.isEmpty()) return false
+        waveform!!
+
+        val bars = out.size
+        var max = 0f
+        for (i in 0 until bars) {
+            val start = (i.toLong() * levels / bars).toInt()
+            val end = maxOf(((i + 1).toLong() * levels / bars).toInt(), start + 1)
+            var sum = 0
+            for (j in start until end) {
+                sum += waveform[1 + j].toInt() and 0xFF
+            }
+            val value = sum.toFloat() / (end - start)
+            out[i] = value
+            if (value > max) max = value
+        }
+        if (max > 0f) {
+            for (i in 0 until bars) out[i] /= max
+        }
+        return true
+    }
+
+    /**
+     * Collects amplitude samples, e.g. one per decoded buffer or per recorder poll, and turns them into a waveform.
+     */
+    class Builder(initialCapacity: Int = 256) {
+        private var samples = FloatArray(initialCapacity.coerceAtLeast(1))
+        private var count = 0
+
+        val sampleCount: Int get() = count
+
+        fun add(amplitude: Float) {
+            if (count == samples.size) samples = samples.copyOf(count * 2)
+            samples[count++] = if (amplitude > 0f) amplitude else 0f
+        }
+
+        /**
+         * @return the waveform, null if no samples were added
+         */
+        fun build(): ByteArray? {
+            if (count == 0) return null
+            val levels = minOf(count, RESOLUTION)
+
+            val buckets = FloatArray(levels)
+            var max = 0f
+            for (i in 0 until levels) {
+                val start = (i.toLong() * count / levels).toInt()
+                val end = maxOf(((i + 1).toLong() * count / levels).toInt(), start + 1)
+                var sum = 0f
+                for (j in start until end) sum += samples[j]
+                buckets[i] = sum / (end - start)
+                if (buckets[i] > max) max = buckets[i]
+            }
+
+            val waveform = ByteArray(levels + 1)
+            waveform[0] = VERSION
+            for (i in 0 until levels) {
+                val level = if (max > 0f) Math.round(buckets[i] / max * 255f) else 0
+                waveform[i + 1] = level.toByte()
+            }
+            return waveform
+        }
+    }
+}
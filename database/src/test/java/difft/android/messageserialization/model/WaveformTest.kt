@@ -0,0 +1,59 @@
+package difft.android.messageserialization.model
+
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class WaveformTest {
+
+    @Test
+    fun `levels are scaled to the loudest sample`() {
+        val builder = Waveform.Builder()
+        listOf(0f, 50f, 100f, -1f).forEach { builder.add(it) }
+
+        val waveform = builder.build()!!
+
+        assertEquals(Waveform.VERSION, waveform[0])
+        assertContentEquals(intArrayOf(0, 128, 255, 0), waveform.drop(1).map { it.toInt() and 0xFF }.toIntArray())
+    }
+
+    @Test
+    fun `long recordings are bucketed to the resolution`() {
+        val builder = Waveform.Builder(initialCapacity = 1)
+        repeat(10_000) { builder.add(if (it < 5_000) 10f else 20f) }
+
+        val waveform = builder.build()!!
+
+        assertEquals(Waveform.RESOLUTION, Waveform.size(waveform))
+        assertEquals(128, waveform[1].toInt() and 0xFF)
+        assertEquals(255, waveform[Waveform.RESOLUTION].toInt() and 0xFF)
+    }
+
+    @Test
+    fun `empty or unknown waveforms are rejected`() {
+        assertNull(Waveform.Builder().build())
+        assertFalse(Waveform.isValid(null))
+        assertFalse(Waveform.isValid(byteArrayOf(Waveform.VERSION)))
+        assertFalse(Waveform.isValid(byteArrayOf(2, 10, 20)))
+
+        val out = FloatArray(4) { 0.5f }
+        assertFalse(Waveform.resample(byteArrayOf(2, 10, 20), out))
+        assertContentEquals(FloatArray(4) { 0.5f }, out)
+    }
+
+    @Test
+    fun `resample averages and stretches levels`() {
+        val waveform = byteArrayOf(Waveform.VERSION, 0, 100, 50, 50)
+
+        val fewer = FloatArray(2)
+        assertTrue(Waveform.resample(waveform, fewer))
+        assertContentEquals(floatArrayOf(1f, 1f), fewer)
+
+        val more = FloatArray(8)
+        assertTrue(Waveform.resample(waveform, more))
+        assertContentEquals(floatArrayOf(0f, 0f, 1f, 1f, 0.5f, 0.5f, 0.5f, 0.5f), more)
+    }
+}
@@ -0,0 +1,22 @@
+package org.signal.imageeditor.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of change stamps for the editor model.
+ * <p>
+ * Every change to an element, its flags or its renderer takes a new stamp from one shared counter, so stamps are
+ * unique across all elements and only grow. An element whose stamp is unchanged has not changed since the stamp
+ * was read, and a newly created or restored element never has the stamp of an older one.
+ */
+public final class ChangeStamp {
+
+  private static final AtomicLong counter = new AtomicLong();
+
+  private ChangeStamp() {
+  }
+
+  public static long next() {
+    return counter.incrementAndGet();
+  }
+}
@@ -196,7 +196,7 @@ public final class ImageEditorView extends FrameLayout {
     try {
       rendererContext.canvasMatrix.initial(viewMatrix);
 
-      model.draw(rendererContext, editText.getCurrentTextEditorElement());
+      model.draw(rendererContext, editText.getCurrentTextEditorElement(), editSession != null ? editSession.getSelected() : null);
     } finally {
       rendererContext.restore();
     }
@@ -255,6 +255,7 @@ public final class ImageEditorView extends FrameLayout {
       if (this.model != null) {
         this.model.setInvalidate(null);
         this.model.setUndoRedoStackListener(null);
+        this.model.releaseLayerCache();
       }
       this.model = model;
       this.model.setInvalidate(this::invalidate);
@@ -264,6 +265,14 @@ public final class ImageEditorView extends FrameLayout {
     }
   }
 
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    if (model != null) {
+      model.releaseLayerCache();
+    }
+  }
+
   @Override
   public boolean onTouchEvent(MotionEvent event) {
     switch (event.getActionMasked()) {
@@ -18,6 +18,8 @@ final class AlphaAnimation {
   private final boolean  canAnimate;
   private       float    animatedFraction;
 
+  private ValueAnimator animator;
+
   private AlphaAnimation(float from, float to, @Nullable Runnable invalidate) {
     this.from       = from;
     this.to         = to;
@@ -45,7 +47,7 @@ final class AlphaAnimation {
 
   private void start() {
     if (canAnimate && invalidate != null) {
-      ValueAnimator animator = ValueAnimator.ofFloat(from, to);
+      animator = ValueAnimator.ofFloat(from, to);
       animator.setDuration(200);
       animator.setInterpolator(interpolator);
       animator.addUpdateListener(animation -> {
@@ -56,6 +58,11 @@ final class AlphaAnimation {
     }
   }
 
+  boolean isRunning() {
+    ValueAnimator animator = this.animator;
+    return animator != null && animator.isRunning();
+  }
+
   float getValue() {
     if (!canAnimate) return to;
 
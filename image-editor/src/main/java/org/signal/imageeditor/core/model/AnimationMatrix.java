@@ -98,6 +98,11 @@ final class AnimationMatrix {
     if (animator != null) animator.cancel();
   }
 
+  boolean isRunning() {
+    ValueAnimator animator = this.animator;
+    return animator != null && animator.isRunning();
+  }
+
   /**
    * Append the current animation value.
    */
@@ -1,15 +1,18 @@
 package org.signal.imageeditor.core.model;
 
 import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.os.Parcel;
 import android.os.Parcelable;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import org.signal.imageeditor.core.ChangeStamp;
 import org.signal.imageeditor.core.MatrixUtils;
 import org.signal.imageeditor.core.Renderer;
 import org.signal.imageeditor.core.RendererContext;
+import org.signal.imageeditor.core.renderers.InvalidateableRenderer;
 
 import java.util.Collections;
 import java.util.Comparator;
@@ -40,8 +43,8 @@ public final class EditorElement implements Parcelable {
 
   private final UUID        id;
   private final EditorFlags flags;
-  private final Matrix      localMatrix  = new Matrix();
-  private final Matrix      editorMatrix = new Matrix();
+  private final Matrix      localMatrix  = new StampedMatrix();
+  private final Matrix      editorMatrix = new StampedMatrix();
   private final int         zOrder;
 
   @Nullable
@@ -51,6 +54,8 @@ public final class EditorElement implements Parcelable {
 
   private final Matrix tempMatrix = new Matrix();
 
+  private long changeStamp = ChangeStamp.next();
+
   private final List<EditorElement> children        = new LinkedList<>();
   private final List<EditorElement> deletedChildren = new LinkedList<>();
 
@@ -60,6 +65,9 @@ public final class EditorElement implements Parcelable {
   @NonNull
   private AlphaAnimation alphaAnimation = AlphaAnimation.NULL_1;
 
+  @Nullable
+  private StrokeLayerCache layerCache;
+
   public EditorElement(@Nullable Renderer renderer) {
     this(renderer, 0);
   }
@@ -71,13 +79,24 @@ public final class EditorElement implements Parcelable {
     this.zOrder   = zOrder;
   }
 
-  private EditorElement(Parcel in) {
+  private EditorElement(Parcel in, boolean readChildren) {
     id       = ParcelUtils.readUUID(in);
     flags    = new EditorFlags(in.readInt());
     ParcelUtils.readMatrix(localMatrix, in);
     renderer = in.readParcelable(Renderer.class.getClassLoader());
     zOrder   = in.readInt();
-    in.readTypedList(children, EditorElement.CREATOR);
+    if (readChildren) {
+      in.readTypedList(children, EditorElement.CREATOR);
+    }
+  }
+
+  /**
+   * Reads an element written with {@link #writeNodeToParcel(Parcel)} and attaches the already restored children.
+   */
+  static @NonNull EditorElement readNode(@NonNull Parcel in, @NonNull List<EditorElement> children) {
+    EditorElement element = new EditorElement(in, false);
+    element.children.addAll(children);
+    return element;
   }
 
   UUID getId() {
@@ -121,7 +140,12 @@ public final class EditorElement implements Parcelable {
     }
 
     if (flags.isChildrenVisible()) {
-      drawChildren(children, rendererContext);
+      StrokeLayerCache layerCache = this.layerCache;
+      if (layerCache != null) {
+        layerCache.drawChildren(children, rendererContext);
+      } else {
+        drawChildren(children, rendererContext);
+      }
       drawChildren(deletedChildren, rendererContext);
     }
 
@@ -141,6 +165,29 @@ public final class EditorElement implements Parcelable {
     }
   }
 
+  /**
+   * Draws children through the supplied cache instead of directly, null to draw them directly.
+   */
+  void setLayerCache(@Nullable StrokeLayerCache layerCache) {
+    this.layerCache = layerCache;
+  }
+
+  boolean isAnimating() {
+    return animationMatrix.isRunning() || alphaAnimation.isRunning() || alphaAnimation.getValue() < 1f;
+  }
+
+  /**
+   * Changes whenever the matrices, flags or renderer content of this element change, children are not included.
+   * See {@link ChangeStamp}.
+   */
+  long getChangeStamp() {
+    long stamp = Math.max(changeStamp, flags.getChangeStamp());
+    if (renderer instanceof InvalidateableRenderer) {
+      stamp = Math.max(stamp, ((InvalidateableRenderer) renderer).getChangeStamp());
+    }
+    return stamp;
+  }
+
   public void addElement(@NonNull EditorElement element) {
     children.add(element);
     Collections.sort(children, Z_ORDER_COMPARATOR);
@@ -377,7 +424,7 @@ public final class EditorElement implements Parcelable {
   public static final Creator<EditorElement> CREATOR = new Creator<EditorElement>() {
     @Override
     public EditorElement createFromParcel(Parcel in) {
-      return new EditorElement(in);
+      return new EditorElement(in, true);
     }
 
     @Override
@@ -393,11 +440,238 @@ public final class EditorElement implements Parcelable {
 
   @Override
   public void writeToParcel(Parcel dest, int flags) {
+    writeNode(dest, flags);
+    dest.writeTypedList(children);
+  }
+
+  /**
+   * Writes this element without its children, so unchanged elements can be shared between undo states.
+   */
+  void writeNodeToParcel(@NonNull Parcel dest) {
+    writeNode(dest, 0);
+  }
+
+  private void writeNode(@NonNull Parcel dest, int flags) {
     ParcelUtils.writeUUID(dest, id);
     dest.writeInt(this.flags.asInt());
     ParcelUtils.writeMatrix(dest, localMatrix);
     dest.writeParcelable(renderer, flags);
     dest.writeInt(zOrder);
-    dest.writeTypedList(children);
+  }
+
+  /**
+   * Takes a new change stamp for the owning element on every mutation, the same set of methods that
+   * {@code Matrix.IDENTITY_MATRIX} guards.
+   */
+  private final class StampedMatrix extends Matrix {
+
+    private void changed() {
+      changeStamp = ChangeStamp.next();
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      changed();
+    }
+
+    @Override
+    public void set(Matrix src) {
+      super.set(src);
+      changed();
+    }
+
+    @Override
+    public void setTranslate(float dx, float dy) {
+      super.setTranslate(dx, dy);
+      changed();
+    }
+
+    @Override
+    public void setScale(float sx, float sy, float px, float py) {
+      super.setScale(sx, sy, px, py);
+      changed();
+    }
+
+    @Override
+    public void setScale(float sx, float sy) {
+      super.setScale(sx, sy);
+      changed();
+    }
+
+    @Override
+    public void setRotate(float degrees, float px, float py) {
+      super.setRotate(degrees, px, py);
+      changed();
+    }
+
+    @Override
+    public void setRotate(float degrees) {
+      super.setRotate(degrees);
+      changed();
+    }
+
+    @Override
+    public void setSinCos(float sinValue, float cosValue, float px, float py) {
+      super.setSinCos(sinValue, cosValue, px, py);
+      changed();
+    }
+
+    @Override
+    public void setSinCos(float sinValue, float cosValue) {
+      super.setSinCos(sinValue, cosValue);
+      changed();
+    }
+
+    @Override
+    public void setSkew(float kx, float ky, float px, float py) {
+      super.setSkew(kx, ky, px, py);
+      changed();
+    }
+
+    @Override
+    public void setSkew(float kx, float ky) {
+      super.setSkew(kx, ky);
+      changed();
+    }
+
+    @Override
+    public boolean setConcat(Matrix a, Matrix b) {
+      boolean result = super.setConcat(a, b);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preTranslate(float dx, float dy) {
+      boolean result = super.preTranslate(dx, dy);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preScale(float sx, float sy, float px, float py) {
+      boolean result = super.preScale(sx, sy, px, py);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preScale(float sx, float sy) {
+      boolean result = super.preScale(sx, sy);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preRotate(float degrees, float px, float py) {
+      boolean result = super.preRotate(degrees, px, py);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preRotate(float degrees) {
+      boolean result = super.preRotate(degrees);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preSkew(float kx, float ky, float px, float py) {
+      boolean result = super.preSkew(kx, ky, px, py);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preSkew(float kx, float ky) {
+      boolean result = super.preSkew(kx, ky);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean preConcat(Matrix other) {
+      boolean result = super.preConcat(other);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postTranslate(float dx, float dy) {
+      boolean result = super.postTranslate(dx, dy);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postScale(float sx, float sy, float px, float py) {
+      boolean result = super.postScale(sx, sy, px, py);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postScale(float sx, float sy) {
+      boolean result = super.postScale(sx, sy);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postRotate(float degrees, float px, float py) {
+      boolean result = super.postRotate(degrees, px, py);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postRotate(float degrees) {
+      boolean result = super.postRotate(degrees);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postSkew(float kx, float ky, float px, float py) {
+      boolean result = super.postSkew(kx, ky, px, py);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postSkew(float kx, float ky) {
+      boolean result = super.postSkew(kx, ky);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean postConcat(Matrix other) {
+      boolean result = super.postConcat(other);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean setRectToRect(RectF src, RectF dst, ScaleToFit stf) {
+      boolean result = super.setRectToRect(src, dst, stf);
+      changed();
+      return result;
+    }
+
+    @Override
+    public boolean setPolyToPoly(float[] src, int srcIndex, float[] dst, int dstIndex, int pointCount) {
+      boolean result = super.setPolyToPoly(src, srcIndex, dst, dstIndex, pointCount);
+      changed();
+      return result;
+    }
+
+    @Override
+    public void setValues(float[] values) {
+      super.setValues(values);
+      changed();
+    }
   }
 }
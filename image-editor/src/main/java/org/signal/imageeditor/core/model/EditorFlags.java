@@ -2,6 +2,8 @@ package org.signal.imageeditor.core.model;
 
 import androidx.annotation.NonNull;
 
+import org.signal.imageeditor.core.ChangeStamp;
+
 /**
  * Flags for an {@link EditorElement}.
  * <p>
@@ -18,9 +20,10 @@ public final class EditorFlags {
   private static final int CHILDREN_VISIBLE = 16;
   private static final int EDITABLE         = 32;
 
-  private int flags;
-  private int markedFlags;
-  private int persistedFlags;
+  private int  flags;
+  private int  markedFlags;
+  private int  persistedFlags;
+  private long changeStamp = ChangeStamp.next();
 
   EditorFlags() {
     this(ASPECT_LOCK | SELECTABLE | VISIBLE | CHILDREN_VISIBLE | EDITABLE);
@@ -87,9 +90,16 @@ public final class EditorFlags {
 
   private void setFlag(int flag, boolean set) {
     if (set) {
-      this.flags |= flag;
+      setState(flags | flag);
     } else {
-      this.flags &= ~flag;
+      setState(flags & ~flag);
+    }
+  }
+
+  private void setState(int flags) {
+    if (this.flags != flags) {
+      this.flags  = flags;
+      changeStamp = ChangeStamp.next();
     }
   }
 
@@ -105,8 +115,18 @@ public final class EditorFlags {
     return flags;
   }
 
+  /**
+   * Changes whenever the current or the persisted flags change, see {@link ChangeStamp}.
+   */
+  long getChangeStamp() {
+    return changeStamp;
+  }
+
   public void persist() {
-    persistedFlags = flags;
+    if (persistedFlags != flags) {
+      persistedFlags = flags;
+      changeStamp    = ChangeStamp.next();
+    }
   }
 
   public void reset() {
@@ -114,7 +134,7 @@ public final class EditorFlags {
   }
 
   void restoreState(int flags) {
-    this.flags = flags;
+    setState(flags);
   }
 
   void mark() {
@@ -122,11 +142,12 @@ public final class EditorFlags {
   }
 
   void restore() {
-    flags = markedFlags;
+    setState(markedFlags);
   }
 
   public void set(@NonNull EditorFlags from) {
     this.persistedFlags = from.persistedFlags;
     this.flags = from.flags;
+    this.changeStamp = ChangeStamp.next();
   }
 }
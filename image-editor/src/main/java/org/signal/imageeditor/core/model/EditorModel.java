@@ -53,6 +53,9 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
   private static final int   MINIMUM_CROP_PIXEL_COUNT = 100;
   private static final Point MINIMUM_RATIO            = new Point(15, 1);
 
+  private static final long UNDO_MEMORY_BUDGET      = 8 * 1024 * 1024;
+  private static final long CROP_UNDO_MEMORY_BUDGET = 512 * 1024;
+
   @NonNull
   private Runnable invalidate = NULL_RUNNABLE;
 
@@ -61,6 +64,7 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
   private final UndoRedoStacks undoRedoStacks;
   private final UndoRedoStacks cropUndoRedoStacks;
   private final InBoundsMemory inBoundsMemory     = new InBoundsMemory();
+  private final StrokeLayerCache strokeLayerCache = new StrokeLayerCache();
 
   private EditorElementHierarchy editorElementHierarchy;
 
@@ -114,8 +118,8 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
     this.fixedRatio             = fixedRatio;
     this.size                   = new Point(1024, 1024);
     this.editorElementHierarchy = editorElementHierarchy;
-    this.undoRedoStacks         = new UndoRedoStacks(50);
-    this.cropUndoRedoStacks     = new UndoRedoStacks(50);
+    this.undoRedoStacks         = new UndoRedoStacks(UNDO_MEMORY_BUDGET);
+    this.cropUndoRedoStacks     = new UndoRedoStacks(CROP_UNDO_MEMORY_BUDGET);
   }
 
   public static EditorModel create(@ColorInt int blackoutColor) {
@@ -208,6 +212,19 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
    * @param renderOnTop     This element will appear on top of the overlay.
    */
   public void draw(@NonNull RendererContext rendererContext, @Nullable EditorElement renderOnTop) {
+    draw(rendererContext, renderOnTop, null, false);
+  }
+
+  /**
+   * Same as {@link #draw(RendererContext, EditorElement)}, but committed strokes are drawn from a cached layer.
+   *
+   * @param liveElement Element currently being edited, it is always drawn live.
+   */
+  public void draw(@NonNull RendererContext rendererContext, @Nullable EditorElement renderOnTop, @Nullable EditorElement liveElement) {
+    draw(rendererContext, renderOnTop, liveElement, true);
+  }
+
+  private void draw(@NonNull RendererContext rendererContext, @Nullable EditorElement renderOnTop, @Nullable EditorElement liveElement, boolean useLayer) {
     EditorElement root = editorElementHierarchy.getRoot();
     if (renderOnTop != null) {
       root.forAllInTree(element -> element.getFlags().mark());
@@ -216,7 +233,16 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
     }
 
     // pass 1
-    root.draw(rendererContext);
+    EditorElement mainImage = editorElementHierarchy.getMainImage();
+    if (useLayer) {
+      strokeLayerCache.setLiveElements(liveElement, editorElementHierarchy.getSelectedElement());
+      mainImage.setLayerCache(strokeLayerCache);
+    }
+    try {
+      root.draw(rendererContext);
+    } finally {
+      mainImage.setLayerCache(null);
+    }
 
     if (renderOnTop != null) {
       // hide all
@@ -231,6 +257,13 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
     }
   }
 
+  /**
+   * Frees the cached stroke layer, it is recreated on the next draw.
+   */
+  public void releaseLayerCache() {
+    strokeLayerCache.release();
+  }
+
   public @Nullable Matrix findElementInverseMatrix(@NonNull EditorElement element, @NonNull Matrix viewMatrix) {
     Matrix inverse = new Matrix();
     if (findElement(element, viewMatrix, inverse)) {
@@ -312,6 +345,7 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
     }
 
     if (didPop) {
+      strokeLayerCache.invalidate();
       restoreStateWithAnimations(original, editorElementHierarchy.getRoot(), invalidate, cropping);
       invalidate.run();
       editorElementHierarchy.updateViewToCrop(visibleViewPort, invalidate);
@@ -344,6 +378,7 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
     final EditorElement popped         = fromStack.pop(oldRootElement);
 
     if (popped != null) {
+      strokeLayerCache.invalidate();
       setEditorElementHierarchy(EditorElementHierarchy.create(popped));
 
       toStack.tryPush(oldRootElement);
@@ -425,6 +460,7 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
     float scaleIn = editingPurpose == EditingPurpose.WALLPAPER ? 1 : 0.8f;
 
     pushUndoPoint();
+    strokeLayerCache.invalidate();
     cropUndoRedoStacks.clear(editorElementHierarchy.getRoot());
     editorElementHierarchy.startCrop(invalidate, scaleIn);
     inBoundsMemory.push(editorElementHierarchy.getMainImage(), editorElementHierarchy.getCropEditorElement());
@@ -432,6 +468,7 @@ public final class EditorModel implements Parcelable, RendererContext.Ready {
   }
 
   public void doneCrop() {
+    strokeLayerCache.invalidate();
     editorElementHierarchy.doneCrop(visibleViewPort, invalidate);
     updateUndoRedoAvailableState(undoRedoStacks);
   }
@@ -0,0 +1,219 @@
+package org.signal.imageeditor.core.model;
+
+import android.os.Parcel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Immutable serialized state of an {@link EditorElement} tree. Only the recorded change stamps, a cache hint, are updated.
+ * <p>
+ * Each element is serialized on its own, without its children, and the tree is kept as a pre-order list of
+ * those nodes. When a snapshot is taken relative to a previous one, an element whose
+ * {@link EditorElement#getChangeStamp() change stamp} is the one recorded for its node is not serialized again and
+ * reuses the previous byte array; changed elements are serialized and still share the previous array when their
+ * bytes turn out equal. Consecutive undo states therefore share every element that was not touched, a new stroke
+ * only costs serializing that stroke, and comparing two states is mostly reference checks.
+ * <p>
+ * The element tree is only rebuilt when {@link #toElement()} is called.
+ */
+final class ElementSnapshot {
+
+  private final UUID[]   ids;
+  private final byte[][] nodes;
+  private final int[]    childCounts;
+
+  /** Change stamp of the element each node was taken from or restored to, 0 when unknown. Not persisted. */
+  private final long[] stamps;
+
+  private ElementSnapshot(@NonNull UUID[] ids, @NonNull byte[][] nodes, @NonNull int[] childCounts, @NonNull long[] stamps) {
+    this.ids         = ids;
+    this.nodes       = nodes;
+    this.childCounts = childCounts;
+    this.stamps      = stamps;
+  }
+
+  /**
+   * @param base previous state to share unchanged nodes with, may be null.
+   */
+  static @NonNull ElementSnapshot create(@NonNull EditorElement element, @Nullable ElementSnapshot base) {
+    Map<UUID, Integer> baseIndex = new HashMap<>();
+    if (base != null) {
+      for (int i = 0; i < base.nodes.length; i++) {
+        baseIndex.put(base.ids[i], i);
+      }
+    }
+
+    List<EditorElement> elements = new ArrayList<>();
+    collect(element, elements);
+
+    int      count       = elements.size();
+    UUID[]   ids         = new UUID[count];
+    byte[][] nodes       = new byte[count][];
+    int[]    childCounts = new int[count];
+    long[]   stamps      = new long[count];
+
+    for (int i = 0; i < count; i++) {
+      EditorElement current = elements.get(i);
+      long          stamp   = current.getChangeStamp();
+      Integer       index   = baseIndex.get(current.getId());
+
+      ids[i]         = current.getId();
+      childCounts[i] = current.getChildCount();
+      stamps[i]      = stamp;
+
+      if (index != null && base.stamps[index] == stamp) {
+        nodes[i] = base.nodes[index];
+      } else {
+        byte[] bytes = getNodeBytes(current);
+        nodes[i] = index != null && Arrays.equals(base.nodes[index], bytes) ? base.nodes[index] : bytes;
+      }
+    }
+
+    return new ElementSnapshot(ids, nodes, childCounts, stamps);
+  }
+
+  private static void collect(@NonNull EditorElement element, @NonNull List<EditorElement> out) {
+    out.add(element);
+    for (int i = 0; i < element.getChildCount(); i++) {
+      collect(element.getChild(i), out);
+    }
+  }
+
+  private static byte[] getNodeBytes(@NonNull EditorElement element) {
+    Parcel parcel = Parcel.obtain();
+    try {
+      element.writeNodeToParcel(parcel);
+      return parcel.marshall();
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  boolean isSameState(@Nullable ElementSnapshot other) {
+    if (other == this) return true;
+    if (other == null || other.nodes.length != nodes.length || !Arrays.equals(childCounts, other.childCounts)) {
+      return false;
+    }
+
+    for (int i = 0; i < nodes.length; i++) {
+      if (nodes[i] != other.nodes[i] && !Arrays.equals(nodes[i], other.nodes[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Bytes held by this snapshot that are not shared with {@code base}.
+   */
+  long sizeExcluding(@Nullable ElementSnapshot base) {
+    Set<byte[]> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (base != null) {
+      Collections.addAll(shared, base.nodes);
+    }
+
+    long size = 0;
+    for (byte[] node : nodes) {
+      if (!shared.contains(node)) {
+        size += node.length;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Rebuilds a new, independent element tree from this state. The new elements' stamps are recorded, so a snapshot
+   * of the restored tree taken relative to this one does not serialize it again.
+   */
+  @NonNull EditorElement toElement() {
+    return readNode(new int[]{0});
+  }
+
+  private EditorElement readNode(int[] position) {
+    int                 index    = position[0]++;
+    List<EditorElement> children = new ArrayList<>(childCounts[index]);
+
+    for (int i = 0; i < childCounts[index]; i++) {
+      children.add(readNode(position));
+    }
+
+    byte[] bytes  = nodes[index];
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(bytes, 0, bytes.length);
+      parcel.setDataPosition(0);
+      EditorElement element = EditorElement.readNode(parcel, children);
+      stamps[index] = element.getChangeStamp();
+      return element;
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  /**
+   * Writes a list of snapshots, node byte arrays shared between them are written once.
+   */
+  static void writeList(@NonNull Parcel dest, @NonNull List<ElementSnapshot> snapshots) {
+    Map<byte[], Integer> table = new IdentityHashMap<>();
+    List<byte[]>         order = new ArrayList<>();
+    for (ElementSnapshot snapshot : snapshots) {
+      for (byte[] node : snapshot.nodes) {
+        if (!table.containsKey(node)) {
+          table.put(node, order.size());
+          order.add(node);
+        }
+      }
+    }
+
+    dest.writeInt(order.size());
+    for (byte[] node : order) {
+      dest.writeByteArray(node);
+    }
+
+    dest.writeInt(snapshots.size());
+    for (ElementSnapshot snapshot : snapshots) {
+      dest.writeInt(snapshot.nodes.length);
+      for (int i = 0; i < snapshot.nodes.length; i++) {
+        ParcelUtils.writeUUID(dest, snapshot.ids[i]);
+        //noinspection ConstantConditions
+        dest.writeInt(table.get(snapshot.nodes[i]));
+        dest.writeInt(snapshot.childCounts[i]);
+      }
+    }
+  }
+
+  static @NonNull List<ElementSnapshot> readList(@NonNull Parcel in) {
+    int      tableSize = in.readInt();
+    byte[][] table     = new byte[tableSize][];
+    for (int i = 0; i < tableSize; i++) {
+      table[i] = in.createByteArray();
+    }
+
+    int                   count     = in.readInt();
+    List<ElementSnapshot> snapshots = new ArrayList<>(count);
+    for (int s = 0; s < count; s++) {
+      int      nodeCount   = in.readInt();
+      UUID[]   ids         = new UUID[nodeCount];
+      byte[][] nodes       = new byte[nodeCount][];
+      int[]    childCounts = new int[nodeCount];
+      for (int i = 0; i < nodeCount; i++) {
+        ids[i]         = ParcelUtils.readUUID(in);
+        nodes[i]       = table[in.readInt()];
+        childCounts[i] = in.readInt();
+      }
+      snapshots.add(new ElementSnapshot(ids, nodes, childCounts, new long[nodeCount]));
+    }
+    return snapshots;
+  }
+}
@@ -6,32 +6,35 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Arrays;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Contains a stack of elements for undo and redo stacks.
  * <p>
- * Elements are mutable, so this stack serializes the element and keeps a stack of serialized data.
+ * Elements are mutable, so this stack keeps {@link ElementSnapshot}s. Each snapshot shares the unchanged
+ * elements with the one below it, so an entry only costs the bytes of the elements that changed.
  * <p>
- * The stack has a {@link #limit} and if it exceeds that limit during a push the second to earliest item
- * is removed so that it can always go back to the first state. Effectively collapsing the history for
- * the start of the stack.
+ * The stack has a memory budget {@link #budgetBytes} and if it exceeds that budget during a push the second
+ * to earliest item is removed so that it can always go back to the first state. Effectively collapsing the
+ * history for the start of the stack.
  */
 final class ElementStack implements Parcelable {
 
-  private final int           limit;
-  private final Stack<byte[]> stack = new Stack<>();
+  private final long                  budgetBytes;
+  private final List<ElementSnapshot> stack = new ArrayList<>();
+  private final List<Long>            costs = new ArrayList<>();
 
-  ElementStack(int limit) {
-    this.limit = limit;
+  private long totalBytes;
+
+  ElementStack(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
   }
 
   private ElementStack(@NonNull Parcel in) {
-    this(in.readInt());
-    final int count = in.readInt();
-    for (int i = 0; i < count; i++) {
-      stack.add(i, in.createByteArray());
+    this(in.readLong());
+    for (ElementSnapshot snapshot : ElementSnapshot.readList(in)) {
+      add(snapshot);
     }
   }
 
@@ -39,67 +42,82 @@ final class ElementStack implements Parcelable {
    * Pushes an element to the stack iff the element's serialized value is different to any found at
    * the top of the stack.
    * <p>
-   * Removes the second to earliest item if it is overflowing.
+   * Removes the second to earliest items while it is over budget.
    *
    * @param element new editor element state.
    * @return true iff the pushed item was different to the top item.
    */
   boolean tryPush(@NonNull EditorElement element) {
-    byte[]  bytes = getBytes(element);
-    boolean push  = stack.isEmpty() || !Arrays.equals(bytes, stack.peek());
+    ElementSnapshot top      = peek();
+    ElementSnapshot snapshot = ElementSnapshot.create(element, top);
+    boolean         push     = top == null || !snapshot.isSameState(top);
 
     if (push) {
-      stack.push(bytes);
-      if (stack.size() > limit) {
-        stack.remove(1);
+      add(snapshot);
+      while (totalBytes > budgetBytes && stack.size() > 2) {
+        removeSecond();
       }
     }
     return push;
   }
 
-  static byte[] getBytes(@NonNull Parcelable parcelable) {
-    Parcel parcel = Parcel.obtain();
-    byte[] bytes;
-    try {
-      parcel.writeParcelable(parcelable, 0);
-      bytes = parcel.marshall();
-    } finally {
-      parcel.recycle();
-    }
-    return bytes;
-  }
-
   /**
    * Pops the first different state from the supplied element.
    */
   @Nullable EditorElement pop(@NonNull EditorElement element) {
-    if (stack.empty()) return null;
+    if (stack.isEmpty()) return null;
 
-    byte[] elementBytes = getBytes(element);
-    byte[] stackData    = null;
+    ElementSnapshot current   = ElementSnapshot.create(element, peek());
+    ElementSnapshot stackData = null;
 
-    while (!stack.empty() && stackData == null) {
-      byte[] topData = stack.pop();
+    while (!stack.isEmpty() && stackData == null) {
+      ElementSnapshot top = removeTop();
 
-      if (!Arrays.equals(topData, elementBytes)) {
-        stackData = topData;
+      if (!top.isSameState(current)) {
+        stackData = top;
       }
     }
 
     if (stackData == null) return null;
 
-    Parcel parcel = Parcel.obtain();
-    try {
-      parcel.unmarshall(stackData, 0, stackData.length);
-      parcel.setDataPosition(0);
-      return parcel.readParcelable(EditorElement.class.getClassLoader());
-    } finally {
-      parcel.recycle();
-    }
+    return stackData.toElement();
   }
 
   void clear() {
     stack.clear();
+    costs.clear();
+    totalBytes = 0;
+  }
+
+  long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private @Nullable ElementSnapshot peek() {
+    return stack.isEmpty() ? null : stack.get(stack.size() - 1);
+  }
+
+  private void add(@NonNull ElementSnapshot snapshot) {
+    long cost = snapshot.sizeExcluding(peek());
+    stack.add(snapshot);
+    costs.add(cost);
+    totalBytes += cost;
+  }
+
+  private @NonNull ElementSnapshot removeTop() {
+    int last = stack.size() - 1;
+    totalBytes -= costs.remove(last);
+    return stack.remove(last);
+  }
+
+  private void removeSecond() {
+    stack.remove(1);
+    totalBytes -= costs.remove(1);
+
+    // the new second entry is now stored relative to the first one
+    long cost = stack.get(1).sizeExcluding(stack.get(0));
+    totalBytes += cost - costs.get(1);
+    costs.set(1, cost);
   }
 
   public static final Creator<ElementStack> CREATOR = new Creator<ElementStack>() {
@@ -121,21 +139,17 @@ final class ElementStack implements Parcelable {
 
   @Override
   public void writeToParcel(Parcel dest, int flags) {
-    dest.writeInt(limit);
-    final int count = stack.size();
-    dest.writeInt(count);
-    for (int i = 0; i < count; i++) {
-      dest.writeByteArray(stack.get(i));
-    }
+    dest.writeLong(budgetBytes);
+    ElementSnapshot.writeList(dest, stack);
   }
 
   boolean stackContainsStateDifferentFrom(@NonNull EditorElement element) {
     if (stack.isEmpty()) return false;
 
-    byte[] currentStateBytes = getBytes(element);
+    ElementSnapshot currentState = ElementSnapshot.create(element, peek());
 
-    for (byte[] item : stack) {
-      if (!Arrays.equals(item, currentStateBytes)) {
+    for (ElementSnapshot item : stack) {
+      if (!item.isSameState(currentState)) {
         return true;
       }
     }
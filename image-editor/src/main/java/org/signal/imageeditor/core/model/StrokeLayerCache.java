@@ -0,0 +1,194 @@
+package org.signal.imageeditor.core.model;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.signal.imageeditor.core.RendererContext;
+import org.signal.imageeditor.core.renderers.BezierDrawingRenderer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Caches committed drawing strokes of the main image as a single bitmap in view space.
+ * <p>
+ * Only the leading run of the main image's children that are finished, idle {@link BezierDrawingRenderer}
+ * strokes is cached, so z-order with stickers and text is kept. The stroke that is being drawn, the selected
+ * element and everything after them are still drawn live on every frame.
+ * <p>
+ * Each cached element is checked by identity and {@link EditorElement#getChangeStamp() change stamp}, so the
+ * per-frame check does not allocate. A finished stroke that is appended after the cached ones is drawn onto the
+ * existing layer instead of rebuilding it.
+ * <p>
+ * The layer is tied to the canvas matrix, so zoom and crop changes invalidate it. While the matrix keeps
+ * changing (animations, pinch zoom) the strokes are drawn directly and the layer is only rebuilt once the
+ * matrix is stable for two frames. Undo and redo create new elements, which also invalidates it.
+ */
+final class StrokeLayerCache {
+
+  private static final int MIN_CACHED_ELEMENTS = 4;
+
+  private final Paint               paint            = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final Matrix              currentMatrix    = new Matrix();
+  private final Matrix              lastFrameMatrix  = new Matrix();
+  private final Matrix              cachedMatrix     = new Matrix();
+  private final List<EditorElement> cachedElements   = new ArrayList<>();
+
+  private long[] cachedStamps = new long[16];
+
+  @Nullable private Bitmap        bitmap;
+  @Nullable private EditorElement liveElement;
+  @Nullable private EditorElement selectedElement;
+
+  /**
+   * Elements that must not be cached for the next frame, e.g. the stroke under the finger.
+   */
+  void setLiveElements(@Nullable EditorElement liveElement, @Nullable EditorElement selectedElement) {
+    this.liveElement     = liveElement;
+    this.selectedElement = selectedElement;
+  }
+
+  void drawChildren(@NonNull List<EditorElement> children, @NonNull RendererContext rendererContext) {
+    int cacheable = rendererContext.getMaskPaint() == null ? cacheablePrefix(children) : 0;
+    if (cacheable < MIN_CACHED_ELEMENTS) {
+      drawRange(children, 0, rendererContext);
+      return;
+    }
+
+    Canvas canvas = rendererContext.canvas;
+    rendererContext.getCurrent(currentMatrix);
+
+    int valid = validPrefix(children, cacheable, canvas.getWidth(), canvas.getHeight());
+    if (valid == cachedElements.size() && valid > 0 && valid < cacheable) {
+      append(children, cacheable, rendererContext);
+    } else if (valid != cacheable) {
+      boolean matrixMoving = !currentMatrix.equals(cachedMatrix) && !currentMatrix.equals(lastFrameMatrix);
+      lastFrameMatrix.set(currentMatrix);
+      if (matrixMoving) {
+        drawRange(children, 0, rendererContext);
+        return;
+      }
+      rebuild(children, cacheable, rendererContext);
+    }
+    lastFrameMatrix.set(currentMatrix);
+
+    rendererContext.save();
+    rendererContext.canvasMatrix.setToIdentity();
+    //noinspection ConstantConditions
+    canvas.drawBitmap(bitmap, 0, 0, paint);
+    rendererContext.restore();
+
+    drawRange(children, cacheable, rendererContext);
+  }
+
+  void invalidate() {
+    cachedElements.clear();
+  }
+
+  void release() {
+    invalidate();
+    if (bitmap != null) {
+      bitmap.recycle();
+      bitmap = null;
+    }
+  }
+
+  private int cacheablePrefix(@NonNull List<EditorElement> children) {
+    int count = 0;
+    for (EditorElement child : children) {
+      if (child.getZOrder() < 0) {
+        // masks are rendered by the parent, they are not drawn in the children pass
+        count++;
+        continue;
+      }
+      if (!isCacheable(child)) break;
+      count++;
+    }
+    return count;
+  }
+
+  private boolean isCacheable(@NonNull EditorElement element) {
+    return element.getRenderer() instanceof BezierDrawingRenderer &&
+           element != liveElement                                  &&
+           element != selectedElement                              &&
+           element.getChildCount() == 0                            &&
+           element.getFlags().isVisible()                          &&
+           !element.isAnimating();
+  }
+
+  /**
+   * @return how many of the cached elements are still the leading children, unchanged. 0 when the layer itself is
+   * not usable for the current canvas and matrix.
+   */
+  private int validPrefix(@NonNull List<EditorElement> children, int count, int width, int height) {
+    if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) return 0;
+    if (!currentMatrix.equals(cachedMatrix) || cachedElements.size() > count) return 0;
+
+    int cached = cachedElements.size();
+    for (int i = 0; i < cached; i++) {
+      EditorElement child = children.get(i);
+      if (cachedElements.get(i) != child || child.getChangeStamp() != cachedStamps[i]) {
+        return i;
+      }
+    }
+    return cached;
+  }
+
+  private void rebuild(@NonNull List<EditorElement> children, int count, @NonNull RendererContext rendererContext) {
+    int width  = rendererContext.canvas.getWidth();
+    int height = rendererContext.canvas.getHeight();
+
+    if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+      release();
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    } else {
+      bitmap.eraseColor(Color.TRANSPARENT);
+    }
+
+    invalidate();
+    append(children, count, rendererContext);
+    cachedMatrix.set(currentMatrix);
+  }
+
+  /**
+   * Draws the children after the cached ones, up to {@code count}, onto the layer.
+   */
+  private void append(@NonNull List<EditorElement> children, int count, @NonNull RendererContext rendererContext) {
+    //noinspection ConstantConditions
+    RendererContext layerContext = new RendererContext(rendererContext.context,
+                                                       new Canvas(bitmap),
+                                                       rendererContext.rendererReady,
+                                                       rendererContext.invalidate,
+                                                       rendererContext.typefaceProvider);
+    layerContext.canvasMatrix.initial(currentMatrix);
+
+    if (cachedStamps.length < count) {
+      cachedStamps = Arrays.copyOf(cachedStamps, Math.max(count, cachedStamps.length * 2));
+    }
+
+    for (int i = cachedElements.size(); i < count; i++) {
+      EditorElement child = children.get(i);
+      if (child.getZOrder() >= 0) {
+        child.draw(layerContext);
+      }
+      cachedStamps[i] = child.getChangeStamp();
+      cachedElements.add(child);
+    }
+  }
+
+  private static void drawRange(@NonNull List<EditorElement> children, int from, @NonNull RendererContext rendererContext) {
+    for (int i = from; i < children.size(); i++) {
+      EditorElement element = children.get(i);
+      if (element.getZOrder() >= 0) {
+        element.draw(rendererContext);
+      }
+    }
+  }
+}
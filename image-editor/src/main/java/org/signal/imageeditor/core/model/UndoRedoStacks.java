@@ -6,24 +6,28 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 final class UndoRedoStacks implements Parcelable {
 
   private final ElementStack undoStack;
   private final ElementStack redoStack;
 
-  @NonNull
-  private byte[] unchangedState;
+  @Nullable
+  private ElementSnapshot unchangedState;
 
-  UndoRedoStacks(int limit) {
-    this(new ElementStack(limit), new ElementStack(limit), null);
+  /**
+   * @param budgetBytes memory budget of each of the undo and redo stacks.
+   */
+  UndoRedoStacks(long budgetBytes) {
+    this(new ElementStack(budgetBytes), new ElementStack(budgetBytes), null);
   }
 
-  private UndoRedoStacks(ElementStack undoStack, ElementStack redoStack, @Nullable byte[] unchangedState) {
+  private UndoRedoStacks(ElementStack undoStack, ElementStack redoStack, @Nullable ElementSnapshot unchangedState) {
     this.undoStack = undoStack;
     this.redoStack = redoStack;
-    this.unchangedState = unchangedState != null ? unchangedState : new byte[0];
+    this.unchangedState = unchangedState;
   }
 
   public static final Creator<UndoRedoStacks> CREATOR = new Creator<UndoRedoStacks>() {
@@ -32,7 +36,7 @@ final class UndoRedoStacks implements Parcelable {
       return new UndoRedoStacks(
       in.readParcelable(ElementStack.class.getClassLoader()),
       in.readParcelable(ElementStack.class.getClassLoader()),
-      in.createByteArray()
+      readUnchangedState(in)
       );
     }
 
@@ -46,7 +50,13 @@ final class UndoRedoStacks implements Parcelable {
   public void writeToParcel(Parcel dest, int flags) {
     dest.writeParcelable(undoStack, flags);
     dest.writeParcelable(redoStack, flags);
-    dest.writeByteArray(unchangedState);
+    List<ElementSnapshot> unchanged = unchangedState != null ? Collections.singletonList(unchangedState) : Collections.emptyList();
+    ElementSnapshot.writeList(dest, unchanged);
+  }
+
+  private static @Nullable ElementSnapshot readUnchangedState(@NonNull Parcel in) {
+    List<ElementSnapshot> unchanged = ElementSnapshot.readList(in);
+    return unchanged.isEmpty() ? null : unchanged.get(0);
   }
 
   @Override
@@ -71,11 +81,11 @@ final class UndoRedoStacks implements Parcelable {
   void clear(@NonNull EditorElement element) {
     undoStack.clear();
     redoStack.clear();
-    unchangedState = ElementStack.getBytes(element);
+    unchangedState = ElementSnapshot.create(element, null);
   }
 
   boolean isChanged(@NonNull EditorElement element) {
-    return !Arrays.equals(ElementStack.getBytes(element), unchangedState);
+    return unchangedState == null || !ElementSnapshot.create(element, unchangedState).isSameState(unchangedState);
   }
 
   /**
@@ -2,6 +2,7 @@ package org.signal.imageeditor.core.renderers;
 
 import androidx.annotation.NonNull;
 
+import org.signal.imageeditor.core.ChangeStamp;
 import org.signal.imageeditor.core.Renderer;
 import org.signal.imageeditor.core.RendererContext;
 
@@ -9,11 +10,16 @@ import java.lang.ref.WeakReference;
 
 /**
  * Maintains a weak reference to the an invalidate callback allowing future invalidation without memory leak risk.
+ * <p>
+ * Every {@link #invalidate()} also takes a new {@link ChangeStamp}, so changes to the renderer's content are visible
+ * through {@link #getChangeStamp()}.
  */
 public abstract class InvalidateableRenderer implements Renderer {
 
   private WeakReference<RendererContext.Invalidate> invalidate = new WeakReference<>(null);
 
+  private long changeStamp = ChangeStamp.next();
+
   @Override
   public void render(@NonNull RendererContext rendererContext) {
     setInvalidate(rendererContext.invalidate);
@@ -25,7 +31,12 @@ public abstract class InvalidateableRenderer implements Renderer {
     }
   }
 
+  public long getChangeStamp() {
+    return changeStamp;
+  }
+
   protected void invalidate() {
+    changeStamp = ChangeStamp.next();
     RendererContext.Invalidate invalidate = this.invalidate.get();
     if (invalidate != null) {
       invalidate.onInvalidate(this);
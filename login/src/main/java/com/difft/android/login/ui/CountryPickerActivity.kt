@@ -64,10 +64,10 @@ class CountryPickerActivity : BaseActivity() {
 
         supportedRegions.map { region ->
             val countryName = Locale("", region).getDisplayCountry(Locale.getDefault())
-            val countryNamePinyin = CharacterParser.getSelling(countryName)
+            val spelling = CharacterParser.getSpelling(countryName, isName = false)
             val countryCode = PhoneNumberUtil.getInstance().getCountryCodeForRegion(region)
-            CountryItem(countryName, "+$countryCode", countryNamePinyin)
-        }.sortedBy { it.countryNamePinyin }
+            CountryItem(countryName, "+$countryCode", spelling)
+        }.sortedBy { it.countryNameSpelling.full }
     }
 
     private fun updateResult() {
@@ -76,7 +76,7 @@ class CountryPickerActivity : BaseActivity() {
         val searchList = if (key.isEmpty()) {
             countryList
         } else {
-            countryList.filter { it.name.contains(key) || it.code.contains(key) }
+            countryList.filter { it.name.contains(key) || it.code.contains(key) || it.countryNameSpelling.matches(key) }
         }
         countryPickerAdapter.submitList(searchList) {
             mBinding.rvCountry.scrollToPosition(0)
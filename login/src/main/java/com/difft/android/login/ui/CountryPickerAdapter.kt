@@ -5,6 +5,7 @@ import android.view.ViewGroup
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
+import com.difft.android.base.widget.sideBar.PinyinTable
 import com.difft.android.login.databinding.LayoutItemCountryCodeBinding
 
 abstract class CountryPickerAdapter : ListAdapter<CountryItem, GroupModeratorsViewHolder>(
@@ -47,5 +48,5 @@ class GroupModeratorsViewHolder(parentView: ViewGroup) : RecyclerView.ViewHolder
 data class CountryItem(
     val name: String,
     val code: String,
-    val countryNamePinyin: String
+    val countryNameSpelling: PinyinTable.Spelling
 )
@@ -132,6 +132,21 @@ class UrlManager @Inject constructor(
         return "wss://$chatHost$path/v1/websocket/"
     }
 
+    /**
+     * HTTPS url on [host] used to race and pre-warm chat WebSocket hosts.
+     */
+    fun getChatProbeUrl(host: String): String {
+        val path = newGlobalConfig?.data?.srvs?.chat ?: "/chat"
+        return "https://$host$path/"
+    }
+
+    /**
+     * Records the connect latency of the host that won a WebSocket host race, so it is ranked first.
+     */
+    fun recordChatHostLatency(host: String, latencyMs: Long) {
+        coordinator.recordConnectLatency(host, latencyMs)
+    }
+
     /**
      * Marks the last connected WebSocket host as unavailable; next connection will use another host.
      */
@@ -125,6 +125,29 @@ class DomainSpeedTestCoordinator @Inject constructor(
         L.i { "[$TAG] markHostUnavailable: $host, invalidated=${invalidatedHostsThisSession.toList()}" }
     }
 
+    /**
+     * Records a latency measured by a real connect (e.g. a WebSocket host race).
+     * The host becomes available again for this session and the snapshot is re-ranked.
+     */
+    fun recordConnectLatency(host: String, latencyMs: Long) {
+        invalidatedHostsThisSession.remove(host)
+
+        // CAS loop to update snapshot
+        while (true) {
+            val current = snapshot.get()
+            // No speed test yet: keep the other configured hosts as unmeasured candidates
+            val base = current.ifEmpty {
+                getChatHostsFromConfig().map { HostSpeedResult(host = it, latencyMs = Long.MAX_VALUE, isAvailable = true) }
+            }
+            val measured = HostSpeedResult(host = host, latencyMs = latencyMs, isAvailable = true)
+            val updated = (base.filter { it.host != host } + measured)
+                .sortedWith(compareByDescending<HostSpeedResult> { it.isAvailable }.thenBy { it.latencyMs })
+            if (snapshot.compareAndSet(current, updated)) break
+        }
+
+        L.d { "[$TAG] recordConnectLatency: $host ${latencyMs}ms" }
+    }
+
     /**
      * Triggers a speed test with 30s throttle to avoid excessive probing.
      */
@@ -0,0 +1,239 @@
+package com.difft.android.websocket.api.websocket
+
+import com.difft.android.base.log.lumberjack.L
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Adaptive heartbeat for the chat websocket.
+ *
+ * Learns, per network identity, the longest idle time after which the connection still answers a keep-alive
+ * (i.e. the NAT/firewall mapping is still alive):
+ * - A keep-alive is only sent after [interval] of inbound silence, so any traffic defers the next radio wakeup
+ * - After [Config.successesToGrow] answered keep-alives at the current interval, it is committed as safe and
+ *   the next interval probed is larger, up to [Config.maxIntervalMs] or just below a known failing interval
+ * - A missed answer marks the interval as failing for this network and falls back to the last safe interval
+ *
+ * All timing comes from [clock] so the scheduler can be driven by a fake clock in tests.
+ */
+class AdaptiveKeepAliveScheduler(
+    private val clock: () -> Long,
+    private val store: Store = Store.InMemory(),
+    private val config: Config = Config(),
+) {
+
+    data class Config(
+        val minIntervalMs: Long = 30_000,
+        val maxIntervalMs: Long = 300_000,
+        val growthFactor: Double = 1.5,
+        val successesToGrow: Int = 2,
+        val responseTimeoutMs: Long = 10_000,
+        val maxConsecutiveMisses: Int = 2,
+    )
+
+    /**
+     * Learned state of one network
+     */
+    data class NetworkState(
+        val safeIntervalMs: Long,
+        /** smallest interval known to lose the connection, [Long.MAX_VALUE] when unknown */
+        val failingIntervalMs: Long = Long.MAX_VALUE,
+    )
+
+    interface Store {
+        fun load(networkId: String): NetworkState?
+
+        fun save(networkId: String, state: NetworkState)
+
+        class InMemory : Store {
+            private val states = ConcurrentHashMap<String, NetworkState>()
+            override fun load(networkId: String): NetworkState? = states[networkId]
+            override fun save(networkId: String, state: NetworkState) {
+                states[networkId] = state
+            }
+        }
+    }
+
+    enum class Action {
+        /** Nothing to do, wait for [nextWakeDelayMs] */
+        NONE,
+
+        /** Send a keep-alive now and then call [onKeepAliveSent] */
+        SEND,
+
+        /** The connection is considered dead, disconnect it */
+        DISCONNECT,
+    }
+
+    /** Keep-alives sent, each one may wake the cellular radio */
+    val radioWakeups = AtomicLong()
+    val responses = AtomicLong()
+    val misses = AtomicLong()
+
+    @Volatile
+    var networkId: String = UNKNOWN_NETWORK
+        private set
+
+    private var state = NetworkState(config.minIntervalMs)
+    private var interval = config.minIntervalMs
+    private var successesAtInterval = 0
+    private var consecutiveMisses = 0
+
+    private var lastInboundAt = clock()
+    private var sentAt = -1L
+    private var sentIdleMs = 0L
+    private var sentAsProbe = false
+
+    /**
+     * Current idle interval before a keep-alive is sent
+     */
+    @Synchronized
+    fun currentIntervalMs(): Long = interval
+
+    @Synchronized
+    fun currentState(): NetworkState = state
+
+    /**
+     * Switches to the learned state of [networkId], starting at its safe interval
+     */
+    @Synchronized
+    fun onNetworkChanged(networkId: String) {
+        if (networkId == this.networkId) return
+        this.networkId = networkId
+        state = store.load(networkId)?.let { it.copy(safeIntervalMs = it.safeIntervalMs.coerceIn(config.minIntervalMs, config.maxIntervalMs)) }
+            ?: NetworkState(config.minIntervalMs)
+        interval = state.safeIntervalMs
+        successesAtInterval = 0
+        consecutiveMisses = 0
+        sentAt = -1L
+        lastInboundAt = clock()
+        L.i { "[ws][keepalive] network $networkId, start interval ${interval}ms, state $state" }
+    }
+
+    /**
+     * A (new) connection was established, nothing is outstanding on it
+     */
+    @Synchronized
+    fun onConnected() {
+        sentAt = -1L
+        consecutiveMisses = 0
+        lastInboundAt = clock()
+    }
+
+    /**
+     * Any inbound message proves the connection is alive and resets the idle time
+     */
+    @Synchronized
+    fun onInbound() {
+        val now = clock()
+        if (sentAt >= 0) {
+            responses.incrementAndGet()
+            consecutiveMisses = 0
+            if (sentAsProbe) {
+                onProbeAnswered(sentIdleMs)
+            }
+            sentAt = -1L
+        }
+        lastInboundAt = now
+    }
+
+    @Synchronized
+    fun onKeepAliveSent() {
+        val now = clock()
+        radioWakeups.incrementAndGet()
+        sentAt = now
+        sentIdleMs = now - lastInboundAt
+        // Only a keep-alive after a full idle interval proves the interval; retries after a miss never do
+        sentAsProbe = sentIdleMs >= interval && consecutiveMisses == 0
+    }
+
+    /**
+     * Decides what to do when the heartbeat loop wakes up
+     *
+     * @param externalTrigger woken by alarm / network / foreground instead of its own timer; a keep-alive
+     * is sent to check the connection, it only counts as an interval probe after a full idle interval
+     */
+    @Synchronized
+    fun onWake(externalTrigger: Boolean): Action {
+        val now = clock()
+        if (sentAt >= 0) {
+            if (now - sentAt < config.responseTimeoutMs) return Action.NONE
+            return onMissed()
+        }
+        if (externalTrigger) return Action.SEND
+        return if (now - lastInboundAt >= interval) Action.SEND else Action.NONE
+    }
+
+    /**
+     * How long the heartbeat loop should sleep before calling [onWake] again
+     */
+    @Synchronized
+    fun nextWakeDelayMs(): Long {
+        val now = clock()
+        val delay = if (sentAt >= 0) {
+            sentAt + config.responseTimeoutMs - now
+        } else {
+            lastInboundAt + interval - now
+        }
+        return delay.coerceAtLeast(MIN_WAKE_DELAY_MS)
+    }
+
+    override fun toString(): String {
+        return "network=$networkId interval=${interval}ms state=$state wakeups=${radioWakeups.get()} " +
+                "responses=${responses.get()} misses=${misses.get()}"
+    }
+
+    private fun onProbeAnswered(idleMs: Long) {
+        if (idleMs < interval) return
+        if (++successesAtInterval < config.successesToGrow) return
+
+        successesAtInterval = 0
+        if (interval > state.safeIntervalMs) {
+            state = state.copy(safeIntervalMs = interval)
+            store.save(networkId, state)
+        }
+        val next = (interval * config.growthFactor).toLong()
+            .coerceAtMost(config.maxIntervalMs)
+            .coerceAtMost(state.failingIntervalMs - FAILING_MARGIN_MS)
+        if (next > interval) {
+            L.i { "[ws][keepalive] network $networkId interval ${interval}ms proven safe, probing ${next}ms" }
+            interval = next
+        }
+    }
+
+    private fun onMissed(): Action {
+        misses.incrementAndGet()
+        consecutiveMisses++
+        // Only a probe that went unanswered after a full idle interval says something about the NAT timeout,
+        // a miss after a short idle time means the connection broke for another reason (e.g. a handover)
+        if (sentAsProbe) {
+            val failing = minOf(state.failingIntervalMs, sentIdleMs)
+            val safe = if (state.safeIntervalMs >= failing) {
+                maxOf(config.minIntervalMs, (failing / config.growthFactor).toLong())
+            } else {
+                state.safeIntervalMs
+            }
+            state = NetworkState(safeIntervalMs = safe, failingIntervalMs = failing)
+            store.save(networkId, state)
+            L.w { "[ws][keepalive] network $networkId keep-alive missed after ${sentIdleMs}ms idle, fall back to ${safe}ms, state $state" }
+            interval = safe
+            successesAtInterval = 0
+        } else {
+            L.w { "[ws][keepalive] network $networkId keep-alive missed after ${sentIdleMs}ms idle" }
+        }
+        sentAt = -1L
+
+        return if (consecutiveMisses >= config.maxConsecutiveMisses) {
+            consecutiveMisses = 0
+            Action.DISCONNECT
+        } else {
+            Action.SEND
+        }
+    }
+
+    companion object {
+        const val UNKNOWN_NETWORK = "unknown"
+        private const val MIN_WAKE_DELAY_MS = 1_000L
+        private const val FAILING_MARGIN_MS = 5_000L
+    }
+}
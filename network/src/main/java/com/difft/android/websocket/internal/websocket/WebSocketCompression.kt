@@ -0,0 +1,266 @@
+package com.difft.android.websocket.internal.websocket
+
+import okhttp3.Interceptor
+import okhttp3.Response
+import okio.ByteString
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.Deflater
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * RFC 7692 permessage-deflate options for the chat websocket.
+ *
+ * OkHttp implements the deflate framing itself and offers plain permessage-deflate in every handshake; this config
+ * only changes that offer. OkHttp rejects a response that sets client_max_window_bits, so only the server window is
+ * configurable.
+ */
+data class WebSocketCompressionConfig(
+    /** null keeps OkHttp's default offer, true offers the parameters below, false removes the offer */
+    val enabled: Boolean? = null,
+    /** server_max_window_bits offered to the server, 8..15, null to leave it to the server */
+    val serverMaxWindowBits: Int? = null,
+    /** Ask both sides to reset the deflate context after each message, trades ratio for memory */
+    val noContextTakeover: Boolean = false,
+    /** Outgoing messages smaller than this are sent uncompressed */
+    val minMessageSizeToCompress: Long = 1024,
+) {
+
+    /**
+     * Value of the Sec-WebSocket-Extensions request header, null unless compression is explicitly enabled
+     */
+    fun offerHeader(): String? {
+        if (enabled != true) return null
+        val builder = StringBuilder(EXTENSION_NAME)
+        if (noContextTakeover) {
+            builder.append("; client_no_context_takeover; server_no_context_takeover")
+        }
+        serverMaxWindowBits?.let {
+            require(it in 8..15) { "server_max_window_bits must be in 8..15, was $it" }
+            builder.append("; server_max_window_bits=").append(it)
+        }
+        return builder.toString()
+    }
+
+    companion object {
+        const val EXTENSION_NAME = "permessage-deflate"
+        const val HEADER_EXTENSIONS = "Sec-WebSocket-Extensions"
+    }
+}
+
+/**
+ * Holds the compression config of the chat websocket, OkHttp's default offer is used unless changed here
+ */
+@Singleton
+class WebSocketCompressionSettings @Inject constructor() {
+    @Volatile
+    var config: WebSocketCompressionConfig = WebSocketCompressionConfig()
+}
+
+/**
+ * permessage-deflate parameters accepted by the server
+ */
+data class NegotiatedDeflate(
+    val serverMaxWindowBits: Int?,
+    val clientNoContextTakeover: Boolean,
+    val serverNoContextTakeover: Boolean,
+) {
+    companion object {
+        fun parse(header: String?): NegotiatedDeflate? {
+            if (header.isNullOrBlank()) return null
+            header.split(',').forEach { extension ->
+                val params = extension.split(';').map { it.trim() }
+                if (!params.first().equals(WebSocketCompressionConfig.EXTENSION_NAME, ignoreCase = true)) return@forEach
+                var windowBits: Int? = null
+                var clientNoContext = false
+                var serverNoContext = false
+                params.drop(1).forEach { param ->
+                    val name = param.substringBefore('=').trim().lowercase()
+                    val value = param.substringAfter('=', "").trim().trim('"')
+                    when (name) {
+                        "server_max_window_bits" -> windowBits = value.toIntOrNull()
+                        "client_no_context_takeover" -> clientNoContext = true
+                        "server_no_context_takeover" -> serverNoContext = true
+                    }
+                }
+                return NegotiatedDeflate(windowBits, clientNoContext, serverNoContext)
+            }
+            return null
+        }
+    }
+}
+
+/**
+ * Rewrites the extension offer that OkHttp adds to every websocket handshake according to [configProvider], the
+ * offer is left alone when the config does not set [WebSocketCompressionConfig.enabled]
+ */
+class PerMessageDeflateInterceptor(
+    private val configProvider: () -> WebSocketCompressionConfig,
+) : Interceptor {
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (!request.header("Upgrade").equals("websocket", ignoreCase = true)) {
+            return chain.proceed(request)
+        }
+        val config = configProvider()
+        val builder = request.newBuilder()
+        when (config.enabled) {
+            null -> return chain.proceed(request)
+            false -> builder.removeHeader(WebSocketCompressionConfig.HEADER_EXTENSIONS)
+            true -> builder.header(WebSocketCompressionConfig.HEADER_EXTENSIONS, config.offerHeader()!!)
+        }
+        return chain.proceed(builder.build())
+    }
+}
+
+/**
+ * Per-connection counters: payload bytes are the messages seen by the app, wire bytes are the websocket frames
+ * those messages take, so payload / wire is the effective compression ratio.
+ *
+ * Frames can't be counted on the socket: Conscrypt's TLS socket reads and writes its file descriptor directly and
+ * bypasses the streams of the plain socket below it. Their sizes are computed by [FrameSizeMeter] instead, which
+ * deflates a copy of every message and costs about as much CPU as the compression itself, so it only runs when
+ * [measureFrames] is set. Control frames, TLS records and TCP/IP headers are not included.
+ */
+class WebSocketCompressionStats(
+    private val minMessageSizeToCompress: Long = WebSocketCompressionConfig().minMessageSizeToCompress,
+    private val measureFrames: Boolean = true,
+) {
+
+    @Volatile
+    var negotiated: NegotiatedDeflate? = null
+        private set
+
+    val payloadBytesIn = AtomicLong()
+    val payloadBytesOut = AtomicLong()
+    val wireBytesIn = AtomicLong()
+    val wireBytesOut = AtomicLong()
+
+    // Messages sent before the handshake completed are measured as uncompressed frames
+    @Volatile
+    private var inboundMeter: FrameSizeMeter? = null
+
+    @Volatile
+    private var outboundMeter: FrameSizeMeter? = null
+
+    @Volatile
+    private var readerCpuStartMs = -1L
+
+    /**
+     * CPU time of the websocket reader thread since the connection opened; it includes inflating
+     * and parsing every incoming message
+     */
+    @Volatile
+    var readerCpuMs = 0L
+        private set
+
+    fun onOpen(extensionsHeader: String?, threadCpuMs: Long) {
+        val deflate = NegotiatedDeflate.parse(extensionsHeader)
+        negotiated = deflate
+        readerCpuStartMs = threadCpuMs
+        if (measureFrames && deflate != null) {
+            // The threshold of the server is unknown, it is assumed to deflate every message
+            inboundMeter = FrameSizeMeter(deflate = true, deflate.serverNoContextTakeover, minMessageSize = 0, masked = false)
+            outboundMeter = FrameSizeMeter(deflate = true, deflate.clientNoContextTakeover, minMessageSizeToCompress, masked = true)
+        }
+    }
+
+    fun onInbound(payload: ByteString, threadCpuMs: Long) {
+        payloadBytesIn.addAndGet(payload.size.toLong())
+        if (measureFrames) {
+            wireBytesIn.addAndGet((inboundMeter ?: UNCOMPRESSED_INBOUND).frameSize(payload))
+        }
+        if (readerCpuStartMs >= 0) {
+            readerCpuMs = threadCpuMs - readerCpuStartMs
+        }
+    }
+
+    fun onOutbound(payload: ByteString) {
+        payloadBytesOut.addAndGet(payload.size.toLong())
+        if (measureFrames) {
+            wireBytesOut.addAndGet((outboundMeter ?: UNCOMPRESSED_OUTBOUND).frameSize(payload))
+        }
+    }
+
+    /**
+     * Frees the native deflaters, frames are no longer measured afterwards
+     */
+    fun release() {
+        inboundMeter?.release()
+        outboundMeter?.release()
+        inboundMeter = null
+        outboundMeter = null
+    }
+
+    fun inboundRatio(): Double = ratio(payloadBytesIn.get(), wireBytesIn.get())
+
+    fun outboundRatio(): Double = ratio(payloadBytesOut.get(), wireBytesOut.get())
+
+    private fun ratio(payload: Long, wire: Long): Double = if (wire <= 0) 0.0 else payload.toDouble() / wire
+
+    override fun toString(): String {
+        return "negotiated=$negotiated in=${payloadBytesIn.get()}/${wireBytesIn.get()} (x${"%.2f".format(inboundRatio())}) " +
+                "out=${payloadBytesOut.get()}/${wireBytesOut.get()} (x${"%.2f".format(outboundRatio())}) readerCpu=${readerCpuMs}ms"
+    }
+
+    private companion object {
+        val UNCOMPRESSED_INBOUND = FrameSizeMeter(deflate = false, noContextTakeover = false, minMessageSize = 0, masked = false)
+        val UNCOMPRESSED_OUTBOUND = FrameSizeMeter(deflate = false, noContextTakeover = false, minMessageSize = 0, masked = true)
+    }
+}
+
+/**
+ * Size of the frame a message is sent in, built the way OkHttp's WebSocketWriter and MessageDeflater build it:
+ * messages of at least [minMessageSize] bytes are deflated with SYNC_FLUSH and the trailing 00 00 ff ff is dropped,
+ * the deflate context is kept between messages unless [noContextTakeover], client frames carry a 4 byte mask.
+ *
+ * Outbound sizes match OkHttp as long as messages are measured in the order they are sent. Inbound sizes are an
+ * estimate: the server's deflater may use a smaller window (server_max_window_bits) or another level.
+ */
+internal class FrameSizeMeter(
+    deflate: Boolean,
+    private val noContextTakeover: Boolean,
+    private val minMessageSize: Long,
+    private val masked: Boolean,
+) {
+    private val deflater = if (deflate) Deflater(Deflater.DEFAULT_COMPRESSION, true) else null
+    private val buffer = ByteArray(8192)
+    private var released = false
+
+    @Synchronized
+    fun frameSize(payload: ByteString): Long {
+        val deflater = deflater?.takeUnless { released }
+        val length = if (deflater != null && payload.size >= minMessageSize) {
+            deflatedSize(deflater, payload)
+        } else {
+            payload.size.toLong()
+        }
+        val lengthBytes = when {
+            length <= 125 -> 0
+            length <= 0xffff -> 2
+            else -> 8
+        }
+        return 2L + lengthBytes + (if (masked) 4 else 0) + length
+    }
+
+    @Synchronized
+    fun release() {
+        released = true
+        deflater?.end()
+    }
+
+    private fun deflatedSize(deflater: Deflater, payload: ByteString): Long {
+        if (noContextTakeover) {
+            deflater.reset()
+        }
+        deflater.setInput(payload.toByteArray())
+        var size = 0L
+        do {
+            val count = deflater.deflate(buffer, 0, buffer.size, Deflater.SYNC_FLUSH)
+            size += count
+        } while (count == buffer.size)
+        // SYNC_FLUSH always ends with the empty stored block 00 00 ff ff, which is not sent
+        return size - 4
+    }
+}
@@ -2,8 +2,10 @@ package com.difft.android.websocket.internal.websocket
 
 import android.content.Context
 import android.os.Bundle
+import android.os.SystemClock
 import com.difft.android.base.BuildConfig
 import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Metrics
 import com.difft.android.websocket.api.util.Tls12SocketFactory
 import com.difft.android.websocket.internal.util.Util
 import com.difft.android.network.ca.OfficialSSLSocketFactoryCreator
@@ -18,10 +20,14 @@ import kotlinx.coroutines.withTimeout
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Call
+import okhttp3.Callback
 import okhttp3.ConnectionSpec
 import okhttp3.ConnectionSpec.Companion.RESTRICTED_TLS
 import okhttp3.Dns.Companion.SYSTEM
 import okhttp3.OkHttpClient
+import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.Response
 import okhttp3.TlsVersion
@@ -29,6 +35,7 @@ import okhttp3.WebSocket
 import okhttp3.WebSocketListener
 import okhttp3.logging.HttpLoggingInterceptor
 import okio.ByteString
+import okio.ByteString.Companion.encodeUtf8
 import com.difft.android.websocket.api.websocket.HealthMonitor
 import com.difft.android.websocket.api.websocket.KeepAliveSender
 import com.difft.android.websocket.api.websocket.WebSocketConnectionState
@@ -42,6 +49,7 @@ import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 import javax.inject.Named
+import kotlin.coroutines.resume
 
 class WebSocketConnection @AssistedInject constructor(
     @Assisted("auth")
@@ -53,12 +61,15 @@ class WebSocketConnection @AssistedInject constructor(
     @param:Named("UserAgent")
     private val userAgent: String,
     private val healthMonitor: HealthMonitor,
+    private val compressionSettings: WebSocketCompressionSettings,
     @param:ApplicationContext
     private val context: Context,
 ) : WebSocketListener() {
 
     private val incomingRequests = LinkedBlockingQueue<WebSocketRequestMessage>()
 
+    private val incomingRequestCount = Metrics.counter("websocket.incoming.requests")
+
     /**
      * Shared OkHttpClient instance to avoid thread pool leaks.
      * Creating a new OkHttpClient for each connection causes thread pool accumulation
@@ -76,6 +87,8 @@ class WebSocketConnection @AssistedInject constructor(
             .connectTimeout(60, TimeUnit.SECONDS)
             .readTimeout(60, TimeUnit.SECONDS)
             .writeTimeout(60, TimeUnit.SECONDS)
+            // permessage-deflate offer can be changed in compressionSettings
+            .addInterceptor(PerMessageDeflateInterceptor { compressionSettings.config })
 
         if (BuildConfig.DEBUG) {
             val logging = HttpLoggingInterceptor()
@@ -92,6 +105,18 @@ class WebSocketConnection @AssistedInject constructor(
         clientBuilder.build()
     }
 
+    /**
+     * Websocket handshakes always go over HTTP/1.1, probes must use the same protocols (and the same pool)
+     * so the connection they leave behind can be reused by the next handshake
+     */
+    private val prewarmClient: OkHttpClient by lazy {
+        okHttpClient.newBuilder()
+            .protocols(listOf(Protocol.HTTP_1_1))
+            .build()
+    }
+
+    private val hostRacer = WebSocketHostRacer()
+
     private val outgoingRequests: MutableMap<Long, OutgoingRequest> = ConcurrentHashMap()
 
     val name: String = "[ws][chat:" + System.identityHashCode(this) + "]"
@@ -113,6 +138,13 @@ class WebSocketConnection @AssistedInject constructor(
     @Volatile
     private var startConnectTime = 0L
 
+    /**
+     * Payload/wire byte counters of the current connection, replaced on every connect
+     */
+    @Volatile
+    var compressionStats = WebSocketCompressionStats()
+        private set
+
     init {
         _webSocketConnectionState.tryEmit(WebSocketConnectionState.DISCONNECTED)
     }
@@ -138,6 +170,7 @@ class WebSocketConnection @AssistedInject constructor(
     internal fun connect() {
         startConnectTime = System.currentTimeMillis()
         L.i { "$name connect()" }
+        Metrics.gauge("websocket.incoming.queue") { incomingRequests.size.toLong() }
 
         if (currentWebsocket == null) {
             val filledUri = webSocketUrlGetter()
@@ -152,18 +185,56 @@ class WebSocketConnection @AssistedInject constructor(
                 auth()
             )
             _webSocketConnectionState.value = WebSocketConnectionState.CONNECTING
+            // frame sizes are only computed while metrics are collected, measuring deflates every message once more
+            compressionStats = WebSocketCompressionStats(compressionSettings.config.minMessageSizeToCompress, Metrics.enabled)
 
             currentWebsocketListener?.invalidate()
             currentWebsocketListener = null
             val websocketListener = ControllableWebSocketListener(this).also {
                 currentWebsocketListener = it
             }
-            currentWebsocket = okHttpClient.newWebSocket(requestBuilder.build(), websocketListener)
+            // newBuilder() shares the pool and dispatcher, the threshold is read from the current config on every connect
+            val client = okHttpClient.newBuilder()
+                .minWebSocketMessageToCompress(compressionSettings.config.minMessageSizeToCompress)
+                .build()
+            currentWebsocket = client.newWebSocket(requestBuilder.build(), websocketListener)
 
             L.i { "$name Really start connecting in code" }
         }
     }
 
+    /**
+     * Races HTTPS requests to the best ranked [hosts], the winner's TCP/TLS connection stays in the pool
+     * and is picked up by the next [connect] to that host; losing requests are cancelled.
+     */
+    suspend fun raceHosts(hosts: List<String>, probeUrl: (host: String) -> String): WebSocketHostRacer.Result {
+        return hostRacer.race(hosts) { host -> probe(probeUrl(host)) }
+    }
+
+    private suspend fun probe(url: String): Boolean = suspendCancellableCoroutine { continuation ->
+        val call = prewarmClient.newCall(Request.Builder().url(url).get().build())
+        continuation.invokeOnCancellation { call.cancel() }
+        call.enqueue(object : Callback {
+            override fun onResponse(call: Call, response: Response) {
+                // Any response proves TCP and TLS are up; reading the body returns the connection to the pool
+                val success = try {
+                    response.use { it.body.bytes() }
+                    true
+                } catch (e: IOException) {
+                    false
+                }
+                continuation.resume(success)
+            }
+
+            override fun onFailure(call: Call, e: IOException) {
+                if (!call.isCanceled()) {
+                    L.w { "$name probe $url failed: ${e.message}" }
+                }
+                continuation.resume(false)
+            }
+        })
+    }
+
     @Synchronized
     fun disconnectWhenConnected() {
         L.i { "$name disconnect(), current webSocketConnectionState: ${webSocketConnectionState.value}" }
@@ -213,9 +284,11 @@ class WebSocketConnection @AssistedInject constructor(
         outgoingRequests[request.requestId] = OutgoingRequest(deferred)
 
         try {
-            if (currentWebsocket?.send(ByteString.of(*message.toByteArray())) != true) {
+            val payload = ByteString.of(*message.toByteArray())
+            if (currentWebsocket?.send(payload) != true) {
                 throw IOException("$name Write failed!")
             }
+            compressionStats.onOutbound(payload)
 
             return withTimeout(10_000) {
                 deferred.await()
@@ -235,9 +308,11 @@ class WebSocketConnection @AssistedInject constructor(
             type = WebSocketMessage.Type.REQUEST
             this.request = request
         }
-        if (currentWebsocket?.send(ByteString.of(*message.toByteArray())) != true) {
+        val payload = ByteString.of(*message.toByteArray())
+        if (currentWebsocket?.send(payload) != true) {
             throw IOException("$name send request on web socket failed!")
         }
+        compressionStats.onOutbound(payload)
     }
 
 
@@ -251,6 +326,7 @@ class WebSocketConnection @AssistedInject constructor(
             L.e { "$name sendRequest string failed..." }
             throw IOException("$name Write failed!")
         }
+        compressionStats.onOutbound(json.encodeUtf8())
         if ("ping" == json) {
             L.i { "$name Sending keep alive..." }
         }
@@ -268,9 +344,11 @@ class WebSocketConnection @AssistedInject constructor(
             this.response = response
         }
 
-        if (currentWebsocket?.send(ByteString.of(*message.toByteArray())) != true) {
+        val payload = ByteString.of(*message.toByteArray())
+        if (currentWebsocket?.send(payload) != true) {
             throw IOException("$name Write failed!")
         }
+        compressionStats.onOutbound(payload)
     }
 
     @Synchronized
@@ -286,18 +364,22 @@ class WebSocketConnection @AssistedInject constructor(
         }.let {
             FirebaseAnalytics.getInstance(context).logEvent(WEB_SOCKET_CONNECT_TIME, it)
         }
-        L.i { "$name onOpen() connected, time cost $connectCostTime" }
+        // onOpen() runs on the reader thread, which also inflates every incoming message
+        compressionStats.onOpen(response.header(WebSocketCompressionConfig.HEADER_EXTENSIONS), SystemClock.currentThreadTimeMillis())
+        L.i { "$name onOpen() connected, time cost $connectCostTime, extensions: ${compressionStats.negotiated}" }
         _webSocketConnectionState.value = WebSocketConnectionState.CONNECTED
     }
 
     override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
         healthMonitor.onKeepAliveResponse()
+        compressionStats.onInbound(bytes, SystemClock.currentThreadTimeMillis())
         try {
             val message = WebSocketMessage.parseFrom(bytes.toByteArray())
             L.d { "$name onMessage() type=${message.type}, requestId=${if (message.hasRequest()) message.request.requestId else message.response.requestId}" }
 
             if (message.type.number == WebSocketMessage.Type.REQUEST_VALUE) {
                 incomingRequests.add(message.request)
+                incomingRequestCount.inc()
             } else if (message.type.number == WebSocketMessage.Type.RESPONSE_VALUE) {
                 outgoingRequests.remove(message.response.requestId)?.onSuccess(
                     WebsocketResponse(
@@ -372,6 +454,8 @@ class WebSocketConnection @AssistedInject constructor(
             }
         }
 
+        L.i { "$name compression stats: $compressionStats" }
+        compressionStats.release()
         currentWebsocket = null // Allow garbage collection
         currentWebsocketListener?.invalidate()
         currentWebsocketListener = null
@@ -381,6 +465,7 @@ class WebSocketConnection @AssistedInject constructor(
     override fun onMessage(webSocket: WebSocket, text: String) {
         L.d { "$name onMessage() $text" }
         healthMonitor.onKeepAliveResponse()
+        compressionStats.onInbound(text.encodeUtf8(), SystemClock.currentThreadTimeMillis())
     }
 
     @Synchronized
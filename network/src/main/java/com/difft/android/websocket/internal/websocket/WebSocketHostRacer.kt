@@ -0,0 +1,107 @@
+package com.difft.android.websocket.internal.websocket
+
+import com.difft.android.base.log.lumberjack.L
+import com.difft.android.base.metrics.Counter
+import com.difft.android.base.metrics.Histogram
+import com.difft.android.base.metrics.Metrics
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Happy-eyeballs style host race for the chat websocket.
+ *
+ * Attempts start in ranking order; the next host starts [Config.staggerDelayMs] after the previous one,
+ * or right away when the previous one fails. The first successful host wins and the other attempts are
+ * cancelled. Every finished attempt is passed to [recordAttempt], by default into the per-host
+ * `websocket.host.<host>.connect.ms` histogram and `websocket.host.<host>.connect.failures` counter of [Metrics].
+ */
+class WebSocketHostRacer(
+    private val config: Config = Config(),
+    private val recordAttempt: (host: String, success: Boolean, latencyMs: Long) -> Unit = MetricsRecorder()::record,
+) {
+
+    data class Config(
+        val staggerDelayMs: Long = 300,
+        val maxHosts: Int = 3,
+        val timeoutMs: Long = 5_000,
+    )
+
+    data class Result(
+        val winner: String?,
+        val latencyMs: Long,
+        val failedHosts: List<String>,
+    )
+
+    suspend fun race(hosts: List<String>, attempt: suspend (host: String) -> Boolean): Result = coroutineScope {
+        val candidates = hosts.distinct().take(config.maxHosts.coerceAtLeast(1))
+        if (candidates.isEmpty()) return@coroutineScope Result(null, -1, emptyList())
+
+        val started = List(candidates.size) { CompletableDeferred<Unit>() }
+        val failed = List(candidates.size) { CompletableDeferred<Unit>() }
+        val results = Channel<Triple<String, Boolean, Long>>(Channel.UNLIMITED)
+
+        val jobs = candidates.mapIndexed { index, host ->
+            launch {
+                if (index > 0) {
+                    started[index - 1].await()
+                    withTimeoutOrNull(config.staggerDelayMs) { failed[index - 1].await() }
+                }
+                started[index].complete(Unit)
+                val startTime = System.currentTimeMillis()
+                val success = try {
+                    attempt(host)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    L.w { "[ws] host race attempt $host failed: ${e.message}" }
+                    false
+                }
+                val latency = System.currentTimeMillis() - startTime
+                recordAttempt(host, success, latency)
+                if (!success) {
+                    failed[index].complete(Unit)
+                }
+                results.send(Triple(host, success, latency))
+            }
+        }
+
+        val failedHosts = mutableListOf<String>()
+        val winner = withTimeoutOrNull(config.timeoutMs) {
+            repeat(candidates.size) {
+                val (host, success, latency) = results.receive()
+                if (success) {
+                    return@withTimeoutOrNull host to latency
+                }
+                failedHosts.add(host)
+            }
+            null
+        }
+        jobs.forEach { it.cancel() }
+        results.close()
+
+        val result = Result(winner?.first, winner?.second ?: -1, failedHosts.toList())
+        L.i { "[ws] host race result: $result candidates: $candidates" }
+        result
+    }
+
+    /**
+     * Records connect latencies and failures per host in [Metrics], so they show up in its snapshot
+     */
+    private class MetricsRecorder {
+        private val latencies = ConcurrentHashMap<String, Histogram>()
+        private val failures = ConcurrentHashMap<String, Counter>()
+
+        fun record(host: String, success: Boolean, latencyMs: Long) {
+            if (success) {
+                latencies.getOrPut(host) { Metrics.histogram("websocket.host.$host.connect.ms") }.record(latencyMs)
+            } else {
+                failures.getOrPut(host) { Metrics.counter("websocket.host.$host.connect.failures") }.inc()
+            }
+        }
+    }
+}
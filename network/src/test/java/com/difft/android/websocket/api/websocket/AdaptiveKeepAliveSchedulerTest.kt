@@ -0,0 +1,128 @@
+package com.difft.android.websocket.api.websocket
+
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class AdaptiveKeepAliveSchedulerTest {
+
+    private var now = 0L
+
+    /**
+     * Stand-in for the websocket behind a NAT that drops the mapping after [natTimeoutMs] of silence:
+     * a keep-alive is answered only when the connection has been idle for less than the timeout.
+     */
+    private inner class FakeConnection(private val scheduler: AdaptiveKeepAliveScheduler, var natTimeoutMs: Long) {
+        private var lastTrafficAt = now
+        var disconnects = 0
+
+        /** Drives the heartbeat loop for [durationMs] of virtual time */
+        fun run(durationMs: Long) {
+            val end = now + durationMs
+            while (now < end) {
+                now += scheduler.nextWakeDelayMs()
+                when (scheduler.onWake(externalTrigger = false)) {
+                    AdaptiveKeepAliveScheduler.Action.SEND -> {
+                        val alive = now - lastTrafficAt < natTimeoutMs
+                        scheduler.onKeepAliveSent()
+                        if (alive) {
+                            now += RTT_MS
+                            lastTrafficAt = now
+                            scheduler.onInbound()
+                        }
+                    }
+
+                    AdaptiveKeepAliveScheduler.Action.DISCONNECT -> {
+                        disconnects++
+                        lastTrafficAt = now
+                        scheduler.onConnected()
+                    }
+
+                    AdaptiveKeepAliveScheduler.Action.NONE -> Unit
+                }
+            }
+        }
+    }
+
+    private fun scheduler(store: AdaptiveKeepAliveScheduler.Store = AdaptiveKeepAliveScheduler.Store.InMemory()) =
+        AdaptiveKeepAliveScheduler(clock = { now }, store = store).also { it.onNetworkChanged("wifi:home") }
+
+    @Test
+    fun `interval grows to the maximum on a permissive network`() {
+        val scheduler = scheduler()
+        FakeConnection(scheduler, natTimeoutMs = Long.MAX_VALUE).run(HOURS_2)
+
+        assertEquals(300_000L, scheduler.currentIntervalMs())
+        assertEquals(0L, scheduler.misses.get())
+        // a fixed 30s heartbeat would have needed 240 wakeups in 2 hours
+        assertTrue(scheduler.radioWakeups.get() < 60, "wakeups ${scheduler.radioWakeups.get()}")
+    }
+
+    @Test
+    fun `interval settles below the nat timeout of an aggressive network`() {
+        val scheduler = scheduler()
+        val connection = FakeConnection(scheduler, natTimeoutMs = 100_000)
+        connection.run(HOURS_2)
+
+        val state = scheduler.currentState()
+        assertTrue(state.failingIntervalMs in 100_000..160_000, "state $state")
+        assertTrue(scheduler.currentIntervalMs() < 100_000, "interval ${scheduler.currentIntervalMs()}")
+        assertTrue(scheduler.currentIntervalMs() >= 67_500, "interval ${scheduler.currentIntervalMs()}")
+
+        // once the failing interval is known the connection stays up
+        val misses = scheduler.misses.get()
+        connection.run(HOURS_2)
+        assertEquals(misses, scheduler.misses.get())
+    }
+
+    @Test
+    fun `miss without a full idle interval does not learn a failing interval`() {
+        val scheduler = scheduler()
+        now += 5_000
+        assertEquals(AdaptiveKeepAliveScheduler.Action.SEND, scheduler.onWake(externalTrigger = true))
+        scheduler.onKeepAliveSent()
+
+        now += 10_000
+        assertEquals(AdaptiveKeepAliveScheduler.Action.SEND, scheduler.onWake(externalTrigger = false))
+        assertEquals(Long.MAX_VALUE, scheduler.currentState().failingIntervalMs)
+        assertEquals(30_000L, scheduler.currentIntervalMs())
+
+        scheduler.onKeepAliveSent()
+        now += 10_000
+        assertEquals(AdaptiveKeepAliveScheduler.Action.DISCONNECT, scheduler.onWake(externalTrigger = false))
+    }
+
+    @Test
+    fun `learned state is kept per network`() {
+        val store = AdaptiveKeepAliveScheduler.Store.InMemory()
+        val scheduler = scheduler(store)
+        FakeConnection(scheduler, natTimeoutMs = Long.MAX_VALUE).run(HOURS_2)
+        val learned = scheduler.currentIntervalMs()
+
+        scheduler.onNetworkChanged("cell:46001")
+        assertEquals(30_000L, scheduler.currentIntervalMs())
+
+        scheduler.onNetworkChanged("wifi:home")
+        assertTrue(scheduler.currentIntervalMs() >= learned / 2, "interval ${scheduler.currentIntervalMs()}")
+
+        // a fresh scheduler (app restart) starts from the stored safe interval
+        val restarted = scheduler(store)
+        assertEquals(store.load("wifi:home")?.safeIntervalMs, restarted.currentIntervalMs())
+    }
+
+    @Test
+    fun `inbound traffic defers the next keep-alive`() {
+        val scheduler = scheduler()
+        now += 20_000
+        scheduler.onInbound()
+        now += 20_000
+        assertEquals(AdaptiveKeepAliveScheduler.Action.NONE, scheduler.onWake(externalTrigger = false))
+        assertEquals(10_000L, scheduler.nextWakeDelayMs())
+        assertEquals(0L, scheduler.radioWakeups.get())
+    }
+
+    companion object {
+        private const val RTT_MS = 100L
+        private const val HOURS_2 = 2 * 60 * 60 * 1_000L
+    }
+}
@@ -0,0 +1,156 @@
+package com.difft.android.websocket.internal.websocket
+
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.WebSocket
+import okhttp3.WebSocketListener
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.ByteString
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class WebSocketCompressionTest {
+
+    private lateinit var server: MockWebServer
+
+    @Before
+    fun setUp() {
+        server = MockWebServer()
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun `offer header follows the config`() {
+        assertNull(WebSocketCompressionConfig().offerHeader())
+        assertNull(WebSocketCompressionConfig(enabled = false).offerHeader())
+        assertEquals("permessage-deflate", WebSocketCompressionConfig(enabled = true).offerHeader())
+        assertEquals(
+            "permessage-deflate; client_no_context_takeover; server_no_context_takeover; server_max_window_bits=12",
+            WebSocketCompressionConfig(enabled = true, serverMaxWindowBits = 12, noContextTakeover = true).offerHeader()
+        )
+    }
+
+    @Test
+    fun `negotiated parameters are parsed from the response header`() {
+        assertNull(NegotiatedDeflate.parse(null))
+        assertNull(NegotiatedDeflate.parse("x-webkit-deflate-frame"))
+        assertEquals(
+            NegotiatedDeflate(serverMaxWindowBits = 10, clientNoContextTakeover = false, serverNoContextTakeover = true),
+            NegotiatedDeflate.parse("permessage-deflate; server_no_context_takeover; server_max_window_bits=10")
+        )
+    }
+
+    @Test
+    fun `disabled config removes the extension offer`() {
+        val received = connectAndReceive(WebSocketCompressionConfig(enabled = false), serverExtensions = null)
+
+        val handshake = server.takeRequest()
+        assertNull(handshake.getHeader(WebSocketCompressionConfig.HEADER_EXTENSIONS))
+        assertNull(received.negotiated)
+        assertTrue(received.wireBytesIn.get() > received.payloadBytesIn.get())
+    }
+
+    @Test
+    fun `default config keeps the offer of OkHttp`() {
+        val received = connectAndReceive(WebSocketCompressionConfig(), serverExtensions = "permessage-deflate")
+
+        val handshake = server.takeRequest()
+        assertEquals("permessage-deflate", handshake.getHeader(WebSocketCompressionConfig.HEADER_EXTENSIONS))
+        assertNotNull(received.negotiated)
+    }
+
+    @Test
+    fun `compressed messages use fewer wire bytes than payload bytes`() {
+        val config = WebSocketCompressionConfig(enabled = true, serverMaxWindowBits = 15)
+        val received = connectAndReceive(config, serverExtensions = "permessage-deflate")
+
+        val handshake = server.takeRequest()
+        assertEquals(config.offerHeader(), handshake.getHeader(WebSocketCompressionConfig.HEADER_EXTENSIONS))
+        assertNotNull(received.negotiated)
+        assertEquals(PAYLOAD_SIZE.toLong(), received.payloadBytesIn.get())
+        assertTrue(received.inboundRatio() > 5, "ratio was ${received.inboundRatio()}")
+    }
+
+    @Test
+    fun `frame sizes follow the framing of OkHttp`() {
+        val small = ByteString.of(*ByteArray(100) { 'a'.code.toByte() })
+        val large = ByteString.of(*ByteArray(4096) { (it % 16).toByte() })
+
+        val plain = FrameSizeMeter(deflate = false, noContextTakeover = false, minMessageSize = 0, masked = true)
+        assertEquals(2L + 4 + 100, plain.frameSize(small))
+        assertEquals(2L + 2 + 4 + 4096, plain.frameSize(large))
+
+        val deflate = FrameSizeMeter(deflate = true, noContextTakeover = false, minMessageSize = 1024, masked = true)
+        assertEquals(2L + 4 + 100, deflate.frameSize(small), "messages under the threshold are sent as they are")
+        val first = deflate.frameSize(large)
+        assertTrue(first < 200, "was $first")
+        assertTrue(deflate.frameSize(large) < first, "the context of the previous message is reused")
+
+        val noContext = FrameSizeMeter(deflate = true, noContextTakeover = true, minMessageSize = 1024, masked = true)
+        assertEquals(first, noContext.frameSize(large))
+        assertEquals(first, noContext.frameSize(large))
+        deflate.release()
+        noContext.release()
+    }
+
+    @Test
+    fun `frames are only measured when asked to`() {
+        val stats = WebSocketCompressionStats(measureFrames = false)
+        stats.onOpen("permessage-deflate", 0)
+        stats.onOutbound(ByteString.of(*ByteArray(4096)))
+
+        assertEquals(4096L, stats.payloadBytesOut.get())
+        assertEquals(0L, stats.wireBytesOut.get())
+    }
+
+    private fun connectAndReceive(config: WebSocketCompressionConfig, serverExtensions: String?): WebSocketCompressionStats {
+        val payload = ByteString.of(*ByteArray(PAYLOAD_SIZE) { (it % 16).toByte() })
+        val upgrade = MockResponse().withWebSocketUpgrade(object : WebSocketListener() {
+            override fun onOpen(webSocket: WebSocket, response: Response) {
+                webSocket.send(payload)
+            }
+        })
+        if (serverExtensions != null) {
+            upgrade.setHeader(WebSocketCompressionConfig.HEADER_EXTENSIONS, serverExtensions)
+        }
+        server.enqueue(upgrade)
+
+        val stats = WebSocketCompressionStats()
+        val client = OkHttpClient.Builder()
+            .addInterceptor(PerMessageDeflateInterceptor { config })
+            .build()
+        val latch = CountDownLatch(1)
+        val socket = client.newWebSocket(Request.Builder().url(server.url("/")).build(), object : WebSocketListener() {
+            override fun onOpen(webSocket: WebSocket, response: Response) {
+                stats.onOpen(response.header(WebSocketCompressionConfig.HEADER_EXTENSIONS), 0)
+            }
+
+            override fun onMessage(webSocket: WebSocket, bytes: ByteString) {
+                stats.onInbound(bytes, 0)
+                latch.countDown()
+            }
+        })
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        socket.close(1000, null)
+        client.dispatcher.executorService.shutdown()
+        return stats
+    }
+
+    companion object {
+        private const val PAYLOAD_SIZE = 64 * 1024
+    }
+}
@@ -0,0 +1,72 @@
+package com.difft.android.websocket.internal.websocket
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class WebSocketHostRacerTest {
+
+    private val attempts = ConcurrentHashMap<String, Boolean>()
+
+    private val racer = WebSocketHostRacer(WebSocketHostRacer.Config(staggerDelayMs = 300, maxHosts = 3, timeoutMs = 5_000)) { host, success, _ ->
+        attempts[host] = success
+    }
+
+    @Test
+    fun `slow primary loses to the staggered secondary and is cancelled`() = runTest {
+        val startTimes = ConcurrentHashMap<String, Long>()
+        val cancelled = ConcurrentHashMap.newKeySet<String>()
+
+        val result = racer.race(listOf("a", "b", "c")) { host ->
+            startTimes[host] = currentTime
+            try {
+                delay(if (host == "a") 4_000 else 100)
+                true
+            } catch (e: CancellationException) {
+                cancelled.add(host)
+                throw e
+            }
+        }
+
+        assertEquals("b", result.winner)
+        assertEquals(0L, startTimes["a"])
+        assertEquals(300L, startTimes["b"])
+        assertFalse("c" in startTimes, "third host should not start before the second one wins")
+        assertTrue("a" in cancelled)
+    }
+
+    @Test
+    fun `failed attempt starts the next host without waiting for the stagger delay`() = runTest {
+        val startTimes = ConcurrentHashMap<String, Long>()
+
+        val result = racer.race(listOf("a", "b")) { host ->
+            startTimes[host] = currentTime
+            delay(50)
+            host == "b"
+        }
+
+        assertEquals("b", result.winner)
+        assertEquals(50L, startTimes["b"])
+        assertEquals(listOf("a"), result.failedHosts)
+    }
+
+    @Test
+    fun `all hosts failing yields no winner and records failures`() = runTest {
+        val result = racer.race(listOf("a", "b", "c", "d")) { host ->
+            if (host == "b") error("boom")
+            false
+        }
+
+        assertNull(result.winner)
+        assertEquals(setOf("a", "b", "c"), result.failedHosts.toSet())
+        assertEquals(mapOf("a" to false, "b" to false, "c" to false), attempts.toMap())
+        assertFalse("d" in attempts, "only the top ranked hosts are raced")
+    }
+}
@@ -29,6 +29,7 @@ import com.luck.picture.lib.utils.ValueOf;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -42,11 +43,47 @@ import java.util.Set;
  */
 public final class LocalMediaPageLoader extends IBridgeMediaLoader {
 
+    /**
+     * Keyset paging order, _id breaks ties between rows modified in the same second
+     */
+    private static final String KEYSET_ORDER_BY = MediaStore.MediaColumns.DATE_MODIFIED + " DESC, "
+            + MediaStore.Files.FileColumns._ID + " DESC";
+
+    private static final String KEYSET_CONDITION = " AND (" + MediaStore.MediaColumns.DATE_MODIFIED + "<? OR ("
+            + MediaStore.MediaColumns.DATE_MODIFIED + "=? AND " + MediaStore.Files.FileColumns._ID + "<?))";
+
+    private static final String[] PAGE_PROJECTION = appendColumn(PROJECTION, MediaStore.MediaColumns.DATE_MODIFIED);
+
+    /**
+     * Columns needed to build the album list when media does not have to be parsed
+     */
+    private static final String[] ALBUM_PROJECTION = {
+            MediaStore.Files.FileColumns._ID,
+            MediaStore.MediaColumns.DATA,
+            MediaStore.MediaColumns.MIME_TYPE,
+            COLUMN_BUCKET_DISPLAY_NAME,
+            COLUMN_BUCKET_ID};
+
+    private final MediaPageKeysetIndex keysetIndex = new MediaPageKeysetIndex();
 
     public LocalMediaPageLoader(Context context, SelectorConfig config) {
         super(context, config);
     }
 
+    private static String[] appendColumn(String[] projection, String column) {
+        String[] result = new String[projection.length + 1];
+        System.arraycopy(projection, 0, result, 0, projection.length);
+        result[projection.length] = column;
+        return result;
+    }
+
+    /**
+     * Keyset paging only applies to the default date_modified order
+     */
+    private boolean isKeysetPagingEnabled() {
+        return TextUtils.isEmpty(getConfig().sortOrder);
+    }
+
     /**
      * Query conditions in all modes
      *
@@ -183,12 +220,30 @@ public final class LocalMediaPageLoader extends IBridgeMediaLoader {
             public MediaData doInBackground() {
                 Cursor data = null;
                 try {
+                    boolean keyset = isKeysetPagingEnabled() && page != PictureConfig.ALL;
+                    if (keyset && page <= 1) {
+                        keysetIndex.resetBucket(bucketId);
+                    }
+                    MediaPageKeysetIndex.Anchor anchor = keyset ? keysetIndex.anchorBefore(bucketId, page, pageSize) : null;
+                    String selection = getPageSelection(bucketId);
+                    String[] selectionArgs = getPageSelectionArgs(bucketId);
+                    String sortOrder = keyset ? KEYSET_ORDER_BY : getSortOrder();
+                    int offset = (page - 1) * pageSize;
+                    if (anchor != null) {
+                        // Continue after the last row of the previous page instead of skipping `offset` rows
+                        selection = "(" + selection + ")" + KEYSET_CONDITION;
+                        selectionArgs = appendColumn(appendColumn(appendColumn(selectionArgs,
+                                String.valueOf(anchor.dateModified)),
+                                String.valueOf(anchor.dateModified)),
+                                String.valueOf(anchor.id));
+                        offset = 0;
+                    }
                     if (SdkVersionUtils.isR()) {
-                        Bundle queryArgs = MediaUtils.createQueryArgsBundle(getPageSelection(bucketId), getPageSelectionArgs(bucketId), pageSize, (page - 1) * pageSize, getSortOrder());
-                        data = getContext().getContentResolver().query(QUERY_URI, PROJECTION, queryArgs, null);
+                        Bundle queryArgs = MediaUtils.createQueryArgsBundle(selection, selectionArgs, pageSize, offset, sortOrder);
+                        data = getContext().getContentResolver().query(QUERY_URI, PAGE_PROJECTION, queryArgs, null);
                     } else {
-                        String orderBy = page == PictureConfig.ALL ? getSortOrder() : getSortOrder() + " limit " + pageSize + " offset " + (page - 1) * pageSize;
-                        data = getContext().getContentResolver().query(QUERY_URI, PROJECTION, getPageSelection(bucketId), getPageSelectionArgs(bucketId), orderBy);
+                        String orderBy = page == PictureConfig.ALL ? sortOrder : sortOrder + " limit " + pageSize + " offset " + offset;
+                        data = getContext().getContentResolver().query(QUERY_URI, PAGE_PROJECTION, selection, selectionArgs, orderBy);
                     }
                     if (data != null) {
                         ArrayList<LocalMedia> result = new ArrayList<>();
@@ -202,6 +257,12 @@ public final class LocalMediaPageLoader extends IBridgeMediaLoader {
                                 result.add(media);
 
                             } while (data.moveToNext());
+                            if (keyset && data.moveToLast()) {
+                                // The anchor is the last raw row, filtered rows still advance the keyset
+                                keysetIndex.put(bucketId, page, pageSize,
+                                        data.getLong(data.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED)),
+                                        data.getLong(data.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID)));
+                            }
                         }
                         if (bucketId == PictureConfig.ALL && page == 1) {
                             List<LocalMedia> list = SandboxFileLoader.loadInAppSandboxFile(getContext(), getConfig().sandboxDir);
@@ -263,152 +324,192 @@ public final class LocalMediaPageLoader extends IBridgeMediaLoader {
         PictureThreadUtils.executeByIo(new PictureThreadUtils.SimpleTask<List<LocalMediaFolder>>() {
             @Override
             public List<LocalMediaFolder> doInBackground() {
-                Cursor data = getContext().getContentResolver().query(QUERY_URI, isWithAllQuery() ? PROJECTION : ALL_PROJECTION,
-                        getSelection(), getSelectionArgs(), getSortOrder());
-                try {
-                    if (data != null) {
-                        int count = data.getCount();
-                        int totalCount = 0;
-                        List<LocalMediaFolder> mediaFolders = new ArrayList<>();
-                        if (count > 0) {
-                            if (isWithAllQuery()) {
-                                Map<Long, Long> countMap = new HashMap<>();
-                                Set<Long> hashSet = new HashSet<>();
-                                while (data.moveToNext()) {
-                                    if (getConfig().isPageSyncAsCount) {
-                                        LocalMedia media = parseLocalMedia(data, true);
-                                        if (media == null) {
-                                            continue;
-                                        }
-                                        media.recycle();
-                                    }
-                                    long bucketId = data.getLong(data.getColumnIndexOrThrow(COLUMN_BUCKET_ID));
-                                    Long newCount = countMap.get(bucketId);
-                                    if (newCount == null) {
-                                        newCount = 1L;
-                                    } else {
-                                        newCount++;
-                                    }
-                                    countMap.put(bucketId, newCount);
-
-                                    if (hashSet.contains(bucketId)) {
-                                        continue;
-                                    }
-                                    LocalMediaFolder mediaFolder = new LocalMediaFolder();
-                                    mediaFolder.setBucketId(bucketId);
-                                    String bucketDisplayName = data.getString(
-                                            data.getColumnIndexOrThrow(COLUMN_BUCKET_DISPLAY_NAME));
-                                    String mimeType = data.getString(data.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE));
-                                    if (!countMap.containsKey(bucketId)) {
-                                        continue;
-                                    }
-                                    long size = countMap.get(bucketId);
-                                    long id = data.getLong(data.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID));
-                                    mediaFolder.setFolderName(bucketDisplayName);
-                                    mediaFolder.setFolderTotalNum(ValueOf.toInt(size));
-                                    mediaFolder.setFirstImagePath(MediaUtils.getRealPathUri(id, mimeType));
-                                    mediaFolder.setFirstMimeType(mimeType);
-                                    mediaFolders.add(mediaFolder);
-                                    hashSet.add(bucketId);
-                                }
-                                for (LocalMediaFolder mediaFolder : mediaFolders) {
-                                    int size = ValueOf.toInt(countMap.get(mediaFolder.getBucketId()));
-                                    mediaFolder.setFolderTotalNum(size);
-                                    totalCount += size;
+                String signature = getAlbumIndexSignature();
+                if (signature != null) {
+                    List<LocalMediaFolder> cached = MediaAlbumIndexCache.get(getContext(), signature);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+                List<LocalMediaFolder> folders = queryAllAlbum();
+                if (signature != null) {
+                    MediaAlbumIndexCache.put(getContext(), signature, folders);
+                }
+                return folders;
+            }
+
+            @Override
+            public void onSuccess(List<LocalMediaFolder> result) {
+                PictureThreadUtils.cancel(this);
+                LocalMedia.destroyPool();
+                if (query != null) {
+                    query.onComplete(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Key of the cached album index, null when the result can not be cached
+     * (in-app sandbox files and custom filters are not covered by MediaStore change tracking)
+     */
+    private String getAlbumIndexSignature() {
+        SelectorConfig config = getConfig();
+        if (!isWithAllQuery() || !TextUtils.isEmpty(config.sandboxDir) || config.onQueryFilterListener != null) {
+            return null;
+        }
+        return getSelection() + "|" + Arrays.toString(getSelectionArgs()) + "|" + getSortOrder()
+                + "|" + config.chooseMode + "|" + config.isPageSyncAsCount + "|" + config.isFilterInvalidFile
+                + "|" + config.isGif + config.isWebp + config.isBmp + config.isHeic
+                + "|" + config.isFilterSizeDuration + "|" + config.filterVideoMinSecond + "|" + config.filterVideoMaxSecond
+                + "|" + config.defaultAlbumName + "|" + config.isSyncCover;
+    }
+
+    /**
+     * Builds the album list from a single pass over MediaStore: per bucket counts and the
+     * first row of each bucket (which is its cover under the same sort order)
+     */
+    private List<LocalMediaFolder> queryAllAlbum() {
+        String[] projection = isWithAllQuery()
+                ? (getConfig().isPageSyncAsCount ? PROJECTION : ALBUM_PROJECTION)
+                : ALL_PROJECTION;
+        Cursor data = getContext().getContentResolver().query(QUERY_URI, projection,
+                getSelection(), getSelectionArgs(), getSortOrder());
+        try {
+            if (data != null) {
+                int count = data.getCount();
+                int totalCount = 0;
+                List<LocalMediaFolder> mediaFolders = new ArrayList<>();
+                if (count > 0) {
+                    if (isWithAllQuery()) {
+                        Map<Long, Long> countMap = new HashMap<>();
+                        Set<Long> hashSet = new HashSet<>();
+                        while (data.moveToNext()) {
+                            if (getConfig().isPageSyncAsCount) {
+                                LocalMedia media = parseLocalMedia(data, true);
+                                if (media == null) {
+                                    continue;
                                 }
-                            } else {
-                                data.moveToFirst();
-                                do {
-                                    String url = data.getString(data.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA));
-                                    String bucketDisplayName = data.getString(data.getColumnIndexOrThrow(COLUMN_BUCKET_DISPLAY_NAME));
-                                    String mimeType = data.getString(data.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE));
-                                    long bucketId = data.getLong(data.getColumnIndexOrThrow(COLUMN_BUCKET_ID));
-                                    int size = data.getInt(data.getColumnIndexOrThrow(COLUMN_COUNT));
-                                    LocalMediaFolder mediaFolder = new LocalMediaFolder();
-                                    mediaFolder.setBucketId(bucketId);
-                                    mediaFolder.setFirstImagePath(url);
-                                    mediaFolder.setFolderName(bucketDisplayName);
-                                    mediaFolder.setFirstMimeType(mimeType);
-                                    mediaFolder.setFolderTotalNum(size);
-                                    mediaFolders.add(mediaFolder);
-                                    totalCount += size;
-                                } while (data.moveToNext());
+                                media.recycle();
                             }
-                            // 相机胶卷
-                            LocalMediaFolder allMediaFolder = new LocalMediaFolder();
-                            LocalMediaFolder selfFolder = SandboxFileLoader
-                                    .loadInAppSandboxFolderFile(getContext(), getConfig().sandboxDir);
-                            if (selfFolder != null) {
-                                mediaFolders.add(selfFolder);
-                                String firstImagePath = selfFolder.getFirstImagePath();
-                                File file = new File(firstImagePath);
-                                long lastModified = file.lastModified();
-                                totalCount += selfFolder.getFolderTotalNum();
-                                allMediaFolder.setData(new ArrayList<>());
-                                if (data.moveToFirst()) {
-                                    allMediaFolder.setFirstImagePath(SdkVersionUtils.isQ() ? getFirstUri(data) : getFirstUrl(data));
-                                    allMediaFolder.setFirstMimeType(getFirstCoverMimeType(data));
-                                    long lastModified2;
-                                    if (PictureMimeType.isContent(allMediaFolder.getFirstImagePath())) {
-                                        String path = PictureFileUtils.getPath(getContext(), Uri.parse(allMediaFolder.getFirstImagePath()));
-                                        lastModified2 = new File(path).lastModified();
-                                    } else {
-                                        lastModified2 = new File(allMediaFolder.getFirstImagePath()).lastModified();
-                                    }
-                                    if (lastModified > lastModified2) {
-                                        allMediaFolder.setFirstImagePath(selfFolder.getFirstImagePath());
-                                        allMediaFolder.setFirstMimeType(selfFolder.getFirstMimeType());
-                                    }
-                                }
+                            long bucketId = data.getLong(data.getColumnIndexOrThrow(COLUMN_BUCKET_ID));
+                            Long newCount = countMap.get(bucketId);
+                            if (newCount == null) {
+                                newCount = 1L;
                             } else {
-                                if (data.moveToFirst()) {
-                                    allMediaFolder.setFirstImagePath(SdkVersionUtils.isQ() ? getFirstUri(data) : getFirstUrl(data));
-                                    allMediaFolder.setFirstMimeType(getFirstCoverMimeType(data));
-                                }
+                                newCount++;
+                            }
+                            countMap.put(bucketId, newCount);
+
+                            if (hashSet.contains(bucketId)) {
+                                continue;
                             }
-                            if (totalCount == 0) {
-                                return mediaFolders;
+                            LocalMediaFolder mediaFolder = new LocalMediaFolder();
+                            mediaFolder.setBucketId(bucketId);
+                            String bucketDisplayName = data.getString(
+                                    data.getColumnIndexOrThrow(COLUMN_BUCKET_DISPLAY_NAME));
+                            String mimeType = data.getString(data.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE));
+                            if (!countMap.containsKey(bucketId)) {
+                                continue;
                             }
-                            SortUtils.sortFolder(mediaFolders);
-                            allMediaFolder.setFolderTotalNum(totalCount);
-                            allMediaFolder.setBucketId(PictureConfig.ALL);
-                            String folderName;
-                            if (TextUtils.isEmpty(getConfig().defaultAlbumName)) {
-                                folderName = getConfig().chooseMode == SelectMimeType.ofAudio()
-                                        ? getContext().getString(R.string.ps_all_audio) : getContext().getString(R.string.ps_camera_roll);
+                            long size = countMap.get(bucketId);
+                            long id = data.getLong(data.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID));
+                            mediaFolder.setFolderName(bucketDisplayName);
+                            mediaFolder.setFolderTotalNum(ValueOf.toInt(size));
+                            mediaFolder.setFirstImagePath(MediaUtils.getRealPathUri(id, mimeType));
+                            mediaFolder.setFirstMimeType(mimeType);
+                            mediaFolders.add(mediaFolder);
+                            hashSet.add(bucketId);
+                        }
+                        for (LocalMediaFolder mediaFolder : mediaFolders) {
+                            int size = ValueOf.toInt(countMap.get(mediaFolder.getBucketId()));
+                            mediaFolder.setFolderTotalNum(size);
+                            totalCount += size;
+                        }
+                    } else {
+                        data.moveToFirst();
+                        do {
+                            String url = data.getString(data.getColumnIndexOrThrow(MediaStore.MediaColumns.DATA));
+                            String bucketDisplayName = data.getString(data.getColumnIndexOrThrow(COLUMN_BUCKET_DISPLAY_NAME));
+                            String mimeType = data.getString(data.getColumnIndexOrThrow(MediaStore.MediaColumns.MIME_TYPE));
+                            long bucketId = data.getLong(data.getColumnIndexOrThrow(COLUMN_BUCKET_ID));
+                            int size = data.getInt(data.getColumnIndexOrThrow(COLUMN_COUNT));
+                            LocalMediaFolder mediaFolder = new LocalMediaFolder();
+                            mediaFolder.setBucketId(bucketId);
+                            mediaFolder.setFirstImagePath(url);
+                            mediaFolder.setFolderName(bucketDisplayName);
+                            mediaFolder.setFirstMimeType(mimeType);
+                            mediaFolder.setFolderTotalNum(size);
+                            mediaFolders.add(mediaFolder);
+                            totalCount += size;
+                        } while (data.moveToNext());
+                    }
+                    // 相机胶卷
+                    LocalMediaFolder allMediaFolder = new LocalMediaFolder();
+                    LocalMediaFolder selfFolder = SandboxFileLoader
+                            .loadInAppSandboxFolderFile(getContext(), getConfig().sandboxDir);
+                    if (selfFolder != null) {
+                        mediaFolders.add(selfFolder);
+                        String firstImagePath = selfFolder.getFirstImagePath();
+                        File file = new File(firstImagePath);
+                        long lastModified = file.lastModified();
+                        totalCount += selfFolder.getFolderTotalNum();
+                        allMediaFolder.setData(new ArrayList<>());
+                        if (data.moveToFirst()) {
+                            allMediaFolder.setFirstImagePath(SdkVersionUtils.isQ() ? getFirstUri(data) : getFirstUrl(data));
+                            allMediaFolder.setFirstMimeType(getFirstCoverMimeType(data));
+                            long lastModified2;
+                            if (PictureMimeType.isContent(allMediaFolder.getFirstImagePath())) {
+                                String path = PictureFileUtils.getPath(getContext(), Uri.parse(allMediaFolder.getFirstImagePath()));
+                                lastModified2 = new File(path).lastModified();
                             } else {
-                                folderName = getConfig().defaultAlbumName;
+                                lastModified2 = new File(allMediaFolder.getFirstImagePath()).lastModified();
                             }
-                            allMediaFolder.setFolderName(folderName);
-                            mediaFolders.add(0, allMediaFolder);
-                            if (getConfig().isSyncCover) {
-                                if (getConfig().chooseMode == SelectMimeType.ofAll()) {
-                                    synchronousFirstCover(mediaFolders);
-                                }
+                            if (lastModified > lastModified2) {
+                                allMediaFolder.setFirstImagePath(selfFolder.getFirstImagePath());
+                                allMediaFolder.setFirstMimeType(selfFolder.getFirstMimeType());
                             }
-                            return mediaFolders;
+                        }
+                    } else {
+                        if (data.moveToFirst()) {
+                            allMediaFolder.setFirstImagePath(SdkVersionUtils.isQ() ? getFirstUri(data) : getFirstUrl(data));
+                            allMediaFolder.setFirstMimeType(getFirstCoverMimeType(data));
                         }
                     }
-                } catch (Exception e) {
-                    L.w(e, () -> "[LocalMediaPageLoader] loadAllAlbum error:");
-                    L.i(() -> "[LocalMediaPageLoader] loadAllMedia Data Error" + e);
-                } finally {
-                    if (data != null && !data.isClosed()) {
-                        data.close();
+                    if (totalCount == 0) {
+                        return mediaFolders;
+                    }
+                    SortUtils.sortFolder(mediaFolders);
+                    allMediaFolder.setFolderTotalNum(totalCount);
+                    allMediaFolder.setBucketId(PictureConfig.ALL);
+                    String folderName;
+                    if (TextUtils.isEmpty(getConfig().defaultAlbumName)) {
+                        folderName = getConfig().chooseMode == SelectMimeType.ofAudio()
+                                ? getContext().getString(R.string.ps_all_audio) : getContext().getString(R.string.ps_camera_roll);
+                    } else {
+                        folderName = getConfig().defaultAlbumName;
+                    }
+                    allMediaFolder.setFolderName(folderName);
+                    mediaFolders.add(0, allMediaFolder);
+                    // With the full query the first row of every bucket already is its cover,
+                    // only grouped queries need a cover query per bucket
+                    if (getConfig().isSyncCover && !isWithAllQuery()) {
+                        if (getConfig().chooseMode == SelectMimeType.ofAll()) {
+                            synchronousFirstCover(mediaFolders);
+                        }
                     }
+                    return mediaFolders;
                 }
-                return new ArrayList<>();
             }
-
-            @Override
-            public void onSuccess(List<LocalMediaFolder> result) {
-                PictureThreadUtils.cancel(this);
-                LocalMedia.destroyPool();
-                if (query != null) {
-                    query.onComplete(result);
-                }
+        } catch (Exception e) {
+            L.w(e, () -> "[LocalMediaPageLoader] loadAllAlbum error:");
+            L.i(() -> "[LocalMediaPageLoader] loadAllMedia Data Error" + e);
+        } finally {
+            if (data != null && !data.isClosed()) {
+                data.close();
             }
-        });
+        }
+        return new ArrayList<>();
     }
 
     /**
@@ -0,0 +1,134 @@
+package com.luck.picture.lib.loader;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+
+import com.difft.android.base.log.lumberjack.L;
+import com.luck.picture.lib.entity.LocalMediaFolder;
+import com.luck.picture.lib.utils.SdkVersionUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @describe：Process wide cache of the album list between picker openings.
+ * <p>
+ * On R+ the snapshot is validated with {@link MediaStore#getVersion(Context)} and
+ * {@link MediaStore#getGeneration(Context, String)}; on older versions a {@link ContentObserver}
+ * on the files uri marks the snapshot dirty. Folders are stored as immutable rows and rebuilt
+ * for every caller because the UI attaches page data to the returned folders.
+ */
+final class MediaAlbumIndexCache {
+
+    private static final class FolderRow {
+        final long bucketId;
+        final String folderName;
+        final String firstImagePath;
+        final String firstMimeType;
+        final int folderTotalNum;
+
+        FolderRow(LocalMediaFolder folder) {
+            this.bucketId = folder.getBucketId();
+            this.folderName = folder.getFolderName();
+            this.firstImagePath = folder.getFirstImagePath();
+            this.firstMimeType = folder.getFirstMimeType();
+            this.folderTotalNum = folder.getFolderTotalNum();
+        }
+
+        LocalMediaFolder toFolder() {
+            LocalMediaFolder folder = new LocalMediaFolder();
+            folder.setBucketId(bucketId);
+            folder.setFolderName(folderName);
+            folder.setFirstImagePath(firstImagePath);
+            folder.setFirstMimeType(firstMimeType);
+            folder.setFolderTotalNum(folderTotalNum);
+            return folder;
+        }
+    }
+
+    private static String cachedSignature;
+    private static String cachedStamp;
+    private static List<FolderRow> cachedRows;
+    private static volatile boolean dirty = true;
+    private static boolean observerRegistered;
+
+    private MediaAlbumIndexCache() {
+    }
+
+    /**
+     * @param signature describes the query (selection, sort order, filters); a different query never hits
+     */
+    static synchronized List<LocalMediaFolder> get(Context context, String signature) {
+        if (cachedRows == null || !signature.equals(cachedSignature)) {
+            return null;
+        }
+        String stamp = currentStamp(context);
+        if (SdkVersionUtils.isR() ? stamp == null || !stamp.equals(cachedStamp) : dirty) {
+            return null;
+        }
+        List<LocalMediaFolder> folders = new ArrayList<>(cachedRows.size());
+        for (FolderRow row : cachedRows) {
+            folders.add(row.toFolder());
+        }
+        return folders;
+    }
+
+    static synchronized void put(Context context, String signature, List<LocalMediaFolder> folders) {
+        if (folders == null || folders.isEmpty()) {
+            return;
+        }
+        ensureObserver(context);
+        List<FolderRow> rows = new ArrayList<>(folders.size());
+        for (LocalMediaFolder folder : folders) {
+            rows.add(new FolderRow(folder));
+        }
+        cachedRows = rows;
+        cachedSignature = signature;
+        cachedStamp = currentStamp(context);
+        dirty = false;
+    }
+
+    /**
+     * MediaStore version + generation of every external volume, null below R
+     */
+    private static String currentStamp(Context context) {
+        if (!SdkVersionUtils.isR()) {
+            return null;
+        }
+        try {
+            StringBuilder builder = new StringBuilder(MediaStore.getVersion(context));
+            Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+            for (String volume : volumes) {
+                builder.append('|').append(volume).append(':').append(MediaStore.getGeneration(context, volume));
+            }
+            return builder.toString();
+        } catch (Exception e) {
+            L.w(e, () -> "[MediaAlbumIndexCache] read generation error:");
+            return null;
+        }
+    }
+
+    private static void ensureObserver(Context context) {
+        if (observerRegistered || SdkVersionUtils.isR()) {
+            return;
+        }
+        try {
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    MediaStore.Files.getContentUri("external"), true,
+                    new ContentObserver(new Handler(Looper.getMainLooper())) {
+                        @Override
+                        public void onChange(boolean selfChange, Uri uri) {
+                            dirty = true;
+                        }
+                    });
+            observerRegistered = true;
+        } catch (Exception e) {
+            L.w(e, () -> "[MediaAlbumIndexCache] register observer error:");
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.luck.picture.lib.loader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @describe：Remembers the (date_modified, _id) of the last row of every loaded page,
+ * so the next page can be queried with a keyset condition instead of LIMIT/OFFSET.
+ * <p>
+ * The anchor of page N is only used for page N + 1 with the same bucket and page size,
+ * any other access pattern falls back to OFFSET paging.
+ */
+final class MediaPageKeysetIndex {
+
+    static final class Anchor {
+        final long dateModified;
+        final long id;
+
+        Anchor(long dateModified, long id) {
+            this.dateModified = dateModified;
+            this.id = id;
+        }
+    }
+
+    private final Map<String, Anchor> anchors = new ConcurrentHashMap<>();
+
+    private static String key(long bucketId, int page, int pageSize) {
+        return bucketId + ":" + pageSize + ":" + page;
+    }
+
+    /**
+     * Anchor to continue from when loading {@code page}, or null when the previous page is unknown
+     */
+    Anchor anchorBefore(long bucketId, int page, int pageSize) {
+        if (page <= 1) {
+            return null;
+        }
+        return anchors.get(key(bucketId, page - 1, pageSize));
+    }
+
+    void put(long bucketId, int page, int pageSize, long dateModified, long id) {
+        anchors.put(key(bucketId, page, pageSize), new Anchor(dateModified, id));
+    }
+
+    /**
+     * Reloading the first page means the list is refreshed, older anchors of the bucket are dropped
+     */
+    void resetBucket(long bucketId) {
+        String prefix = bucketId + ":";
+        anchors.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+}
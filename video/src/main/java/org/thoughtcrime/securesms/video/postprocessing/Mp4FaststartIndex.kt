@@ -0,0 +1,256 @@
+/*
+ * Copyright 2024 Signal Messenger, LLC
+ * SPDX-License-Identifier: AGPL-3.0-only
+ */
+
+package org.thoughtcrime.securesms.video.postprocessing
+
+import com.difft.android.base.log.lumberjack.L
+import org.thoughtcrime.securesms.video.exceptions.VideoPostProcessingException
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.SeekableByteChannel
+
+/**
+ * Top-level box index of an MP4 file, built in a single forward pass.
+ *
+ * Only box headers are read, except for `ftyp` and `moov` whose bodies are kept in memory. Media data is
+ * skipped: with a [SeekableByteChannel] that is a seek, with an [InputStream] it is [InputStream.skip].
+ *
+ * [faststart] then lays the file out as `ftyp`, `moov`, media data and shifts every `stco`/`co64` chunk
+ * offset in the `moov` by the distance the media data moved. Fragmented files (`moof` boxes) carry
+ * offsets relative to their `moof`, so their fragments are moved as a block without patching.
+ */
+class Mp4FaststartIndex private constructor(
+  val boxes: List<Box>,
+  private val ftyp: ByteArray?,
+  private val moov: ByteArray
+) {
+
+  class Box(val type: String, val offset: Long, val size: Long) {
+    val end: Long get() = offset + size
+
+    override fun toString(): String = "$type@$offset+$size"
+  }
+
+  /**
+   * @property header `ftyp` and patched `moov`, to be written before the media data
+   * @property dataOffset offset of the media data in the input
+   * @property dataLength length of the media data
+   */
+  class Layout(val header: ByteArray, val dataOffset: Long, val dataLength: Long, val fragmented: Boolean)
+
+  val isFragmented: Boolean get() = boxes.any { it.type == MOOF }
+
+  /**
+   * True when the `moov` already precedes the media data.
+   */
+  val isFaststart: Boolean get() {
+    val moovBox = boxes.first { it.type == MOOV }
+    val firstData = boxes.firstOrNull { it.type in DATA_TYPES } ?: return true
+    return moovBox.offset < firstData.offset
+  }
+
+  fun faststart(): Layout {
+    val dataBoxes = boxes.filter { it.type in DATA_TYPES }
+    if (dataBoxes.isEmpty()) {
+      throw VideoPostProcessingException("No media data in $boxes")
+    }
+    val dataOffset = dataBoxes.first().offset
+    val dataEnd = dataBoxes.last().end
+    val moovBox = boxes.first { it.type == MOOV }
+    if (moovBox.offset in dataOffset until dataEnd) {
+      throw VideoPostProcessingException("moov is interleaved with media data: $boxes")
+    }
+
+    val header = ByteArray((ftyp?.size ?: 0) + moov.size)
+    ftyp?.copyInto(header)
+    val moovCopy = moov.copyOf()
+    val delta = header.size - dataOffset
+    val patched = if (delta != 0L) patchChunkOffsets(ByteBuffer.wrap(moovCopy), delta) else 0
+    moovCopy.copyInto(header, ftyp?.size ?: 0)
+
+    return Layout(header, dataOffset, dataEnd - dataOffset, isFragmented).also {
+      L.i { "[$TAG] faststart boxes:$boxes delta:$delta patchedTables:$patched fragmented:${it.fragmented}" }
+    }
+  }
+
+  /**
+   * Source of box bytes, read strictly forward
+   */
+  interface Source {
+    /** @return bytes read, less than [length] only at the end of the input */
+    fun read(buffer: ByteArray, offset: Int, length: Int): Int
+
+    fun skip(count: Long)
+  }
+
+  class ChannelSource(private val channel: SeekableByteChannel) : Source {
+    override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+      val byteBuffer = ByteBuffer.wrap(buffer, offset, length)
+      while (byteBuffer.hasRemaining()) {
+        if (channel.read(byteBuffer) < 0) break
+      }
+      return byteBuffer.position() - offset
+    }
+
+    override fun skip(count: Long) {
+      val target = channel.position() + count
+      if (target > channel.size()) {
+        throw EOFException("Unexpected end of channel, box ends at $target of ${channel.size()}")
+      }
+      channel.position(target)
+    }
+  }
+
+  class StreamSource(private val inputStream: InputStream) : Source {
+    override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+      var read = 0
+      while (read < length) {
+        val result = inputStream.read(buffer, offset + read, length - read)
+        if (result < 0) break
+        read += result
+      }
+      return read
+    }
+
+    override fun skip(count: Long) {
+      var left = count
+      while (left > 0) {
+        val skipped = inputStream.skip(left)
+        if (skipped > 0) {
+          left -= skipped
+        } else if (inputStream.read() >= 0) {
+          left--
+        } else {
+          throw EOFException("Unexpected end of stream, $left bytes left to skip")
+        }
+      }
+    }
+  }
+
+  companion object {
+    private const val TAG = "Mp4Faststart"
+
+    private const val FTYP = "ftyp"
+    private const val MOOV = "moov"
+    private const val MDAT = "mdat"
+    private const val MOOF = "moof"
+    private const val STCO = "stco"
+    private const val CO64 = "co64"
+
+    private val DATA_TYPES = setOf(MDAT, MOOF)
+    private val CONTAINER_TYPES = setOf(MOOV, "trak", "mdia", "minf", "stbl", "edts", "dinf")
+
+    private const val MAX_HEADER_BOX_SIZE = 64L * 1024 * 1024
+
+    /**
+     * @param inputLength length of the input if known, only needed when the last box extends to the end of the input
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun read(source: Source, inputLength: Long = -1): Mp4FaststartIndex {
+      val boxes = mutableListOf<Box>()
+      var ftyp: ByteArray? = null
+      var moov: ByteArray? = null
+      val header = ByteArray(16)
+      var position = 0L
+
+      while (true) {
+        val read = source.read(header, 0, 8)
+        if (read == 0) break
+        if (read < 8) throw VideoPostProcessingException("Truncated box header at $position")
+
+        var headerSize = 8
+        var size = ByteBuffer.wrap(header, 0, 4).int.toLong() and 0xffffffffL
+        val type = String(header, 4, 4, Charsets.ISO_8859_1)
+        if (size == 1L) {
+          if (source.read(header, 8, 8) < 8) throw VideoPostProcessingException("Truncated large box header at $position")
+          size = ByteBuffer.wrap(header, 8, 8).long
+          headerSize = 16
+        } else if (size == 0L) {
+          // box extends to the end of the input
+          size = if (inputLength > 0) inputLength - position else Long.MAX_VALUE - position
+        }
+        if (size < headerSize) throw VideoPostProcessingException("Invalid size $size for $type at $position")
+
+        val box = Box(type, position, size)
+        boxes.add(box)
+
+        if (type == FTYP || type == MOOV) {
+          if (size > MAX_HEADER_BOX_SIZE) throw VideoPostProcessingException("$type too large: $size")
+          val bytes = ByteArray(size.toInt())
+          header.copyInto(bytes, 0, 0, headerSize)
+          if (source.read(bytes, headerSize, bytes.size - headerSize) < bytes.size - headerSize) {
+            throw VideoPostProcessingException("Truncated $type at $position")
+          }
+          if (type == FTYP) ftyp = bytes else moov = bytes
+        } else {
+          if (size == Long.MAX_VALUE - position) break
+          source.skip(size - headerSize)
+        }
+        position += size
+      }
+
+      if (moov == null) throw VideoPostProcessingException("No moov in $boxes")
+      if (moov.size > 8 && ByteBuffer.wrap(moov).int == 1) {
+        throw VideoPostProcessingException("Large size moov is not supported")
+      }
+      return Mp4FaststartIndex(boxes, ftyp, moov)
+    }
+
+    /**
+     * Adds [delta] to every chunk offset in the `stco` and `co64` boxes below the box at the buffer's position.
+     *
+     * @return number of offset tables patched
+     */
+    private fun patchChunkOffsets(buffer: ByteBuffer, delta: Long): Int {
+      var patched = 0
+      val start = buffer.position()
+      val size = buffer.getInt(start).toLong() and 0xffffffffL
+      val end = start + size.toInt()
+
+      var child = start + 8
+      while (child + 8 <= end) {
+        val childSize = buffer.getInt(child).toLong() and 0xffffffffL
+        val childType = String(ByteArray(4).also { for (i in 0 until 4) it[i] = buffer.get(child + 4 + i) }, Charsets.ISO_8859_1)
+        if (childSize < 8 || child + childSize > end) {
+          throw VideoPostProcessingException("Invalid box $childType size $childSize in moov")
+        }
+
+        when (childType) {
+          in CONTAINER_TYPES -> {
+            buffer.position(child)
+            patched += patchChunkOffsets(buffer, delta)
+          }
+
+          STCO -> {
+            val count = buffer.getInt(child + 12)
+            for (i in 0 until count) {
+              val index = child + 16 + i * 4
+              val offset = (buffer.getInt(index).toLong() and 0xffffffffL) + delta
+              if (offset < 0 || offset > 0xffffffffL) {
+                throw VideoPostProcessingException("Chunk offset $offset does not fit stco")
+              }
+              buffer.putInt(index, offset.toInt())
+            }
+            patched++
+          }
+
+          CO64 -> {
+            val count = buffer.getInt(child + 12)
+            for (i in 0 until count) {
+              val index = child + 16 + i * 8
+              buffer.putLong(index, buffer.getLong(index) + delta)
+            }
+            patched++
+          }
+        }
+        child += childSize.toInt()
+      }
+      return patched
+    }
+  }
+}
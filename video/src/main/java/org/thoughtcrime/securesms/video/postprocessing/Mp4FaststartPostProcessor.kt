@@ -7,7 +7,6 @@ package org.thoughtcrime.securesms.video.postprocessing
 
 import util.readLength
 import org.signal.libsignal.media.Mp4Sanitizer
-import org.signal.libsignal.media.SanitizedMetadata
 import org.thoughtcrime.securesms.video.exceptions.VideoPostProcessingException
 import java.io.ByteArrayInputStream
 import java.io.FilterInputStream
@@ -15,30 +14,71 @@ import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
 import java.io.SequenceInputStream
+import java.nio.channels.Channels
+import java.nio.channels.SeekableByteChannel
 
 /**
- * A post processor that takes a stream of bytes, and using [Mp4Sanitizer], moves the metadata to the front of the file.
+ * A post processor that takes a stream of bytes and moves the metadata to the front of the file.
  *
- * @property inputStreamFactory factory for the [InputStream]. Expected to be called multiple times.
+ * The top-level boxes are indexed in one pass by [Mp4FaststartIndex], and the chunk offsets in the `moov` are
+ * patched in place. When a [channelFactory] is supplied the index only seeks over the media data, so the input is
+ * read once in total. With streams only, the input is read twice: once to index it and once for the media data.
+ *
+ * The input is also checked by [validator], by default [Mp4Sanitizer], which has to agree on where the media data
+ * is. On a channel the sanitizer only reads the box headers again and seeks over the media data.
+ *
+ * @property inputStreamFactory factory for the [InputStream]. Expected to be called up to two times, three when
+ * a [validator] is set and there is no [channelFactory].
+ * @property channelFactory optional factory for a seekable view of the same input, preferred when available.
  */
-class Mp4FaststartPostProcessor(private val inputStreamFactory: InputStreamFactory) {
+class Mp4FaststartPostProcessor @JvmOverloads constructor(
+  private val inputStreamFactory: InputStreamFactory,
+  private val channelFactory: ChannelFactory? = null,
+  private val validator: Validator? = MP4_SANITIZER
+) {
 
   /**
    * It is the responsibility of the caller to close the resulting [InputStream].
+   *
+   * @param inputLength length of the input if known, only needed for inputs whose last box has no size
    */
-  fun process(inputLength: Long = calculateStreamLength(inputStreamFactory.create())): SequenceInputStream {
-    val metadata = inputStreamFactory.create().use { inputStream ->
-      sanitizeMetadata(inputStream, inputLength)
+  fun process(inputLength: Long = -1): SequenceInputStream {
+    val channel = channelFactory?.create()
+    if (channel != null) {
+      try {
+        val length = inputLength.takeIf { it > 0 } ?: channel.size()
+        val layout = Mp4FaststartIndex.read(Mp4FaststartIndex.ChannelSource(channel), length).faststart()
+        if (validator != null) {
+          channel.position(0)
+          // Not closed, closing the stream would close the channel
+          validator.validate(Channels.newInputStream(channel), length, layout)
+        }
+        channel.position(layout.dataOffset)
+        return SequenceInputStream(ByteArrayInputStream(layout.header), LimitedInputStream(Channels.newInputStream(channel), layout.dataLength))
+      } catch (e: Exception) {
+        channel.close()
+        throw e
+      }
+    }
+
+    val layout = inputStreamFactory.create().use { inputStream ->
+      Mp4FaststartIndex.read(Mp4FaststartIndex.StreamSource(inputStream), inputLength).faststart()
     }
-    if (metadata.sanitizedMetadata == null) {
-      throw VideoPostProcessingException("Sanitized metadata was null!")
+    if (validator != null) {
+      val length = inputLength.takeIf { it > 0 } ?: calculateStreamLength(inputStreamFactory.create())
+      inputStreamFactory.create().use { validator.validate(it, length, layout) }
     }
     val inputStream = inputStreamFactory.create()
-    inputStream.skip(metadata.dataOffset)
-    return SequenceInputStream(ByteArrayInputStream(metadata.sanitizedMetadata), LimitedInputStream(inputStream, metadata.dataLength))
+    try {
+      Mp4FaststartIndex.StreamSource(inputStream).skip(layout.dataOffset)
+    } catch (e: Exception) {
+      inputStream.close()
+      throw e
+    }
+    return SequenceInputStream(ByteArrayInputStream(layout.header), LimitedInputStream(inputStream, layout.dataLength))
   }
 
-  fun processAndWriteTo(outputStream: OutputStream, inputLength: Long = calculateStreamLength(inputStreamFactory.create())): Long {
+  fun processAndWriteTo(outputStream: OutputStream, inputLength: Long = -1): Long {
     process(inputLength).use { inStream ->
       return inStream.copyTo(outputStream)
     }
@@ -48,20 +88,36 @@ class Mp4FaststartPostProcessor(private val inputStreamFactory: InputStreamFacto
     fun create(): InputStream
   }
 
+  fun interface ChannelFactory {
+    /** @return a channel positioned at the start of the input, or null when the input is not seekable */
+    fun create(): SeekableByteChannel?
+  }
+
+  fun interface Validator {
+    /**
+     * @throws VideoPostProcessingException if the input must not be sent as laid out by [layout]
+     */
+    fun validate(inputStream: InputStream, inputLength: Long, layout: Mp4FaststartIndex.Layout)
+  }
+
   companion object {
     const val TAG = "Mp4Faststart"
 
-    @JvmStatic
-    fun calculateStreamLength(inputStream: InputStream): Long {
-      inputStream.use {
-        return it.readLength()
+    @JvmField
+    val MP4_SANITIZER = Validator { inputStream, inputLength, layout ->
+      val metadata = Mp4Sanitizer.sanitize(inputStream, inputLength)
+      if (metadata.sanitizedMetadata == null) {
+        throw VideoPostProcessingException("Sanitized metadata was null!")
+      }
+      if (metadata.dataOffset != layout.dataOffset || metadata.dataLength != layout.dataLength) {
+        throw VideoPostProcessingException("Media data at ${layout.dataOffset}+${layout.dataLength}, sanitizer found ${metadata.dataOffset}+${metadata.dataLength}")
       }
     }
 
     @JvmStatic
-    private fun sanitizeMetadata(inputStream: InputStream, inputLength: Long): SanitizedMetadata {
+    fun calculateStreamLength(inputStream: InputStream): Long {
       inputStream.use {
-        return Mp4Sanitizer.sanitize(it, inputLength)
+        return it.readLength()
       }
     }
   }
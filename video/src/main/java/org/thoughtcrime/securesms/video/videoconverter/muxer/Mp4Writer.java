@@ -17,28 +17,18 @@
  */
 package org.thoughtcrime.securesms.video.videoconverter.muxer;
 
-import static org.mp4parser.tools.CastUtils.l2i;
-
 import androidx.annotation.NonNull;
 
 import org.mp4parser.Box;
-import org.mp4parser.boxes.iso14496.part12.ChunkOffsetBox;
-import org.mp4parser.boxes.iso14496.part12.CompositionTimeToSample;
 import org.mp4parser.boxes.iso14496.part12.FileTypeBox;
 import org.mp4parser.boxes.iso14496.part12.MediaHeaderBox;
 import org.mp4parser.boxes.iso14496.part12.MovieBox;
 import org.mp4parser.boxes.iso14496.part12.MovieHeaderBox;
-import org.mp4parser.boxes.iso14496.part12.SampleSizeBox;
 import org.mp4parser.boxes.iso14496.part12.SampleTableBox;
-import org.mp4parser.boxes.iso14496.part12.SampleToChunkBox;
-import org.mp4parser.boxes.iso14496.part12.SyncSampleBox;
-import org.mp4parser.boxes.iso14496.part12.TimeToSampleBox;
 import org.mp4parser.boxes.iso14496.part12.TrackBox;
 import org.mp4parser.boxes.iso14496.part12.TrackHeaderBox;
 import org.mp4parser.streaming.StreamingSample;
 import org.mp4parser.streaming.StreamingTrack;
-import org.mp4parser.streaming.extensions.CompositionTimeSampleExtension;
-import org.mp4parser.streaming.extensions.CompositionTimeTrackExtension;
 import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension;
 import org.mp4parser.streaming.extensions.TrackIdTrackExtension;
 import org.mp4parser.streaming.output.SampleSink;
@@ -100,8 +90,10 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
    * Buffers segments until it's time for a segment to be written.
    */
   private final Map<StreamingTrack, Queue<ChunkContainer>> chunkBuffers             = new ConcurrentHashMap<>();
-  private final Map<StreamingTrack, Long>                  chunkNumbers             = new HashMap<>();
-  private final Map<StreamingTrack, Long>                  sampleNumbers            = new HashMap<>();
+  /**
+   * Sample tables, filled as chunks are created and written, turned into boxes when the moov is written.
+   */
+  private final Map<StreamingTrack, SampleTable>           sampleTables             = new HashMap<>();
   private       long                                       bytesWritten             = 0;
 
   Mp4Writer(final @NonNull List<StreamingTrack> source, final @NonNull WritableByteChannel sink) throws IOException {
@@ -111,8 +103,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     final HashSet<Long> trackIds = new HashSet<>();
     for (StreamingTrack streamingTrack : source) {
       streamingTrack.setSampleSink(this);
-      chunkNumbers.put(streamingTrack, 1L);
-      sampleNumbers.put(streamingTrack, 1L);
+      sampleTables.put(streamingTrack, new SampleTable());
       nextSampleStartTime.put(streamingTrack, 0L);
       nextChunkCreateStartTime.put(streamingTrack, 0L);
       nextChunkWriteStartTime.put(streamingTrack, 0L);
@@ -145,11 +136,24 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   }
 
   public void close() throws IOException {
-    for (StreamingTrack streamingTrack : source) {
-      writeChunkContainer(createChunkContainer(streamingTrack));
-      streamingTrack.close();
+    try {
+      for (StreamingTrack streamingTrack : source) {
+        writeChunkContainer(createChunkContainer(streamingTrack));
+        streamingTrack.close();
+      }
+      write(sink, createMoov());
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Releases the sample tables' spill files, also when the file is abandoned before {@link #close()}.
+   */
+  void release() {
+    for (SampleTable sampleTable : sampleTables.values()) {
+      sampleTable.release();
     }
-    write(sink, createMoov());
   }
 
   private Box createMoov() {
@@ -171,6 +175,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
       mdhd.setDuration(mediaHeaderDuration);
       mdhd.setTimescale(streamingTrack.getTimescale());
       mdhd.setLanguage(streamingTrack.getLanguage());
+      setSampleTableBoxes(tb, Objects.requireNonNull(sampleTables.get(streamingTrack)));
       movieBox.addBox(tb);
 
       final TrackHeaderBox tkhd     = Path.getPath(tb, "tkhd[0]");
@@ -188,6 +193,40 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
     return movieBox;
   }
 
+  /**
+   * Replaces the placeholder stts, stsc, stsz and stco boxes with ones serialized from the {@link SampleTable},
+   * keeping their order. stss goes last, only if the track has sync samples.
+   */
+  private static void setSampleTableBoxes(final @NonNull TrackBox tb, final @NonNull SampleTable sampleTable) {
+    final SampleTableBox stbl  = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]"));
+    final List<Box>      boxes = new ArrayList<>();
+    for (Box box : stbl.getBoxes()) {
+      switch (box.getType()) {
+        case "stts":
+          boxes.add(sampleTable.createStts());
+          break;
+        case "stsc":
+          boxes.add(sampleTable.createStsc());
+          break;
+        case "stsz":
+          boxes.add(sampleTable.createStsz());
+          break;
+        case "stco":
+        case "co64":
+          boxes.add(sampleTable.createChunkOffsetBox());
+          break;
+        case "stss":
+          break;
+        default:
+          boxes.add(box);
+      }
+    }
+    if (sampleTable.hasSyncSamples()) {
+      boxes.add(sampleTable.createStss());
+    }
+    stbl.setBoxes(boxes);
+  }
+
   private void sortTracks() {
     Collections.sort(source, (o1, o2) -> {
       // compare times and account for timestamps!
@@ -248,9 +287,7 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   }
 
   private void writeChunkContainer(ChunkContainer chunkContainer) throws IOException {
-    final TrackBox       tb   = trackBoxes.get(chunkContainer.streamingTrack);
-    final ChunkOffsetBox stco = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]/stco[0]"));
-    stco.setChunkOffsets(Mp4Arrays.copyOfAndAppend(stco.getChunkOffsets(), bytesWritten + 8));
+    Objects.requireNonNull(sampleTables.get(chunkContainer.streamingTrack)).addChunkOffset(bytesWritten + 8);
     write(sink, chunkContainer.mdat);
   }
 
@@ -303,76 +340,19 @@ final class Mp4Writer extends DefaultBoxes implements SampleSink {
   private ChunkContainer createChunkContainer(final @NonNull StreamingTrack streamingTrack) {
 
     final List<StreamingSample> samples     = Objects.requireNonNull(sampleBuffers.get(streamingTrack));
-    final long                  chunkNumber = Objects.requireNonNull(chunkNumbers.get(streamingTrack));
-    chunkNumbers.put(streamingTrack, chunkNumber + 1);
+    final SampleTable           sampleTable = Objects.requireNonNull(sampleTables.get(streamingTrack));
     final ChunkContainer cc = new ChunkContainer();
     cc.streamingTrack = streamingTrack;
     cc.mdat           = new Mdat(samples);
     cc.duration       = Objects.requireNonNull(nextSampleStartTime.get(streamingTrack)) - Objects.requireNonNull(nextChunkCreateStartTime.get(streamingTrack));
-    final TrackBox         tb   = trackBoxes.get(streamingTrack);
-    final SampleTableBox   stbl = Objects.requireNonNull(Path.getPath(tb, "mdia[0]/minf[0]/stbl[0]"));
-    final SampleToChunkBox stsc = Objects.requireNonNull(Path.getPath(stbl, "stsc[0]"));
-    if (stsc.getEntries().isEmpty()) {
-      final List<SampleToChunkBox.Entry> entries = new ArrayList<>();
-      stsc.setEntries(entries);
-      entries.add(new SampleToChunkBox.Entry(chunkNumber, samples.size(), 1));
-    } else {
-      final SampleToChunkBox.Entry e = stsc.getEntries().get(stsc.getEntries().size() - 1);
-      if (e.getSamplesPerChunk() != samples.size()) {
-        stsc.getEntries().add(new SampleToChunkBox.Entry(chunkNumber, samples.size(), 1));
-      }
-    }
-    long sampleNumber = Objects.requireNonNull(sampleNumbers.get(streamingTrack));
-
-    final SampleSizeBox     stsz = Objects.requireNonNull(Path.getPath(stbl, "stsz[0]"));
-    final TimeToSampleBox   stts = Objects.requireNonNull(Path.getPath(stbl, "stts[0]"));
-    SyncSampleBox           stss = Path.getPath(stbl, "stss[0]");
-    CompositionTimeToSample ctts = Path.getPath(stbl, "ctts[0]");
-    if (streamingTrack.getTrackExtension(CompositionTimeTrackExtension.class) != null) {
-      if (ctts == null) {
-        ctts = new CompositionTimeToSample();
-        ctts.setEntries(new ArrayList<>());
-
-        final ArrayList<Box> bs = new ArrayList<>(stbl.getBoxes());
-        bs.add(bs.indexOf(stts), ctts);
-      }
-    }
 
-    final long[] sampleSizes = new long[samples.size()];
-    int          i           = 0;
+    sampleTable.addChunk(samples.size());
     for (StreamingSample sample : samples) {
-      sampleSizes[i++] = sample.getContent().limit();
-
-      if (ctts != null) {
-        ctts.getEntries().add(new CompositionTimeToSample.Entry(1, l2i(sample.getSampleExtension(CompositionTimeSampleExtension.class).getCompositionTimeOffset())));
-      }
-
-      if (stts.getEntries().isEmpty()) {
-        final ArrayList<TimeToSampleBox.Entry> entries = new ArrayList<>(stts.getEntries());
-        entries.add(new TimeToSampleBox.Entry(1, sample.getDuration()));
-        stts.setEntries(entries);
-      } else {
-        final TimeToSampleBox.Entry sttsEntry = stts.getEntries().get(stts.getEntries().size() - 1);
-        if (sttsEntry.getDelta() == sample.getDuration()) {
-          sttsEntry.setCount(sttsEntry.getCount() + 1);
-        } else {
-          stts.getEntries().add(new TimeToSampleBox.Entry(1, sample.getDuration()));
-        }
-      }
       final SampleFlagsSampleExtension sampleFlagsSampleExtension = sample.getSampleExtension(SampleFlagsSampleExtension.class);
-      if (sampleFlagsSampleExtension != null && sampleFlagsSampleExtension.isSyncSample()) {
-        if (stss == null) {
-          stss = new SyncSampleBox();
-          stbl.addBox(stss);
-        }
-        stss.setSampleNumber(Mp4Arrays.copyOfAndAppend(stss.getSampleNumber(), sampleNumber));
-      }
-      sampleNumber++;
-
+      final boolean                    sync                       = sampleFlagsSampleExtension != null && sampleFlagsSampleExtension.isSyncSample();
+      sampleTable.addSample(sample.getContent().limit(), sample.getDuration(), sync);
     }
-    stsz.setSampleSizes(Mp4Arrays.copyOfAndAppend(stsz.getSampleSizes(), sampleSizes));
 
-    sampleNumbers.put(streamingTrack, sampleNumber);
     samples.clear();
     L.d(() -> TAG + "chunk container created for " + streamingTrack.getHandler() + ". mdat size: " + cc.mdat.size + ". chunk duration is " + (double) cc.duration / streamingTrack.getTimescale());
     return cc;
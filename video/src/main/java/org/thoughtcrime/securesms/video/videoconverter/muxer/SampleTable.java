@@ -0,0 +1,366 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.difft.android.base.log.lumberjack.L;
+
+import org.mp4parser.Box;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sample table of one track, kept in primitive arrays while the track is written.
+ * <p>
+ * Durations are run-length encoded as they arrive (stts), sample-to-chunk runs only store changes (stsc) and
+ * sample sizes are packed into an int per sample (stsz). Nothing is boxed per sample and the arrays grow
+ * geometrically, so appending is amortized O(1) instead of copying the whole table for every chunk.
+ * <p>
+ * Sample sizes are the only part that grows with every sample. Once {@link #maxSizesInMemory} sizes are held,
+ * they are spilled to an unlinked temp file in the exact stsz payload layout, so a recording of any length
+ * keeps a bounded table in memory. The boxes are serialized straight from these arrays when the moov is written.
+ */
+final class SampleTable {
+
+  private static final String TAG = "SampleTable";
+
+  static final int DEFAULT_MAX_SIZES_IN_MEMORY = 256 * 1024;
+
+  private static final long UINT32_MAX      = (1L << 32) - 1;
+  private static final int  INITIAL_SIZE    = 64;
+  private static final int  FULL_BOX_HEADER = 12;
+  private static final int  COPY_BUFFER     = 16 * 1024;
+
+  private final int maxSizesInMemory;
+
+  // stts: run lengths and their sample delta
+  private int[]  timeRunCounts = new int[INITIAL_SIZE];
+  private long[] timeRunDeltas = new long[INITIAL_SIZE];
+  private int    timeRuns;
+
+  // stsc: first chunk of each run and its samples per chunk
+  private long[] chunkRunFirstChunks   = new long[INITIAL_SIZE];
+  private int[]  chunkRunSamplesCounts = new int[INITIAL_SIZE];
+  private int    chunkRuns;
+  private long   chunksAdded;
+
+  // stco / co64
+  private long[] chunkOffsets = new long[INITIAL_SIZE];
+  private int    chunkCount;
+
+  // stss, 1-based sample numbers
+  private int[] syncSamples = new int[INITIAL_SIZE];
+  private int   syncSampleCount;
+
+  // stsz, sizes not yet spilled
+  private int[] sizes = new int[INITIAL_SIZE];
+  private int   sizesInMemory;
+  private int   sampleCount;
+
+  private @Nullable FileChannel spill;
+  private           long        spilledSamples;
+  private           boolean     spillFailed;
+
+  SampleTable() {
+    this(DEFAULT_MAX_SIZES_IN_MEMORY);
+  }
+
+  SampleTable(int maxSizesInMemory) {
+    this.maxSizesInMemory = Math.max(INITIAL_SIZE, maxSizesInMemory);
+  }
+
+  int getSampleCount() {
+    return sampleCount;
+  }
+
+  int getChunkCount() {
+    return chunkCount;
+  }
+
+  boolean hasSyncSamples() {
+    return syncSampleCount > 0;
+  }
+
+  /**
+   * Adds the next sample in decoding order.
+   */
+  void addSample(int size, long duration, boolean sync) {
+    sampleCount++;
+
+    if (timeRuns > 0 && timeRunDeltas[timeRuns - 1] == duration) {
+      timeRunCounts[timeRuns - 1]++;
+    } else {
+      if (timeRuns == timeRunCounts.length) {
+        timeRunCounts = Arrays.copyOf(timeRunCounts, timeRuns * 2);
+        timeRunDeltas = Arrays.copyOf(timeRunDeltas, timeRuns * 2);
+      }
+      timeRunCounts[timeRuns] = 1;
+      timeRunDeltas[timeRuns] = duration;
+      timeRuns++;
+    }
+
+    if (sync) {
+      if (syncSampleCount == syncSamples.length) {
+        syncSamples = Arrays.copyOf(syncSamples, syncSampleCount * 2);
+      }
+      syncSamples[syncSampleCount++] = sampleCount;
+    }
+
+    if (sizesInMemory == sizes.length) {
+      if (sizes.length >= maxSizesInMemory && !spillFailed && spillSizes()) {
+        sizesInMemory = 0;
+      } else {
+        sizes = Arrays.copyOf(sizes, sizes.length * 2);
+      }
+    }
+    sizes[sizesInMemory++] = size;
+  }
+
+  /**
+   * Adds a chunk made of the next {@code samples} samples, chunks are numbered from 1 in the order they are added.
+   */
+  void addChunk(int samples) {
+    chunksAdded++;
+    if (chunkRuns > 0 && chunkRunSamplesCounts[chunkRuns - 1] == samples) {
+      return;
+    }
+    if (chunkRuns == chunkRunFirstChunks.length) {
+      chunkRunFirstChunks   = Arrays.copyOf(chunkRunFirstChunks, chunkRuns * 2);
+      chunkRunSamplesCounts = Arrays.copyOf(chunkRunSamplesCounts, chunkRuns * 2);
+    }
+    chunkRunFirstChunks[chunkRuns]   = chunksAdded;
+    chunkRunSamplesCounts[chunkRuns] = samples;
+    chunkRuns++;
+  }
+
+  /**
+   * Records where the next chunk's data starts in the file, in the same order as {@link #addChunk(int)}.
+   */
+  void addChunkOffset(long offset) {
+    if (chunkCount == chunkOffsets.length) {
+      chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+    }
+    chunkOffsets[chunkCount++] = offset;
+  }
+
+  @NonNull Box createStts() {
+    return new TableBox("stts", 4 + 8L * timeRuns) {
+      @Override
+      void writeEntries(@NonNull EntryWriter out) throws IOException {
+        out.putUInt32(timeRuns);
+        for (int i = 0; i < timeRuns; i++) {
+          out.putUInt32(timeRunCounts[i]);
+          out.putUInt32(timeRunDeltas[i]);
+        }
+      }
+    };
+  }
+
+  @NonNull Box createStsc() {
+    return new TableBox("stsc", 4 + 12L * chunkRuns) {
+      @Override
+      void writeEntries(@NonNull EntryWriter out) throws IOException {
+        out.putUInt32(chunkRuns);
+        for (int i = 0; i < chunkRuns; i++) {
+          out.putUInt32(chunkRunFirstChunks[i]);
+          out.putUInt32(chunkRunSamplesCounts[i]);
+          out.putUInt32(1);
+        }
+      }
+    };
+  }
+
+  @NonNull Box createStsz() {
+    return new TableBox("stsz", 8 + 4L * sampleCount) {
+      @Override
+      void writeEntries(@NonNull EntryWriter out) throws IOException {
+        out.putUInt32(0);
+        out.putUInt32(sampleCount);
+        if (spill != null) {
+          out.transferFrom(spill, spilledSamples * 4);
+        }
+        for (int i = 0; i < sizesInMemory; i++) {
+          out.putUInt32(sizes[i]);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return stco, or co64 once an offset does not fit 32 bits
+   */
+  @NonNull Box createChunkOffsetBox() {
+    boolean large = chunkCount > 0 && chunkOffsets[chunkCount - 1] > UINT32_MAX;
+    return new TableBox(large ? "co64" : "stco", 4 + (large ? 8L : 4L) * chunkCount) {
+      @Override
+      void writeEntries(@NonNull EntryWriter out) throws IOException {
+        out.putUInt32(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+          if (large) {
+            out.putUInt64(chunkOffsets[i]);
+          } else {
+            out.putUInt32(chunkOffsets[i]);
+          }
+        }
+      }
+    };
+  }
+
+  @NonNull Box createStss() {
+    return new TableBox("stss", 4 + 4L * syncSampleCount) {
+      @Override
+      void writeEntries(@NonNull EntryWriter out) throws IOException {
+        out.putUInt32(syncSampleCount);
+        for (int i = 0; i < syncSampleCount; i++) {
+          out.putUInt32(syncSamples[i]);
+        }
+      }
+    };
+  }
+
+  /**
+   * Closes the spill file. The tables can not be written afterwards.
+   */
+  void release() {
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        L.w(e, () -> TAG + " failed to close spill file");
+      }
+      spill = null;
+    }
+  }
+
+  /**
+   * Appends the in-memory sizes to the spill file.
+   *
+   * @return false if spilling is not possible, the sizes then stay in memory from now on
+   */
+  private boolean spillSizes() {
+    try {
+      if (spill == null) {
+        File file = File.createTempFile("stsz", ".spill");
+        spill = new RandomAccessFile(file, "rw").getChannel();
+        if (!file.delete()) {
+          L.w(() -> TAG + " spill file not unlinked " + file);
+        }
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER);
+      IntBuffer  ints   = buffer.asIntBuffer();
+      for (int offset = 0; offset < sizesInMemory; offset += ints.capacity()) {
+        int count = Math.min(ints.capacity(), sizesInMemory - offset);
+        ints.clear();
+        ints.put(sizes, offset, count);
+        buffer.clear().limit(count * 4);
+        while (buffer.hasRemaining()) {
+          spill.write(buffer, spill.size());
+        }
+      }
+      spilledSamples += sizesInMemory;
+      L.d(() -> TAG + " spilled sample sizes, " + spilledSamples + " on disk");
+      return true;
+    } catch (IOException e) {
+      L.w(e, () -> TAG + " spilling sample sizes failed, keeping them in memory");
+      spillFailed = true;
+      if (spill != null) {
+        try {
+          spill.truncate(spilledSamples * 4);
+        } catch (IOException truncateError) {
+          L.w(truncateError, () -> TAG + " failed to truncate spill file");
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Full box, version and flags 0, whose payload is streamed from the table when written.
+   */
+  private abstract static class TableBox implements Box {
+    private final String type;
+    private final long   size;
+
+    TableBox(@NonNull String type, long payloadSize) {
+      this.type = type;
+      this.size = FULL_BOX_HEADER + payloadSize;
+    }
+
+    abstract void writeEntries(@NonNull EntryWriter out) throws IOException;
+
+    @Override
+    public String getType() {
+      return type;
+    }
+
+    @Override
+    public long getSize() {
+      return size;
+    }
+
+    @Override
+    public void getBox(WritableByteChannel writableByteChannel) throws IOException {
+      EntryWriter out = new EntryWriter(writableByteChannel);
+      out.putUInt32(size);
+      out.buffer.put(type.getBytes(StandardCharsets.ISO_8859_1));
+      out.putUInt32(0);
+      writeEntries(out);
+      out.flush();
+    }
+  }
+
+  private static final class EntryWriter {
+    private final WritableByteChannel channel;
+    private final ByteBuffer          buffer = ByteBuffer.allocate(COPY_BUFFER);
+
+    EntryWriter(@NonNull WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    void putUInt32(long value) throws IOException {
+      ensure(4);
+      buffer.putInt((int) value);
+    }
+
+    void putUInt64(long value) throws IOException {
+      ensure(8);
+      buffer.putLong(value);
+    }
+
+    void transferFrom(@NonNull FileChannel file, long length) throws IOException {
+      long position = 0;
+      while (position < length) {
+        flush();
+        buffer.limit((int) Math.min(buffer.capacity(), length - position));
+        int read = file.read(buffer, position);
+        if (read < 0) {
+          throw new IOException("Spill file truncated at " + position + " of " + length);
+        }
+        position += read;
+      }
+      buffer.limit(buffer.capacity());
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+  }
+}
@@ -77,6 +77,10 @@ public final class StreamingMuxer implements Muxer {
 
   @Override
   public void release() {
+    if (mp4Writer != null) {
+      mp4Writer.release();
+      mp4Writer = null;
+    }
   }
 
   @Override
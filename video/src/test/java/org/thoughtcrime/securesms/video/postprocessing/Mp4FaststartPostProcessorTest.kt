@@ -0,0 +1,204 @@
+package org.thoughtcrime.securesms.video.postprocessing
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.thoughtcrime.securesms.video.exceptions.VideoPostProcessingException
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.SeekableByteChannel
+import java.nio.file.StandardOpenOption
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class Mp4FaststartPostProcessorTest {
+
+  @get:Rule
+  val folder = TemporaryFolder()
+
+  private val chunks = listOf("chunk-one".toByteArray(), "chunk-two!".toByteArray(), "chunk-three".toByteArray())
+
+  @Test
+  fun `moves moov before mdat and patches stco`() {
+    val input = sampleFile(moovFirst = false, co64 = false)
+
+    val output = processStreams(input)
+
+    assertEquals(listOf("ftyp", "moov", "mdat"), topLevelTypes(output))
+    assertChunksAtOffsets(output, readOffsets(output, "stco"))
+    assertEquals(input.size, output.size)
+  }
+
+  @Test
+  fun `patches co64 offsets`() {
+    val output = processStreams(sampleFile(moovFirst = false, co64 = true))
+
+    assertEquals(listOf("ftyp", "moov", "mdat"), topLevelTypes(output))
+    assertChunksAtOffsets(output, readOffsets(output, "co64"))
+  }
+
+  @Test
+  fun `already faststart input is unchanged`() {
+    val input = sampleFile(moovFirst = true, co64 = false)
+
+    assertContentEquals(input, processStreams(input))
+  }
+
+  @Test
+  fun `drops boxes outside of the media data`() {
+    val input = sampleFile(moovFirst = false, co64 = false, trailing = box("free", ByteArray(100)))
+
+    val output = processStreams(input)
+
+    assertEquals(listOf("ftyp", "moov", "mdat"), topLevelTypes(output))
+    assertChunksAtOffsets(output, readOffsets(output, "stco"))
+  }
+
+  @Test
+  fun `stream input is opened twice`() {
+    val input = sampleFile(moovFirst = false, co64 = false)
+    var opened = 0
+
+    Mp4FaststartPostProcessor({ opened++; ByteArrayInputStream(input) }, validator = null).processAndWriteTo(ByteArrayOutputStream())
+
+    assertEquals(2, opened)
+  }
+
+  @Test
+  fun `seekable input only reads the media data once`() {
+    val mdatPayload = ByteArray(4 * 1024 * 1024) { (it % 251).toByte() }
+    val input = sampleFile(moovFirst = false, co64 = false, mdatPayload = mdatPayload)
+    val file = folder.newFile("input.mp4").apply { writeBytes(input) }
+    var streamOpened = 0
+    var bytesRead = 0L
+
+    val output = ByteArrayOutputStream()
+    Mp4FaststartPostProcessor(
+      { streamOpened++; file.inputStream() },
+      { CountingChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ)) { bytesRead += it } },
+      validator = null
+    ).processAndWriteTo(output)
+
+    assertEquals(0, streamOpened)
+    assertTrue(bytesRead < input.size + 1024, "read $bytesRead for ${input.size} bytes of input")
+    assertChunksAtOffsets(output.toByteArray(), readOffsets(output.toByteArray(), "stco"))
+  }
+
+  @Test
+  fun `validator reads the channel from the start and can reject the layout`() {
+    val input = sampleFile(moovFirst = false, co64 = false)
+    val file = folder.newFile("validated.mp4").apply { writeBytes(input) }
+    val channel = Mp4FaststartPostProcessor.ChannelFactory { FileChannel.open(file.toPath(), StandardOpenOption.READ) }
+    var validatedHeader: String? = null
+
+    val output = ByteArrayOutputStream()
+    Mp4FaststartPostProcessor({ file.inputStream() }, channel) { inputStream, inputLength, _ ->
+      validatedHeader = String(inputStream.readNBytes(8), Charsets.ISO_8859_1).substring(4)
+      assertEquals(input.size.toLong(), inputLength)
+    }.processAndWriteTo(output)
+
+    assertEquals("ftyp", validatedHeader)
+    assertEquals(listOf("ftyp", "moov", "mdat"), topLevelTypes(output.toByteArray()))
+    assertFailsWith<VideoPostProcessingException> {
+      Mp4FaststartPostProcessor({ file.inputStream() }, channel) { _, _, _ ->
+        throw VideoPostProcessingException("rejected")
+      }.processAndWriteTo(ByteArrayOutputStream())
+    }
+  }
+
+  @Test
+  fun `fragmented input keeps its fragments in order`() {
+    val moof1 = box("moof", box("mfhd", ByteArray(8)))
+    val mdat1 = box("mdat", "fragment-one".toByteArray())
+    val moof2 = box("moof", box("mfhd", ByteArray(8)))
+    val mdat2 = box("mdat", "fragment-two".toByteArray())
+    val moov = box("moov", box("mvex", box("trex", ByteArray(24))))
+    val input = box("ftyp", "isom".toByteArray() + ByteArray(4)) + moof1 + mdat1 + moof2 + mdat2 + moov
+
+    val output = processStreams(input)
+
+    assertEquals(listOf("ftyp", "moov", "moof", "mdat", "moof", "mdat"), topLevelTypes(output))
+    assertEquals(input.size, output.size)
+  }
+
+  @Test
+  fun `missing moov fails`() {
+    val input = box("ftyp", ByteArray(8)) + box("mdat", ByteArray(16))
+
+    assertFailsWith<VideoPostProcessingException> { processStreams(input) }
+  }
+
+  private fun processStreams(input: ByteArray): ByteArray {
+    val output = ByteArrayOutputStream()
+    Mp4FaststartPostProcessor({ ByteArrayInputStream(input) }, validator = null).processAndWriteTo(output)
+    return output.toByteArray()
+  }
+
+  /**
+   * ftyp, optionally moov, mdat holding [chunks] (after [mdatPayload]), moov when not first, [trailing]
+   */
+  private fun sampleFile(moovFirst: Boolean, co64: Boolean, trailing: ByteArray = ByteArray(0), mdatPayload: ByteArray = ByteArray(0)): ByteArray {
+    val ftyp = box("ftyp", "isom".toByteArray() + ByteArray(4) + "isommp41".toByteArray())
+    val moovSize = moov(co64, List(chunks.size) { 0L }).size
+    val mdatStart = ftyp.size + (if (moovFirst) moovSize else 0)
+    val mdatBody = mdatPayload + chunks.reduce { a, b -> a + b }
+
+    val offsets = mutableListOf<Long>()
+    var offset = mdatStart + 8L + mdatPayload.size
+    chunks.forEach {
+      offsets.add(offset)
+      offset += it.size
+    }
+    val moov = moov(co64, offsets)
+    val mdat = box("mdat", mdatBody)
+    return if (moovFirst) ftyp + moov + mdat + trailing else ftyp + mdat + trailing + moov
+  }
+
+  private fun moov(co64: Boolean, offsets: List<Long>): ByteArray {
+    val table = ByteBuffer.allocate(8 + offsets.size * (if (co64) 8 else 4)).apply {
+      putInt(0)
+      putInt(offsets.size)
+      offsets.forEach { if (co64) putLong(it) else putInt(it.toInt()) }
+    }.array()
+    val stbl = box("stbl", box("stsd", ByteArray(8)) + box(if (co64) "co64" else "stco", table))
+    val trak = box("trak", box("tkhd", ByteArray(84)) + box("mdia", box("minf", stbl)))
+    return box("moov", box("mvhd", ByteArray(100)) + trak + box("udta", ByteArray(12)))
+  }
+
+  private fun box(type: String, payload: ByteArray): ByteArray {
+    return ByteBuffer.allocate(8 + payload.size).putInt(8 + payload.size).put(type.toByteArray()).put(payload).array()
+  }
+
+  private fun topLevelTypes(file: ByteArray): List<String> {
+    val types = mutableListOf<String>()
+    var position = 0
+    while (position < file.size) {
+      val size = ByteBuffer.wrap(file, position, 4).int
+      types.add(String(file, position + 4, 4))
+      position += size
+    }
+    return types
+  }
+
+  private fun readOffsets(file: ByteArray, type: String): List<Long> {
+    val index = String(file, Charsets.ISO_8859_1).indexOf(type)
+    val buffer = ByteBuffer.wrap(file)
+    val count = buffer.getInt(index + 8)
+    return List(count) { if (type == "co64") buffer.getLong(index + 12 + it * 8) else buffer.getInt(index + 12 + it * 4).toLong() }
+  }
+
+  private fun assertChunksAtOffsets(file: ByteArray, offsets: List<Long>) {
+    chunks.forEachIndexed { i, chunk ->
+      val start = offsets[i].toInt()
+      assertContentEquals(chunk, file.copyOfRange(start, start + chunk.size), "chunk $i at ${offsets[i]}")
+    }
+  }
+
+  private class CountingChannel(private val channel: SeekableByteChannel, private val onRead: (Int) -> Unit) : SeekableByteChannel by channel {
+    override fun read(dst: ByteBuffer): Int = channel.read(dst).also { if (it > 0) onRead(it) }
+  }
+}
@@ -0,0 +1,172 @@
+package org.thoughtcrime.securesms.video.videoconverter.muxer
+
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import org.mp4parser.Box
+import org.mp4parser.boxes.iso14496.part12.SampleDescriptionBox
+import org.mp4parser.boxes.iso14496.part12.SampleSizeBox
+import org.mp4parser.boxes.iso14496.part12.StaticChunkOffsetBox
+import org.mp4parser.boxes.iso14496.part12.SyncSampleBox
+import org.mp4parser.boxes.iso14496.part12.TimeToSampleBox
+import org.mp4parser.streaming.extensions.SampleFlagsSampleExtension
+import org.mp4parser.streaming.input.AbstractStreamingTrack
+import org.mp4parser.streaming.input.StreamingSampleImpl
+import org.mp4parser.tools.Mp4Arrays
+import java.io.ByteArrayOutputStream
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Runs on the desktop JVM. A one hour recording is checked against the mp4parser boxes the writer used to grow
+ * for every chunk, for the bytes written and for the memory allocated while the table is built.
+ */
+class Mp4WriterTest {
+
+  @Test
+  fun `every sample is found at its table position`() {
+    val track = TestTrack()
+    val output = ByteArrayOutputStream()
+    val writer = Mp4Writer(listOf(track), Channels.newChannel(output))
+    val sampleCount = 5_000
+    repeat(sampleCount) { track.emit(it, duration = if (it % 700 == 0) 512 else 1024, sync = it % 30 == 0) }
+    writer.close()
+
+    val file = output.toByteArray()
+    val sizes = readTable(file, "stsz", skip = 4, entrySize = 4).map { it[0] }
+    val chunkOffsets = readTable(file, "stco", entrySize = 4).map { it[0] }
+    val chunkRuns = readTable(file, "stsc", entrySize = 12)
+    val timeRuns = readTable(file, "stts", entrySize = 8)
+    val syncSamples = readTable(file, "stss", entrySize = 4).map { it[0] }
+
+    assertEquals(List(sampleCount) { sampleSize(it).toLong() }, sizes)
+    assertEquals(sampleCount.toLong(), timeRuns.sumOf { it[0] })
+    assertEquals(List(sampleCount / 30 + 1) { it * 30L + 1 }, syncSamples)
+
+    var sample = 0
+    chunkOffsets.forEachIndexed { chunkIndex, chunkOffset ->
+      val samplesInChunk = chunkRuns.last { it[0] <= chunkIndex + 1 }[1].toInt()
+      var offset = chunkOffset.toInt()
+      repeat(samplesInChunk) {
+        assertEquals((sample % 100).toByte(), file[offset], "sample $sample")
+        offset += sizes[sample].toInt()
+        sample++
+      }
+    }
+    assertEquals(sampleCount, sample)
+  }
+
+  @Test
+  fun `spilled sample sizes are written like in-memory ones`() {
+    val inMemory = SampleTable(Int.MAX_VALUE)
+    val spilled = SampleTable(64)
+    repeat(10_000) {
+      inMemory.addSample(sampleSize(it), 1024, false)
+      spilled.addSample(sampleSize(it), 1024, false)
+    }
+
+    assertContentEquals(serialize(inMemory.createStsz()), serialize(spilled.createStsz()))
+    spilled.release()
+  }
+
+  @Test
+  fun `one hour recording table matches the boxes grown per chunk`() {
+    val threads = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported)
+    threads!!.isThreadAllocatedMemoryEnabled = true
+    val samples = 30 * 60 * 60
+    val samplesPerChunk = 60
+
+    var allocated = threads.currentThreadAllocatedBytes
+    val legacy = run {
+      val stsz = SampleSizeBox()
+      val stts = TimeToSampleBox().apply { entries = ArrayList() }
+      val stss = SyncSampleBox()
+      val stco = StaticChunkOffsetBox()
+      for (chunk in 0 until samples / samplesPerChunk) {
+        val sizes = LongArray(samplesPerChunk)
+        for (i in 0 until samplesPerChunk) {
+          val sample = chunk * samplesPerChunk + i
+          sizes[i] = sampleSize(sample).toLong()
+          val last = stts.entries.lastOrNull()
+          if (last != null && last.delta == 33L) last.count++ else stts.entries.add(TimeToSampleBox.Entry(1, 33))
+          if (sample % 30 == 0) stss.sampleNumber = Mp4Arrays.copyOfAndAppend(stss.sampleNumber, sample + 1L)
+        }
+        stsz.sampleSizes = Mp4Arrays.copyOfAndAppend(stsz.sampleSizes, *sizes)
+        stco.chunkOffsets = Mp4Arrays.copyOfAndAppend(stco.chunkOffsets, chunk * 100_000L)
+      }
+      listOf(stsz, stts, stss, stco)
+    }
+    val legacyBytes = threads.currentThreadAllocatedBytes - allocated
+
+    val table = SampleTable()
+    allocated = threads.currentThreadAllocatedBytes
+    for (chunk in 0 until samples / samplesPerChunk) {
+      table.addChunk(samplesPerChunk)
+      for (i in 0 until samplesPerChunk) {
+        val sample = chunk * samplesPerChunk + i
+        table.addSample(sampleSize(sample), 33, sample % 30 == 0)
+      }
+      table.addChunkOffset(chunk * 100_000L)
+    }
+    val compactBytes = threads.currentThreadAllocatedBytes - allocated
+    val compact = listOf(table.createStsz(), table.createStts(), table.createStss(), table.createChunkOffsetBox())
+
+    legacy.zip(compact).forEach { (expected, actual) ->
+      assertContentEquals(serialize(expected), serialize(actual), expected.type)
+    }
+    table.release()
+
+    // Growing the arrays geometrically allocates a few bytes per sample, the boxes copy every table per chunk
+    assertTrue(compactBytes < samples * 16L, "SampleTable allocated $compactBytes bytes for $samples samples")
+    assertTrue(compactBytes * 100 < legacyBytes, "SampleTable allocated $compactBytes bytes, the boxes $legacyBytes")
+  }
+
+  private fun serialize(box: Box): ByteArray {
+    val output = ByteArrayOutputStream()
+    box.getBox(Channels.newChannel(output))
+    assertEquals(box.size, output.size().toLong(), box.type)
+    return output.toByteArray()
+  }
+
+  /**
+   * @return entries of the full box [type], each as UInt32 fields
+   */
+  private fun readTable(file: ByteArray, type: String, skip: Int = 0, entrySize: Int): List<List<Long>> {
+    val index = String(file, Charsets.ISO_8859_1).indexOf(type)
+    val buffer = ByteBuffer.wrap(file)
+    val count = buffer.getInt(index + 8 + skip)
+    val start = index + 12 + skip
+    return List(count) { entry ->
+      List(entrySize / 4) { field -> buffer.getInt(start + entry * entrySize + field * 4).toLong() and 0xffffffffL }
+    }
+  }
+
+  /**
+   * Sample bytes stay below 100 so box types are never found in the media data.
+   */
+  private class TestTrack : AbstractStreamingTrack() {
+    fun emit(sample: Int, duration: Long, sync: Boolean) {
+      val content = ByteBuffer.wrap(ByteArray(sampleSize(sample)) { (sample % 100).toByte() })
+      val streamingSample = StreamingSampleImpl(content, duration)
+      streamingSample.addSampleExtension(SampleFlagsSampleExtension().apply { setSampleIsNonSyncSample(!sync) })
+      sampleSink.acceptSample(streamingSample, this)
+    }
+
+    override fun getTimescale(): Long = 44_100
+
+    override fun getHandler(): String = "soun"
+
+    override fun getLanguage(): String = "eng"
+
+    override fun getSampleDescriptionBox(): SampleDescriptionBox = SampleDescriptionBox()
+
+    override fun close() {
+    }
+  }
+}
+
+private fun sampleSize(sample: Int) = 200 + sample % 37